@@ -0,0 +1,55 @@
+package com.cristianrgreco.ytdl.benchmarks;
+
+import com.cristianrgreco.ytdl.BinaryConfiguration;
+import com.cristianrgreco.ytdl.DownloadException;
+import com.cristianrgreco.ytdl.YouTubeDownloaderAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdapterEndToEndBenchmark {
+    // 0 replays the corpus as fast as the pipe allows
+    @Param({"0", "2000", "20000"})
+    public int linesPerSecond;
+
+    private BinaryConfiguration binaryConfiguration;
+    private File destinationDirectory;
+    private URL targetUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.binaryConfiguration = StubBinaries.replaying(Corpora.extract(Corpora.DOWNLOAD_STDOUT), this.linesPerSecond);
+        this.destinationDirectory = Files.createTempDirectory("ytdl-benchmark").toFile();
+        this.destinationDirectory.deleteOnExit();
+        this.targetUrl = new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0");
+    }
+
+    @Benchmark
+    public void downloadVideo(Blackhole blackhole) throws DownloadException {
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                this.targetUrl, this.destinationDirectory, this.binaryConfiguration);
+        adapter.downloadVideo(Optional.of(blackhole::consume), Optional.of(blackhole::consume));
+    }
+}
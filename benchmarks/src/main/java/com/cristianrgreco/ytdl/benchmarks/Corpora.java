@@ -0,0 +1,47 @@
+package com.cristianrgreco.ytdl.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+final class Corpora {
+    static final String DOWNLOAD_STDOUT = "/corpora/download-stdout.log";
+    static final String STDERR = "/corpora/stderr.log";
+
+    private Corpora() {
+    }
+
+    static List<String> lines(String corpus) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(corpus), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static File extract(String corpus) {
+        try (InputStream input = open(corpus)) {
+            File file = File.createTempFile("corpus", ".log");
+            file.deleteOnExit();
+            Files.copy(input, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static InputStream open(String corpus) {
+        InputStream input = Corpora.class.getResourceAsStream(corpus);
+        if (input == null) {
+            throw new IllegalArgumentException("Corpus not found: " + corpus);
+        }
+        return input;
+    }
+}
@@ -0,0 +1,95 @@
+package com.cristianrgreco.ytdl.benchmarks;
+
+import com.cristianrgreco.ytdl.DownloadProgress;
+import com.cristianrgreco.ytdl.DownloadProgressScanner;
+import com.cristianrgreco.ytdl.Message;
+import com.cristianrgreco.ytdl.MutableDownloadProgress;
+import com.cristianrgreco.ytdl.OutputLineClassifier;
+import com.cristianrgreco.ytdl.OutputLineHandler;
+import com.cristianrgreco.ytdl.OutputTag;
+import com.cristianrgreco.ytdl.State;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class OutputParsingBenchmark {
+    private String[] stdoutLines;
+    private String[] progressLines;
+    private String[] stderrLines;
+    private MutableDownloadProgress scannedProgress;
+    private OutputLineClassifier classifier;
+
+    @Setup
+    public void setUp() {
+        List<String> stdout = Corpora.lines(Corpora.DOWNLOAD_STDOUT);
+        this.stdoutLines = stdout.toArray(new String[0]);
+        this.progressLines = stdout.stream().filter(DownloadProgress::isValidProgressMessage).toArray(String[]::new);
+        this.stderrLines = Corpora.lines(Corpora.STDERR).toArray(new String[0]);
+        this.scannedProgress = new MutableDownloadProgress();
+        this.classifier = new OutputLineClassifier();
+    }
+
+    @Benchmark
+    public void stateParse(Blackhole blackhole) {
+        for (String line : this.stdoutLines) {
+            if (State.isValidStateMessage(line)) {
+                blackhole.consume(State.parse(line));
+            }
+        }
+    }
+
+    @Benchmark
+    public void downloadProgressParse(Blackhole blackhole) {
+        for (String line : this.progressLines) {
+            blackhole.consume(DownloadProgress.parse(line));
+        }
+    }
+
+    @Benchmark
+    public void downloadProgressScan(Blackhole blackhole) {
+        for (String line : this.progressLines) {
+            blackhole.consume(DownloadProgressScanner.scan(line, this.scannedProgress));
+        }
+    }
+
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        OutputLineHandler handler = new OutputLineHandler() {
+            @Override
+            public void onTaggedLine(OutputTag tag, CharSequence line) {
+                blackhole.consume(tag.getState());
+            }
+
+            @Override
+            public void onProgress(CharSequence line, MutableDownloadProgress progress) {
+                blackhole.consume(progress.getPercent());
+            }
+        };
+        for (String line : this.stdoutLines) {
+            this.classifier.classify(line, handler);
+        }
+    }
+
+    @Benchmark
+    public void messageFrom(Blackhole blackhole) {
+        for (String line : this.stderrLines) {
+            blackhole.consume(Message.from(line));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.cristianrgreco.ytdl.benchmarks;
+
+import com.cristianrgreco.ytdl.DownloadMode;
+import com.cristianrgreco.ytdl.DownloadOptions;
+import com.cristianrgreco.ytdl.DownloadRequest;
+import com.cristianrgreco.ytdl.DownloadResult;
+import com.cristianrgreco.ytdl.MutableDownloadProgress;
+import com.cristianrgreco.ytdl.OutputLineClassifier;
+import com.cristianrgreco.ytdl.OutputLineHandler;
+import com.cristianrgreco.ytdl.OutputTag;
+import com.cristianrgreco.ytdl.ProcessReactor;
+import com.cristianrgreco.ytdl.YouTubeDownloader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Supervises many simulated youtube-dl children at once and reports the peak thread count and heap use alongside
+// the time taken, both for bare processes and for whole downloads started through YouTubeDownloader.downloadAsync.
+// The JVM's own process reaper threads, one per live child on Java 8, are counted in both modes
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessReactorBenchmark {
+    // Two seconds of progress on stdout with the odd warning on stderr, like a youtube-dl download
+    private static final String CHILD_SCRIPT =
+            "i=0; while [ $i -lt 40 ]; do " +
+            "echo \"[download]  $i.0% of 9.22MiB at  5.68MiB/s ETA 00:01\"; " +
+            "if [ $((i % 10)) -eq 0 ]; then echo \"WARNING: slow connection\" >&2; fi; " +
+            "sleep 0.05; i=$((i + 1)); done";
+
+    @Param({"1000"})
+    public int children;
+
+    @Param({"reactor", "thread-per-pipe"})
+    public String supervision;
+
+    @Param({"2"})
+    public int eventLoops;
+
+    private ProcessReactor reactor;
+    private YouTubeDownloader downloader;
+    private DownloadRequest request;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.reactor = new ProcessReactor(this.eventLoops);
+        this.downloader = new YouTubeDownloader(StubBinaries.running(CHILD_SCRIPT));
+        File destinationDirectory = Files.createTempDirectory("ytdl-benchmark").toFile();
+        destinationDirectory.deleteOnExit();
+        DownloadOptions options = this.supervision.equals("reactor")
+                ? new DownloadOptions().withProcessReactor(this.reactor)
+                : new DownloadOptions();
+        this.request = new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                destinationDirectory, DownloadMode.VIDEO, options);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.reactor.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long peakThreads;
+        public long peakHeapBytes;
+
+        @Setup(Level.Invocation)
+        public void reset() {
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+        }
+
+        private void record() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            this.peakThreads = threads.getPeakThreadCount();
+            this.peakHeapBytes = heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        }
+
+        private static List<MemoryPoolMXBean> heapPools() {
+            List<MemoryPoolMXBean> pools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pools.add(pool);
+                }
+            }
+            return pools;
+        }
+    }
+
+    @Benchmark
+    public void superviseChildren(Footprint footprint, Blackhole blackhole) throws Exception {
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (int i = 0; i < this.children; i++) {
+            Process process = new ProcessBuilder("sh", "-c", CHILD_SCRIPT).start();
+            reads.add(this.read(process, process.getInputStream(), blackhole));
+            reads.add(this.read(process, process.getErrorStream(), blackhole));
+        }
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).get();
+        footprint.record();
+    }
+
+    // Without a reactor each running download also holds a supervisor thread; the rest wait in the supervisor's queue
+    @Benchmark
+    public void superviseDownloads(Footprint footprint, Blackhole blackhole) throws Exception {
+        List<CompletableFuture<DownloadResult>> downloads = new ArrayList<>();
+        for (int i = 0; i < this.children; i++) {
+            downloads.add(this.downloader.downloadAsync(
+                    this.request, Optional.of(blackhole::consume), Optional.of(blackhole::consume), Runnable::run));
+        }
+        CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).get();
+        footprint.record();
+    }
+
+    private CompletableFuture<Void> read(Process process, InputStream stream, Blackhole blackhole) {
+        OutputLineClassifier classifier = new OutputLineClassifier();
+        OutputLineHandler handler = new ConsumingHandler(blackhole);
+        if (this.supervision.equals("reactor")) {
+            return this.reactor.register(process, stream, line -> classifier.classify(line, handler));
+        }
+        CompletableFuture<Void> read = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try (BufferedReader input = new BufferedReader(new InputStreamReader(stream))) {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    classifier.classify(line, handler);
+                }
+                read.complete(null);
+            } catch (IOException e) {
+                read.completeExceptionally(new UncheckedIOException(e));
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return read;
+    }
+
+    private static class ConsumingHandler implements OutputLineHandler {
+        private final Blackhole blackhole;
+
+        private ConsumingHandler(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onTaggedLine(OutputTag tag, CharSequence line) {
+            this.blackhole.consume(tag.getState());
+        }
+
+        @Override
+        public void onProgress(CharSequence line, MutableDownloadProgress progress) {
+            this.blackhole.consume(progress.getPercent());
+        }
+
+        @Override
+        public void onMessage(CharSequence line) {
+            this.blackhole.consume(line.length());
+        }
+    }
+}
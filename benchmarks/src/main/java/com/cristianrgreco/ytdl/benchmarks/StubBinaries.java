@@ -0,0 +1,49 @@
+package com.cristianrgreco.ytdl.benchmarks;
+
+import com.cristianrgreco.ytdl.BinaryConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+final class StubBinaries {
+    private static final String VERSION_CHECK =
+            "case \"$1\" in --version|-version) echo \"stub version 1.0\"; exit 0;; esac\n";
+
+    private StubBinaries() {
+    }
+
+    // Replays the corpus on stdout, optionally paced in chunks of a tenth of a second
+    static BinaryConfiguration replaying(File corpus, int linesPerSecond) {
+        String replay = linesPerSecond <= 0
+                ? "cat '" + corpus.getAbsolutePath() + "'\n"
+                : "awk -v chunk=" + Math.max(1, linesPerSecond / 10) + " " +
+                "'{ print; if (NR % chunk == 0) { fflush(); system(\"sleep 0.1\") } }' '" + corpus.getAbsolutePath() + "'\n";
+        return new BinaryConfiguration(
+                createScript("youtube-dl", replay),
+                createScript("ffmpeg", "exit 0\n"),
+                createScript("ffprobe", "exit 0\n"));
+    }
+
+    static BinaryConfiguration running(String youTubeDlScript) {
+        return new BinaryConfiguration(
+                createScript("youtube-dl", youTubeDlScript + "\n"),
+                createScript("ffmpeg", "exit 0\n"),
+                createScript("ffprobe", "exit 0\n"));
+    }
+
+    private static File createScript(String name, String script) {
+        try {
+            File file = File.createTempFile(name, ".sh");
+            file.deleteOnExit();
+            Files.write(file.toPath(), ("#!/bin/sh\n" + VERSION_CHECK + script).getBytes(StandardCharsets.UTF_8));
+            if (!file.setExecutable(true)) {
+                throw new IllegalStateException("Unable to make stub executable: " + file);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
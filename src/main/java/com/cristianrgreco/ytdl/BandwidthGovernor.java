@@ -0,0 +1,193 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Splits a global bytes/sec budget between running jobs and limits how quickly jobs are started against one host.
+ * Shares are max-min fair over what jobs are observed to use: a job running below its limit (held back by something
+ * other than us) is given what it uses, and the rest of the budget is divided evenly between the others. Shares are
+ * re-weighted whenever a job starts or finishes, and at most every REBALANCE_INTERVAL as progress is observed.
+ * youtube-dl cannot change --limit-rate while running, so a job whose share moves by more than RESTART_THRESHOLD is
+ * told to restart with the new one, resuming from its part file. A shrinking share is applied at once, so the limits in
+ * force never exceed the budget by more than that threshold; a growing one waits until the job has kept its last limit
+ * for a while, so that jobs are not restarted back and forth. Every job gets at least MINIMUM_RATE, and only a job that
+ * would push the running jobs below that waits to start.
+ */
+public class BandwidthGovernor {
+    static final long MINIMUM_RATE = 16 * 1024;
+    // A job using less than this fraction of its limit is taken to be constrained elsewhere
+    private static final double SATURATION_THRESHOLD = 0.9;
+    private static final double RESTART_THRESHOLD = 0.25;
+    private static final long REBALANCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long DEFAULT_GROWTH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long globalBytesPerSecond;
+    private final double maxStartsPerSecondPerHost;
+    private final long growthIntervalNanos;
+    private final List<BandwidthLease> activeLeases = new ArrayList<>();
+    private final Map<String, StartBucket> startBuckets = new ConcurrentHashMap<>();
+    private long lastRebalance = System.nanoTime();
+
+    public BandwidthGovernor(long globalBytesPerSecond, double maxStartsPerSecondPerHost) {
+        this(globalBytesPerSecond, maxStartsPerSecondPerHost, DEFAULT_GROWTH_INTERVAL_NANOS);
+    }
+
+    BandwidthGovernor(long globalBytesPerSecond, double maxStartsPerSecondPerHost, long growthIntervalNanos) {
+        if (globalBytesPerSecond < MINIMUM_RATE || maxStartsPerSecondPerHost <= 0) {
+            throw new IllegalArgumentException("Bandwidth must be at least " + MINIMUM_RATE +
+                    " bytes/sec and the start rate positive");
+        }
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        this.maxStartsPerSecondPerHost = maxStartsPerSecondPerHost;
+        this.growthIntervalNanos = growthIntervalNanos;
+    }
+
+    public BandwidthLease acquire(URL targetUrl) throws InterruptedException {
+        String host = targetUrl.getHost().toLowerCase(Locale.ROOT);
+        this.startBuckets.computeIfAbsent(host, ignored -> new StartBucket(this.maxStartsPerSecondPerHost)).take();
+        BandwidthLease lease = new BandwidthLease(this);
+        List<BandwidthLease> reweighted;
+        synchronized (this) {
+            while ((this.activeLeases.size() + 1) * MINIMUM_RATE > this.globalBytesPerSecond) {
+                this.wait();
+            }
+            this.activeLeases.add(lease);
+            reweighted = this.rebalance();
+        }
+        reweighted.forEach(BandwidthLease::limitChanged);
+        return lease;
+    }
+
+    public synchronized int getActiveJobs() {
+        return this.activeLeases.size();
+    }
+
+    void release(BandwidthLease lease) {
+        List<BandwidthLease> reweighted;
+        synchronized (this) {
+            if (!this.activeLeases.remove(lease)) {
+                return;
+            }
+            this.notifyAll();
+            reweighted = this.rebalance();
+        }
+        reweighted.forEach(BandwidthLease::limitChanged);
+    }
+
+    void observed() {
+        List<BandwidthLease> reweighted;
+        synchronized (this) {
+            if (System.nanoTime() - this.lastRebalance < REBALANCE_INTERVAL_NANOS) {
+                return;
+            }
+            reweighted = this.rebalance();
+        }
+        reweighted.forEach(BandwidthLease::limitChanged);
+    }
+
+    // Returns the running leases whose limit changed; they are told outside the monitor
+    private List<BandwidthLease> rebalance() {
+        long now = System.nanoTime();
+        this.lastRebalance = now;
+        List<Long> shares = this.fairShares(now);
+        List<BandwidthLease> reweighted = new ArrayList<>();
+        for (int i = 0; i < this.activeLeases.size(); i++) {
+            BandwidthLease lease = this.activeLeases.get(i);
+            long share = shares.get(i);
+            long current = lease.getLimitRate();
+            if (current == 0) {
+                lease.limit(share, now);
+            } else if (Math.abs(share - current) > current * RESTART_THRESHOLD
+                    && (share < current || now - lease.getLimitedAt() >= this.growthIntervalNanos)) {
+                lease.limit(share, now);
+                reweighted.add(lease);
+            }
+        }
+        return reweighted;
+    }
+
+    // Max-min fair allocation: jobs with a known lower demand are satisfied first and the remainder is shared equally.
+    // Demand comes from observed speed, so budget a constrained job leaves unused goes to the others
+    private List<Long> fairShares(long now) {
+        Map<BandwidthLease, Double> demands = new IdentityHashMap<>();
+        List<BandwidthLease> constrained = new ArrayList<>();
+        for (BandwidthLease lease : this.activeLeases) {
+            double demand = this.demand(lease, now);
+            if (demand >= 0) {
+                demands.put(lease, demand);
+                constrained.add(lease);
+            }
+        }
+        constrained.sort(Comparator.comparingDouble(demands::get));
+        int unconstrained = this.activeLeases.size() - constrained.size();
+
+        double remaining = this.globalBytesPerSecond;
+        int sharing = this.activeLeases.size();
+        Map<BandwidthLease, Long> allocations = new IdentityHashMap<>();
+        for (BandwidthLease lease : constrained) {
+            double allocation = Math.min(demands.get(lease), remaining / sharing);
+            allocations.put(lease, (long) allocation);
+            remaining -= allocation;
+            sharing--;
+        }
+        // With every job held back, what is left is spread over them rather than left idle
+        long rest = (long) (remaining / Math.max(1, unconstrained > 0 ? unconstrained : constrained.size()));
+        List<Long> shares = new ArrayList<>();
+        for (BandwidthLease lease : this.activeLeases) {
+            Long allocation = allocations.get(lease);
+            shares.add(allocation == null ? rest : unconstrained > 0 ? allocation : allocation + rest);
+        }
+        return shares;
+    }
+
+    // A job used less than its limit needs what it uses; one that may not grow yet can use no more than its limit.
+    // Anything else is unconstrained, which is -1
+    private double demand(BandwidthLease lease, long now) {
+        long limitRate = lease.getLimitRate();
+        double observed = lease.getObservedBytesPerSecond();
+        if (limitRate == 0) {
+            return -1;
+        } else if (observed >= 0 && observed < limitRate * SATURATION_THRESHOLD) {
+            return Math.max(MINIMUM_RATE, observed);
+        } else if (now - lease.getLimitedAt() < this.growthIntervalNanos) {
+            return limitRate;
+        }
+        return -1;
+    }
+
+    private static class StartBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private StartBucket(double startsPerSecond) {
+            this.ratePerNano = startsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, startsPerSecond);
+            this.tokens = this.capacity;
+        }
+
+        private void take() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.ratePerNano);
+                this.lastRefill = now;
+                // The token is taken now, possibly going negative, so that waiting callers queue up in order
+                this.tokens -= 1;
+                waitNanos = this.tokens >= 0 ? 0 : (long) (-this.tokens / this.ratePerNano);
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
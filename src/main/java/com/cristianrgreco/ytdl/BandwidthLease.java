@@ -0,0 +1,64 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Optional;
+
+public class BandwidthLease implements AutoCloseable {
+    private final BandwidthGovernor governor;
+    private volatile long limitRate;
+    private long limitedAt;
+    private volatile double observedBytesPerSecond = -1;
+    private volatile Optional<Runnable> limitChangeListener = Optional.empty();
+
+    BandwidthLease(BandwidthGovernor governor) {
+        this.governor = governor;
+    }
+
+    public long getLimitRate() {
+        return limitRate;
+    }
+
+    public void observe(DownloadProgress progress) {
+        if (progress.getBytesPerSecond() >= 0) {
+            this.observedBytesPerSecond = progress.getBytesPerSecond();
+            this.governor.observed();
+        }
+    }
+
+    // Called after the limit has changed; a running youtube-dl only takes the new limit by being restarted
+    public void onLimitChange(Runnable listener) {
+        this.limitChangeListener = Optional.of(listener);
+    }
+
+    double getObservedBytesPerSecond() {
+        return observedBytesPerSecond;
+    }
+
+    // Guarded by the governor, like limit()
+    long getLimitedAt() {
+        return limitedAt;
+    }
+
+    // The speed seen under the old limit says nothing about the new one
+    void limit(long limitRate, long now) {
+        this.limitRate = limitRate;
+        this.limitedAt = now;
+        this.observedBytesPerSecond = -1;
+    }
+
+    void limitChanged() {
+        this.limitChangeListener.ifPresent(Runnable::run);
+    }
+
+    @Override
+    public void close() {
+        this.governor.release(this);
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthLease{" +
+                "limitRate=" + limitRate +
+                ", observedBytesPerSecond=" + observedBytesPerSecond +
+                '}';
+    }
+}
@@ -0,0 +1,10 @@
+package com.cristianrgreco.ytdl;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+public interface BaseContentStore {
+    Optional<Path> get(DownloadKey key);
+
+    void put(DownloadKey key, Path file);
+}
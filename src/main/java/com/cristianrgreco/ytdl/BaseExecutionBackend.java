@@ -0,0 +1,8 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface BaseExecutionBackend {
+    Process start(List<String> command) throws IOException;
+}
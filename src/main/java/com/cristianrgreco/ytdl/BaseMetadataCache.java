@@ -0,0 +1,9 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Optional;
+
+public interface BaseMetadataCache {
+    Optional<VideoMetadata> get(String videoId);
+
+    void put(VideoMetadata metadata);
+}
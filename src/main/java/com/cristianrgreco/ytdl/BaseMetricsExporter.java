@@ -0,0 +1,5 @@
+package com.cristianrgreco.ytdl;
+
+public interface BaseMetricsExporter {
+    void export(MetricsSnapshot snapshot);
+}
@@ -0,0 +1,25 @@
+package com.cristianrgreco.ytdl;
+
+// Every callback does nothing by default so that a listener only overrides what it records; times are in nanoseconds
+public interface BaseMetricsListener {
+    default void processStarted(long spawnNanos) {
+    }
+
+    default void processExited() {
+    }
+
+    default void phaseCompleted(State phase, long nanos) {
+    }
+
+    default void progressUpdated(DownloadProgress progress) {
+    }
+
+    default void outputParsed(int lines, long nanos) {
+    }
+
+    default void messageReported(Message.Type type) {
+    }
+
+    default void invocationCompleted(long nanos, long totalBytes, boolean succeeded) {
+    }
+}
@@ -1,17 +1,59 @@
 package com.cristianrgreco.ytdl;
 
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface BaseYouTubeDownloaderAdapter {
     String getTitle() throws DownloadException;
 
     String getFilename() throws DownloadException;
 
-    void downloadVideo(
+    VideoMetadata probe() throws DownloadException;
+
+    DownloadResult downloadVideo(
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException;
+
+    DownloadResult downloadAudio(
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException;
+
+    DownloadResult streamVideo(
+            WritableByteChannel target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException;
+
+    DownloadResult streamVideo(
+            OutputStream target,
             Optional<StateChangeEvent> stateChangeCallback,
             Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException;
 
-    void downloadAudio(
+    DownloadResult streamAudio(
+            WritableByteChannel target,
             Optional<StateChangeEvent> stateChangeCallback,
             Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException;
+
+    DownloadResult streamAudio(
+            OutputStream target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException;
+
+    CompletableFuture<String> getTitleAsync();
+
+    CompletableFuture<String> getFilenameAsync();
+
+    CompletableFuture<VideoMetadata> probeAsync();
+
+    CompletableFuture<DownloadResult> downloadVideoAsync(
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor);
+
+    CompletableFuture<DownloadResult> downloadAudioAsync(
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor);
 }
@@ -0,0 +1,8 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+
+@FunctionalInterface
+public interface BatchDownloadProgressUpdateEvent {
+    void callback(URL targetUrl, DownloadProgress downloadProgress);
+}
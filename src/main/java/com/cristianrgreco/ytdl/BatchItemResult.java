@@ -0,0 +1,42 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Optional;
+
+public class BatchItemResult {
+    private final URL targetUrl;
+    private final Optional<DownloadException> failure;
+    private final List<Message> warnings;
+
+    BatchItemResult(URL targetUrl, Optional<DownloadException> failure, List<Message> warnings) {
+        this.targetUrl = targetUrl;
+        this.failure = failure;
+        this.warnings = warnings;
+    }
+
+    public boolean isSuccessful() {
+        return !this.failure.isPresent();
+    }
+
+    public URL getTargetUrl() {
+        return targetUrl;
+    }
+
+    public Optional<DownloadException> getFailure() {
+        return failure;
+    }
+
+    public List<Message> getWarnings() {
+        return warnings;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "targetUrl=" + targetUrl +
+                ", failure=" + failure +
+                ", warnings=" + warnings +
+                '}';
+    }
+}
@@ -0,0 +1,8 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+
+@FunctionalInterface
+public interface BatchStateChangeEvent {
+    void callback(URL targetUrl, State state);
+}
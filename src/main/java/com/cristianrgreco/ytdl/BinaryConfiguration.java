@@ -1,46 +1,63 @@
 package com.cristianrgreco.ytdl;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class BinaryConfiguration implements BaseBinaryConfiguration {
     private final File youTubeDlBinary;
     private final File ffmpegBinary;
     private final File ffprobeBinary;
+    private final BinaryValidation youTubeDlValidation;
+    private final BinaryValidation ffmpegValidation;
+    private final BinaryValidation ffprobeValidation;
 
     public BinaryConfiguration(File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary) {
-        if (!youTubeDlBinary.exists() || !ffmpegBinary.exists() || !ffprobeBinary.exists()) {
-            throw new IllegalArgumentException("YouTubeDl, Ffmpeg and Ffprobe binaries not found");
-        }
-        if (!areBinariesFunctioningCorrectly(youTubeDlBinary, ffmpegBinary, ffprobeBinary)) {
+        this(youTubeDlBinary, ffmpegBinary, ffprobeBinary, BinaryRegistry.shared());
+    }
+
+    public BinaryConfiguration(File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary, BinaryRegistry registry) {
+        this(youTubeDlBinary, ffmpegBinary, ffprobeBinary, validate(youTubeDlBinary, ffmpegBinary, ffprobeBinary, registry).join());
+    }
+
+    private BinaryConfiguration(File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary, BinaryValidation[] validations) {
+        if (!validations[0].isValid() || !validations[1].isValid() || !validations[2].isValid()) {
             throw new IllegalArgumentException("YouTubeDl, Ffmpeg and Ffprobe binaries not functioning as expected");
         }
         this.youTubeDlBinary = youTubeDlBinary;
         this.ffmpegBinary = ffmpegBinary;
         this.ffprobeBinary = ffprobeBinary;
+        this.youTubeDlValidation = validations[0];
+        this.ffmpegValidation = validations[1];
+        this.ffprobeValidation = validations[2];
     }
 
-    private static boolean areBinariesFunctioningCorrectly(File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary) {
+    public static CompletableFuture<BinaryConfiguration> createAsync(File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary) {
+        return createAsync(youTubeDlBinary, ffmpegBinary, ffprobeBinary, BinaryRegistry.shared());
+    }
+
+    public static CompletableFuture<BinaryConfiguration> createAsync(
+            File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary, BinaryRegistry registry) {
         try {
-            List<Process> processes = Arrays.asList(
-                    new ProcessBuilder(Arrays.asList(youTubeDlBinary.getAbsolutePath(), "--version")).start(),
-                    new ProcessBuilder(Arrays.asList(ffmpegBinary.getAbsolutePath(), "-version")).start(),
-                    new ProcessBuilder(Arrays.asList(ffprobeBinary.getAbsolutePath(), "-version")).start());
-            return processes.parallelStream()
-                    .map(process -> {
-                        try {
-                            process.waitFor();
-                            return process.exitValue();
-                        } catch (InterruptedException e) {
-                            return -1;
-                        }
-                    })
-                    .allMatch(status -> status == 0);
-        } catch (IOException e) {
-            return false;
+            return validate(youTubeDlBinary, ffmpegBinary, ffprobeBinary, registry).thenApply(validations ->
+                    new BinaryConfiguration(youTubeDlBinary, ffmpegBinary, ffprobeBinary, validations));
+        } catch (IllegalArgumentException e) {
+            CompletableFuture<BinaryConfiguration> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private static CompletableFuture<BinaryValidation[]> validate(
+            File youTubeDlBinary, File ffmpegBinary, File ffprobeBinary, BinaryRegistry registry) {
+        if (!youTubeDlBinary.exists() || !ffmpegBinary.exists() || !ffprobeBinary.exists()) {
+            throw new IllegalArgumentException("YouTubeDl, Ffmpeg and Ffprobe binaries not found");
         }
+        CompletableFuture<BinaryValidation> youTubeDl = registry.validate(youTubeDlBinary, "--version");
+        CompletableFuture<BinaryValidation> ffmpeg = registry.validate(ffmpegBinary, "-version");
+        CompletableFuture<BinaryValidation> ffprobe = registry.validate(ffprobeBinary, "-version");
+        return CompletableFuture.allOf(youTubeDl, ffmpeg, ffprobe).thenApply(ignored ->
+                new BinaryValidation[]{youTubeDl.join(), ffmpeg.join(), ffprobe.join()});
     }
 
     @Override
@@ -58,6 +75,18 @@ public class BinaryConfiguration implements BaseBinaryConfiguration {
         return this.ffprobeBinary;
     }
 
+    public Optional<String> getYouTubeDlVersion() {
+        return this.youTubeDlValidation.getVersion();
+    }
+
+    public Optional<String> getFfmpegVersion() {
+        return this.ffmpegValidation.getVersion();
+    }
+
+    public Optional<String> getFfprobeVersion() {
+        return this.ffprobeValidation.getVersion();
+    }
+
     @Override
     public String toString() {
         return "BinaryConfiguration{" +
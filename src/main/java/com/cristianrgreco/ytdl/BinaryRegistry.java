@@ -0,0 +1,106 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+public class BinaryRegistry {
+    private static final BinaryRegistry SHARED =
+            new BinaryRegistry(Executors.newCachedThreadPool(new DaemonThreadFactory("ytdl-binary-validation")));
+
+    private final Executor executor;
+    private final ConcurrentMap<String, CompletableFuture<BinaryValidation>> validations = new ConcurrentHashMap<>();
+
+    public BinaryRegistry(Executor executor) {
+        this.executor = executor;
+    }
+
+    public static BinaryRegistry shared() {
+        return SHARED;
+    }
+
+    // A binary is only run again once its path, modification time or size changes
+    public CompletableFuture<BinaryValidation> validate(File binary, String versionFlag) {
+        String path = binary.getAbsolutePath();
+        long lastModified = binary.lastModified();
+        long size = binary.length();
+        CompletableFuture<BinaryValidation> validation = this.validations.compute(path, (key, existing) -> {
+            if (existing != null && (!existing.isDone() || isCurrent(existing, lastModified, size))) {
+                return existing;
+            }
+            CompletableFuture<BinaryValidation> started = new CompletableFuture<>();
+            this.executor.execute(() -> {
+                try {
+                    started.complete(run(binary, versionFlag, lastModified, size));
+                } catch (RuntimeException | Error e) {
+                    started.completeExceptionally(e);
+                }
+            });
+            return started;
+        });
+        return validation.whenComplete((result, failure) -> {
+            if (failure != null || !result.isValid()) {
+                // Failures are not remembered so that a repaired binary is picked up without touching it
+                this.validations.remove(path, validation);
+            }
+        });
+    }
+
+    public Optional<BinaryValidation> lookup(File binary) {
+        CompletableFuture<BinaryValidation> validation = this.validations.get(binary.getAbsolutePath());
+        if (validation == null || !isCurrent(validation, binary.lastModified(), binary.length())) {
+            return Optional.empty();
+        }
+        return Optional.of(validation.join());
+    }
+
+    private static boolean isCurrent(CompletableFuture<BinaryValidation> validation, long lastModified, long size) {
+        if (!validation.isDone() || validation.isCompletedExceptionally()) {
+            return false;
+        }
+        return validation.join().isFor(lastModified, size);
+    }
+
+    private static BinaryValidation run(File binary, String versionFlag, long lastModified, long size) {
+        try {
+            Process process = new ProcessBuilder(Arrays.asList(binary.getAbsolutePath(), versionFlag))
+                    .redirectErrorStream(true)
+                    .start();
+            Optional<String> firstLine = Optional.empty();
+            try (BufferedReader input = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    if (!firstLine.isPresent()) {
+                        firstLine = Optional.of(line);
+                    }
+                }
+            }
+            boolean valid = process.waitFor() == 0;
+            return new BinaryValidation(binary, lastModified, size, valid, firstLine.flatMap(BinaryRegistry::parseVersion));
+        } catch (IOException e) {
+            return new BinaryValidation(binary, lastModified, size, false, Optional.empty());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BinaryValidation(binary, lastModified, size, false, Optional.empty());
+        }
+    }
+
+    // youtube-dl prints the bare version, ffmpeg and ffprobe print "ffmpeg version 4.1.3 Copyright ..."
+    static Optional<String> parseVersion(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        for (int i = 0; i < tokens.length - 1; i++) {
+            if (tokens[i].equals("version")) {
+                return Optional.of(tokens[i + 1]);
+            }
+        }
+        return tokens[0].isEmpty() ? Optional.empty() : Optional.of(tokens[0]);
+    }
+}
@@ -0,0 +1,55 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.util.Optional;
+
+public class BinaryValidation {
+    private final File binary;
+    private final long lastModified;
+    private final long size;
+    private final boolean valid;
+    private final Optional<String> version;
+
+    BinaryValidation(File binary, long lastModified, long size, boolean valid, Optional<String> version) {
+        this.binary = binary;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.valid = valid;
+        this.version = version;
+    }
+
+    boolean isFor(long lastModified, long size) {
+        return this.lastModified == lastModified && this.size == size;
+    }
+
+    public File getBinary() {
+        return binary;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public Optional<String> getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryValidation{" +
+                "binary=" + binary +
+                ", lastModified=" + lastModified +
+                ", size=" + size +
+                ", valid=" + valid +
+                ", version=" + version +
+                '}';
+    }
+}
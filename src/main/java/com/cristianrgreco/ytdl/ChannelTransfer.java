@@ -0,0 +1,27 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+class ChannelTransfer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ChannelTransfer() {
+    }
+
+    // One transfer copies a whole stream, so its direct buffer is allocated once and reused for every read
+    static long transfer(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long transferred = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                transferred += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return transferred;
+    }
+}
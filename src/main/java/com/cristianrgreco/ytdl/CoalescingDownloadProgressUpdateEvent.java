@@ -0,0 +1,106 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CoalescingDownloadProgressUpdateEvent implements DownloadProgressUpdateEvent {
+    private static final double COMPLETE_PERCENT = 100;
+
+    private final DownloadProgressUpdateEvent delegate;
+    private final ScheduledExecutorService executor;
+    private final long minIntervalNanos;
+    private final double minPercentDelta;
+
+    private final AtomicReference<DownloadProgress> latest = new AtomicReference<>();
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+    private final AtomicReference<ScheduledFuture<?>> pendingDelivery = new AtomicReference<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private volatile long lastDeliveryNanos;
+    private volatile double lastDeliveredPercent = -COMPLETE_PERCENT;
+
+    public CoalescingDownloadProgressUpdateEvent(
+            DownloadProgressUpdateEvent delegate,
+            ScheduledExecutorService executor,
+            long minIntervalMillis,
+            double minPercentDelta) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        this.minPercentDelta = minPercentDelta;
+        this.lastDeliveryNanos = System.nanoTime() - this.minIntervalNanos;
+    }
+
+    // Runs on the stdout reader: it only swaps the slot and never waits for the delegate
+    @Override
+    public void callback(DownloadProgress downloadProgress) {
+        if (this.latest.getAndSet(downloadProgress) != null) {
+            this.coalescedCount.incrementAndGet();
+        }
+        this.scheduleDelivery(downloadProgress);
+    }
+
+    public void flush() {
+        if (this.deliveryScheduled.compareAndSet(false, true)) {
+            this.executor.execute(this::deliver);
+        }
+    }
+
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return this.deliveredCount.get();
+    }
+
+    private void scheduleDelivery(DownloadProgress downloadProgress) {
+        boolean dueImmediately = this.isDueImmediately(downloadProgress);
+        if (!this.deliveryScheduled.compareAndSet(false, true)) {
+            if (dueImmediately) {
+                this.expeditePendingDelivery();
+            }
+            return;
+        }
+        long delayNanos = dueImmediately
+                ? 0
+                : Math.max(0, this.lastDeliveryNanos + this.minIntervalNanos - System.nanoTime());
+        this.pendingDelivery.set(this.executor.schedule(this::deliver, delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    // A delivery waiting out the interval is replaced by an immediate one; if it already started it will pick up the slot itself
+    private void expeditePendingDelivery() {
+        ScheduledFuture<?> pending = this.pendingDelivery.get();
+        if (pending != null && pending.getDelay(TimeUnit.NANOSECONDS) > 0 && pending.cancel(false)) {
+            this.pendingDelivery.compareAndSet(pending, this.executor.schedule(this::deliver, 0, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private boolean isDueImmediately(DownloadProgress downloadProgress) {
+        return downloadProgress.getPercent() >= COMPLETE_PERCENT ||
+                downloadProgress.getPercent() - this.lastDeliveredPercent >= this.minPercentDelta;
+    }
+
+    // Only one delivery is ever pending, so the delegate is never called concurrently with itself
+    private void deliver() {
+        DownloadProgress downloadProgress = this.latest.getAndSet(null);
+        try {
+            if (downloadProgress != null) {
+                this.delegate.callback(downloadProgress);
+                this.deliveredCount.incrementAndGet();
+                this.lastDeliveredPercent = downloadProgress.getPercent();
+            }
+        } finally {
+            this.lastDeliveryNanos = System.nanoTime();
+            this.deliveryScheduled.set(false);
+        }
+        DownloadProgress pending = this.latest.get();
+        if (pending != null) {
+            this.scheduleDelivery(pending);
+        }
+    }
+}
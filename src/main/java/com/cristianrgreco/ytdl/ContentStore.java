@@ -0,0 +1,48 @@
+package com.cristianrgreco.ytdl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Indexes completed downloads in place; an entry is dropped once its file is removed or replaced underneath it
+public class ContentStore implements BaseContentStore {
+    private final ConcurrentMap<DownloadKey, StoredFile> files = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<Path> get(DownloadKey key) {
+        StoredFile stored = this.files.get(key);
+        if (stored == null) {
+            return Optional.empty();
+        }
+        if (!stored.isIntact()) {
+            this.files.remove(key, stored);
+            return Optional.empty();
+        }
+        return Optional.of(stored.file);
+    }
+
+    @Override
+    public void put(DownloadKey key, Path file) {
+        this.files.put(key, new StoredFile(file, file.toFile().length()));
+    }
+
+    public int size() {
+        return this.files.size();
+    }
+
+    private static class StoredFile {
+        private final Path file;
+        private final long size;
+
+        private StoredFile(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        private boolean isIntact() {
+            return Files.isRegularFile(this.file) && this.file.toFile().length() == this.size;
+        }
+    }
+}
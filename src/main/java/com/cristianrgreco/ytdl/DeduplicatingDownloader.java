@@ -0,0 +1,257 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Requests for the same (video id, format, mode) share one youtube-dl process, and finished files are served from the store
+public class DeduplicatingDownloader {
+    private final File destinationDirectory;
+    private final YouTubeDownloader downloader;
+    private final DownloadOptions options;
+    private final BaseContentStore contentStore;
+    private final ConcurrentMap<DownloadKey, SharedDownload> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong jobsStarted = new AtomicLong();
+    private final AtomicLong requestsJoined = new AtomicLong();
+    private final AtomicLong storeHits = new AtomicLong();
+
+    public DeduplicatingDownloader(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            DownloadOptions options,
+            BaseContentStore contentStore) {
+        this.destinationDirectory = destinationDirectory;
+        this.downloader = new YouTubeDownloader(binaryConfiguration);
+        this.options = options;
+        this.contentStore = contentStore;
+    }
+
+    public CompletableFuture<DownloadResult> download(
+            URL targetUrl,
+            DownloadMode mode,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        Subscriber subscriber = new Subscriber(targetUrl, stateChangeCallback, progressUpdateCallback);
+        Optional<DownloadKey> key = DownloadKey.of(targetUrl, mode, this.options);
+        if (!key.isPresent()) {
+            SharedDownload unshared = new SharedDownload(Optional.empty(), subscriber);
+            this.start(unshared, targetUrl, mode);
+            return subscriber.future;
+        }
+
+        Optional<Path> stored = this.contentStore.get(key.get());
+        if (stored.isPresent()) {
+            this.storeHits.incrementAndGet();
+            subscriber.completeFromStore(stored.get());
+            return subscriber.future;
+        }
+
+        while (true) {
+            SharedDownload existing = this.inFlight.get(key.get());
+            if (existing != null) {
+                if (existing.attach(subscriber)) {
+                    this.requestsJoined.incrementAndGet();
+                    return subscriber.future;
+                }
+                // Finished between the lookup and the attach; its result is in the store unless it failed
+                this.inFlight.remove(key.get(), existing);
+                continue;
+            }
+            SharedDownload created = new SharedDownload(key, subscriber);
+            if (this.inFlight.putIfAbsent(key.get(), created) == null) {
+                Optional<Path> storedMeanwhile = this.contentStore.get(key.get());
+                if (storedMeanwhile.isPresent()) {
+                    this.inFlight.remove(key.get(), created);
+                    this.storeHits.incrementAndGet();
+                    created.completeFromStore(storedMeanwhile.get());
+                } else {
+                    this.start(created, targetUrl, mode);
+                }
+                return subscriber.future;
+            }
+        }
+    }
+
+    public long getJobsStarted() {
+        return this.jobsStarted.get();
+    }
+
+    public long getRequestsJoined() {
+        return this.requestsJoined.get();
+    }
+
+    public long getStoreHits() {
+        return this.storeHits.get();
+    }
+
+    private void start(SharedDownload shared, URL targetUrl, DownloadMode mode) {
+        this.jobsStarted.incrementAndGet();
+        DownloadRequest request = new DownloadRequest(targetUrl, this.destinationDirectory, mode, this.options);
+        Optional<StateChangeEvent> stateChangeEvent = Optional.of(shared::onStateChange);
+        Optional<DownloadProgressUpdateEvent> progressUpdateEvent = Optional.of(shared::onProgress);
+        CompletableFuture<DownloadResult> download =
+                this.downloader.downloadAsync(request, stateChangeEvent, progressUpdateEvent, Runnable::run);
+        download.whenComplete((result, failure) -> {
+            // Stored before leaving the in-flight map, so a request arriving in between finds one or the other
+            if (failure == null && shared.key.isPresent() && result.getFile().isPresent()) {
+                this.contentStore.put(shared.key.get(), result.getFile().get());
+            }
+            shared.key.ifPresent(key -> this.inFlight.remove(key, shared));
+            if (failure == null) {
+                shared.complete(result);
+            } else {
+                shared.fail(failure);
+            }
+        });
+    }
+
+    // Events are queued under the monitor and delivered outside it, one at a time and in order, so a slow or
+    // re-entrant subscriber holds up only other callbacks and never a request attaching or the download itself
+    private static class SharedDownload {
+        private final Optional<DownloadKey> key;
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private final Queue<Runnable> deliveries = new ArrayDeque<>();
+        private State state = State.NONE;
+        private Optional<DownloadProgress> lastProgress = Optional.empty();
+        private boolean finished;
+        private boolean delivering;
+
+        private SharedDownload(Optional<DownloadKey> key, Subscriber first) {
+            this.key = key;
+            this.subscribers.add(first);
+        }
+
+        // A late subscriber is brought up to date with the current state and progress before it sees new events
+        private boolean attach(Subscriber subscriber) {
+            synchronized (this) {
+                if (this.finished) {
+                    return false;
+                }
+                this.subscribers.add(subscriber);
+                State state = this.state;
+                Optional<DownloadProgress> lastProgress = this.lastProgress;
+                this.deliveries.add(() -> {
+                    if (state != State.NONE) {
+                        subscriber.onStateChange(state);
+                    }
+                    lastProgress.ifPresent(subscriber::onProgress);
+                });
+            }
+            this.deliver();
+            return true;
+        }
+
+        private void onStateChange(State state) {
+            synchronized (this) {
+                this.state = state;
+                this.enqueue(subscriber -> subscriber.onStateChange(state));
+            }
+            this.deliver();
+        }
+
+        private void onProgress(DownloadProgress progress) {
+            synchronized (this) {
+                this.lastProgress = Optional.of(progress);
+                this.enqueue(subscriber -> subscriber.onProgress(progress));
+            }
+            this.deliver();
+        }
+
+        private void complete(DownloadResult result) {
+            this.finish(subscriber -> subscriber.future.complete(
+                    new DownloadResult(subscriber.targetUrl, result.getElapsed(), result.getFile())));
+        }
+
+        private void completeFromStore(Path file) {
+            this.finish(subscriber -> subscriber.completeFromStore(file));
+        }
+
+        private void fail(Throwable failure) {
+            this.finish(subscriber -> subscriber.future.completeExceptionally(failure));
+        }
+
+        private void finish(Consumer<Subscriber> outcome) {
+            synchronized (this) {
+                this.finished = true;
+                this.enqueue(outcome);
+            }
+            this.deliver();
+        }
+
+        // Called holding the monitor; each event goes to the subscribers attached when it happened
+        private void enqueue(Consumer<Subscriber> event) {
+            List<Subscriber> current = new ArrayList<>(this.subscribers);
+            this.deliveries.add(() -> current.forEach(event));
+        }
+
+        // Whichever thread finds nobody delivering drains the queue, including what others add meanwhile
+        private void deliver() {
+            synchronized (this) {
+                if (this.delivering) {
+                    return;
+                }
+                this.delivering = true;
+            }
+            boolean drained = false;
+            try {
+                while (!drained) {
+                    Runnable delivery;
+                    synchronized (this) {
+                        delivery = this.deliveries.poll();
+                        drained = delivery == null;
+                        this.delivering = !drained;
+                    }
+                    if (delivery != null) {
+                        delivery.run();
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    synchronized (this) {
+                        this.delivering = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Subscriber {
+        private final URL targetUrl;
+        private final Optional<StateChangeEvent> stateChangeCallback;
+        private final Optional<DownloadProgressUpdateEvent> progressUpdateCallback;
+        private final CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+
+        private Subscriber(
+                URL targetUrl,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+            this.targetUrl = targetUrl;
+            this.stateChangeCallback = stateChangeCallback;
+            this.progressUpdateCallback = progressUpdateCallback;
+        }
+
+        private void onStateChange(State state) {
+            this.stateChangeCallback.ifPresent(callback -> callback.callback(state));
+        }
+
+        private void onProgress(DownloadProgress progress) {
+            this.progressUpdateCallback.ifPresent(callback -> callback.callback(progress));
+        }
+
+        private void completeFromStore(Path file) {
+            this.onStateChange(State.COMPLETE);
+            this.future.complete(new DownloadResult(this.targetUrl, Duration.ZERO, Optional.of(file)));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.cristianrgreco.ytdl;
 
+import java.util.List;
+
 public class DownloadException extends Exception {
     private Message message;
     private DownloadException cause;
@@ -15,6 +17,12 @@ public class DownloadException extends Exception {
         this.cause = cause;
     }
 
+    static DownloadException fromMessages(List<String> errorMessages) {
+        return errorMessages.stream()
+                .map(errorMessage -> new DownloadException(Message.from(errorMessage)))
+                .reduce((prev, current) -> new DownloadException(current.getErrorMessage(), prev)).get();
+    }
+
     public boolean hasErrorOccurred() {
         if (this.message.getType() == Message.Type.ERROR) {
             return true;
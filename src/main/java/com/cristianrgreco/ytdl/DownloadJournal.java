@@ -0,0 +1,233 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/*
+ * Append-only record of download jobs, one JSON object per line:
+ *   {"type":"started","job":"...","url":"...","mode":"AUDIO","directory":"..."}
+ *   {"type":"resolved","job":"...","format":"140","file":"..."}
+ *   {"type":"progress","job":"...","line":"[download]  42.0% of ..."}
+ *   {"type":"completed","job":"...","file":"..."} or {"type":"failed","job":"...","message":"..."}
+ * Jobs without a completed or failed record are unfinished. Opening a journal compacts it down to those jobs, folding
+ * what each one resolved into its started record.
+ */
+public class DownloadJournal implements AutoCloseable {
+    private static final String STARTED = "started";
+    private static final String RESOLVED = "resolved";
+    private static final String PROGRESS = "progress";
+    private static final String COMPLETED = "completed";
+    private static final String FAILED = "failed";
+    private static final double PROGRESS_RECORD_INTERVAL_PERCENT = 1;
+
+    private final FileChannel channel;
+    private final Map<String, JournalEntry> unfinished;
+    private final Map<String, Double> lastRecordedPercent = new HashMap<>();
+
+    private DownloadJournal(FileChannel channel, Map<String, JournalEntry> unfinished) {
+        this.channel = channel;
+        this.unfinished = unfinished;
+    }
+
+    public static DownloadJournal open(Path file) throws IOException {
+        Map<String, JournalEntry> unfinished = Files.exists(file) ? replay(file) : new LinkedHashMap<>();
+
+        Path compacted = Files.createTempFile(file.toAbsolutePath().getParent(), "." + file.getFileName(), ".tmp");
+        try {
+            StringBuilder records = new StringBuilder();
+            for (JournalEntry entry : unfinished.values()) {
+                records.append(startedRecord(entry));
+                entry.getLastProgress().ifPresent(progress -> records.append(progressRecord(entry.getJobId(), progress)));
+            }
+            Files.write(compacted, records.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.SYNC);
+            Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(compacted);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new DownloadJournal(channel, unfinished);
+    }
+
+    public synchronized String started(URL targetUrl, DownloadMode mode, File destinationDirectory) throws IOException {
+        JournalEntry entry = new JournalEntry(UUID.randomUUID().toString(), targetUrl, mode, destinationDirectory);
+        this.append(startedRecord(entry), true);
+        this.unfinished.put(entry.getJobId(), entry);
+        return entry.getJobId();
+    }
+
+    // The format and file are only known once youtube-dl has resolved the job, and change again if it is converted
+    public synchronized void resolved(String jobId, String format, Path file) throws IOException {
+        JournalEntry entry = this.unfinished.get(jobId);
+        if (entry == null) {
+            return;
+        }
+        this.unfinished.put(jobId, entry.withResolution(format, file));
+        StringBuilder record = new StringBuilder("{\"type\":\"resolved\",\"job\":");
+        JsonWriter.appendString(record, jobId);
+        appendResolution(record, format, file);
+        this.append(record.append("}\n").toString(), false);
+    }
+
+    // Only every whole percent is written, as a restart needs the rough position rather than every update
+    public synchronized void progress(String jobId, DownloadProgress progress) throws IOException {
+        JournalEntry entry = this.unfinished.get(jobId);
+        if (entry == null) {
+            return;
+        }
+        this.unfinished.put(jobId, entry.withProgress(progress));
+        Double lastPercent = this.lastRecordedPercent.get(jobId);
+        if (lastPercent == null || progress.getPercent() - lastPercent >= PROGRESS_RECORD_INTERVAL_PERCENT) {
+            this.append(progressRecord(jobId, progress), false);
+            this.lastRecordedPercent.put(jobId, progress.getPercent());
+        }
+    }
+
+    public synchronized void completed(String jobId, Optional<Path> file) throws IOException {
+        StringBuilder record = new StringBuilder("{\"type\":\"completed\",\"job\":");
+        JsonWriter.appendString(record, jobId);
+        if (file.isPresent()) {
+            JsonWriter.appendString(record.append(",\"file\":"), file.get().toString());
+        }
+        this.finish(jobId, record.append("}\n").toString());
+    }
+
+    public synchronized void failed(String jobId, String message) throws IOException {
+        StringBuilder record = new StringBuilder("{\"type\":\"failed\",\"job\":");
+        JsonWriter.appendString(record, jobId);
+        JsonWriter.appendString(record.append(",\"message\":"), message);
+        this.finish(jobId, record.append("}\n").toString());
+    }
+
+    public synchronized List<JournalEntry> getUnfinished() {
+        return new ArrayList<>(this.unfinished.values());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void finish(String jobId, String record) throws IOException {
+        this.append(record, true);
+        this.unfinished.remove(jobId);
+        this.lastRecordedPercent.remove(jobId);
+    }
+
+    private void append(String record, boolean durable) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        if (durable) {
+            this.channel.force(false);
+        }
+    }
+
+    private static Map<String, JournalEntry> replay(Path file) throws IOException {
+        Map<String, JournalEntry> unfinished = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Map<String, Object> record;
+            try {
+                record = JsonParser.parseObject(line);
+            } catch (IllegalArgumentException e) {
+                // A record torn by a crash mid-write
+                continue;
+            }
+            Optional<String> type = JsonParser.getString(record, "type");
+            Optional<String> jobId = JsonParser.getString(record, "job");
+            if (!type.isPresent() || !jobId.isPresent()) {
+                continue;
+            }
+            switch (type.get()) {
+                case STARTED:
+                    parseStarted(jobId.get(), record).ifPresent(entry -> unfinished.put(entry.getJobId(), entry));
+                    break;
+                case RESOLVED:
+                    JournalEntry resolvedEntry = unfinished.get(jobId.get());
+                    Optional<String> format = JsonParser.getString(record, "format");
+                    Optional<String> resolvedFile = JsonParser.getString(record, "file");
+                    if (resolvedEntry != null && format.isPresent() && resolvedFile.isPresent()) {
+                        unfinished.put(jobId.get(),
+                                resolvedEntry.withResolution(format.get(), Paths.get(resolvedFile.get())));
+                    }
+                    break;
+                case PROGRESS:
+                    JournalEntry entry = unfinished.get(jobId.get());
+                    Optional<String> progressLine = JsonParser.getString(record, "line");
+                    if (entry != null && progressLine.isPresent() && DownloadProgress.isValidProgressMessage(progressLine.get())) {
+                        unfinished.put(jobId.get(), entry.withProgress(DownloadProgress.parse(progressLine.get())));
+                    }
+                    break;
+                case COMPLETED:
+                case FAILED:
+                    unfinished.remove(jobId.get());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return unfinished;
+    }
+
+    private static Optional<JournalEntry> parseStarted(String jobId, Map<String, Object> record) {
+        Optional<String> url = JsonParser.getString(record, "url");
+        Optional<String> mode = JsonParser.getString(record, "mode");
+        Optional<String> directory = JsonParser.getString(record, "directory");
+        if (!url.isPresent() || !mode.isPresent() || !directory.isPresent()) {
+            return Optional.empty();
+        }
+        Optional<String> format = JsonParser.getString(record, "format");
+        Optional<String> file = JsonParser.getString(record, "file");
+        try {
+            JournalEntry entry = new JournalEntry(
+                    jobId, new URL(url.get()), DownloadMode.valueOf(mode.get()), new File(directory.get()));
+            return Optional.of(format.isPresent() && file.isPresent()
+                    ? entry.withResolution(format.get(), Paths.get(file.get()))
+                    : entry);
+        } catch (MalformedURLException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static String startedRecord(JournalEntry entry) {
+        StringBuilder record = new StringBuilder("{\"type\":\"started\",\"job\":");
+        JsonWriter.appendString(record, entry.getJobId());
+        JsonWriter.appendString(record.append(",\"url\":"), entry.getTargetUrl().toString());
+        JsonWriter.appendString(record.append(",\"mode\":"), entry.getMode().name());
+        JsonWriter.appendString(record.append(",\"directory\":"), entry.getDestinationDirectory().getPath());
+        if (entry.getFormat().isPresent() && entry.getFile().isPresent()) {
+            appendResolution(record, entry.getFormat().get(), entry.getFile().get());
+        }
+        return record.append("}\n").toString();
+    }
+
+    private static void appendResolution(StringBuilder record, String format, Path file) {
+        JsonWriter.appendString(record.append(",\"format\":"), format);
+        JsonWriter.appendString(record.append(",\"file\":"), file.toString());
+    }
+
+    private static String progressRecord(String jobId, DownloadProgress progress) {
+        StringBuilder record = new StringBuilder("{\"type\":\"progress\",\"job\":");
+        JsonWriter.appendString(record, jobId);
+        JsonWriter.appendString(record.append(",\"line\":"), progress.getProgressMessage());
+        return record.append("}\n").toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+import java.util.Objects;
+import java.util.Optional;
+
+public class DownloadKey {
+    private final String videoId;
+    private final String format;
+    private final DownloadMode mode;
+
+    public DownloadKey(String videoId, String format, DownloadMode mode) {
+        this.videoId = videoId;
+        this.format = format;
+        this.mode = mode;
+    }
+
+    // Empty when the URL does not name a single video, in which case the download cannot be shared
+    public static Optional<DownloadKey> of(URL targetUrl, DownloadMode mode) {
+        return of(targetUrl, mode, new DownloadOptions());
+    }
+
+    // The format spells out every option that changes which file is produced, so that different selections never
+    // hand each other their files
+    public static Optional<DownloadKey> of(URL targetUrl, DownloadMode mode, DownloadOptions options) {
+        StringBuilder format = new StringBuilder(
+                mode == DownloadMode.AUDIO ? YouTubeDownloader.AUDIO_FORMAT : YouTubeDownloader.VIDEO_FORMAT);
+        options.getFormatConstraints().ifPresent(constraints -> format.append(' ').append(constraints));
+        if (mode == DownloadMode.VIDEO && options.isSeparateStreams()) {
+            format.append(" separate streams");
+        }
+        if (mode == DownloadMode.AUDIO && options.getTranscoder().isPresent()) {
+            format.append(" segmented transcode");
+        }
+        return VideoId.from(targetUrl).map(videoId -> new DownloadKey(videoId, format.toString(), mode));
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public DownloadMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DownloadKey that = (DownloadKey) o;
+        return videoId.equals(that.videoId) && format.equals(that.format) && mode == that.mode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(videoId, format, mode);
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadKey{" +
+                "videoId='" + videoId + '\'' +
+                ", format='" + format + '\'' +
+                ", mode=" + mode +
+                '}';
+    }
+}
@@ -0,0 +1,6 @@
+package com.cristianrgreco.ytdl;
+
+public enum DownloadMode {
+    VIDEO,
+    AUDIO
+}
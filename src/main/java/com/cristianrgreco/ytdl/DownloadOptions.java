@@ -0,0 +1,175 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Optional;
+
+public class DownloadOptions {
+    private final ErrorPolicy errorPolicy;
+    private final Optional<BaseMetadataCache> metadataCache;
+    private final BaseExecutionBackend executionBackend;
+    private final boolean resumable;
+    private final Optional<BandwidthGovernor> bandwidthGovernor;
+    private final Optional<BaseMetricsListener> metricsListener;
+    private final Optional<FormatConstraints> formatConstraints;
+    private final Optional<SegmentedTranscoder> transcoder;
+    private final Optional<ProcessReactor> processReactor;
+    private final Optional<RangedFetcher> rangedFetcher;
+    private final boolean separateStreams;
+
+    public DownloadOptions() {
+        this(ErrorPolicy.COLLECT, Optional.empty(), new ProcessExecutionBackend(), false,
+                Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
+                Optional.empty(), false);
+    }
+
+    private DownloadOptions(
+            ErrorPolicy errorPolicy,
+            Optional<BaseMetadataCache> metadataCache,
+            BaseExecutionBackend executionBackend,
+            boolean resumable,
+            Optional<BandwidthGovernor> bandwidthGovernor,
+            Optional<BaseMetricsListener> metricsListener,
+            Optional<FormatConstraints> formatConstraints,
+            Optional<SegmentedTranscoder> transcoder,
+            Optional<ProcessReactor> processReactor,
+            Optional<RangedFetcher> rangedFetcher,
+            boolean separateStreams) {
+        this.errorPolicy = errorPolicy;
+        this.metadataCache = metadataCache;
+        this.executionBackend = executionBackend;
+        this.resumable = resumable;
+        this.bandwidthGovernor = bandwidthGovernor;
+        this.metricsListener = metricsListener;
+        this.formatConstraints = formatConstraints;
+        this.transcoder = transcoder;
+        this.processReactor = processReactor;
+        this.rangedFetcher = rangedFetcher;
+        this.separateStreams = separateStreams;
+    }
+
+    public DownloadOptions withErrorPolicy(ErrorPolicy errorPolicy) {
+        return new DownloadOptions(errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withMetadataCache(BaseMetadataCache metadataCache) {
+        return new DownloadOptions(this.errorPolicy, Optional.of(metadataCache), this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withExecutionBackend(BaseExecutionBackend executionBackend) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withResumable(boolean resumable) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withBandwidthGovernor(BandwidthGovernor bandwidthGovernor) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                Optional.of(bandwidthGovernor), this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withMetricsListener(BaseMetricsListener metricsListener) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, Optional.of(metricsListener), this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withFormatConstraints(FormatConstraints formatConstraints) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, Optional.of(formatConstraints), this.transcoder,
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withTranscoder(SegmentedTranscoder transcoder) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, Optional.of(transcoder),
+                this.processReactor, this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withProcessReactor(ProcessReactor processReactor) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                Optional.of(processReactor), this.rangedFetcher, this.separateStreams);
+    }
+
+    public DownloadOptions withRangedFetcher(RangedFetcher rangedFetcher) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, Optional.of(rangedFetcher), this.separateStreams);
+    }
+
+    public DownloadOptions withSeparateStreams(boolean separateStreams) {
+        return new DownloadOptions(this.errorPolicy, this.metadataCache, this.executionBackend, this.resumable,
+                this.bandwidthGovernor, this.metricsListener, this.formatConstraints, this.transcoder,
+                this.processReactor, this.rangedFetcher, separateStreams);
+    }
+
+    public ErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    public Optional<BaseMetadataCache> getMetadataCache() {
+        return metadataCache;
+    }
+
+    public BaseExecutionBackend getExecutionBackend() {
+        return executionBackend;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public Optional<BandwidthGovernor> getBandwidthGovernor() {
+        return bandwidthGovernor;
+    }
+
+    public Optional<BaseMetricsListener> getMetricsListener() {
+        return metricsListener;
+    }
+
+    public Optional<FormatConstraints> getFormatConstraints() {
+        return formatConstraints;
+    }
+
+    public Optional<SegmentedTranscoder> getTranscoder() {
+        return transcoder;
+    }
+
+    public Optional<ProcessReactor> getProcessReactor() {
+        return processReactor;
+    }
+
+    public Optional<RangedFetcher> getRangedFetcher() {
+        return rangedFetcher;
+    }
+
+    public boolean isSeparateStreams() {
+        return separateStreams;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadOptions{" +
+                "errorPolicy=" + errorPolicy +
+                ", metadataCache=" + metadataCache +
+                ", executionBackend=" + executionBackend +
+                ", resumable=" + resumable +
+                ", bandwidthGovernor=" + bandwidthGovernor +
+                ", metricsListener=" + metricsListener +
+                ", formatConstraints=" + formatConstraints +
+                ", transcoder=" + transcoder +
+                ", processReactor=" + processReactor +
+                ", rangedFetcher=" + rangedFetcher +
+                ", separateStreams=" + separateStreams +
+                '}';
+    }
+}
@@ -0,0 +1,199 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/*
+ * Runs a queue of downloads in two stages. The resolve stage probes jobs ahead of the download stage, at most lookAhead
+ * jobs beyond the downloads already running, so each download is handed its metadata and youtube-dl starts transferring
+ * bytes straight away. Stream URLs expire; metadata whose URLs lapse before the download starts is dropped and that
+ * download resolves for itself.
+ */
+public class DownloadPipeline implements AutoCloseable {
+    // A download that starts just before its URLs lapse may still need them for a retry or a second stream
+    private static final Duration EXPIRY_MARGIN = Duration.ofMinutes(5);
+
+    private final File destinationDirectory;
+    private final YouTubeDownloader downloader;
+    private final DownloadOptions options;
+    private final Semaphore lookAheadWindow;
+    private final ThreadPoolExecutor resolvers;
+    private final ThreadPoolExecutor downloaders;
+    private final PipelineStage resolveStage = new PipelineStage("resolve");
+    private final PipelineStage downloadStage = new PipelineStage("download");
+    private final AtomicLong expiredResolutions = new AtomicLong();
+
+    public DownloadPipeline(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            int maxConcurrentDownloads,
+            int lookAhead) {
+        this(destinationDirectory, binaryConfiguration, maxConcurrentDownloads, lookAhead, new DownloadOptions());
+    }
+
+    public DownloadPipeline(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            int maxConcurrentDownloads,
+            int lookAhead,
+            DownloadOptions options) {
+        if (maxConcurrentDownloads < 1 || lookAhead < 1) {
+            throw new IllegalArgumentException("At least one download slot and a look-ahead of one are required");
+        }
+        this.destinationDirectory = destinationDirectory;
+        this.downloader = new YouTubeDownloader(binaryConfiguration);
+        this.options = options;
+        this.lookAheadWindow = new Semaphore(lookAhead, true);
+        // A resolver blocked on the window holds no process, so one thread per look-ahead slot is all the stage needs
+        this.resolvers = createPool(lookAhead, "ytdl-pipeline-resolve");
+        this.downloaders = createPool(maxConcurrentDownloads, "ytdl-pipeline-download");
+    }
+
+    public CompletableFuture<DownloadResult> submitVideo(
+            URL targetUrl,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        return this.submit(targetUrl, DownloadMode.VIDEO, stateChangeCallback, progressUpdateCallback);
+    }
+
+    public CompletableFuture<DownloadResult> submitAudio(
+            URL targetUrl,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        return this.submit(targetUrl, DownloadMode.AUDIO, stateChangeCallback, progressUpdateCallback);
+    }
+
+    public List<CompletableFuture<DownloadResult>> submitAllVideo(List<URL> targetUrls) {
+        return targetUrls.stream()
+                .map(targetUrl -> this.submitVideo(targetUrl, Optional.empty(), Optional.empty()))
+                .collect(Collectors.toList());
+    }
+
+    public List<CompletableFuture<DownloadResult>> submitAllAudio(List<URL> targetUrls) {
+        return targetUrls.stream()
+                .map(targetUrl -> this.submitAudio(targetUrl, Optional.empty(), Optional.empty()))
+                .collect(Collectors.toList());
+    }
+
+    public PipelineStage getResolveStage() {
+        return resolveStage;
+    }
+
+    public PipelineStage getDownloadStage() {
+        return downloadStage;
+    }
+
+    public long getExpiredResolutions() {
+        return expiredResolutions.get();
+    }
+
+    private CompletableFuture<DownloadResult> submit(
+            URL targetUrl,
+            DownloadMode mode,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        Job job = new Job(targetUrl, mode, stateChangeCallback, progressUpdateCallback);
+        this.resolveStage.enqueued();
+        this.resolvers.execute(() -> this.resolve(job));
+        return job.future;
+    }
+
+    private void resolve(Job job) {
+        // Holds off until the download stage is within the look-ahead of this job
+        this.lookAheadWindow.acquireUninterruptibly();
+        long start = this.resolveStage.started(job.enqueuedNanos);
+        job.stateChanged(State.RESOLVING);
+        try {
+            job.metadata = Optional.of(this.downloader.probe(job.targetUrl, this.options));
+            this.resolveStage.finished(start, true);
+        } catch (DownloadException | RuntimeException e) {
+            this.resolveStage.finished(start, false);
+            this.lookAheadWindow.release();
+            job.future.completeExceptionally(e);
+            return;
+        }
+        job.enqueuedNanos = System.nanoTime();
+        this.downloadStage.enqueued();
+        this.downloaders.execute(() -> this.download(job));
+    }
+
+    private void download(Job job) {
+        this.lookAheadWindow.release();
+        long start = this.downloadStage.started(job.enqueuedNanos);
+        DownloadRequest request = new DownloadRequest(job.targetUrl, this.destinationDirectory, job.mode, this.options);
+        if (job.metadata.isPresent() && isFresh(job.metadata.get())) {
+            request = request.withMetadata(job.metadata.get());
+        } else {
+            this.expiredResolutions.incrementAndGet();
+        }
+        try {
+            DownloadResult result = this.downloader.download(
+                    request, Optional.of(job::stateChanged), job.progressUpdateCallback);
+            this.downloadStage.finished(start, true);
+            job.future.complete(result);
+        } catch (DownloadException | RuntimeException e) {
+            this.downloadStage.finished(start, false);
+            job.future.completeExceptionally(e);
+        }
+    }
+
+    private static boolean isFresh(VideoMetadata metadata) {
+        Instant deadline = Instant.now().plus(EXPIRY_MARGIN);
+        return metadata.getUrlExpiry().map(deadline::isBefore).orElse(true);
+    }
+
+    // Idle threads time out, so the download stage winds down once close() has let the last resolution through
+    private static ThreadPoolExecutor createPool(int threads, String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Jobs already submitted still run; resolved jobs always find the download stage open
+    @Override
+    public void close() {
+        this.resolvers.shutdown();
+    }
+
+    private static class Job {
+        private final URL targetUrl;
+        private final DownloadMode mode;
+        private final Optional<StateChangeEvent> stateChangeCallback;
+        private final Optional<DownloadProgressUpdateEvent> progressUpdateCallback;
+        private final CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+        private volatile long enqueuedNanos = System.nanoTime();
+        private volatile Optional<VideoMetadata> metadata = Optional.empty();
+        private State lastState = State.NONE;
+
+        private Job(
+                URL targetUrl,
+                DownloadMode mode,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+            this.targetUrl = targetUrl;
+            this.mode = mode;
+            this.stateChangeCallback = stateChangeCallback;
+            this.progressUpdateCallback = progressUpdateCallback;
+        }
+
+        // A download whose metadata expired resolves again, which the caller has already seen reported
+        private synchronized void stateChanged(State state) {
+            if (state != this.lastState) {
+                this.lastState = state;
+                this.stateChangeCallback.ifPresent(callback -> callback.callback(state));
+            }
+        }
+    }
+}
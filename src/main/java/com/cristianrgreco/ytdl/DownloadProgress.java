@@ -1,78 +1,127 @@
 package com.cristianrgreco.ytdl;
 
 import java.math.BigDecimal;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
 
 public class DownloadProgress {
-    private static final Pattern PERCENTAGE_COMPLETE = Pattern.compile(".*?([0-9.]+)");
-    private static final Pattern FILE_SIZE = Pattern.compile(".*of.*?([A-z0-9].+?) ");
-    private static final Pattern DOWNLOAD_SPEED = Pattern.compile(".*at.*?(([A-z0-9].+?)|(Unknown)) ");
-    private static final Pattern ETA = Pattern.compile(".*ETA.*?(([0-9:]+)|(Unknown))");
-    private static final Pattern VALID_PROGRESS_MESSAGE = Pattern.compile(
-            PERCENTAGE_COMPLETE.toString() + FILE_SIZE.toString() + DOWNLOAD_SPEED.toString() + ETA.toString());
+    private static final String[] BYTE_UNITS = {"B", "KiB", "MiB", "GiB", "TiB"};
 
-    private final BigDecimal percentageComplete;
-    private final String fileSize;
-    private final String downloadSpeed;
-    private final String eta;
+    private final String progressMessage;
+    private final double percent;
+    private final long totalBytes;
+    private final double bytesPerSecond;
+    private final long etaSeconds;
+    private final int percentStart;
+    private final int percentEnd;
+    private final int fileSizeStart;
+    private final int fileSizeEnd;
+    private final int downloadSpeedStart;
+    private final int downloadSpeedEnd;
+    private final int etaStart;
+    private final int etaEnd;
 
-    private DownloadProgress(BigDecimal percentageComplete, String fileSize, String downloadSpeed, String eta) {
-        this.percentageComplete = percentageComplete;
-        this.fileSize = fileSize;
-        this.downloadSpeed = downloadSpeed;
-        this.eta = eta;
+    // The textual fields are kept as offsets into the original message and only materialised when asked for
+    private DownloadProgress(String progressMessage, MutableDownloadProgress scanned) {
+        this.progressMessage = progressMessage;
+        this.percent = scanned.percent;
+        this.totalBytes = scanned.totalBytes;
+        this.bytesPerSecond = scanned.bytesPerSecond;
+        this.etaSeconds = scanned.etaSeconds;
+        this.percentStart = scanned.percentStart;
+        this.percentEnd = scanned.percentEnd;
+        this.fileSizeStart = scanned.fileSizeStart;
+        this.fileSizeEnd = scanned.fileSizeEnd;
+        this.downloadSpeedStart = scanned.downloadSpeedStart;
+        this.downloadSpeedEnd = scanned.downloadSpeedEnd;
+        this.etaStart = scanned.etaStart;
+        this.etaEnd = scanned.etaEnd;
     }
 
     public static DownloadProgress parse(String progressMessage) {
-        Matcher percentageCompleteMatcher = PERCENTAGE_COMPLETE.matcher(progressMessage);
-        Matcher fileSizeMatcher = FILE_SIZE.matcher(progressMessage);
-        Matcher downloadSpeedMatcher = DOWNLOAD_SPEED.matcher(progressMessage);
-        Matcher etaMatcher = ETA.matcher(progressMessage);
-
-        if (!isValidProgressMessage(progressMessage) ||
-                !percentageCompleteMatcher.find() ||
-                !fileSizeMatcher.find() ||
-                !downloadSpeedMatcher.find() ||
-                !etaMatcher.find()) {
+        MutableDownloadProgress scanned = new MutableDownloadProgress();
+        if (!DownloadProgressScanner.scan(progressMessage, scanned)) {
             throw new IllegalArgumentException("Unable to parse: " + progressMessage);
         }
+        return new DownloadProgress(progressMessage, scanned);
+    }
+
+    // Describes work done by the library itself, e.g. transcoding, in youtube-dl's format so callers see one shape of event
+    public static DownloadProgress of(String tag, double percent, long totalBytes, double bytesPerSecond, long etaSeconds) {
+        String size = totalBytes >= 0 ? formatBytes(totalBytes) : "Unknown";
+        String speed = bytesPerSecond >= 0 ? formatBytes(bytesPerSecond) + "/s" : "Unknown speed";
+        String eta = etaSeconds >= 0 ? formatEta(etaSeconds) : "Unknown ETA";
+        return parse(String.format(Locale.ROOT, "[%s] %5.1f%% of %s at %s ETA %s", tag, percent, size, speed, eta));
+    }
 
-        BigDecimal percentageComplete = new BigDecimal(percentageCompleteMatcher.group(1));
-        String fileSize = fileSizeMatcher.group(1);
-        String downloadSpeed = downloadSpeedMatcher.group(1);
-        String eta = etaMatcher.group(1);
+    private static String formatBytes(double bytes) {
+        int unit = 0;
+        while (bytes >= 1024 && unit < BYTE_UNITS.length - 1) {
+            bytes /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.2f%s", bytes, BYTE_UNITS[unit]);
+    }
 
-        return new DownloadProgress(percentageComplete, fileSize, downloadSpeed, eta);
+    private static String formatEta(long etaSeconds) {
+        long hours = etaSeconds / 3600;
+        long minutes = etaSeconds % 3600 / 60;
+        long seconds = etaSeconds % 60;
+        return hours > 0
+                ? String.format(Locale.ROOT, "%02d:%02d:%02d", hours, minutes, seconds)
+                : String.format(Locale.ROOT, "%02d:%02d", minutes, seconds);
+    }
+
+    static DownloadProgress from(String progressMessage, MutableDownloadProgress scanned) {
+        return new DownloadProgress(progressMessage, scanned);
     }
 
     public static boolean isValidProgressMessage(String progressMessage) {
-        return VALID_PROGRESS_MESSAGE.matcher(progressMessage).find();
+        return DownloadProgressScanner.scan(progressMessage, new MutableDownloadProgress());
     }
 
     public BigDecimal getPercentageComplete() {
-        return percentageComplete;
+        return new BigDecimal(this.progressMessage.substring(this.percentStart, this.percentEnd));
     }
 
     public String getFileSize() {
-        return fileSize;
+        return this.progressMessage.substring(this.fileSizeStart, this.fileSizeEnd);
     }
 
     public String getDownloadSpeed() {
-        return downloadSpeed;
+        return this.progressMessage.substring(this.downloadSpeedStart, this.downloadSpeedEnd);
     }
 
     public String getEta() {
-        return eta;
+        return this.progressMessage.substring(this.etaStart, this.etaEnd);
+    }
+
+    public double getPercent() {
+        return percent;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    String getProgressMessage() {
+        return progressMessage;
     }
 
     @Override
     public String toString() {
         return "DownloadProgress{" +
-                "percentageComplete=" + percentageComplete +
-                ", fileSize='" + fileSize + '\'' +
-                ", downloadSpeed='" + downloadSpeed + '\'' +
-                ", eta='" + eta + '\'' +
+                "percentageComplete=" + getPercentageComplete() +
+                ", fileSize='" + getFileSize() + '\'' +
+                ", downloadSpeed='" + getDownloadSpeed() + '\'' +
+                ", eta='" + getEta() + '\'' +
                 '}';
     }
 }
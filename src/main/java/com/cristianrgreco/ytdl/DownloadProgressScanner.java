@@ -0,0 +1,214 @@
+package com.cristianrgreco.ytdl;
+
+public final class DownloadProgressScanner {
+    private static final String UNKNOWN = "Unknown";
+    private static final String UNKNOWN_SPEED_SUFFIX = "speed";
+    private static final String RATE_SUFFIX = "/s";
+
+    private DownloadProgressScanner() {
+    }
+
+    // Reads "[download]  10.8% of ~9.22MiB at  5.68MiB/s ETA 00:01" left to right without regexes or allocation
+    public static boolean scan(CharSequence line, MutableDownloadProgress target) {
+        int length = line.length();
+        int position = skipWhitespace(line, 0);
+        if (position < length && line.charAt(position) == '[') {
+            while (position < length && line.charAt(position) != ']') {
+                position++;
+            }
+            if (position == length) {
+                return false;
+            }
+            position = skipWhitespace(line, position + 1);
+        }
+
+        int percentStart = position;
+        int percentEnd = numberEnd(line, percentStart);
+        if (percentEnd == percentStart || percentEnd >= length || line.charAt(percentEnd) != '%') {
+            return false;
+        }
+        position = expectWord(line, skipWhitespace(line, percentEnd + 1), "of");
+        if (position < 0) {
+            return false;
+        }
+
+        position = skipWhitespace(line, position);
+        if (position < length && line.charAt(position) == '~') {
+            position++;
+        }
+        int fileSizeStart = position;
+        int fileSizeEnd = tokenEnd(line, fileSizeStart);
+        if (fileSizeEnd == fileSizeStart) {
+            return false;
+        }
+        position = expectWord(line, skipWhitespace(line, fileSizeEnd), "at");
+        if (position < 0) {
+            return false;
+        }
+
+        int downloadSpeedStart = skipWhitespace(line, position);
+        int downloadSpeedEnd = tokenEnd(line, downloadSpeedStart);
+        if (downloadSpeedEnd == downloadSpeedStart) {
+            return false;
+        }
+        position = skipWhitespace(line, downloadSpeedEnd);
+        if (regionMatches(line, position, UNKNOWN_SPEED_SUFFIX)) {
+            position = skipWhitespace(line, position + UNKNOWN_SPEED_SUFFIX.length());
+        }
+        position = expectWord(line, position, "ETA");
+        if (position < 0) {
+            return false;
+        }
+
+        int etaStart = skipWhitespace(line, position);
+        int etaEnd = tokenEnd(line, etaStart);
+        long etaSeconds = parseEta(line, etaStart, etaEnd);
+        if (etaSeconds == Long.MIN_VALUE) {
+            return false;
+        }
+
+        target.percent = parseNumber(line, percentStart, percentEnd);
+        target.totalBytes = parseBytes(line, fileSizeStart, fileSizeEnd);
+        target.bytesPerSecond = regionEndsWith(line, downloadSpeedEnd, RATE_SUFFIX)
+                ? parseBytes(line, downloadSpeedStart, downloadSpeedEnd - RATE_SUFFIX.length())
+                : MutableDownloadProgress.UNKNOWN;
+        target.etaSeconds = etaSeconds;
+        target.percentStart = percentStart;
+        target.percentEnd = percentEnd;
+        target.fileSizeStart = fileSizeStart;
+        target.fileSizeEnd = fileSizeEnd;
+        target.downloadSpeedStart = downloadSpeedStart;
+        target.downloadSpeedEnd = downloadSpeedEnd;
+        target.etaStart = etaStart;
+        target.etaEnd = etaEnd;
+        return true;
+    }
+
+    private static int skipWhitespace(CharSequence line, int position) {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int tokenEnd(CharSequence line, int position) {
+        while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int numberEnd(CharSequence line, int position) {
+        while (position < line.length() && (isDigit(line.charAt(position)) || line.charAt(position) == '.')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int expectWord(CharSequence line, int position, String word) {
+        if (!regionMatches(line, position, word)) {
+            return -1;
+        }
+        int end = position + word.length();
+        return end < line.length() && Character.isWhitespace(line.charAt(end)) ? end : -1;
+    }
+
+    private static boolean regionMatches(CharSequence line, int position, String expected) {
+        if (position + expected.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (line.charAt(position + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEndsWith(CharSequence line, int end, String expected) {
+        return end >= expected.length() && regionMatches(line, end - expected.length(), expected);
+    }
+
+    private static double parseNumber(CharSequence line, int start, int end) {
+        double value = 0;
+        double scale = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '.') {
+                scale = 1;
+            } else if (scale == 0) {
+                value = value * 10 + (c - '0');
+            } else {
+                scale /= 10;
+                value += (c - '0') * scale;
+            }
+        }
+        return value;
+    }
+
+    private static long parseBytes(CharSequence line, int start, int end) {
+        int numberEnd = numberEnd(line, start);
+        if (numberEnd == start) {
+            return MutableDownloadProgress.UNKNOWN;
+        }
+        long multiplier = unitMultiplier(line, numberEnd, end);
+        if (multiplier < 0) {
+            return MutableDownloadProgress.UNKNOWN;
+        }
+        return Math.round(parseNumber(line, start, numberEnd) * multiplier);
+    }
+
+    private static long unitMultiplier(CharSequence line, int start, int end) {
+        int length = end - start;
+        if (length == 1 && line.charAt(start) == 'B') {
+            return 1;
+        }
+        if ((length != 2 && length != 3) || line.charAt(end - 1) != 'B') {
+            return -1;
+        }
+        long base = length == 3 && line.charAt(start + 1) == 'i' ? 1024 : 1000;
+        if (length == 3 && line.charAt(start + 1) != 'i') {
+            return -1;
+        }
+        switch (Character.toUpperCase(line.charAt(start))) {
+            case 'K':
+                return base;
+            case 'M':
+                return base * base;
+            case 'G':
+                return base * base * base;
+            case 'T':
+                return base * base * base * base;
+            default:
+                return -1;
+        }
+    }
+
+    // Returns the ETA in seconds, UNKNOWN for "Unknown" or Long.MIN_VALUE when the token is not an ETA at all
+    private static long parseEta(CharSequence line, int start, int end) {
+        if (end == start) {
+            return Long.MIN_VALUE;
+        }
+        if (end - start == UNKNOWN.length() && regionMatches(line, start, UNKNOWN)) {
+            return MutableDownloadProgress.UNKNOWN;
+        }
+        long seconds = 0;
+        long field = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == ':') {
+                seconds = (seconds + field) * 60;
+                field = 0;
+            } else if (isDigit(c)) {
+                field = field * 10 + (c - '0');
+            } else {
+                return Long.MIN_VALUE;
+            }
+        }
+        return seconds + field;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
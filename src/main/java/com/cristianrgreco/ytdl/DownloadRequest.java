@@ -0,0 +1,74 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Optional;
+
+public class DownloadRequest {
+    private final URL targetUrl;
+    private final File destinationDirectory;
+    private final DownloadMode mode;
+    private final DownloadOptions options;
+    private final Optional<VideoMetadata> metadata;
+
+    public DownloadRequest(URL targetUrl, File destinationDirectory, DownloadMode mode) {
+        this(targetUrl, destinationDirectory, mode, new DownloadOptions());
+    }
+
+    public DownloadRequest(URL targetUrl, File destinationDirectory, DownloadMode mode, DownloadOptions options) {
+        this(targetUrl, destinationDirectory, mode, options, Optional.empty());
+    }
+
+    private DownloadRequest(
+            URL targetUrl,
+            File destinationDirectory,
+            DownloadMode mode,
+            DownloadOptions options,
+            Optional<VideoMetadata> metadata) {
+        this.targetUrl = targetUrl;
+        this.destinationDirectory = destinationDirectory;
+        this.mode = mode;
+        this.options = options;
+        this.metadata = metadata;
+    }
+
+    public DownloadRequest withOptions(DownloadOptions options) {
+        return new DownloadRequest(this.targetUrl, this.destinationDirectory, this.mode, options, this.metadata);
+    }
+
+    // Metadata probed earlier is handed to youtube-dl with --load-info-json, so the download skips resolving
+    public DownloadRequest withMetadata(VideoMetadata metadata) {
+        return new DownloadRequest(this.targetUrl, this.destinationDirectory, this.mode, this.options,
+                Optional.of(metadata));
+    }
+
+    public URL getTargetUrl() {
+        return targetUrl;
+    }
+
+    public File getDestinationDirectory() {
+        return destinationDirectory;
+    }
+
+    public DownloadMode getMode() {
+        return mode;
+    }
+
+    public DownloadOptions getOptions() {
+        return options;
+    }
+
+    public Optional<VideoMetadata> getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadRequest{" +
+                "targetUrl=" + targetUrl +
+                ", destinationDirectory=" + destinationDirectory +
+                ", mode=" + mode +
+                ", resolved=" + metadata.isPresent() +
+                '}';
+    }
+}
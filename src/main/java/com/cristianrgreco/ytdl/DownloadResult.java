@@ -0,0 +1,43 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+public class DownloadResult {
+    private final URL targetUrl;
+    private final Duration elapsed;
+    private final Optional<Path> file;
+
+    public DownloadResult(URL targetUrl, Duration elapsed) {
+        this(targetUrl, elapsed, Optional.empty());
+    }
+
+    public DownloadResult(URL targetUrl, Duration elapsed, Optional<Path> file) {
+        this.targetUrl = targetUrl;
+        this.elapsed = elapsed;
+        this.file = file;
+    }
+
+    public URL getTargetUrl() {
+        return targetUrl;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    public Optional<Path> getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadResult{" +
+                "targetUrl=" + targetUrl +
+                ", elapsed=" + elapsed +
+                ", file=" + file +
+                '}';
+    }
+}
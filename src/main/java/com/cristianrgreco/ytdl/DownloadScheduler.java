@@ -0,0 +1,251 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class DownloadScheduler implements AutoCloseable {
+    private final File destinationDirectory;
+    private final YouTubeDownloader downloader;
+    private final DownloadOptions options;
+    private final Optional<DownloadJournal> journal;
+    private final ThreadPoolExecutor downloaders;
+    private final ThreadPoolExecutor converters;
+
+    public DownloadScheduler(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            int maxConcurrentDownloads,
+            int maxConcurrentConversions) {
+        this(destinationDirectory, binaryConfiguration, maxConcurrentDownloads, maxConcurrentConversions,
+                new DownloadOptions(), Optional.empty());
+    }
+
+    public DownloadScheduler(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            int maxConcurrentDownloads,
+            int maxConcurrentConversions,
+            DownloadOptions options) {
+        this(destinationDirectory, binaryConfiguration, maxConcurrentDownloads, maxConcurrentConversions,
+                options, Optional.empty());
+    }
+
+    public DownloadScheduler(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            int maxConcurrentDownloads,
+            int maxConcurrentConversions,
+            DownloadOptions options,
+            DownloadJournal journal) {
+        this(destinationDirectory, binaryConfiguration, maxConcurrentDownloads, maxConcurrentConversions,
+                options, Optional.of(journal));
+    }
+
+    private DownloadScheduler(
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            int maxConcurrentDownloads,
+            int maxConcurrentConversions,
+            DownloadOptions options,
+            Optional<DownloadJournal> journal) {
+        if (maxConcurrentDownloads < 1 || maxConcurrentConversions < 1) {
+            throw new IllegalArgumentException("At least one download and one conversion slot are required");
+        }
+        this.destinationDirectory = destinationDirectory;
+        this.downloader = new YouTubeDownloader(binaryConfiguration);
+        this.options = options;
+        this.journal = journal;
+        // Each pool thread runs one youtube-dl or ffmpeg process at a time, so the pool sizes are the process caps
+        this.downloaders = createPool(maxConcurrentDownloads, "ytdl-scheduler-download");
+        this.converters = createPool(maxConcurrentConversions, "ytdl-scheduler-convert");
+    }
+
+    public CompletableFuture<DownloadResult> submitVideo(
+            URL targetUrl,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        return this.submit(targetUrl, DownloadMode.VIDEO, stateChangeCallback, progressUpdateCallback);
+    }
+
+    public CompletableFuture<DownloadResult> submitAudio(
+            URL targetUrl,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        return this.submit(targetUrl, DownloadMode.AUDIO, stateChangeCallback, progressUpdateCallback);
+    }
+
+    public List<CompletableFuture<DownloadResult>> submitAllVideo(List<URL> targetUrls) {
+        return targetUrls.stream()
+                .map(targetUrl -> this.submitVideo(targetUrl, Optional.empty(), Optional.empty()))
+                .collect(Collectors.toList());
+    }
+
+    public List<CompletableFuture<DownloadResult>> submitAllAudio(List<URL> targetUrls) {
+        return targetUrls.stream()
+                .map(targetUrl -> this.submitAudio(targetUrl, Optional.empty(), Optional.empty()))
+                .collect(Collectors.toList());
+    }
+
+    // Re-queues every job the journal recorded as started but never saw finish, e.g. because the process was restarted
+    public List<CompletableFuture<DownloadResult>> recover() {
+        if (!this.journal.isPresent()) {
+            return Collections.emptyList();
+        }
+        return this.journal.get().getUnfinished().stream()
+                .map(entry -> this.submit(Optional.of(entry.getJobId()), entry.getTargetUrl(), entry.getMode(),
+                        entry.getDestinationDirectory(), this.resumedOptions(entry),
+                        Optional.empty(), Optional.empty()))
+                .collect(Collectors.toList());
+    }
+
+    // A format chosen by FormatSelector is pinned, as choosing again could pick another and orphan the partial file.
+    // Without constraints youtube-dl is asked for the same "--format mp4" as before, so there is nothing to pin
+    private DownloadOptions resumedOptions(JournalEntry entry) {
+        boolean selected = this.options.getFormatConstraints().isPresent()
+                || (entry.getMode() == DownloadMode.VIDEO && this.options.isSeparateStreams());
+        if (!selected || !entry.getFormat().isPresent()) {
+            return this.options;
+        }
+        // Separate streams are journalled as "video+audio", as youtube-dl writes a merged format
+        String[] formatIds = entry.getFormat().get().split("\\+");
+        FormatConstraints constraints = this.options.getFormatConstraints().orElseGet(FormatConstraints::new);
+        return this.options.withFormatConstraints(constraints.withFormatIds(formatIds));
+    }
+
+    private CompletableFuture<DownloadResult> submit(
+            URL targetUrl,
+            DownloadMode mode,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        Optional<String> jobId;
+        try {
+            jobId = this.journal.isPresent()
+                    ? Optional.of(this.journal.get().started(targetUrl, mode, this.destinationDirectory))
+                    : Optional.empty();
+        } catch (IOException e) {
+            CompletableFuture<DownloadResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new UncheckedIOException(e));
+            return failed;
+        }
+        return this.submit(jobId, targetUrl, mode, this.destinationDirectory, this.options, stateChangeCallback,
+                progressUpdateCallback);
+    }
+
+    // Audio jobs are split in two: youtube-dl only fetches the source on a download thread, and the conversion is
+    // queued for a conversion thread, so a finished download never holds on to its slot waiting for ffmpeg
+    private CompletableFuture<DownloadResult> submit(
+            Optional<String> jobId,
+            URL targetUrl,
+            DownloadMode mode,
+            File destinationDirectory,
+            DownloadOptions options,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        DownloadRequest request = new DownloadRequest(targetUrl, destinationDirectory, mode, options);
+        Optional<DownloadProgressUpdateEvent> progressUpdateEvent = this.journalled(jobId, progressUpdateCallback);
+        Optional<YouTubeDownloader.DestinationEvent> destinationEvent = this.journalledDestination(jobId);
+        CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+        this.downloaders.execute(() -> {
+            try {
+                if (mode == DownloadMode.VIDEO) {
+                    this.complete(jobId, future, this.downloader.download(
+                            request, stateChangeCallback, progressUpdateEvent, destinationEvent));
+                    return;
+                }
+                YouTubeDownloader.Conversion conversion = this.downloader.fetchForConversion(
+                        request, stateChangeCallback, progressUpdateEvent, destinationEvent);
+                this.converters.execute(() -> {
+                    try {
+                        this.complete(jobId, future, conversion.convert());
+                    } catch (Exception e) {
+                        this.fail(jobId, future, e);
+                    }
+                });
+            } catch (Exception e) {
+                this.fail(jobId, future, e);
+            }
+        });
+        return future;
+    }
+
+    private void complete(Optional<String> jobId, CompletableFuture<DownloadResult> future, DownloadResult result) {
+        if (jobId.isPresent()) {
+            try {
+                this.journal.get().completed(jobId.get(), result.getFile());
+            } catch (IOException e) {
+                // The file is already in place, so at worst recover() runs the job again and youtube-dl finds it done
+            }
+        }
+        future.complete(result);
+    }
+
+    // Every failure is recorded, otherwise recover() would retry a job that cannot succeed after each restart
+    private void fail(Optional<String> jobId, CompletableFuture<DownloadResult> future, Exception failure) {
+        Exception reported = failure instanceof IOException
+                ? new UncheckedIOException((IOException) failure)
+                : failure;
+        if (jobId.isPresent()) {
+            String message = failure instanceof DownloadException ? failure.getMessage() : failure.toString();
+            try {
+                this.journal.get().failed(jobId.get(), message);
+            } catch (IOException e) {
+                reported.addSuppressed(e);
+            }
+        }
+        future.completeExceptionally(reported);
+    }
+
+    private Optional<DownloadProgressUpdateEvent> journalled(
+            Optional<String> jobId, Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        if (!jobId.isPresent()) {
+            return progressUpdateCallback;
+        }
+        DownloadJournal journal = this.journal.get();
+        return Optional.of(progress -> {
+            try {
+                journal.progress(jobId.get(), progress);
+            } catch (IOException e) {
+                // Progress records only shorten recovery, so failing to write one must not abort the download
+            }
+            progressUpdateCallback.ifPresent(callback -> callback.callback(progress));
+        });
+    }
+
+    private Optional<YouTubeDownloader.DestinationEvent> journalledDestination(Optional<String> jobId) {
+        if (!jobId.isPresent()) {
+            return Optional.empty();
+        }
+        DownloadJournal journal = this.journal.get();
+        return Optional.of((format, destination) -> {
+            try {
+                journal.resolved(jobId.get(), format, destination);
+            } catch (IOException e) {
+                // As with progress, a missing record must not abort the download
+            }
+        });
+    }
+
+    // Idle threads time out, so the conversion pool winds down once close() has let the last download through
+    private static ThreadPoolExecutor createPool(int threads, String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Jobs already submitted still run; downloaded audio always finds the conversion pool open
+    @Override
+    public void close() {
+        this.downloaders.shutdown();
+    }
+}
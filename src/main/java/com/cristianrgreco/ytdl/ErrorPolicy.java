@@ -0,0 +1,6 @@
+package com.cristianrgreco.ytdl;
+
+public enum ErrorPolicy {
+    COLLECT,
+    FAIL_FAST
+}
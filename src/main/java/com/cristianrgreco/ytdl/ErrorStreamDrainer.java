@@ -0,0 +1,91 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+// Reads stderr alongside stdout so that neither pipe can fill up and stall the process
+class ErrorStreamDrainer implements OutputLineHandler {
+    private final Process process;
+    private final ErrorPolicy errorPolicy;
+    private final List<String> errorMessages = new ArrayList<>();
+    private final CompletableFuture<List<String>> drained = new CompletableFuture<>();
+    private volatile boolean failedFast;
+
+    private ErrorStreamDrainer(Process process, ErrorPolicy errorPolicy) {
+        this.process = process;
+        this.errorPolicy = errorPolicy;
+    }
+
+    static ErrorStreamDrainer start(Process process, ErrorPolicy errorPolicy, Executor executor) {
+        ErrorStreamDrainer drainer = new ErrorStreamDrainer(process, errorPolicy);
+        executor.execute(drainer::drain);
+        return drainer;
+    }
+
+    // Reads on one of the reactor's event loops instead of taking a thread of its own
+    static ErrorStreamDrainer register(Process process, ErrorPolicy errorPolicy, ProcessReactor reactor) {
+        ErrorStreamDrainer drainer = new ErrorStreamDrainer(process, errorPolicy);
+        OutputLineClassifier classifier = new OutputLineClassifier();
+        reactor.register(process, process.getErrorStream(), line -> {
+            drainer.errorMessages.add(line.toString());
+            classifier.classify(line, drainer);
+        }).whenComplete((done, e) -> drainer.finish(e));
+        return drainer;
+    }
+
+    private void drain() {
+        OutputLineClassifier classifier = new OutputLineClassifier();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(this.process.getErrorStream()))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                this.errorMessages.add(line);
+                classifier.classify(line, this);
+            }
+            this.finish(null);
+        } catch (IOException e) {
+            this.finish(e);
+        }
+    }
+
+    private void finish(Throwable failure) {
+        if (failure == null || this.failedFast) {
+            this.drained.complete(this.errorMessages);
+        } else {
+            this.drained.completeExceptionally(failure);
+        }
+    }
+
+    @Override
+    public void onMessage(CharSequence line) {
+        if (this.errorPolicy == ErrorPolicy.FAIL_FAST && !this.failedFast &&
+                Message.from(line.toString()).getType() == Message.Type.ERROR) {
+            this.failedFast = true;
+            this.process.destroyForcibly();
+        }
+    }
+
+    boolean hasFailedFast() {
+        return this.failedFast;
+    }
+
+    // Completes once stderr has been read to the end, for callers that must not hold a thread while it is read
+    CompletableFuture<List<String>> drained() {
+        return this.drained;
+    }
+
+    Optional<List<String>> awaitErrorMessages() throws InterruptedException {
+        try {
+            List<String> messages = this.drained.get();
+            return messages.isEmpty() ? Optional.empty() : Optional.of(messages);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public final class FileHandOff {
+    private FileHandOff() {
+    }
+
+    public static Path moveToDirectory(Path source, Path targetDirectory) throws IOException {
+        return move(source, targetDirectory.resolve(source.getFileName()));
+    }
+
+    // A rename when both paths share a filesystem; otherwise the file is copied next to the target and renamed into place
+    public static Path move(Path source, Path target) throws IOException {
+        try {
+            return Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            return copyThenRename(source, target);
+        }
+    }
+
+    // The target must be a blocking channel, such as a socket channel in blocking mode or a file channel
+    public static long transferTo(Path source, WritableByteChannel target) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            return transferTo(input, target);
+        }
+    }
+
+    static Path copyThenRename(Path source, Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path partial = Files.createTempFile(directory, "." + target.getFileName(), ".part");
+        try {
+            try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel output = FileChannel.open(partial, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                transferTo(input, output);
+                output.force(true);
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.delete(source);
+        return target;
+    }
+
+    private static long transferTo(FileChannel source, WritableByteChannel target) throws IOException {
+        long size = source.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = source.transferTo(position, size - position, target);
+            if (transferred == 0 && position >= source.size()) {
+                break;
+            }
+            position += transferred;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,104 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class FormatConstraints {
+    private final Optional<Long> maxBytes;
+    private final Optional<Integer> maxHeight;
+    private final List<String> preferredCodecs;
+    private final boolean audioOnly;
+    private final boolean videoOnly;
+    private final List<String> formatIds;
+
+    public FormatConstraints() {
+        this(Optional.empty(), Optional.empty(), Collections.emptyList(), false, false, Collections.emptyList());
+    }
+
+    private FormatConstraints(
+            Optional<Long> maxBytes,
+            Optional<Integer> maxHeight,
+            List<String> preferredCodecs,
+            boolean audioOnly,
+            boolean videoOnly,
+            List<String> formatIds) {
+        this.maxBytes = maxBytes;
+        this.maxHeight = maxHeight;
+        this.preferredCodecs = preferredCodecs;
+        this.audioOnly = audioOnly;
+        this.videoOnly = videoOnly;
+        this.formatIds = formatIds;
+    }
+
+    public FormatConstraints withMaxBytes(long maxBytes) {
+        return new FormatConstraints(Optional.of(maxBytes), this.maxHeight, this.preferredCodecs, this.audioOnly,
+                this.videoOnly, this.formatIds);
+    }
+
+    public FormatConstraints withMaxHeight(int maxHeight) {
+        return new FormatConstraints(this.maxBytes, Optional.of(maxHeight), this.preferredCodecs, this.audioOnly,
+                this.videoOnly, this.formatIds);
+    }
+
+    // Codec prefixes as youtube-dl reports them, most preferred first, e.g. "avc1", "vp9", "mp4a", "opus"
+    public FormatConstraints withPreferredCodecs(String... preferredCodecs) {
+        return new FormatConstraints(this.maxBytes, this.maxHeight,
+                Collections.unmodifiableList(Arrays.asList(preferredCodecs)), this.audioOnly, this.videoOnly,
+                this.formatIds);
+    }
+
+    public FormatConstraints withAudioOnly(boolean audioOnly) {
+        return new FormatConstraints(this.maxBytes, this.maxHeight, this.preferredCodecs, audioOnly,
+                this.videoOnly && !audioOnly, this.formatIds);
+    }
+
+    // Video-only streams carry no audio track and are merged with a separately fetched audio-only stream
+    public FormatConstraints withVideoOnly(boolean videoOnly) {
+        return new FormatConstraints(this.maxBytes, this.maxHeight, this.preferredCodecs, this.audioOnly && !videoOnly,
+                videoOnly, this.formatIds);
+    }
+
+    // Only these format ids are eligible, e.g. so that a resumed job fetches what it had already started fetching
+    public FormatConstraints withFormatIds(String... formatIds) {
+        return new FormatConstraints(this.maxBytes, this.maxHeight, this.preferredCodecs, this.audioOnly,
+                this.videoOnly, Collections.unmodifiableList(Arrays.asList(formatIds)));
+    }
+
+    public Optional<Long> getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Optional<Integer> getMaxHeight() {
+        return maxHeight;
+    }
+
+    public List<String> getPreferredCodecs() {
+        return preferredCodecs;
+    }
+
+    public boolean isAudioOnly() {
+        return audioOnly;
+    }
+
+    public boolean isVideoOnly() {
+        return videoOnly;
+    }
+
+    public List<String> getFormatIds() {
+        return formatIds;
+    }
+
+    @Override
+    public String toString() {
+        return "FormatConstraints{" +
+                "maxBytes=" + maxBytes +
+                ", maxHeight=" + maxHeight +
+                ", preferredCodecs=" + preferredCodecs +
+                ", audioOnly=" + audioOnly +
+                ", videoOnly=" + videoOnly +
+                ", formatIds=" + formatIds +
+                '}';
+    }
+}
@@ -0,0 +1,52 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Optional;
+
+public class FormatSelection {
+    private final VideoFormat format;
+    private final Optional<Long> expectedBytes;
+    private final Optional<Long> defaultBytes;
+
+    FormatSelection(VideoFormat format, Optional<Long> expectedBytes, Optional<Long> defaultBytes) {
+        this.format = format;
+        this.expectedBytes = expectedBytes;
+        this.defaultBytes = defaultBytes;
+    }
+
+    public VideoFormat getFormat() {
+        return format;
+    }
+
+    public Optional<Long> getExpectedBytes() {
+        return expectedBytes;
+    }
+
+    // What the unconstrained "--format mp4" download would have fetched
+    public Optional<Long> getDefaultBytes() {
+        return defaultBytes;
+    }
+
+    public Optional<Long> getBytesSaved() {
+        if (this.expectedBytes.isPresent() && this.defaultBytes.isPresent()) {
+            return Optional.of(this.defaultBytes.get() - this.expectedBytes.get());
+        }
+        return Optional.empty();
+    }
+
+    public Optional<String> getRemuxAudioFormat() {
+        return FormatSelector.remuxAudioFormat(this.format);
+    }
+
+    public Optional<String> getRemuxAudioExtension() {
+        return FormatSelector.remuxAudioExtension(this.format);
+    }
+
+    @Override
+    public String toString() {
+        return "FormatSelection{" +
+                "format=" + format +
+                ", expectedBytes=" + expectedBytes +
+                ", defaultBytes=" + defaultBytes +
+                '}';
+    }
+}
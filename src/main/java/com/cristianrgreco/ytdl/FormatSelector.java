@@ -0,0 +1,128 @@
+package com.cristianrgreco.ytdl;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+public final class FormatSelector {
+    private static final String DEFAULT_EXTENSION = "mp4";
+    // youtube-dl keeps the stream as-is when extracting to a container that already carries the codec. Each row is the
+    // codec, the --audio-format youtube-dl takes for it and the extension of the file it then writes
+    private static final String[][] REMUX_AUDIO_FORMATS = {
+            {"mp4a", "m4a", "m4a"},
+            {"opus", "opus", "opus"},
+            {"vorbis", "vorbis", "ogg"},
+            {"mp3", "mp3", "mp3"}
+    };
+    // Separate streams keep the first container when both fit a row, as youtube-dl merges them; anything else is mkv
+    private static final String[][] MERGE_FORMATS = {
+            {"mp4", "m4a", "mov"},
+            {"webm"}
+    };
+    private static final String FALLBACK_MERGE_FORMAT = "mkv";
+    private static final Comparator<VideoFormat> QUALITY = Comparator
+            .comparing((VideoFormat format) -> format.getHeight().orElse(0))
+            .thenComparing(format -> format.getBitrate().orElse(0.0));
+
+    private FormatSelector() {
+    }
+
+    public static Optional<FormatSelection> select(VideoMetadata metadata, FormatConstraints constraints) {
+        Optional<Duration> duration = metadata.getDuration();
+        Predicate<VideoFormat> kind = constraints.isAudioOnly()
+                ? format -> format.hasAudio() && !format.hasVideo()
+                : constraints.isVideoOnly()
+                ? format -> format.hasVideo() && !format.hasAudio()
+                : format -> format.hasAudio() && format.hasVideo();
+        Comparator<VideoFormat> preference = Comparator
+                .comparingInt((VideoFormat format) -> codecRank(format, constraints.getPreferredCodecs()))
+                .thenComparing(QUALITY.reversed());
+
+        Optional<VideoFormat> selected = metadata.getFormats().stream()
+                .filter(kind)
+                .filter(format -> constraints.getFormatIds().isEmpty()
+                        || constraints.getFormatIds().contains(format.getFormatId()))
+                .filter(format -> withinHeight(format, constraints.getMaxHeight()))
+                .filter(format -> withinBytes(expectedBytes(format, duration), constraints.getMaxBytes()))
+                .min(preference);
+        return selected.map(format ->
+                new FormatSelection(format, expectedBytes(format, duration), defaultBytes(metadata, duration)));
+    }
+
+    public static Optional<String> remuxAudioFormat(VideoFormat format) {
+        return remuxAudio(format).map(remux -> remux[1]);
+    }
+
+    public static Optional<String> remuxAudioExtension(VideoFormat format) {
+        return remuxAudio(format).map(remux -> remux[2]);
+    }
+
+    public static String mergeFormat(VideoFormat video, VideoFormat audio) {
+        for (String[] merge : MERGE_FORMATS) {
+            List<String> extensions = Arrays.asList(merge);
+            if (extensions.contains(video.getExtension()) && extensions.contains(audio.getExtension())) {
+                return merge[0];
+            }
+        }
+        return FALLBACK_MERGE_FORMAT;
+    }
+
+    // Falls back to bitrate (kbit/s) over the duration when youtube-dl does not know the size
+    static Optional<Long> expectedBytes(VideoFormat format, Optional<Duration> duration) {
+        if (format.getFileSize().isPresent()) {
+            return format.getFileSize();
+        }
+        if (format.getBitrate().isPresent() && duration.isPresent()) {
+            return Optional.of((long) (format.getBitrate().get() * 1000 / 8 * duration.get().getSeconds()));
+        }
+        return Optional.empty();
+    }
+
+    // Approximates "--format mp4", which takes the best single file with both streams in an mp4 container
+    private static Optional<Long> defaultBytes(VideoMetadata metadata, Optional<Duration> duration) {
+        return metadata.getFormats().stream()
+                .filter(format -> format.hasAudio() && format.hasVideo())
+                .filter(format -> DEFAULT_EXTENSION.equals(format.getExtension()))
+                .max(QUALITY)
+                .flatMap(format -> expectedBytes(format, duration));
+    }
+
+    private static boolean withinHeight(VideoFormat format, Optional<Integer> maxHeight) {
+        if (!maxHeight.isPresent() || !format.hasVideo()) {
+            return true;
+        }
+        return format.getHeight().isPresent() && format.getHeight().get() <= maxHeight.get();
+    }
+
+    // A format of unknown size cannot be shown to fit, so it is only eligible without a byte budget
+    private static boolean withinBytes(Optional<Long> expectedBytes, Optional<Long> maxBytes) {
+        if (!maxBytes.isPresent()) {
+            return true;
+        }
+        return expectedBytes.isPresent() && expectedBytes.get() <= maxBytes.get();
+    }
+
+    private static Optional<String[]> remuxAudio(VideoFormat format) {
+        String audioCodec = format.getAudioCodec().toLowerCase(Locale.ROOT);
+        for (String[] remux : REMUX_AUDIO_FORMATS) {
+            if (audioCodec.startsWith(remux[0])) {
+                return Optional.of(remux);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static int codecRank(VideoFormat format, List<String> preferredCodecs) {
+        String codec = (format.hasVideo() ? format.getVideoCodec() : format.getAudioCodec()).toLowerCase(Locale.ROOT);
+        for (int i = 0; i < preferredCodecs.size(); i++) {
+            if (codec.startsWith(preferredCodecs.get(i).toLowerCase(Locale.ROOT))) {
+                return i;
+            }
+        }
+        return preferredCodecs.size();
+    }
+}
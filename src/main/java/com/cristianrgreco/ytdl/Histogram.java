@@ -0,0 +1,49 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Log-linear buckets: each power of two is split into SUB_BUCKETS equal steps, so a percentile read from the buckets is
+// within an eighth of the recorded value at any scale, from nanoseconds to bytes per second. Values below one share the
+// first bucket
+class Histogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int MAX_EXPONENT = 63;
+
+    private final long[] buckets = new long[(MAX_EXPONENT + 1) * SUB_BUCKETS];
+    private long count;
+    private double total;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    synchronized void record(double value) {
+        this.count++;
+        this.total += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+        this.buckets[index(value)]++;
+    }
+
+    synchronized MetricSummary summarise() {
+        SortedMap<Double, Long> buckets = new TreeMap<>();
+        for (int i = 0; i < this.buckets.length; i++) {
+            if (this.buckets[i] > 0) {
+                buckets.put(upperBound(i), this.buckets[i]);
+            }
+        }
+        return new MetricSummary(this.count, this.total, this.min, this.max, buckets);
+    }
+
+    private static int index(double value) {
+        if (!(value >= 1)) {
+            return 0;
+        }
+        int exponent = Math.min(Math.getExponent(value), MAX_EXPONENT);
+        double fraction = value / Math.scalb(1.0, exponent) - 1;
+        return exponent * SUB_BUCKETS + Math.min(SUB_BUCKETS - 1, (int) (fraction * SUB_BUCKETS));
+    }
+
+    private static double upperBound(int index) {
+        return Math.scalb(1.0, index / SUB_BUCKETS) * (1 + (index % SUB_BUCKETS + 1) / (double) SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,96 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InMemoryMetricsListener implements BaseMetricsListener {
+    public static final String PROCESS_SPAWN = "ytdl.process.spawn";
+    public static final String PROCESSES_LIVE = "ytdl.processes.live";
+    public static final String PHASE_PREFIX = "ytdl.phase.";
+    public static final String OUTPUT_PARSE = "ytdl.output.parse";
+    public static final String INVOCATION = "ytdl.invocation";
+    public static final String DOWNLOAD_SPEED = "ytdl.download.speed";
+    public static final String DOWNLOAD_SIZE = "ytdl.download.size";
+    public static final String OUTPUT_LINES = "ytdl.output.lines";
+    public static final String MESSAGES_PREFIX = "ytdl.messages.";
+    public static final String INVOCATIONS_SUCCEEDED = "ytdl.invocations.succeeded";
+    public static final String INVOCATIONS_FAILED = "ytdl.invocations.failed";
+
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> summaries = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final AtomicLong liveProcesses = new AtomicLong();
+
+    @Override
+    public void processStarted(long spawnNanos) {
+        this.liveProcesses.incrementAndGet();
+        this.record(this.timers, PROCESS_SPAWN, spawnNanos);
+    }
+
+    @Override
+    public void processExited() {
+        this.liveProcesses.decrementAndGet();
+    }
+
+    @Override
+    public void phaseCompleted(State phase, long nanos) {
+        this.record(this.timers, PHASE_PREFIX + phase.name().toLowerCase(Locale.ROOT), nanos);
+    }
+
+    @Override
+    public void progressUpdated(DownloadProgress progress) {
+        if (progress.getBytesPerSecond() >= 0) {
+            this.record(this.summaries, DOWNLOAD_SPEED, progress.getBytesPerSecond());
+        }
+    }
+
+    @Override
+    public void outputParsed(int lines, long nanos) {
+        this.record(this.timers, OUTPUT_PARSE, nanos);
+        this.increment(OUTPUT_LINES, lines);
+    }
+
+    @Override
+    public void messageReported(Message.Type type) {
+        this.increment(MESSAGES_PREFIX + type.name().toLowerCase(Locale.ROOT), 1);
+    }
+
+    @Override
+    public void invocationCompleted(long nanos, long totalBytes, boolean succeeded) {
+        this.record(this.timers, INVOCATION, nanos);
+        if (totalBytes != MutableDownloadProgress.UNKNOWN) {
+            this.record(this.summaries, DOWNLOAD_SIZE, totalBytes);
+        }
+        this.increment(succeeded ? INVOCATIONS_SUCCEEDED : INVOCATIONS_FAILED, 1);
+    }
+
+    public MetricsSnapshot getSnapshot() {
+        Map<String, Long> counters = new HashMap<>();
+        this.counters.forEach((name, counter) -> counters.put(name, counter.sum()));
+        Map<String, Long> gauges = new HashMap<>();
+        gauges.put(PROCESSES_LIVE, this.liveProcesses.get());
+        return new MetricsSnapshot(snapshot(this.timers), snapshot(this.summaries), counters, gauges);
+    }
+
+    public void exportTo(BaseMetricsExporter exporter) {
+        exporter.export(this.getSnapshot());
+    }
+
+    private void record(Map<String, Histogram> histograms, String name, double value) {
+        histograms.computeIfAbsent(name, ignored -> new Histogram()).record(value);
+    }
+
+    private void increment(String name, long amount) {
+        this.counters.computeIfAbsent(name, ignored -> new LongAdder()).add(amount);
+    }
+
+    private static Map<String, MetricSummary> snapshot(Map<String, Histogram> histograms) {
+        Map<String, MetricSummary> snapshot = new HashMap<>();
+        histograms.forEach((name, histogram) -> snapshot.put(name, histogram.summarise()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,102 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+// Per-invocation bookkeeping for a BaseMetricsListener. It is only created when a listener is configured, so with
+// metrics disabled the adapter pays a branch per line and never reads the clock
+class InvocationMetrics {
+    private final BaseMetricsListener listener;
+    private final long startNanos = System.nanoTime();
+    private State phase = State.NONE;
+    private long phaseStartNanos;
+    private long totalBytes = MutableDownloadProgress.UNKNOWN;
+    private int lines;
+    private long parseNanos;
+    private long callbackNanos;
+    private int processes;
+
+    InvocationMetrics(BaseMetricsListener listener) {
+        this.listener = listener;
+    }
+
+    Process start(BaseExecutionBackend backend, List<String> command) throws IOException {
+        Process process = startTimed(backend, command, Optional.of(this.listener));
+        this.processes++;
+        return process;
+    }
+
+    // ffmpeg and ffprobe run on behalf of an invocation rather than as one, so they are only timed and counted as live.
+    // The caller reports processExited() once it has waited for the process
+    static Process startTimed(
+            BaseExecutionBackend backend,
+            List<String> command,
+            Optional<BaseMetricsListener> listener) throws IOException {
+        if (!listener.isPresent()) {
+            return backend.start(command);
+        }
+        long spawnStart = System.nanoTime();
+        Process process = backend.start(command);
+        listener.get().processStarted(System.nanoTime() - spawnStart);
+        return process;
+    }
+
+    Optional<StateChangeEvent> observeStates(Optional<StateChangeEvent> stateChangeCallback) {
+        return Optional.of(state -> {
+            this.enterPhase(state);
+            if (stateChangeCallback.isPresent()) {
+                long callbackStart = System.nanoTime();
+                stateChangeCallback.get().callback(state);
+                this.callbackNanos += System.nanoTime() - callbackStart;
+            }
+        });
+    }
+
+    Optional<DownloadProgressUpdateEvent> observeProgress(Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+        return Optional.of(progress -> {
+            this.totalBytes = progress.getTotalBytes();
+            this.listener.progressUpdated(progress);
+            if (progressUpdateCallback.isPresent()) {
+                long callbackStart = System.nanoTime();
+                progressUpdateCallback.get().callback(progress);
+                this.callbackNanos += System.nanoTime() - callbackStart;
+            }
+        });
+    }
+
+    // Time spent in the caller's callbacks is not parsing, so it is taken back out
+    void lineParsed(long parseStartNanos) {
+        this.lines++;
+        this.parseNanos += System.nanoTime() - parseStartNanos - this.callbackNanos;
+        this.callbackNanos = 0;
+    }
+
+    void messagesReported(List<String> messages) {
+        messages.forEach(message -> this.listener.messageReported(Message.from(message).getType()));
+    }
+
+    // Called once every process of the invocation has been waited for or killed
+    void completed(boolean succeeded) {
+        for (int i = 0; i < this.processes; i++) {
+            this.listener.processExited();
+        }
+        this.enterPhase(State.COMPLETE);
+        if (this.lines > 0) {
+            this.listener.outputParsed(this.lines, this.parseNanos);
+        }
+        this.listener.invocationCompleted(System.nanoTime() - this.startNanos, this.totalBytes, succeeded);
+    }
+
+    private void enterPhase(State state) {
+        if (state == this.phase) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (this.phase != State.NONE && this.phase != State.COMPLETE) {
+            this.listener.phaseCompleted(this.phase, now - this.phaseStartNanos);
+        }
+        this.phase = state;
+        this.phaseStartNanos = now;
+    }
+}
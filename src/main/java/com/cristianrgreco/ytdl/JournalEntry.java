@@ -0,0 +1,88 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Optional;
+
+public class JournalEntry {
+    private final String jobId;
+    private final URL targetUrl;
+    private final DownloadMode mode;
+    private final File destinationDirectory;
+    private final Optional<String> format;
+    private final Optional<Path> file;
+    private final Optional<DownloadProgress> lastProgress;
+
+    JournalEntry(String jobId, URL targetUrl, DownloadMode mode, File destinationDirectory) {
+        this(jobId, targetUrl, mode, destinationDirectory, Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    private JournalEntry(
+            String jobId,
+            URL targetUrl,
+            DownloadMode mode,
+            File destinationDirectory,
+            Optional<String> format,
+            Optional<Path> file,
+            Optional<DownloadProgress> lastProgress) {
+        this.jobId = jobId;
+        this.targetUrl = targetUrl;
+        this.mode = mode;
+        this.destinationDirectory = destinationDirectory;
+        this.format = format;
+        this.file = file;
+        this.lastProgress = lastProgress;
+    }
+
+    JournalEntry withResolution(String format, Path file) {
+        return new JournalEntry(this.jobId, this.targetUrl, this.mode, this.destinationDirectory,
+                Optional.of(format), Optional.of(file), this.lastProgress);
+    }
+
+    JournalEntry withProgress(DownloadProgress progress) {
+        return new JournalEntry(this.jobId, this.targetUrl, this.mode, this.destinationDirectory,
+                this.format, this.file, Optional.of(progress));
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public URL getTargetUrl() {
+        return targetUrl;
+    }
+
+    public DownloadMode getMode() {
+        return mode;
+    }
+
+    public File getDestinationDirectory() {
+        return destinationDirectory;
+    }
+
+    public Optional<String> getFormat() {
+        return format;
+    }
+
+    public Optional<Path> getFile() {
+        return file;
+    }
+
+    public Optional<DownloadProgress> getLastProgress() {
+        return lastProgress;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntry{" +
+                "jobId='" + jobId + '\'' +
+                ", targetUrl=" + targetUrl +
+                ", mode=" + mode +
+                ", destinationDirectory=" + destinationDirectory +
+                ", format=" + format +
+                ", file=" + file +
+                ", lastProgress=" + lastProgress +
+                '}';
+    }
+}
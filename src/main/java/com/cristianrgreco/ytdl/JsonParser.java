@@ -0,0 +1,244 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+class JsonParser {
+    private final String json;
+    private int position;
+
+    private JsonParser(String json) {
+        this.json = json;
+    }
+
+    static Object parse(String json) {
+        JsonParser parser = new JsonParser(json);
+        parser.skipWhitespace();
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != json.length()) {
+            throw parser.error("Unexpected trailing content");
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String json) {
+        Object value = parse(json);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Unable to parse: expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    static Optional<String> getString(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        return value instanceof String ? Optional.of((String) value) : Optional.empty();
+    }
+
+    static Optional<Long> getLong(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        return value instanceof Number ? Optional.of(((Number) value).longValue()) : Optional.empty();
+    }
+
+    static Optional<Double> getDouble(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        return value instanceof Number ? Optional.of(((Number) value).doubleValue()) : Optional.empty();
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> getObjects(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        List<Map<String, Object>> objects = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object element : (List<Object>) value) {
+                if (element instanceof Map) {
+                    objects.add((Map<String, Object>) element);
+                }
+            }
+        }
+        return objects;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, String> getStrings(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        Map<String, String> strings = new LinkedHashMap<>();
+        if (value instanceof Map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (entry.getValue() instanceof String) {
+                    strings.put(entry.getKey(), (String) entry.getValue());
+                }
+            }
+        }
+        return strings;
+    }
+
+    private Object readValue() {
+        if (this.position >= this.json.length()) {
+            throw this.error("Unexpected end of input");
+        }
+        char c = this.json.charAt(this.position);
+        switch (c) {
+            case '{':
+                return this.readObject();
+            case '[':
+                return this.readArray();
+            case '"':
+                return this.readString();
+            case 't':
+                this.expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                this.expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                this.expect("null");
+                return null;
+            default:
+                return this.readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        this.position++;
+        this.skipWhitespace();
+        if (this.peek() == '}') {
+            this.position++;
+            return object;
+        }
+        while (true) {
+            this.skipWhitespace();
+            String key = this.readString();
+            this.skipWhitespace();
+            this.expect(":");
+            this.skipWhitespace();
+            object.put(key, this.readValue());
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == '}') {
+                return object;
+            } else if (c != ',') {
+                throw this.error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<>();
+        this.position++;
+        this.skipWhitespace();
+        if (this.peek() == ']') {
+            this.position++;
+            return array;
+        }
+        while (true) {
+            this.skipWhitespace();
+            array.add(this.readValue());
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == ']') {
+                return array;
+            } else if (c != ',') {
+                throw this.error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() {
+        if (this.next() != '"') {
+            throw this.error("Expected '\"'");
+        }
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            char c = this.next();
+            if (c == '"') {
+                return builder.toString();
+            } else if (c == '\\') {
+                char escaped = this.next();
+                switch (escaped) {
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (this.position + 4 > this.json.length()) {
+                            throw this.error("Invalid unicode escape");
+                        }
+                        builder.append((char) Integer.parseInt(this.json.substring(this.position, this.position + 4), 16));
+                        this.position += 4;
+                        break;
+                    default:
+                        builder.append(escaped);
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    private Number readNumber() {
+        int start = this.position;
+        boolean integral = true;
+        while (this.position < this.json.length()) {
+            char c = this.json.charAt(this.position);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            this.position++;
+        }
+        String number = this.json.substring(start, this.position);
+        try {
+            return integral ? (Number) Long.parseLong(number) : (Number) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw this.error("Invalid number '" + number + "'");
+        }
+    }
+
+    private void expect(String token) {
+        if (!this.json.startsWith(token, this.position)) {
+            throw this.error("Expected '" + token + "'");
+        }
+        this.position += token.length();
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.json.length() && Character.isWhitespace(this.json.charAt(this.position))) {
+            this.position++;
+        }
+    }
+
+    private char peek() {
+        if (this.position >= this.json.length()) {
+            throw this.error("Unexpected end of input");
+        }
+        return this.json.charAt(this.position);
+    }
+
+    private char next() {
+        char c = this.peek();
+        this.position++;
+        return c;
+    }
+
+    private IllegalArgumentException error(String reason) {
+        return new IllegalArgumentException("Unable to parse JSON at position " + this.position + ": " + reason);
+    }
+}
@@ -0,0 +1,194 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetadataCache implements BaseMetadataCache {
+    private static final String DISK_ENTRY_SUFFIX = ".json";
+
+    private final int maxEntries;
+    private final Duration timeToLive;
+    private final Optional<Path> diskDirectory;
+    private final Clock clock;
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public MetadataCache(int maxEntries, Duration timeToLive) {
+        this(maxEntries, timeToLive, Optional.empty(), Clock.systemUTC());
+    }
+
+    public MetadataCache(int maxEntries, Duration timeToLive, Path diskDirectory) {
+        this(maxEntries, timeToLive, Optional.of(diskDirectory), Clock.systemUTC());
+    }
+
+    MetadataCache(int maxEntries, Duration timeToLive, Optional<Path> diskDirectory, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one entry");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.diskDirectory = diskDirectory;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > MetadataCache.this.maxEntries) {
+                    MetadataCache.this.evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        diskDirectory.ifPresent(directory -> {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to create cache directory: " + directory, e);
+            }
+        });
+    }
+
+    @Override
+    public Optional<VideoMetadata> get(String videoId) {
+        Instant now = this.clock.instant();
+        synchronized (this.entries) {
+            CacheEntry entry = this.entries.get(videoId);
+            if (entry != null) {
+                if (entry.isExpired(now)) {
+                    this.entries.remove(videoId);
+                    this.evictionCount.incrementAndGet();
+                } else {
+                    this.hitCount.incrementAndGet();
+                    return Optional.of(entry.metadata);
+                }
+            }
+        }
+
+        Optional<CacheEntry> diskEntry = this.readFromDisk(videoId, now);
+        if (diskEntry.isPresent()) {
+            synchronized (this.entries) {
+                this.entries.put(videoId, diskEntry.get());
+            }
+            this.hitCount.incrementAndGet();
+            return Optional.of(diskEntry.get().metadata);
+        }
+        this.missCount.incrementAndGet();
+        return Optional.empty();
+    }
+
+    @Override
+    public void put(VideoMetadata metadata) {
+        CacheEntry entry = new CacheEntry(metadata, this.clock.instant().plus(this.timeToLive));
+        synchronized (this.entries) {
+            this.entries.put(metadata.getId(), entry);
+        }
+        this.writeToDisk(entry);
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    private Optional<CacheEntry> readFromDisk(String videoId, Instant now) {
+        if (!this.diskDirectory.isPresent() || !VideoId.isValid(videoId)) {
+            return Optional.empty();
+        }
+        Path file = this.diskDirectory.get().resolve(videoId + DISK_ENTRY_SUFFIX);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            int separator = content.indexOf('\n');
+            Instant expiresAt = Instant.ofEpochMilli(Long.parseLong(content.substring(0, separator)));
+            if (!now.isBefore(expiresAt)) {
+                Files.deleteIfExists(file);
+                this.evictionCount.incrementAndGet();
+                return Optional.empty();
+            }
+            return Optional.of(new CacheEntry(VideoMetadata.parse(content.substring(separator + 1)), expiresAt));
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or half-written entry is treated as a miss and removed
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return Optional.empty();
+        }
+    }
+
+    // The disk tier only saves probes across restarts, so an entry that cannot be written is simply left in memory
+    private void writeToDisk(CacheEntry entry) {
+        if (!this.diskDirectory.isPresent() || !VideoId.isValid(entry.metadata.getId())) {
+            return;
+        }
+        Path file = this.diskDirectory.get().resolve(entry.metadata.getId() + DISK_ENTRY_SUFFIX);
+        Optional<Path> temporaryFile = Optional.empty();
+        try {
+            temporaryFile = Optional.of(Files.createTempFile(this.diskDirectory.get(), entry.metadata.getId(), ".tmp"));
+            String content = entry.expiresAt.toEpochMilli() + "\n" + entry.metadata.getJson();
+            Files.write(temporaryFile.get(), content.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryFile.get(), file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temporaryFile.isPresent()) {
+                    Files.deleteIfExists(temporaryFile.get());
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataCache{" +
+                "maxEntries=" + maxEntries +
+                ", timeToLive=" + timeToLive +
+                ", diskDirectory=" + diskDirectory +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+
+    private static class CacheEntry {
+        private final VideoMetadata metadata;
+        private final Instant expiresAt;
+
+        private CacheEntry(VideoMetadata metadata, Instant expiresAt) {
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(Instant now) {
+            return !now.isBefore(this.expiresAt);
+        }
+    }
+}
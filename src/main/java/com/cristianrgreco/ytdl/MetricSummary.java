@@ -0,0 +1,74 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+public class MetricSummary {
+    private final long count;
+    private final double total;
+    private final double min;
+    private final double max;
+    private final SortedMap<Double, Long> buckets;
+
+    MetricSummary(long count, double total, double min, double max, SortedMap<Double, Long> buckets) {
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.buckets = Collections.unmodifiableSortedMap(buckets);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return this.count == 0 ? 0 : this.total / this.count;
+    }
+
+    // The upper bound of every bucket that holds a value, with the number of values in it
+    public SortedMap<Double, Long> getBuckets() {
+        return buckets;
+    }
+
+    // Read from the buckets, so it overstates the exact value by at most an eighth, e.g. getPercentile(99)
+    public double getPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long seen = 0;
+        for (Map.Entry<Double, Long> bucket : this.buckets.entrySet()) {
+            seen += bucket.getValue();
+            if (seen >= rank) {
+                return Math.max(this.min, Math.min(this.max, bucket.getKey()));
+            }
+        }
+        return this.max;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricSummary{" +
+                "count=" + count +
+                ", total=" + total +
+                ", min=" + min +
+                ", max=" + max +
+                ", p50=" + getPercentile(50) +
+                ", p99=" + getPercentile(99) +
+                '}';
+    }
+}
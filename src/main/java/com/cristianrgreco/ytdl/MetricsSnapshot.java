@@ -0,0 +1,50 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class MetricsSnapshot {
+    private final Map<String, MetricSummary> timers;
+    private final Map<String, MetricSummary> summaries;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(
+            Map<String, MetricSummary> timers,
+            Map<String, MetricSummary> summaries,
+            Map<String, Long> counters,
+            Map<String, Long> gauges) {
+        this.timers = Collections.unmodifiableMap(new TreeMap<>(timers));
+        this.summaries = Collections.unmodifiableMap(new TreeMap<>(summaries));
+        this.counters = Collections.unmodifiableMap(new TreeMap<>(counters));
+        this.gauges = Collections.unmodifiableMap(new TreeMap<>(gauges));
+    }
+
+    // Timer values are in nanoseconds
+    public Map<String, MetricSummary> getTimers() {
+        return timers;
+    }
+
+    public Map<String, MetricSummary> getSummaries() {
+        return summaries;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "timers=" + timers +
+                ", summaries=" + summaries +
+                ", counters=" + counters +
+                ", gauges=" + gauges +
+                '}';
+    }
+}
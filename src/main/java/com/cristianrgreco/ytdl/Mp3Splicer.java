@@ -0,0 +1,258 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Joins MP3 segments that were encoded separately from overlapping slices of one input into a single gapless file.
+ * Each slice starts a whole number of frames into the input, so every frame of a segment lines up with a frame of one
+ * encode of the whole input, and the frames each segment owns are copied out in order. The overlap around them only
+ * lets the encoder settle, and is dropped. Frames must not borrow bits from the frames before them, so the segments
+ * are encoded without a bit reservoir. The first segment's Info frame leads the output and is rewritten for the whole
+ * file: frame and byte counts, seek table, the padding of the last segment and both CRCs.
+ */
+final class Mp3Splicer {
+    private static final int[][] BITRATES = {
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000}, {0, 0, 0}, {22050, 24000, 16000}, {44100, 48000, 32000}
+    };
+    private static final int VERSION_MPEG1 = 3;
+    private static final int XING_FRAMES = 0x1;
+    private static final int XING_BYTES = 0x2;
+    private static final int XING_TOC = 0x4;
+    private static final int XING_QUALITY = 0x8;
+    private static final int TOC_ENTRIES = 100;
+    private static final int LAME_DELAY_PADDING = 21;
+    private static final int LAME_MUSIC_LENGTH = 28;
+    private static final int LAME_MUSIC_CRC = 32;
+    private static final int LAME_TAG_CRC = 34;
+    private static final int LAME_TAG_LENGTH = 36;
+    private static final int MAX_FRAME_LENGTH = 2881;
+
+    private Mp3Splicer() {
+    }
+
+    static class Segment {
+        private final Path file;
+        private final long firstFrame;
+        private final long frames;
+
+        // Skips firstFrame audio frames, then keeps the given number of them, or the rest if that is negative
+        Segment(Path file, long firstFrame, long frames) {
+            this.file = file;
+            this.firstFrame = firstFrame;
+            this.frames = frames;
+        }
+    }
+
+    static void splice(List<Segment> segments, Path target) throws IOException, DownloadException {
+        byte[] infoFrame;
+        try (InputStream input = Files.newInputStream(segments.get(0).file)) {
+            infoFrame = readInfoFrame(new DataInputStream(new BufferedInputStream(input)), segments.get(0).file);
+        }
+        InfoTag info = InfoTag.of(infoFrame, segments.get(0).file);
+        Crc16 musicCrc = new Crc16();
+        long[] frameOffsets = new long[1024];
+        long frames = 0;
+        long bytes = infoFrame.length;
+        int padding = info.padding;
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(target))) {
+            output.write(infoFrame);
+            byte[] frame = new byte[MAX_FRAME_LENGTH];
+            for (Segment segment : segments) {
+                try (DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(segment.file)))) {
+                    byte[] segmentInfo = readInfoFrame(input, segment.file);
+                    for (long i = 0; i < segment.firstFrame; i++) {
+                        if (readFrame(input, frame, segment.file) < 0) {
+                            throw tooShort(segment);
+                        }
+                    }
+                    long copied = 0;
+                    int length;
+                    while ((segment.frames < 0 || copied < segment.frames)
+                            && (length = readFrame(input, frame, segment.file)) > 0) {
+                        if (frames == frameOffsets.length) {
+                            frameOffsets = Arrays.copyOf(frameOffsets, frameOffsets.length * 2);
+                        }
+                        frameOffsets[(int) frames++] = bytes;
+                        output.write(frame, 0, length);
+                        musicCrc.update(frame, 0, length);
+                        bytes += length;
+                        copied++;
+                    }
+                    if (segment.frames >= 0 && copied < segment.frames) {
+                        throw tooShort(segment);
+                    }
+                    // The last segment ends with the encoder's padding, and it is the padding of the whole file
+                    if (segment.frames < 0) {
+                        padding = InfoTag.of(segmentInfo, segment.file).padding;
+                    }
+                }
+            }
+        }
+        info.rewrite(infoFrame, frames, bytes, frameOffsets, padding, musicCrc.value());
+        try (RandomAccessFile output = new RandomAccessFile(target.toFile(), "rw")) {
+            output.write(infoFrame);
+        }
+    }
+
+    private static DownloadException tooShort(Segment segment) {
+        return new DownloadException(Message.from("ERROR: ffmpeg wrote too few frames to " + segment.file));
+    }
+
+    private static byte[] readInfoFrame(DataInputStream input, Path file) throws IOException, DownloadException {
+        byte[] frame = new byte[MAX_FRAME_LENGTH];
+        int length = readFrame(input, frame, file);
+        if (length < 0 || InfoTag.offset(frame) < 0) {
+            throw new DownloadException(Message.from("ERROR: " + file + " does not start with an Info frame"));
+        }
+        return Arrays.copyOf(frame, length);
+    }
+
+    // Returns the length of the frame read into the buffer, or -1 at the end of the file
+    private static int readFrame(DataInputStream input, byte[] frame, Path file) throws IOException, DownloadException {
+        try {
+            input.readFully(frame, 0, 4);
+        } catch (EOFException e) {
+            return -1;
+        }
+        int length = frameLength(frame);
+        if (length < 4) {
+            throw new DownloadException(Message.from("ERROR: " + file + " holds something other than MP3 frames"));
+        }
+        input.readFully(frame, 4, length - 4);
+        return length;
+    }
+
+    private static int frameLength(byte[] frame) {
+        int header = InfoTag.readInt(frame, 0);
+        int version = (header >>> 19) & 0x3;
+        int layer = (header >>> 17) & 0x3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 0x3;
+        if ((header >>> 21) != 0x7FF || version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 0xF
+                || sampleRateIndex == 3) {
+            return -1;
+        }
+        int bitrate = BITRATES[version == VERSION_MPEG1 ? 0 : 1][bitrateIndex] * 1000;
+        int sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+        int padding = (header >>> 9) & 0x1;
+        return (version == VERSION_MPEG1 ? 144 : 72) * bitrate / sampleRate + padding;
+    }
+
+    // The Xing or Info header, its optional fields and the LAME tag that follows them
+    private static class InfoTag {
+        private final int framesOffset;
+        private final int bytesOffset;
+        private final int tocOffset;
+        private final int lameOffset;
+        private final int padding;
+
+        private InfoTag(int framesOffset, int bytesOffset, int tocOffset, int lameOffset, int padding) {
+            this.framesOffset = framesOffset;
+            this.bytesOffset = bytesOffset;
+            this.tocOffset = tocOffset;
+            this.lameOffset = lameOffset;
+            this.padding = padding;
+        }
+
+        // Where "Xing" or "Info" starts, after the header, the optional CRC and the side information; -1 if absent
+        private static int offset(byte[] frame) {
+            int version = (frame[1] >>> 3) & 0x3;
+            boolean mono = ((frame[3] >>> 6) & 0x3) == 3;
+            boolean crc = (frame[1] & 0x1) == 0;
+            int sideInformation = version == VERSION_MPEG1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+            int offset = 4 + (crc ? 2 : 0) + sideInformation;
+            String tag = new String(frame, offset, 4, StandardCharsets.ISO_8859_1);
+            return tag.equals("Xing") || tag.equals("Info") ? offset : -1;
+        }
+
+        private static InfoTag of(byte[] frame, Path file) throws DownloadException {
+            int offset = offset(frame);
+            int flags = readInt(frame, offset + 4);
+            if ((flags & (XING_FRAMES | XING_BYTES | XING_TOC)) != (XING_FRAMES | XING_BYTES | XING_TOC)) {
+                throw new DownloadException(Message.from("ERROR: The Info frame of " + file + " has no seek table"));
+            }
+            int framesOffset = offset + 8;
+            int bytesOffset = framesOffset + 4;
+            int tocOffset = bytesOffset + 4;
+            int lameOffset = tocOffset + TOC_ENTRIES + ((flags & XING_QUALITY) != 0 ? 4 : 0);
+            if (lameOffset + LAME_TAG_LENGTH > frame.length) {
+                throw new DownloadException(Message.from("ERROR: The Info frame of " + file + " has no LAME tag"));
+            }
+            int delayPadding = ((frame[lameOffset + LAME_DELAY_PADDING] & 0xFF) << 16)
+                    | ((frame[lameOffset + LAME_DELAY_PADDING + 1] & 0xFF) << 8)
+                    | (frame[lameOffset + LAME_DELAY_PADDING + 2] & 0xFF);
+            return new InfoTag(framesOffset, bytesOffset, tocOffset, lameOffset, delayPadding & 0xFFF);
+        }
+
+        private void rewrite(byte[] frame, long frames, long bytes, long[] frameOffsets, int padding, int musicCrc) {
+            writeInt(frame, this.framesOffset, (int) frames);
+            writeInt(frame, this.bytesOffset, (int) bytes);
+            // Entry i is the position of the frame i% of the way through, as a fraction of 256 of the file size
+            for (int i = 0; i < TOC_ENTRIES; i++) {
+                long offset = frames == 0 ? 0 : frameOffsets[(int) (frames * i / TOC_ENTRIES)];
+                frame[this.tocOffset + i] = (byte) Math.min(255, offset * 256 / bytes);
+            }
+            int delayPaddingOffset = this.lameOffset + LAME_DELAY_PADDING;
+            frame[delayPaddingOffset + 1] = (byte) ((frame[delayPaddingOffset + 1] & 0xF0) | (padding >>> 8));
+            frame[delayPaddingOffset + 2] = (byte) padding;
+            writeInt(frame, this.lameOffset + LAME_MUSIC_LENGTH, (int) bytes);
+            writeShort(frame, this.lameOffset + LAME_MUSIC_CRC, musicCrc);
+            // The tag CRC covers the Info frame up to the CRC itself
+            Crc16 tagCrc = new Crc16();
+            tagCrc.update(frame, 0, this.lameOffset + LAME_TAG_CRC);
+            writeShort(frame, this.lameOffset + LAME_TAG_CRC, tagCrc.value());
+        }
+
+        private static int readInt(byte[] bytes, int offset) {
+            return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                    | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+        }
+
+        private static void writeInt(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte) (value >>> 24);
+            bytes[offset + 1] = (byte) (value >>> 16);
+            bytes[offset + 2] = (byte) (value >>> 8);
+            bytes[offset + 3] = (byte) value;
+        }
+
+        private static void writeShort(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte) (value >>> 8);
+            bytes[offset + 1] = (byte) value;
+        }
+    }
+
+    // CRC-16 with the reflected 0x8005 polynomial, as the LAME tag uses for both of its CRCs
+    private static class Crc16 {
+        private int crc;
+
+        private void update(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                this.crc ^= bytes[i] & 0xFF;
+                for (int bit = 0; bit < 8; bit++) {
+                    this.crc = (this.crc & 1) != 0 ? (this.crc >>> 1) ^ 0xA001 : this.crc >>> 1;
+                }
+            }
+        }
+
+        private int value() {
+            return this.crc & 0xFFFF;
+        }
+    }
+}
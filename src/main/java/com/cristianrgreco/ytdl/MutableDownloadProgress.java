@@ -0,0 +1,45 @@
+package com.cristianrgreco.ytdl;
+
+public class MutableDownloadProgress {
+    public static final long UNKNOWN = -1;
+
+    double percent;
+    long totalBytes;
+    double bytesPerSecond;
+    long etaSeconds;
+
+    int percentStart;
+    int percentEnd;
+    int fileSizeStart;
+    int fileSizeEnd;
+    int downloadSpeedStart;
+    int downloadSpeedEnd;
+    int etaStart;
+    int etaEnd;
+
+    public double getPercent() {
+        return percent;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "MutableDownloadProgress{" +
+                "percent=" + percent +
+                ", totalBytes=" + totalBytes +
+                ", bytesPerSecond=" + bytesPerSecond +
+                ", etaSeconds=" + etaSeconds +
+                '}';
+    }
+}
@@ -0,0 +1,86 @@
+package com.cristianrgreco.ytdl;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+// Picks the file a line refers to out of the "[download] Destination: ...", "[ffmpeg] Destination: ...",
+// "[ffmpeg] Merging formats into "..."" and "[download] ... has already been downloaded" forms
+class OutputDestination {
+    private static final String DESTINATION_PREFIX = "Destination: ";
+    private static final String MERGING_PREFIX = "Merging formats into \"";
+    private static final String MERGING_SUFFIX = "\"";
+    private static final String ALREADY_DOWNLOADED_SUFFIX = " has already been downloaded";
+    private static final String ALREADY_MERGED_SUFFIX = " has already been downloaded and merged";
+
+    private OutputDestination() {
+    }
+
+    // Called for every progress line too, so nothing is allocated until a destination is found
+    static Optional<Path> parse(OutputTag tag, CharSequence line) {
+        State state = tag.getState();
+        if (state != State.DOWNLOADING && state != State.MERGING && state != State.CONVERTING) {
+            return Optional.empty();
+        }
+        int start = indexAfterTag(line);
+        int end = line.length();
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        if (start >= end) {
+            return Optional.empty();
+        }
+
+        if (startsWith(line, start, end, DESTINATION_PREFIX)) {
+            return toPath(line, start + DESTINATION_PREFIX.length(), end);
+        } else if (startsWith(line, start, end, MERGING_PREFIX) && endsWith(line, start, end, MERGING_SUFFIX)) {
+            return toPath(line, start + MERGING_PREFIX.length(), end - MERGING_SUFFIX.length());
+        } else if (endsWith(line, start, end, ALREADY_MERGED_SUFFIX)) {
+            return toPath(line, start, end - ALREADY_MERGED_SUFFIX.length());
+        } else if (endsWith(line, start, end, ALREADY_DOWNLOADED_SUFFIX)) {
+            return toPath(line, start, end - ALREADY_DOWNLOADED_SUFFIX.length());
+        }
+        return Optional.empty();
+    }
+
+    private static int indexAfterTag(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ']') {
+                return i + 1;
+            }
+        }
+        return line.length();
+    }
+
+    private static boolean startsWith(CharSequence line, int start, int end, String prefix) {
+        return end - start >= prefix.length() && regionMatches(line, start, prefix);
+    }
+
+    private static boolean endsWith(CharSequence line, int start, int end, String suffix) {
+        return end - start >= suffix.length() && regionMatches(line, end - suffix.length(), suffix);
+    }
+
+    private static boolean regionMatches(CharSequence line, int offset, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (line.charAt(offset + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Optional<Path> toPath(CharSequence line, int start, int end) {
+        if (start >= end) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Paths.get(line.subSequence(start, end).toString()));
+        } catch (InvalidPathException e) {
+            return Optional.empty();
+        }
+    }
+}
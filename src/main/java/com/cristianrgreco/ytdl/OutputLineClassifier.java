@@ -0,0 +1,51 @@
+package com.cristianrgreco.ytdl;
+
+public class OutputLineClassifier {
+    private static final String WARNING_PREFIX = "WARNING:";
+    private static final String ERROR_PREFIX = "ERROR:";
+
+    private final MutableDownloadProgress scannedProgress = new MutableDownloadProgress();
+
+    public void classify(CharSequence line, OutputLineHandler handler) {
+        int length = line.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        if (start == length) {
+            return;
+        }
+
+        char first = line.charAt(start);
+        if (first == '[') {
+            int end = start + 1;
+            while (end < length && line.charAt(end) != ']') {
+                end++;
+            }
+            if (end < length) {
+                OutputTag tag = OutputTag.of(line, start + 1, end);
+                handler.onTaggedLine(tag, line);
+                if (tag.getState() == State.DOWNLOADING && DownloadProgressScanner.scan(line, this.scannedProgress)) {
+                    handler.onProgress(line, this.scannedProgress);
+                }
+                return;
+            }
+        } else if (startsWith(line, start, WARNING_PREFIX) || startsWith(line, start, ERROR_PREFIX)) {
+            handler.onMessage(line);
+            return;
+        }
+        handler.onUntaggedLine(line);
+    }
+
+    private static boolean startsWith(CharSequence line, int start, String prefix) {
+        if (start + prefix.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,15 @@
+package com.cristianrgreco.ytdl;
+
+public interface OutputLineHandler {
+    default void onTaggedLine(OutputTag tag, CharSequence line) {
+    }
+
+    default void onProgress(CharSequence line, MutableDownloadProgress progress) {
+    }
+
+    default void onMessage(CharSequence line) {
+    }
+
+    default void onUntaggedLine(CharSequence line) {
+    }
+}
@@ -0,0 +1,53 @@
+package com.cristianrgreco.ytdl;
+
+public enum OutputTag {
+    YOUTUBE("youtube", State.RESOLVING),
+    INFO("info", State.RESOLVING),
+    DOWNLOAD("download", State.DOWNLOADING),
+    HLS_NATIVE("hlsnative", State.DOWNLOADING),
+    DASH_SEGMENTS("dashsegments", State.DOWNLOADING),
+    FFMPEG("ffmpeg", State.CONVERTING),
+    EXTRACT_AUDIO("ExtractAudio", State.CONVERTING),
+    MERGER("Merger", State.MERGING),
+    OTHER("", State.NONE);
+
+    private static final OutputTag[] KNOWN_TAGS = {
+            YOUTUBE, INFO, DOWNLOAD, HLS_NATIVE, DASH_SEGMENTS, FFMPEG, EXTRACT_AUDIO, MERGER
+    };
+
+    private final String tag;
+    private final State state;
+
+    OutputTag(String tag, State state) {
+        this.tag = tag;
+        this.state = state;
+    }
+
+    // Matches the characters between the brackets in place, so classifying a line allocates nothing
+    static OutputTag of(CharSequence line, int start, int end) {
+        int length = end - start;
+        for (OutputTag candidate : KNOWN_TAGS) {
+            if (candidate.tag.length() == length && regionMatches(line, start, candidate.tag)) {
+                return candidate;
+            }
+        }
+        return OTHER;
+    }
+
+    private static boolean regionMatches(CharSequence line, int start, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (line.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
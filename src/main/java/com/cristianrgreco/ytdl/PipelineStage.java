@@ -0,0 +1,81 @@
+package com.cristianrgreco.ytdl;
+
+// Live counters for one stage of a DownloadPipeline. Times are in nanoseconds, like InMemoryMetricsListener timers
+public class PipelineStage {
+    private final String name;
+    private int queueDepth;
+    private int active;
+    private long completed;
+    private long failed;
+    private final Histogram queueTime = new Histogram();
+    private final Histogram serviceTime = new Histogram();
+
+    PipelineStage(String name) {
+        this.name = name;
+    }
+
+    synchronized void enqueued() {
+        this.queueDepth++;
+    }
+
+    // Returns the time the job started, to be handed back to finished()
+    synchronized long started(long enqueuedNanos) {
+        long now = System.nanoTime();
+        this.queueDepth--;
+        this.active++;
+        this.queueTime.record(now - enqueuedNanos);
+        return now;
+    }
+
+    synchronized void finished(long startedNanos, boolean succeeded) {
+        this.active--;
+        if (succeeded) {
+            this.completed++;
+        } else {
+            this.failed++;
+        }
+        this.serviceTime.record(System.nanoTime() - startedNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    // From entering the stage's queue until the stage starts work on the job
+    public synchronized MetricSummary getQueueTime() {
+        return this.queueTime.summarise();
+    }
+
+    public synchronized MetricSummary getServiceTime() {
+        return this.serviceTime.summarise();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PipelineStage{" +
+                "name='" + name + '\'' +
+                ", queueDepth=" + queueDepth +
+                ", active=" + active +
+                ", completed=" + completed +
+                ", failed=" + failed +
+                ", queueTime=" + queueTime.summarise() +
+                ", serviceTime=" + serviceTime.summarise() +
+                '}';
+    }
+}
@@ -0,0 +1,11 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.util.List;
+
+public class ProcessExecutionBackend implements BaseExecutionBackend {
+    @Override
+    public Process start(List<String> command) throws IOException {
+        return new ProcessBuilder(command).start();
+    }
+}
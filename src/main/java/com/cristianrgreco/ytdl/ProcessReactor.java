@@ -0,0 +1,416 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/*
+ * Reads the output of any number of child processes on a fixed set of event-loop threads. Process pipes are not
+ * selectable channels, so each loop polls its pipes with available() and backs off while all of them are quiet.
+ * A loop borrows one read buffer and one decode buffer from a shared pool for all its pipes and returns them when it
+ * stops. The pipes are only InputStreams, which read into a byte array, so the pooled buffers are heap buffers; a
+ * direct one would only add a copy. Lines are split into a per-pipe char array that is recycled once consumed, and the
+ * consumer sees each line through one reused view, so no String is made per line.
+ * The loops only read and split lines. Each poll's lines are handed to the consumer as one batch on a bounded dispatch
+ * pool, one batch at a time per pipe, so a consumer that blocks holds up its own process and one dispatch thread.
+ */
+public class ProcessReactor implements AutoCloseable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int INITIAL_BATCH_CHARS = 256;
+    private static final int INITIAL_BATCH_LINES = 16;
+    private static final int MAX_CARRIED_BYTES = 3;
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final int DISPATCH_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    // Shared by every reactor and never shut down, so a batch is never rejected by a reactor closing under it. Batches
+    // queue once every thread is busy, however many pipes have slow consumers
+    private static final ThreadPoolExecutor DISPATCHER = createDispatcher();
+
+    private static final Queue<LoopBuffers> LOOP_BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private final AtomicInteger registered = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ProcessReactor(int eventLoops) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+        ThreadFactory threadFactory = new DaemonThreadFactory("ytdl-reactor");
+        this.eventLoops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            this.eventLoops[i] = new EventLoop(threadFactory);
+            this.eventLoops[i].thread.start();
+        }
+    }
+
+    // The returned future completes once the stream has ended and its last line has been consumed. Calls to the
+    // consumer never overlap, but need not come from the same thread. The line passed in is reused for the next one,
+    // so it is only valid during the call
+    public CompletableFuture<Void> register(Process process, InputStream stream, Consumer<CharSequence> lines) {
+        if (this.closed) {
+            throw new IllegalStateException("Reactor is closed");
+        }
+        Registration registration = new Registration(process, stream, lines);
+        EventLoop eventLoop = this.eventLoops[Math.floorMod(this.nextEventLoop.getAndIncrement(), this.eventLoops.length)];
+        this.registered.incrementAndGet();
+        eventLoop.pending.add(registration);
+        LockSupport.unpark(eventLoop.thread);
+        if (this.closed) {
+            // The loop may already have stopped and never see it
+            registration.done.completeExceptionally(new IllegalStateException("Reactor is closed"));
+        }
+        return registration.done;
+    }
+
+    public int getEventLoops() {
+        return this.eventLoops.length;
+    }
+
+    public int getRegistered() {
+        return this.registered.get();
+    }
+
+    static int getDispatchThreads() {
+        return DISPATCH_THREADS;
+    }
+
+    static int getLargestDispatchPoolSize() {
+        return DISPATCHER.getLargestPoolSize();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for (EventLoop eventLoop : this.eventLoops) {
+            LockSupport.unpark(eventLoop.thread);
+        }
+    }
+
+    private static ThreadPoolExecutor createDispatcher() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(DISPATCH_THREADS, DISPATCH_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("ytdl-reactor-dispatch"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static class LoopBuffers {
+        private final ByteBuffer read = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final CharBuffer decoded = CharBuffer.allocate(READ_BUFFER_SIZE);
+    }
+
+    private class EventLoop implements Runnable {
+        private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+        private final List<Registration> registrations = new ArrayList<>();
+        private final Thread thread;
+
+        private EventLoop(ThreadFactory threadFactory) {
+            this.thread = threadFactory.newThread(this);
+        }
+
+        @Override
+        public void run() {
+            LoopBuffers buffers = LOOP_BUFFERS.poll();
+            if (buffers == null) {
+                buffers = new LoopBuffers();
+            }
+            try {
+                this.runUntilClosed(buffers);
+            } finally {
+                LOOP_BUFFERS.add(buffers);
+            }
+        }
+
+        private void runUntilClosed(LoopBuffers buffers) {
+            long idleNanos = MIN_IDLE_NANOS;
+            while (!closed) {
+                Registration added;
+                while ((added = this.pending.poll()) != null) {
+                    this.registrations.add(added);
+                }
+                boolean progressed = false;
+                Iterator<Registration> iterator = this.registrations.iterator();
+                while (iterator.hasNext()) {
+                    Registration registration = iterator.next();
+                    progressed |= registration.poll(buffers.read, buffers.decoded);
+                    if (registration.finished) {
+                        // Deregistered before completing, so a caller woken by the future sees the count drop
+                        iterator.remove();
+                        registered.decrementAndGet();
+                        registration.completeAfterDispatch();
+                    }
+                }
+                if (progressed) {
+                    idleNanos = MIN_IDLE_NANOS;
+                } else {
+                    LockSupport.parkNanos(idleNanos);
+                    idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+                }
+            }
+            IllegalStateException failure = new IllegalStateException("Reactor is closed");
+            this.registrations.forEach(registration -> registration.done.completeExceptionally(failure));
+            this.pending.forEach(registration -> registration.done.completeExceptionally(failure));
+        }
+    }
+
+    private static class Registration {
+        private final Process process;
+        private final InputStream stream;
+        private final Consumer<CharSequence> lines;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final byte[] carried = new byte[MAX_CARRIED_BYTES];
+        private int carriedLength;
+        private boolean afterCarriageReturn;
+        // Holds the lines of the current poll followed by the partial line; the loop takes spares, consumers return them
+        private LineBatch batch = new LineBatch();
+        private final Queue<LineBatch> spareBatches = new ConcurrentLinkedQueue<>();
+        // Only touched by consume(), whose calls never overlap
+        private final LineView view = new LineView();
+        // Only the event loop appends to the chain, so each batch starts once the one before it has been consumed
+        private CompletableFuture<Void> dispatched = CompletableFuture.completedFuture(null);
+        private volatile Throwable consumerFailure;
+        private boolean finished;
+        private Throwable failure;
+
+        private Registration(Process process, InputStream stream, Consumer<CharSequence> lines) {
+            this.process = process;
+            this.stream = stream;
+            this.lines = lines;
+        }
+
+        // Never blocks. A grandchild can hold the pipe open after the process has gone, so the end of output is taken
+        // to be the first poll that finds the process gone and nothing left in the pipe, rather than EOF
+        private boolean poll(ByteBuffer readBuffer, CharBuffer decodeBuffer) {
+            try {
+                // Checked before the pipe, so that anything written before the process exited is already buffered
+                boolean alive = this.process.isAlive();
+                int available = this.stream.available();
+                if (available > 0) {
+                    readBuffer.clear();
+                    readBuffer.put(this.carried, 0, this.carriedLength);
+                    int read = this.stream.read(readBuffer.array(), readBuffer.position(),
+                            Math.min(available, readBuffer.remaining()));
+                    if (read > 0) {
+                        readBuffer.position(readBuffer.position() + read);
+                        readBuffer.flip();
+                        this.decode(readBuffer, decodeBuffer, false);
+                    }
+                    this.dispatch();
+                    return true;
+                }
+                if (alive) {
+                    return false;
+                }
+                readBuffer.clear();
+                readBuffer.put(this.carried, 0, this.carriedLength);
+                readBuffer.flip();
+                this.decode(readBuffer, decodeBuffer, true);
+                if (this.batch.hasPartialLine()) {
+                    this.batch.endLine();
+                }
+                this.dispatch();
+            } catch (Throwable e) {
+                this.failure = e;
+            }
+            this.close();
+            this.finished = true;
+            return true;
+        }
+
+        // A grandchild still writing to the pipe gets a broken pipe instead of blocking on it forever
+        private void close() {
+            try {
+                this.stream.close();
+            } catch (IOException e) {
+                // Nothing more will be read from it either way
+            }
+        }
+
+        private void dispatch() {
+            if (this.batch.lines == 0) {
+                return;
+            }
+            LineBatch lines = this.batch;
+            LineBatch next = this.spareBatches.poll();
+            this.batch = next != null ? next : new LineBatch();
+            lines.movePartialLineTo(this.batch);
+            this.dispatched = this.dispatched.thenRunAsync(() -> this.consume(lines), DISPATCHER);
+        }
+
+        private void consume(LineBatch batch) {
+            try {
+                if (this.consumerFailure != null) {
+                    return;
+                }
+                int start = 0;
+                for (int i = 0; i < batch.lines; i++) {
+                    int end = batch.lineEnds[i];
+                    this.view.show(batch.chars, start, end);
+                    this.lines.accept(this.view);
+                    start = end;
+                }
+            } catch (Throwable e) {
+                // The rest of the output is read and dropped, and nobody is left to act on it, so the process goes
+                this.consumerFailure = e;
+                this.process.destroyForcibly();
+            } finally {
+                this.view.show(null, 0, 0);
+                batch.clear();
+                this.spareBatches.add(batch);
+            }
+        }
+
+        private void completeAfterDispatch() {
+            this.dispatched.whenComplete((ignored, e) -> {
+                // Destroying the process after a consumer failure also closes its pipe, so that failure comes first
+                Throwable cause = this.consumerFailure != null ? this.consumerFailure : this.failure;
+                if (cause == null) {
+                    this.done.complete(null);
+                } else {
+                    this.done.completeExceptionally(cause);
+                }
+            });
+        }
+
+        private void decode(ByteBuffer input, CharBuffer decodeBuffer, boolean endOfInput) {
+            while (true) {
+                decodeBuffer.clear();
+                boolean overflow = this.decoder.decode(input, decodeBuffer, endOfInput).isOverflow();
+                if (!overflow && endOfInput) {
+                    this.decoder.flush(decodeBuffer);
+                    this.decoder.reset();
+                }
+                decodeBuffer.flip();
+                this.split(decodeBuffer);
+                if (!overflow) {
+                    break;
+                }
+            }
+            // An incomplete multi-byte sequence is kept and put in front of the next read
+            this.carriedLength = input.remaining();
+            input.get(this.carried, 0, this.carriedLength);
+        }
+
+        // Same line endings as BufferedReader.readLine(): \n, \r and \r\n
+        private void split(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n' && this.afterCarriageReturn) {
+                    this.afterCarriageReturn = false;
+                } else if (c == '\n' || c == '\r') {
+                    this.afterCarriageReturn = c == '\r';
+                    this.batch.endLine();
+                } else {
+                    this.afterCarriageReturn = false;
+                    this.batch.append(c);
+                }
+            }
+        }
+    }
+
+    // The lines of one poll back to back in a single array, with where each of them ends
+    private static class LineBatch {
+        private char[] chars = new char[INITIAL_BATCH_CHARS];
+        private int length;
+        private int[] lineEnds = new int[INITIAL_BATCH_LINES];
+        private int lines;
+
+        private void append(char c) {
+            if (this.length == this.chars.length) {
+                this.chars = Arrays.copyOf(this.chars, this.length * 2);
+            }
+            this.chars[this.length++] = c;
+        }
+
+        private void endLine() {
+            if (this.lines == this.lineEnds.length) {
+                this.lineEnds = Arrays.copyOf(this.lineEnds, this.lines * 2);
+            }
+            this.lineEnds[this.lines++] = this.length;
+        }
+
+        private int partialLineStart() {
+            return this.lines == 0 ? 0 : this.lineEnds[this.lines - 1];
+        }
+
+        private boolean hasPartialLine() {
+            return this.length > this.partialLineStart();
+        }
+
+        private void movePartialLineTo(LineBatch target) {
+            int start = this.partialLineStart();
+            for (int i = start; i < this.length; i++) {
+                target.append(this.chars[i]);
+            }
+            this.length = start;
+        }
+
+        private void clear() {
+            this.length = 0;
+            this.lines = 0;
+        }
+    }
+
+    // Only valid during the consumer call it is passed to; a consumer that keeps a line keeps toString()
+    private static class LineView implements CharSequence {
+        private char[] chars;
+        private int start;
+        private int end;
+
+        private void show(char[] chars, int start, int end) {
+            this.chars = chars;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return this.end - this.start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length()) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + this.length());
+            }
+            return this.chars[this.start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > this.length() || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + this.length());
+            }
+            return new String(this.chars, this.start + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.chars, this.start, this.length());
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Fetches a direct media URL over several connections at once. The target file is preallocated and every byte range
+ * is written at its own offset, so chunks may finish in any order. A chunk that fails part way through is retried
+ * from the last byte written. Servers that do not honour Range are fetched over a single connection instead.
+ */
+public class RangedFetcher {
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final long DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+    private static final String PROGRESS_TAG = "download";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+
+    private static final ExecutorService CONNECTIONS =
+            Executors.newCachedThreadPool(new DaemonThreadFactory("ytdl-fetch"));
+
+    private final int connections;
+    private final long chunkBytes;
+    private final int maxAttempts;
+    private final AtomicLong chunksFetched = new AtomicLong();
+    private final AtomicLong chunksRetried = new AtomicLong();
+
+    public RangedFetcher() {
+        this(DEFAULT_CONNECTIONS, DEFAULT_CHUNK_BYTES, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public RangedFetcher(int connections, long chunkBytes, int maxAttempts) {
+        if (connections < 1 || chunkBytes < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Connections, chunk size and attempts must all be positive");
+        }
+        this.connections = connections;
+        this.chunkBytes = chunkBytes;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void fetch(URL source, Path target, Optional<DownloadProgressUpdateEvent> progressUpdateCallback)
+            throws DownloadException {
+        this.fetch(source, Collections.emptyMap(), target, progressUpdateCallback);
+    }
+
+    // The headers youtube-dl resolved with the URL, e.g. User-Agent or Cookie, go with every request
+    public void fetch(
+            URL source,
+            Map<String, String> httpHeaders,
+            Path target,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        Fetch fetch = new Fetch(source, httpHeaders, progressUpdateCallback);
+        try (FileChannel channel = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long length = this.attempt(fetch, () -> rangedLength(fetch));
+            if (length < 0) {
+                this.attempt(fetch, () -> this.fetchWhole(fetch, channel));
+                return;
+            }
+            if (length > 0) {
+                channel.write(ByteBuffer.allocate(1), length - 1);
+            }
+            fetch.totalBytes = length;
+            int chunks = (int) ((length + this.chunkBytes - 1) / this.chunkBytes);
+            AtomicInteger nextChunk = new AtomicInteger();
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(this.connections, chunks); i++) {
+                workers.add(CompletableFuture.runAsync(() -> {
+                    // Each connection reuses its buffer for every chunk it fetches
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                    int chunk;
+                    while (!fetch.failed && (chunk = nextChunk.getAndIncrement()) < chunks) {
+                        this.fetchChunk(fetch, channel, chunk, buffer);
+                    }
+                }, CONNECTIONS));
+            }
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).join();
+        } catch (IOException e) {
+            throw fetch.failure(e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DownloadException) {
+                throw (DownloadException) e.getCause();
+            }
+            throw fetch.failure(e.getCause());
+        }
+    }
+
+    public long getChunksFetched() {
+        return this.chunksFetched.get();
+    }
+
+    public long getChunksRetried() {
+        return this.chunksRetried.get();
+    }
+
+    private void fetchChunk(Fetch fetch, FileChannel channel, int chunk, ByteBuffer buffer) {
+        long start = chunk * this.chunkBytes;
+        long[] position = {start};
+        long end = Math.min(fetch.totalBytes, start + this.chunkBytes) - 1;
+        try {
+            this.attempt(fetch, () -> {
+                HttpURLConnection connection = open(fetch);
+                connection.setRequestProperty("Range", "bytes=" + position[0] + "-" + end);
+                try {
+                    if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                        throw new IOException("Expected a partial response but got " + connection.getResponseCode());
+                    }
+                    this.transfer(fetch, connection.getInputStream(), channel, buffer, position, end);
+                    if (position[0] <= end) {
+                        throw new IOException("Connection closed at byte " + position[0] + " of " + (end + 1));
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+                return null;
+            });
+        } catch (DownloadException e) {
+            fetch.failed = true;
+            throw new CompletionException(e);
+        }
+        this.chunksFetched.incrementAndGet();
+        fetch.report();
+    }
+
+    // Advances position as bytes are written, so a retry carries on from there; never writes past end, even if the
+    // server sends more than was asked for
+    private void transfer(
+            Fetch fetch,
+            InputStream input,
+            FileChannel channel,
+            ByteBuffer buffer,
+            long[] position,
+            long end) throws IOException {
+        try (ReadableByteChannel source = Channels.newChannel(input)) {
+            while (position[0] <= end && !fetch.failed) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position[0] + 1));
+                if (source.read(buffer) == -1) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    int written = channel.write(buffer, position[0]);
+                    position[0] += written;
+                    fetch.bytesFetched.addAndGet(written);
+                }
+            }
+        }
+    }
+
+    private Long fetchWhole(Fetch fetch, FileChannel channel) throws IOException {
+        channel.truncate(0);
+        fetch.bytesFetched.set(0);
+        HttpURLConnection connection = open(fetch);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + connection.getResponseCode());
+            }
+            fetch.totalBytes = connection.getContentLengthLong();
+            long[] position = {0};
+            this.transfer(fetch, connection.getInputStream(), channel, ByteBuffer.allocateDirect(BUFFER_SIZE), position,
+                    Long.MAX_VALUE - 1);
+            fetch.totalBytes = position[0];
+        } finally {
+            connection.disconnect();
+        }
+        this.chunksFetched.incrementAndGet();
+        fetch.report();
+        return fetch.totalBytes;
+    }
+
+    // A one-byte ranged request tells both whether ranges are honoured and how long the file is
+    private static Long rangedLength(Fetch fetch) throws IOException {
+        HttpURLConnection connection = open(fetch);
+        connection.setRequestProperty("Range", "bytes=0-0");
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                return -1L;
+            } else if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Unexpected response " + responseCode);
+            }
+            String contentRange = connection.getHeaderField("Content-Range");
+            Matcher matcher = CONTENT_RANGE.matcher(contentRange != null ? contentRange : "");
+            return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1L;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private <T> T attempt(Fetch fetch, Attempt<T> attempt) throws DownloadException {
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                if (attempts >= this.maxAttempts || fetch.failed) {
+                    throw fetch.failure(e);
+                }
+                this.chunksRetried.incrementAndGet();
+                fetch.report();
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempts);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw fetch.failure(interrupted);
+                }
+            }
+        }
+    }
+
+    private static HttpURLConnection open(Fetch fetch) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) fetch.source.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        fetch.httpHeaders.forEach(connection::setRequestProperty);
+        return connection;
+    }
+
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private static class Fetch {
+        private final URL source;
+        private final Map<String, String> httpHeaders;
+        private final Optional<DownloadProgressUpdateEvent> progressUpdateCallback;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong bytesFetched = new AtomicLong();
+        private volatile long totalBytes = MutableDownloadProgress.UNKNOWN;
+        private volatile boolean failed;
+        private DownloadException failure;
+
+        private Fetch(
+                URL source,
+                Map<String, String> httpHeaders,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+            this.source = source;
+            this.httpHeaders = httpHeaders;
+            this.progressUpdateCallback = progressUpdateCallback;
+        }
+
+        // Connections finish chunks concurrently, but the callback sees one update at a time
+        private synchronized void report() {
+            if (!this.progressUpdateCallback.isPresent() || this.totalBytes < 0) {
+                return;
+            }
+            long fetched = this.bytesFetched.get();
+            double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+            double bytesPerSecond = seconds > 0 ? fetched / seconds : -1;
+            long etaSeconds = bytesPerSecond > 0 ? (long) ((this.totalBytes - fetched) / bytesPerSecond) : -1;
+            double percent = this.totalBytes > 0 ? 100.0 * fetched / this.totalBytes : 100.0;
+            this.progressUpdateCallback.get().callback(
+                    DownloadProgress.of(PROGRESS_TAG, percent, this.totalBytes, bytesPerSecond, etaSeconds));
+        }
+
+        // The first failure is the one reported; the connections it stops fail with it
+        private synchronized DownloadException failure(Throwable cause) {
+            if (this.failure == null) {
+                this.failure = new DownloadException(
+                        Message.from("ERROR: Unable to fetch " + this.source + ": " + cause.getMessage()));
+                this.failed = true;
+            }
+            return this.failure;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Encodes audio with ffmpeg directly rather than through youtube-dl's single ffmpeg run. Long inputs are cut near video
+ * keyframes into one segment per core, each cut moved to an MP3 frame boundary, and the segments are encoded to MP3 in
+ * parallel. Each encode reads a few frames either side of its segment so the encoder has settled by the cut, and the
+ * frames are spliced into one gapless file by Mp3Splicer. Only software codecs are used, so the output is the same on
+ * every machine.
+ */
+public class SegmentedTranscoder {
+    private static final String PROGRESS_TAG = "ffmpeg";
+    private static final String[] PROGRESS_TIME_KEYS = {"out_time_us=", "out_time_ms="};
+    private static final String PROGRESS_END_KEY = "progress=";
+    private static final int OVERLAP_FRAMES = 8;
+    private static final int[] MP3_SAMPLE_RATES = {8000, 11025, 12000, 16000, 22050, 24000, 32000, 44100, 48000};
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(new DaemonThreadFactory("ytdl-transcode"));
+    private static final BaseExecutionBackend BACKEND = new ProcessExecutionBackend();
+
+    private final String ffmpegBinary;
+    private final String ffprobeBinary;
+    private final int parallelism;
+    private final Duration minimumSegmentLength;
+
+    public SegmentedTranscoder(BaseBinaryConfiguration binaryConfiguration) {
+        this(binaryConfiguration, Runtime.getRuntime().availableProcessors(), Duration.ofMinutes(2));
+    }
+
+    public SegmentedTranscoder(BaseBinaryConfiguration binaryConfiguration, int parallelism, Duration minimumSegmentLength) {
+        if (parallelism < 1 || minimumSegmentLength.isNegative() || minimumSegmentLength.isZero()) {
+            throw new IllegalArgumentException("Parallelism and minimum segment length must be positive");
+        }
+        this.ffmpegBinary = binaryConfiguration.getFfmpegBinary().getAbsolutePath();
+        this.ffprobeBinary = binaryConfiguration.getFfprobeBinary().getAbsolutePath();
+        this.parallelism = parallelism;
+        this.minimumSegmentLength = minimumSegmentLength;
+    }
+
+    public void transcodeAudio(
+            Path source,
+            Path target,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        this.transcodeAudio(source, target, progressUpdateCallback, Optional.empty());
+    }
+
+    // Every ffmpeg and ffprobe process is reported to the listener of the download it runs for
+    void transcodeAudio(
+            Path source,
+            Path target,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Optional<BaseMetricsListener> metricsListener) throws DownloadException {
+        AudioStream audio = this.probeAudio(source, metricsListener);
+        double duration = audio.duration;
+        int segments = (int) Math.max(1, Math.min(this.parallelism, duration / this.minimumSegmentLength.getSeconds()));
+        if (segments == 1) {
+            TranscodeProgress progress = new TranscodeProgress(
+                    duration, size(source), new double[]{duration}, progressUpdateCallback);
+            this.encode(source, Slice.whole(target), progress, 0, Collections.synchronizedList(new ArrayList<>()),
+                    metricsListener);
+            return;
+        }
+        int sampleRate = mp3SampleRate(audio.sampleRate);
+        int frameSamples = sampleRate >= 32000 ? 1152 : 576;
+        List<Double> starts = segmentStarts(duration, segments, this.probeKeyframes(source, metricsListener));
+        List<Long> firstFrames = frameStarts(starts, sampleRate, frameSamples);
+        double frameSeconds = frameSamples / (double) sampleRate;
+        double[] lengths = new double[firstFrames.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = i + 1 < lengths.length
+                    ? (firstFrames.get(i + 1) - firstFrames.get(i)) * frameSeconds
+                    : Math.max(0, duration - firstFrames.get(i) * frameSeconds);
+        }
+        TranscodeProgress progress = new TranscodeProgress(duration, size(source), lengths, progressUpdateCallback);
+        Path segmentDirectory = createSegmentDirectory(target);
+        try {
+            List<Mp3Splicer.Segment> spliced = new ArrayList<>();
+            List<Slice> slices = new ArrayList<>();
+            for (int i = 0; i < firstFrames.size(); i++) {
+                long firstFrame = firstFrames.get(i);
+                long inputFrame = Math.max(0, firstFrame - OVERLAP_FRAMES);
+                Optional<Long> endFrame = i + 1 < firstFrames.size()
+                        ? Optional.of(firstFrames.get(i + 1))
+                        : Optional.empty();
+                Path file = segmentDirectory.resolve(
+                        String.format(Locale.ROOT, "segment-%03d.%s", i, YouTubeDownloader.AUDIO_FORMAT));
+                Optional<Double> length = endFrame.map(end -> (end + OVERLAP_FRAMES - inputFrame) * frameSeconds);
+                slices.add(new Slice(file, inputFrame * frameSeconds, length, Optional.of(sampleRate)));
+                spliced.add(new Mp3Splicer.Segment(file, firstFrame - inputFrame,
+                        endFrame.map(end -> end - firstFrame).orElse(-1L)));
+            }
+            this.encodeSegments(source, slices, progress, metricsListener);
+            Mp3Splicer.splice(spliced, target);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deleteRecursively(segmentDirectory);
+        }
+    }
+
+    // Ideal cut points are evenly spaced and then moved to the nearest keyframe, so every segment decodes on its own
+    static List<Double> segmentStarts(double duration, int segments, List<Double> keyframes) {
+        List<Double> starts = new ArrayList<>();
+        starts.add(0.0);
+        for (int i = 1; i < segments; i++) {
+            double ideal = duration * i / segments;
+            double start = keyframes.isEmpty() ? ideal : nearest(keyframes, ideal);
+            if (start > starts.get(starts.size() - 1) && start < duration) {
+                starts.add(start);
+            }
+        }
+        return starts;
+    }
+
+    private static double nearest(List<Double> keyframes, double time) {
+        double nearest = keyframes.get(0);
+        for (double keyframe : keyframes) {
+            if (Math.abs(keyframe - time) < Math.abs(nearest - time)) {
+                nearest = keyframe;
+            }
+        }
+        return nearest;
+    }
+
+    // Cuts are rounded to whole frames of the output, so the frames of every segment line up with each other
+    static List<Long> frameStarts(List<Double> starts, int sampleRate, int frameSamples) {
+        List<Long> frames = new ArrayList<>();
+        for (double start : starts) {
+            long frame = Math.round(start * sampleRate / frameSamples);
+            if (frames.isEmpty() || frame > frames.get(frames.size() - 1)) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    // The input rate when MP3 has it, otherwise the highest MP3 rate below it
+    static int mp3SampleRate(int sampleRate) {
+        int chosen = MP3_SAMPLE_RATES[0];
+        for (int rate : MP3_SAMPLE_RATES) {
+            if (rate <= sampleRate) {
+                chosen = rate;
+            }
+        }
+        return chosen;
+    }
+
+    private void encodeSegments(
+            Path source,
+            List<Slice> slices,
+            TranscodeProgress progress,
+            Optional<BaseMetricsListener> metricsListener) throws DownloadException {
+        List<Process> processes = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<DownloadException> firstFailure = new AtomicReference<>();
+        List<CompletableFuture<Void>> encodes = new ArrayList<>();
+        for (int i = 0; i < slices.size(); i++) {
+            int segment = i;
+            CompletableFuture<Void> encode = new CompletableFuture<>();
+            WORKERS.execute(() -> {
+                try {
+                    this.encode(source, slices.get(segment), progress, segment, processes, metricsListener);
+                    encode.complete(null);
+                } catch (DownloadException e) {
+                    // One failed segment spoils the output, so the others are stopped rather than left to finish
+                    if (firstFailure.compareAndSet(null, e)) {
+                        processes.forEach(Process::destroyForcibly);
+                    }
+                    encode.complete(null);
+                } catch (RuntimeException e) {
+                    // A segment stopped because another failed can lose its pipes under it; that failure is reported
+                    if (firstFailure.get() != null) {
+                        encode.complete(null);
+                        return;
+                    }
+                    processes.forEach(Process::destroyForcibly);
+                    encode.completeExceptionally(e);
+                }
+            });
+            encodes.add(encode);
+        }
+        CompletableFuture.allOf(encodes.toArray(new CompletableFuture<?>[0])).join();
+        if (firstFailure.get() != null) {
+            throw firstFailure.get();
+        }
+    }
+
+    // A slice to be spliced is encoded without the bit reservoir or an ID3 tag, so that its frames stand alone
+    private void encode(
+            Path source,
+            Slice slice,
+            TranscodeProgress progress,
+            int segment,
+            List<Process> processes,
+            Optional<BaseMetricsListener> metricsListener) throws DownloadException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                this.ffmpegBinary, "-hide_banner", "-loglevel", "error", "-nostdin", "-y"));
+        if (slice.start > 0) {
+            command.addAll(Arrays.asList("-ss", seconds(slice.start)));
+        }
+        if (slice.length.isPresent()) {
+            command.addAll(Arrays.asList("-t", seconds(slice.length.get())));
+        }
+        command.addAll(Arrays.asList(
+                "-i", source.toString(),
+                "-vn",
+                "-c:a", "libmp3lame",
+                "-q:a", "0"));
+        if (slice.sampleRate.isPresent()) {
+            command.addAll(Arrays.asList(
+                    "-ar", Integer.toString(slice.sampleRate.get()),
+                    "-reservoir", "0",
+                    "-id3v2_version", "0"));
+        }
+        command.addAll(Arrays.asList(
+                "-f", YouTubeDownloader.AUDIO_FORMAT,
+                "-progress", "pipe:1",
+                slice.file.toString()));
+        this.run(command, line -> progress.update(segment, line), processes, metricsListener);
+        progress.finished(segment);
+    }
+
+    private AudioStream probeAudio(Path source, Optional<BaseMetricsListener> metricsListener)
+            throws DownloadException {
+        List<String> output = new ArrayList<>();
+        this.run(Arrays.asList(
+                this.ffprobeBinary, "-v", "error",
+                "-select_streams", "a:0",
+                "-show_entries", "format=duration:stream=sample_rate",
+                "-of", "default=noprint_wrappers=1",
+                source.toString()), output::add, Collections.synchronizedList(new ArrayList<>()), metricsListener);
+        try {
+            return new AudioStream(Double.parseDouble(value(output, "duration=")),
+                    Integer.parseInt(value(output, "sample_rate=")));
+        } catch (IllegalArgumentException e) {
+            throw new DownloadException(Message.from("ERROR: Unable to read the duration of " + source));
+        }
+    }
+
+    private static String value(List<String> output, String key) {
+        return output.stream()
+                .filter(line -> line.startsWith(key))
+                .map(line -> line.substring(key.length()).trim())
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No " + key));
+    }
+
+    // Packet flags are read without decoding anything; audio-only inputs have no video keyframes and are cut anywhere
+    private List<Double> probeKeyframes(Path source, Optional<BaseMetricsListener> metricsListener)
+            throws DownloadException {
+        List<Double> keyframes = new ArrayList<>();
+        this.run(Arrays.asList(
+                this.ffprobeBinary, "-v", "error",
+                "-select_streams", "v:0",
+                "-show_entries", "packet=pts_time,flags",
+                "-of", "csv=print_section=0",
+                source.toString()), line -> {
+            int separator = line.indexOf(',');
+            if (separator > 0 && line.indexOf('K', separator) > 0) {
+                try {
+                    keyframes.add(Double.parseDouble(line.substring(0, separator)));
+                } catch (NumberFormatException e) {
+                    // Packets without a timestamp report N/A
+                }
+            }
+        }, Collections.synchronizedList(new ArrayList<>()), metricsListener);
+        Collections.sort(keyframes);
+        return keyframes;
+    }
+
+    private void run(
+            List<String> command,
+            Consumer<String> outputLine,
+            List<Process> processes,
+            Optional<BaseMetricsListener> metricsListener) throws DownloadException {
+        Process process;
+        try {
+            process = InvocationMetrics.startTimed(BACKEND, command, metricsListener);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            processes.add(process);
+            process.getOutputStream().close();
+            ErrorStreamDrainer errorStream = ErrorStreamDrainer.start(process, ErrorPolicy.COLLECT, WORKERS);
+            try (BufferedReader input = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    outputLine.accept(line);
+                }
+            }
+            int exitCode = process.waitFor();
+            Optional<List<String>> errorMessages = errorStream.awaitErrorMessages();
+            if (errorMessages.isPresent()) {
+                throw DownloadException.fromMessages(errorMessages.get());
+            }
+            if (exitCode != 0) {
+                throw new DownloadException(Message.from("ERROR: " + command.get(0) + " exited with code " + exitCode));
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            metricsListener.ifPresent(BaseMetricsListener::processExited);
+        }
+    }
+
+    private static String seconds(double seconds) {
+        return String.format(Locale.ROOT, "%.6f", seconds);
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path createSegmentDirectory(Path target) {
+        try {
+            return Files.createTempDirectory(target.toAbsolutePath().getParent(), ".segments");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            // Leftover segments are only wasted space
+        }
+    }
+
+    private static class AudioStream {
+        private final double duration;
+        private final int sampleRate;
+
+        private AudioStream(double duration, int sampleRate) {
+            this.duration = duration;
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    // Where one encode starts reading the source and for how long; only slices to be spliced fix the sample rate
+    private static class Slice {
+        private final Path file;
+        private final double start;
+        private final Optional<Double> length;
+        private final Optional<Integer> sampleRate;
+
+        private Slice(Path file, double start, Optional<Double> length, Optional<Integer> sampleRate) {
+            this.file = file;
+            this.start = start;
+            this.length = length;
+            this.sampleRate = sampleRate;
+        }
+
+        private static Slice whole(Path file) {
+            return new Slice(file, 0, Optional.empty(), Optional.empty());
+        }
+    }
+
+    // Sums the time encoded of every segment, up to the part of the source the segment is kept for, and reports it as
+    // one progress figure against the source size
+    private static class TranscodeProgress {
+        private final double duration;
+        private final long totalBytes;
+        private final double[] lengths;
+        private final double[] encodedSeconds;
+        private final Optional<DownloadProgressUpdateEvent> progressUpdateCallback;
+        private final long startNanos = System.nanoTime();
+
+        private TranscodeProgress(
+                double duration,
+                long totalBytes,
+                double[] lengths,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+            this.duration = duration;
+            this.totalBytes = totalBytes;
+            this.lengths = lengths;
+            this.encodedSeconds = new double[lengths.length];
+            this.progressUpdateCallback = progressUpdateCallback;
+        }
+
+        private void update(int segment, String line) {
+            for (String key : PROGRESS_TIME_KEYS) {
+                if (line.startsWith(key)) {
+                    try {
+                        // Both keys are in microseconds; out_time_ms is a long-standing misnomer
+                        double seconds = Long.parseLong(line.substring(key.length()).trim()) / 1e6;
+                        synchronized (this) {
+                            this.encodedSeconds[segment] = Math.max(this.encodedSeconds[segment],
+                                    Math.min(seconds, this.lengths[segment]));
+                        }
+                    } catch (NumberFormatException e) {
+                        // Reported as N/A before the first frame is written
+                    }
+                    return;
+                }
+            }
+            if (line.startsWith(PROGRESS_END_KEY)) {
+                this.report();
+            }
+        }
+
+        private void finished(int segment) {
+            synchronized (this) {
+                this.encodedSeconds[segment] = this.lengths[segment];
+            }
+            this.report();
+        }
+
+        private synchronized void report() {
+            if (!this.progressUpdateCallback.isPresent() || this.duration <= 0) {
+                return;
+            }
+            double encoded = 0;
+            for (double seconds : this.encodedSeconds) {
+                encoded += seconds;
+            }
+            double fraction = Math.min(1, encoded / this.duration);
+            double elapsedSeconds = (System.nanoTime() - this.startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            double bytesPerSecond = elapsedSeconds > 0 ? fraction * this.totalBytes / elapsedSeconds : -1;
+            long etaSeconds = bytesPerSecond > 0 ? (long) ((1 - fraction) * this.totalBytes / bytesPerSecond) : -1;
+            this.progressUpdateCallback.get().callback(
+                    DownloadProgress.of(PROGRESS_TAG, fraction * 100, this.totalBytes, bytesPerSecond, etaSeconds));
+        }
+    }
+}
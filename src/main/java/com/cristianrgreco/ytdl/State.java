@@ -7,18 +7,23 @@ public enum State {
     RESOLVING,
     DOWNLOADING,
     CONVERTING,
-    COMPLETE;
+    COMPLETE,
+    // Added after the others so that their ordinals stay as they were
+    MERGING;
 
     private static final Pattern RESOLVING_PATTERN = Pattern.compile("\\[youtube\\].*");
     private static final Pattern DOWNLOADING_PATTERN = Pattern.compile("\\[download\\]");
+    private static final Pattern MERGING_PATTERN = Pattern.compile("\\[Merger\\].*");
     private static final Pattern CONVERTING_PATTERN = Pattern.compile("\\[ffmpeg\\].*");
-    private static final Pattern VALID_STATE_MESSAGE = Pattern.compile("\\[(youtube|download|ffmpeg)\\]");
+    private static final Pattern VALID_STATE_MESSAGE = Pattern.compile("\\[(youtube|download|Merger|ffmpeg)\\]");
 
     public static State parse(String stateMessage) {
         if (RESOLVING_PATTERN.matcher(stateMessage).find()) {
             return State.RESOLVING;
         } else if (DOWNLOADING_PATTERN.matcher(stateMessage).find()) {
             return State.DOWNLOADING;
+        } else if (MERGING_PATTERN.matcher(stateMessage).find()) {
+            return State.MERGING;
         } else if (CONVERTING_PATTERN.matcher(stateMessage).find()) {
             return State.CONVERTING;
         }
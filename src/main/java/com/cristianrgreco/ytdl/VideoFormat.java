@@ -0,0 +1,132 @@
+package com.cristianrgreco.ytdl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+public class VideoFormat {
+    private static final String NO_CODEC = "none";
+
+    private final String formatId;
+    private final String extension;
+    private final String videoCodec;
+    private final String audioCodec;
+    private final Optional<Integer> height;
+    private final Optional<Double> bitrate;
+    private final Optional<Long> fileSize;
+    private final Optional<String> url;
+    private final Optional<String> protocol;
+    private final Map<String, String> httpHeaders;
+
+    private VideoFormat(
+            String formatId,
+            String extension,
+            String videoCodec,
+            String audioCodec,
+            Optional<Integer> height,
+            Optional<Double> bitrate,
+            Optional<Long> fileSize,
+            Optional<String> url,
+            Optional<String> protocol,
+            Map<String, String> httpHeaders) {
+        this.formatId = formatId;
+        this.extension = extension;
+        this.videoCodec = videoCodec;
+        this.audioCodec = audioCodec;
+        this.height = height;
+        this.bitrate = bitrate;
+        this.fileSize = fileSize;
+        this.url = url;
+        this.protocol = protocol;
+        this.httpHeaders = Collections.unmodifiableMap(httpHeaders);
+    }
+
+    static VideoFormat from(Map<String, Object> format) {
+        return new VideoFormat(
+                JsonParser.getString(format, "format_id").orElseThrow(() ->
+                        new IllegalArgumentException("Unable to parse: format has no format_id")),
+                JsonParser.getString(format, "ext").orElse(""),
+                JsonParser.getString(format, "vcodec").orElse(NO_CODEC),
+                JsonParser.getString(format, "acodec").orElse(NO_CODEC),
+                JsonParser.getLong(format, "height").map(Long::intValue),
+                JsonParser.getDouble(format, "tbr"),
+                fileSizeOf(format),
+                JsonParser.getString(format, "url"),
+                JsonParser.getString(format, "protocol"),
+                JsonParser.getStrings(format, "http_headers"));
+    }
+
+    static Optional<Long> fileSizeOf(Map<String, Object> object) {
+        Optional<Long> fileSize = JsonParser.getLong(object, "filesize");
+        return fileSize.isPresent() ? fileSize : JsonParser.getLong(object, "filesize_approx");
+    }
+
+    public boolean hasVideo() {
+        return !NO_CODEC.equals(this.videoCodec);
+    }
+
+    public boolean hasAudio() {
+        return !NO_CODEC.equals(this.audioCodec);
+    }
+
+    // Any other protocol, e.g. m3u8_native or http_dash_segments, points at a manifest rather than at the media itself
+    public boolean isDirectHttp() {
+        String protocol = this.protocol.orElseGet(() ->
+                this.url.map(url -> url.substring(0, Math.max(0, url.indexOf(':')))).orElse(""));
+        return "http".equals(protocol) || "https".equals(protocol);
+    }
+
+    public String getFormatId() {
+        return formatId;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getVideoCodec() {
+        return videoCodec;
+    }
+
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    public Optional<Integer> getHeight() {
+        return height;
+    }
+
+    public Optional<Double> getBitrate() {
+        return bitrate;
+    }
+
+    public Optional<Long> getFileSize() {
+        return fileSize;
+    }
+
+    public Optional<String> getUrl() {
+        return url;
+    }
+
+    public Optional<String> getProtocol() {
+        return protocol;
+    }
+
+    public Map<String, String> getHttpHeaders() {
+        return httpHeaders;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoFormat{" +
+                "formatId='" + formatId + '\'' +
+                ", extension='" + extension + '\'' +
+                ", videoCodec='" + videoCodec + '\'' +
+                ", audioCodec='" + audioCodec + '\'' +
+                ", height=" + height +
+                ", bitrate=" + bitrate +
+                ", fileSize=" + fileSize +
+                ", protocol=" + protocol +
+                '}';
+    }
+}
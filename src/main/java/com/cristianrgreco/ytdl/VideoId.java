@@ -0,0 +1,44 @@
+package com.cristianrgreco.ytdl;
+
+import java.net.URL;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class VideoId {
+    // Ids are only taken from YouTube's own hosts, so ids from other sites never share a cache key with a YouTube video
+    private static final Pattern HOST =
+            Pattern.compile("((www|m|music)\\.)?youtube(-nocookie)?\\.com", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SHORT_HOST = Pattern.compile("(www\\.)?youtu\\.be", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PATH_ID = Pattern.compile("^/(?:embed|v|shorts|live)/([A-Za-z0-9_-]+)");
+    private static final Pattern SHORT_PATH_ID = Pattern.compile("^/([A-Za-z0-9_-]+)");
+    private static final Pattern QUERY_ID = Pattern.compile("(?:^|&)v=([A-Za-z0-9_-]+)");
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private VideoId() {
+    }
+
+    public static Optional<String> from(URL url) {
+        String path = url.getPath() == null ? "" : url.getPath();
+        if (SHORT_HOST.matcher(url.getHost()).matches()) {
+            return firstGroup(SHORT_PATH_ID.matcher(path));
+        }
+        if (!HOST.matcher(url.getHost()).matches()) {
+            return Optional.empty();
+        }
+        Optional<String> pathId = firstGroup(PATH_ID.matcher(path));
+        if (pathId.isPresent()) {
+            return pathId;
+        }
+        return url.getQuery() == null ? Optional.empty() : firstGroup(QUERY_ID.matcher(url.getQuery()));
+    }
+
+    // Anything else, e.g. an id containing a path separator, cannot safely name a file
+    static boolean isValid(String videoId) {
+        return ID.matcher(videoId).matches();
+    }
+
+    private static Optional<String> firstGroup(Matcher matcher) {
+        return matcher.find() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
+}
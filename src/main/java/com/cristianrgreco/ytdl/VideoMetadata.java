@@ -0,0 +1,122 @@
+package com.cristianrgreco.ytdl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class VideoMetadata {
+    private static final Pattern URL_EXPIRY = Pattern.compile("[?&/]expire[=/](\\d+)");
+
+    private final String id;
+    private final String title;
+    private final String filename;
+    private final Optional<Duration> duration;
+    private final Optional<Long> fileSize;
+    private final List<VideoFormat> formats;
+    private final Optional<String> requestedFormatId;
+    private final String json;
+
+    private VideoMetadata(
+            String id,
+            String title,
+            String filename,
+            Optional<Duration> duration,
+            Optional<Long> fileSize,
+            List<VideoFormat> formats,
+            Optional<String> requestedFormatId,
+            String json) {
+        this.id = id;
+        this.title = title;
+        this.filename = filename;
+        this.duration = duration;
+        this.fileSize = fileSize;
+        this.formats = formats;
+        this.requestedFormatId = requestedFormatId;
+        this.json = json;
+    }
+
+    public static VideoMetadata parse(String json) {
+        Map<String, Object> info = JsonParser.parseObject(json);
+        String id = JsonParser.getString(info, "id").orElseThrow(() ->
+                new IllegalArgumentException("Unable to parse: metadata has no id"));
+        String title = JsonParser.getString(info, "title").orElseThrow(() ->
+                new IllegalArgumentException("Unable to parse: metadata has no title"));
+        String filename = JsonParser.getString(info, "_filename").orElseThrow(() ->
+                new IllegalArgumentException("Unable to parse: metadata has no _filename"));
+        Optional<Duration> duration = JsonParser.getDouble(info, "duration")
+                .map(seconds -> Duration.ofMillis((long) (seconds * 1000)));
+        List<VideoFormat> formats = JsonParser.getObjects(info, "formats").stream()
+                .map(VideoFormat::from)
+                .collect(Collectors.toList());
+        return new VideoMetadata(id, title, filename, duration, VideoFormat.fileSizeOf(info),
+                Collections.unmodifiableList(formats), JsonParser.getString(info, "format_id"), json);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public Optional<Duration> getDuration() {
+        return duration;
+    }
+
+    public Optional<Long> getFileSize() {
+        return fileSize;
+    }
+
+    public List<VideoFormat> getFormats() {
+        return formats;
+    }
+
+    // The format youtube-dl resolved --format to; absent when it has to merge two streams, e.g. "137+140"
+    public Optional<VideoFormat> getRequestedFormat() {
+        return this.formats.stream()
+                .filter(format -> this.requestedFormatId.map(format.getFormatId()::equals).orElse(false))
+                .findFirst();
+    }
+
+    // The earliest "expire" any stream URL carries; once it has passed the metadata has to be resolved again
+    public Optional<Instant> getUrlExpiry() {
+        Optional<Instant> earliest = Optional.empty();
+        for (VideoFormat format : this.formats) {
+            Matcher matcher = URL_EXPIRY.matcher(format.getUrl().orElse(""));
+            if (matcher.find()) {
+                Instant expiry = Instant.ofEpochSecond(Long.parseLong(matcher.group(1)));
+                if (!earliest.isPresent() || expiry.isBefore(earliest.get())) {
+                    earliest = Optional.of(expiry);
+                }
+            }
+        }
+        return earliest;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoMetadata{" +
+                "id='" + id + '\'' +
+                ", title='" + title + '\'' +
+                ", filename='" + filename + '\'' +
+                ", duration=" + duration +
+                ", fileSize=" + fileSize +
+                ", formats=" + formats.size() +
+                '}';
+    }
+}
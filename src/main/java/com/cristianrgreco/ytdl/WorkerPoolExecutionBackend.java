@@ -0,0 +1,330 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs youtube-dl invocations on long-lived worker processes so the interpreter and extractors are only loaded once.
+ * Workers read one {"id":1,"args":[...]} request per line on stdin and answer on stdout with any number of
+ * {"id":1,"stream":"stdout"|"stderr","line":"..."} lines followed by {"id":1,"exit":0}. The first element of each
+ * command (the youtube-dl binary) is dropped, as the worker embeds youtube-dl itself. See ytdl-worker.py.
+ */
+public class WorkerPoolExecutionBackend implements BaseExecutionBackend, AutoCloseable {
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+    private static final int EXIT_CODE_CRASHED = 1;
+    private static final int EXIT_CODE_DESTROYED = 137;
+
+    private final List<String> workerCommand;
+    private final int maxWorkers;
+    private final int maxJobsPerWorker;
+    private final ThreadFactory threadFactory = new DaemonThreadFactory("ytdl-worker-reader");
+    private final AtomicLong nextJobId = new AtomicLong();
+    private final AtomicLong workersStarted = new AtomicLong();
+    private final Deque<Worker> idleWorkers = new ArrayDeque<>();
+    private int liveWorkers;
+    private boolean closed;
+
+    public WorkerPoolExecutionBackend(List<String> workerCommand, int maxWorkers, int maxJobsPerWorker) {
+        this.workerCommand = new ArrayList<>(workerCommand);
+        this.maxWorkers = maxWorkers;
+        this.maxJobsPerWorker = maxJobsPerWorker;
+    }
+
+    @Override
+    public Process start(List<String> command) throws IOException {
+        Worker worker = this.acquire();
+        WorkerProcess job = new WorkerProcess(this.nextJobId.incrementAndGet(), worker);
+        worker.currentJob = job;
+        try {
+            worker.send(job.id, command.subList(1, command.size()));
+        } catch (IOException e) {
+            worker.currentJob = null;
+            worker.process.destroyForcibly();
+            throw e;
+        }
+        return job;
+    }
+
+    public long getWorkersStarted() {
+        return this.workersStarted.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        for (Worker worker : this.idleWorkers) {
+            worker.shutdown();
+        }
+        this.idleWorkers.clear();
+        this.notifyAll();
+    }
+
+    private synchronized Worker acquire() throws IOException {
+        while (true) {
+            if (this.closed) {
+                throw new IllegalStateException("Worker pool is closed");
+            }
+            Worker idle = this.idleWorkers.pollFirst();
+            if (idle != null) {
+                if (idle.process.isAlive()) {
+                    return idle;
+                }
+                continue;
+            }
+            if (this.liveWorkers < this.maxWorkers) {
+                this.liveWorkers++;
+                try {
+                    return this.spawn();
+                } catch (IOException | RuntimeException e) {
+                    this.liveWorkers--;
+                    throw e;
+                }
+            }
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a youtube-dl worker");
+            }
+        }
+    }
+
+    private Worker spawn() throws IOException {
+        Process process = new ProcessBuilder(this.workerCommand)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        this.workersStarted.incrementAndGet();
+        Worker worker = new Worker(process);
+        this.threadFactory.newThread(worker::readResponses).start();
+        return worker;
+    }
+
+    private synchronized void release(Worker worker) {
+        worker.completedJobs++;
+        if (this.closed || worker.completedJobs >= this.maxJobsPerWorker) {
+            worker.shutdown();
+            this.retire(worker);
+        } else {
+            this.idleWorkers.addFirst(worker);
+            this.notifyAll();
+        }
+    }
+
+    private synchronized void retire(Worker worker) {
+        if (!worker.retired) {
+            worker.retired = true;
+            this.idleWorkers.remove(worker);
+            this.liveWorkers--;
+            this.notifyAll();
+        }
+    }
+
+    private class Worker {
+        private final Process process;
+        private final BufferedWriter requests;
+        private volatile WorkerProcess currentJob;
+        private int completedJobs;
+        private boolean retired;
+
+        private Worker(Process process) {
+            this.process = process;
+            this.requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private void send(long id, List<String> args) throws IOException {
+            StringBuilder request = new StringBuilder("{\"id\":").append(id).append(",\"args\":[");
+            for (int i = 0; i < args.size(); i++) {
+                if (i > 0) {
+                    request.append(',');
+                }
+                JsonWriter.appendString(request, args.get(i));
+            }
+            this.requests.write(request.append("]}\n").toString());
+            this.requests.flush();
+        }
+
+        private void shutdown() {
+            try {
+                this.requests.close();
+            } catch (IOException e) {
+                this.process.destroyForcibly();
+            }
+        }
+
+        private void readResponses() {
+            try (BufferedReader input = new BufferedReader(new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    this.dispatch(line);
+                }
+            } catch (IOException e) {
+                this.process.destroyForcibly();
+            }
+            WorkerProcess job = this.currentJob;
+            this.currentJob = null;
+            retire(this);
+            if (job != null) {
+                if (!job.destroyed) {
+                    job.writeError("ERROR: youtube-dl worker exited unexpectedly");
+                }
+                job.exit(job.destroyed ? EXIT_CODE_DESTROYED : EXIT_CODE_CRASHED);
+            }
+        }
+
+        private void dispatch(String line) {
+            Map<String, Object> response;
+            try {
+                response = JsonParser.parseObject(line);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            WorkerProcess job = this.currentJob;
+            if (job == null || !JsonParser.getLong(response, "id").equals(Optional.of(job.id))) {
+                return;
+            }
+            Optional<Long> exitCode = JsonParser.getLong(response, "exit");
+            if (exitCode.isPresent()) {
+                // The worker goes back to the pool first so that whoever waits on this job can reuse it straight away
+                this.currentJob = null;
+                release(this);
+                job.exit(exitCode.get().intValue());
+            } else if ("stderr".equals(JsonParser.getString(response, "stream").orElse(""))) {
+                job.writeError(JsonParser.getString(response, "line").orElse(""));
+            } else {
+                job.writeOutput(JsonParser.getString(response, "line").orElse(""));
+            }
+        }
+    }
+
+    private static class WorkerProcess extends Process {
+        private final long id;
+        private final Worker worker;
+        private final PipedInputStream output = new PipedInputStream(PIPE_BUFFER_SIZE);
+        private final PipedInputStream error = new PipedInputStream(PIPE_BUFFER_SIZE);
+        private final PipedOutputStream outputWriter;
+        private final PipedOutputStream errorWriter;
+        private final CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+        private volatile boolean destroyed;
+
+        private WorkerProcess(long id, Worker worker) throws IOException {
+            this.id = id;
+            this.worker = worker;
+            this.outputWriter = new PipedOutputStream(this.output);
+            this.errorWriter = new PipedOutputStream(this.error);
+        }
+
+        private void writeOutput(String line) {
+            write(this.outputWriter, line);
+        }
+
+        private void writeError(String line) {
+            write(this.errorWriter, line);
+        }
+
+        private void exit(int code) {
+            close(this.outputWriter);
+            close(this.errorWriter);
+            this.exitCode.complete(code);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return this.output;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return this.error;
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            try {
+                return this.exitCode.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        @Override
+        public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+            try {
+                this.exitCode.get(timeout, unit);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        @Override
+        public int exitValue() {
+            if (!this.exitCode.isDone()) {
+                throw new IllegalThreadStateException("Job " + this.id + " has not exited");
+            }
+            return this.exitCode.join();
+        }
+
+        @Override
+        public boolean isAlive() {
+            return !this.exitCode.isDone();
+        }
+
+        // A running job cannot be cancelled over the protocol, so its worker is killed and replaced
+        @Override
+        public void destroy() {
+            if (this.isAlive()) {
+                this.destroyed = true;
+                this.worker.process.destroyForcibly();
+            }
+        }
+
+        private static void write(PipedOutputStream stream, String line) {
+            try {
+                stream.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                stream.flush();
+            } catch (IOException e) {
+                // The reader has gone away; the rest of this job's output is dropped
+            }
+        }
+
+        private static void close(PipedOutputStream stream) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+}
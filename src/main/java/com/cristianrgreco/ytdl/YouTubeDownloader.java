@@ -0,0 +1,1358 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Holds nothing but the binary locations, so one instance can serve any number of threads; everything a download
+// needs is taken from its DownloadRequest and lives only for that call
+public class YouTubeDownloader {
+    static final String VIDEO_FORMAT = "mp4";
+    static final String AUDIO_FORMAT = "mp3";
+    //private static final String OUTPUT_FORMAT = "%(title)s_%(id)s.%(ext)s";
+    static final String OUTPUT_FORMAT = "%(title)s.%(ext)s";
+    private static final String PROGRESS_TAG = "download";
+
+    // Media bytes cannot travel over a line-based worker protocol, so streaming always spawns its own processes
+    private static final BaseExecutionBackend STREAMING_BACKEND = new ProcessExecutionBackend();
+
+    // ffmpeg is not youtube-dl, so merges and conversions never go to a worker pool
+    private static final BaseExecutionBackend FFMPEG_BACKEND = new ProcessExecutionBackend();
+
+    private static final int SUPERVISOR_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    // Run the probeAsync calls and the downloadAsync calls that cannot complete from a reactor. Bounded, so calls
+    // beyond it queue rather than each taking a thread. A download may wait on its probe, so probes have their own pool
+    private static final ExecutorService DOWNLOAD_SUPERVISOR = createSupervisor("ytdl-download-supervisor");
+    private static final ExecutorService PROBE_SUPERVISOR = createSupervisor("ytdl-probe-supervisor");
+
+    // Java 8 offers no Process.onExit(), so pipes of in-flight processes are drained and pumped here. These tasks wait
+    // on each other, and one left queued could block its process on a full pipe, so they are never queued; there are
+    // at most a few per running process, and with a reactor stdout and stderr are not read here at all
+    private static final ExecutorService PIPE_SUPERVISOR =
+            Executors.newCachedThreadPool(new DaemonThreadFactory("ytdl-pipe-supervisor"));
+
+    private final String youTubeDlBinary;
+    private final String ffmpegBinary;
+    private final List<String> transcodeAudioCommand;
+
+    public YouTubeDownloader(BaseBinaryConfiguration binaryConfiguration) {
+        this.youTubeDlBinary = binaryConfiguration.getYouTubeDlBinary().getAbsolutePath();
+        this.ffmpegBinary = binaryConfiguration.getFfmpegBinary().getAbsolutePath();
+        this.transcodeAudioCommand = Collections.unmodifiableList(Arrays.asList(
+                this.ffmpegBinary,
+                "-hide_banner",
+                "-loglevel", "error",
+                "-i", "pipe:0",
+                "-vn",
+                "-f", AUDIO_FORMAT,
+                "-q:a", "0",
+                "pipe:1"
+        ));
+    }
+
+    public VideoMetadata probe(URL targetUrl, DownloadOptions options) throws DownloadException {
+        return new Job(targetUrl, options).probe();
+    }
+
+    public CompletableFuture<VideoMetadata> probeAsync(URL targetUrl, DownloadOptions options) {
+        Job job = new Job(targetUrl, options);
+        Optional<VideoMetadata> cached = job.cachedMetadata();
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
+        CompletableFuture<VideoMetadata> future = new CompletableFuture<>();
+        PROBE_SUPERVISOR.execute(() -> {
+            try {
+                future.complete(job.probe());
+            } catch (DownloadException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public DownloadResult download(
+            DownloadRequest request,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        return new Job(request, Optional.empty()).download(request.getMode(), stateChangeCallback, progressUpdateCallback);
+    }
+
+    // Lets a caller that already memoises the probe, e.g. the adapter, share it with format selection
+    DownloadResult download(
+            DownloadRequest request,
+            Supplier<CompletableFuture<VideoMetadata>> metadata,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        return new Job(request, Optional.of(metadata)).download(request.getMode(), stateChangeCallback, progressUpdateCallback);
+    }
+
+    // Also reports where the job's file will be, e.g. for a journal to record before the download has finished
+    DownloadResult download(
+            DownloadRequest request,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Optional<DestinationEvent> destinationCallback) throws DownloadException {
+        Job job = new Job(request, Optional.empty());
+        job.destinationCallback = destinationCallback;
+        return job.download(request.getMode(), stateChangeCallback, progressUpdateCallback);
+    }
+
+    // Only fetches the source of an audio job, so that a caller can bound conversions apart from downloads and decide
+    // when the returned step may start its ffmpeg process
+    Conversion fetchForConversion(
+            DownloadRequest request,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Optional<DestinationEvent> destinationCallback) throws DownloadException {
+        Job job = new Job(request, Optional.empty());
+        job.destinationCallback = destinationCallback;
+        return job.fetchForConversion(stateChangeCallback, progressUpdateCallback);
+    }
+
+    public CompletableFuture<DownloadResult> downloadAsync(
+            DownloadRequest request,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor) {
+        return this.downloadAsync(new Job(request, Optional.empty()), request.getMode(),
+                stateChangeCallback, progressUpdateCallback, callbackExecutor);
+    }
+
+    CompletableFuture<DownloadResult> downloadAsync(
+            DownloadRequest request,
+            Supplier<CompletableFuture<VideoMetadata>> metadata,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor) {
+        return this.downloadAsync(new Job(request, Optional.of(metadata)), request.getMode(),
+                stateChangeCallback, progressUpdateCallback, callbackExecutor);
+    }
+
+    private CompletableFuture<DownloadResult> downloadAsync(
+            Job job,
+            DownloadMode mode,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor) {
+        Optional<StateChangeEvent> stateChangeEvent = stateChangeCallback.map(callback ->
+                state -> callbackExecutor.execute(() -> callback.callback(state)));
+        Optional<DownloadProgressUpdateEvent> progressUpdateEvent = progressUpdateCallback.map(callback ->
+                progress -> callbackExecutor.execute(() -> callback.callback(progress)));
+
+        // Completion is handed to the callback executor too, so a serial executor sees every event before the result
+        CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+        job.downloadAsync(mode, stateChangeEvent, progressUpdateEvent).whenComplete((result, e) ->
+                callbackExecutor.execute(() -> {
+                    if (e == null) {
+                        future.complete(result);
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                }));
+        return future;
+    }
+
+    // The destination directory of the request is not used; the media goes to the target as it arrives
+    public DownloadResult stream(
+            DownloadRequest request,
+            WritableByteChannel target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        Optional<List<String>> transcodeCommand = request.getMode() == DownloadMode.AUDIO
+                ? Optional.of(this.transcodeAudioCommand)
+                : Optional.empty();
+        return new Job(request, Optional.empty()).stream(transcodeCommand, target, stateChangeCallback, progressUpdateCallback);
+    }
+
+    public DownloadResult stream(
+            DownloadRequest request,
+            OutputStream target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        return this.stream(request, Channels.newChannel(target), stateChangeCallback, progressUpdateCallback);
+    }
+
+    static <T> T await(CompletableFuture<T> future) throws DownloadException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DownloadException) {
+                throw (DownloadException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static ThreadPoolExecutor createSupervisor(String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(SUPERVISOR_THREADS, SUPERVISOR_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static Process start(
+            BaseExecutionBackend backend, List<String> command, Optional<InvocationMetrics> metrics) throws IOException {
+        return metrics.isPresent() ? metrics.get().start(backend, command) : backend.start(command);
+    }
+
+    private static List<String> withOptionValue(List<String> command, String option, String value) {
+        List<String> replaced = new ArrayList<>(command);
+        replaced.set(replaced.indexOf(option) + 1, value);
+        return replaced;
+    }
+
+    // The rate is inserted just before the target URL, which is always the final argument
+    private static List<String> withLimitRate(List<String> command, long bytesPerSecond) {
+        List<String> limited = new ArrayList<>(command);
+        limited.addAll(limited.size() - 1, Arrays.asList("--limit-rate", Long.toString(bytesPerSecond)));
+        return limited;
+    }
+
+    // The clock is only read when metrics are enabled
+    private static Consumer<CharSequence> classifying(
+            OutputLineClassifier classifier,
+            OutputLineHandler handler,
+            Optional<InvocationMetrics> metrics) {
+        boolean timed = metrics.isPresent();
+        return line -> {
+            long parseStart = timed ? System.nanoTime() : 0L;
+            classifier.classify(line, handler);
+            if (timed) {
+                metrics.get().lineParsed(parseStart);
+            }
+        };
+    }
+
+    // The clock is only read when metrics are enabled
+    private static void classifyLines(
+            BufferedReader input,
+            OutputLineClassifier classifier,
+            OutputLineHandler handler,
+            Optional<InvocationMetrics> metrics) throws IOException {
+        boolean timed = metrics.isPresent();
+        String line;
+        while ((line = input.readLine()) != null) {
+            long parseStart = timed ? System.nanoTime() : 0L;
+            classifier.classify(line, handler);
+            if (timed) {
+                metrics.get().lineParsed(parseStart);
+            }
+        }
+    }
+
+    private static void pipe(Process source, Process sink, List<Process> processes) {
+        OutputStream sinkInput = sink.getOutputStream();
+        pump(source.getInputStream(), Channels.newChannel(sinkInput), processes).whenComplete((transferred, e) -> {
+            try {
+                sinkInput.close();
+            } catch (IOException closeFailure) {
+                // The reading process has already gone
+            }
+        });
+    }
+
+    // Copies on the pipe supervisor; a failed copy kills the pipeline so that no process is left blocked on a full pipe
+    private static CompletableFuture<Long> pump(InputStream source, WritableByteChannel target, List<Process> processes) {
+        CompletableFuture<Long> transferred = new CompletableFuture<>();
+        PIPE_SUPERVISOR.execute(() -> {
+            try (ReadableByteChannel channel = Channels.newChannel(source)) {
+                transferred.complete(ChannelTransfer.transfer(channel, target));
+            } catch (IOException e) {
+                processes.forEach(Process::destroyForcibly);
+                transferred.completeExceptionally(e);
+            }
+        });
+        return transferred;
+    }
+
+    private static void awaitTransfer(CompletableFuture<Long> transfer) throws InterruptedException {
+        try {
+            transfer.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Path writeInfoFile(VideoMetadata metadata) {
+        try {
+            Path infoFile = Files.createTempFile("ytdl-info", ".json");
+            Files.write(infoFile, metadata.getJson().getBytes(StandardCharsets.UTF_8));
+            return infoFile;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // What is left over is only wasted space
+            }
+        }
+    }
+
+    private static String baseName(String filename) {
+        int extension = filename.lastIndexOf('.');
+        return extension > 0 ? filename.substring(0, extension) : filename;
+    }
+
+    private static URL sourceUrl(VideoFormat format) throws DownloadException {
+        try {
+            return new URL(format.getUrl().orElseThrow(() ->
+                    new DownloadException(Message.from("ERROR: Format " + format.getFormatId() + " has no URL"))));
+        } catch (MalformedURLException e) {
+            throw new DownloadException(Message.from("ERROR: Format " + format.getFormatId() + " has no valid URL"));
+        }
+    }
+
+    private static Optional<List<String>> getOutputMessages(Process process) {
+        return getMessages(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static Optional<List<String>> getMessages(Reader reader) {
+        List<String> messages = new ArrayList<>();
+
+        BufferedReader input = new BufferedReader(reader);
+        String line;
+        try {
+            while ((line = input.readLine()) != null) {
+                messages.add(line);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (messages.size() > 0) {
+            return Optional.of(messages);
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    @FunctionalInterface
+    interface Conversion {
+        DownloadResult convert() throws DownloadException;
+    }
+
+    @FunctionalInterface
+    interface DestinationEvent {
+        void resolved(String format, Path destination);
+    }
+
+    private static class CallbackLineHandler implements OutputLineHandler {
+        private final Optional<StateChangeEvent> stateChangeCallback;
+        private final Optional<DownloadProgressUpdateEvent> progressUpdateCallback;
+        private final Optional<Consumer<Path>> destinationCallback;
+        private State currentState = State.NONE;
+        private Optional<Path> destination = Optional.empty();
+
+        private CallbackLineHandler(
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+                Optional<Consumer<Path>> destinationCallback) {
+            this.stateChangeCallback = stateChangeCallback;
+            this.progressUpdateCallback = progressUpdateCallback;
+            this.destinationCallback = destinationCallback;
+        }
+
+        @Override
+        public void onTaggedLine(OutputTag tag, CharSequence line) {
+            // The last destination mentioned is the final file, e.g. the extracted audio rather than the source video
+            Optional<Path> lineDestination = OutputDestination.parse(tag, line);
+            if (lineDestination.isPresent() && !lineDestination.equals(this.destination)) {
+                this.destination = lineDestination;
+                this.destinationCallback.ifPresent(callback -> callback.accept(lineDestination.get()));
+            }
+            State newState = tag.getState();
+            if (newState != State.NONE && newState != this.currentState) {
+                this.currentState = newState;
+                if (this.stateChangeCallback.isPresent()) {
+                    this.stateChangeCallback.get().callback(newState);
+                }
+            }
+        }
+
+        @Override
+        public void onProgress(CharSequence line, MutableDownloadProgress progress) {
+            if (this.progressUpdateCallback.isPresent()) {
+                this.progressUpdateCallback.get().callback(DownloadProgress.from(line.toString(), progress));
+            }
+        }
+    }
+
+    private static class StreamingLineHandler extends CallbackLineHandler {
+        private final ErrorPolicy errorPolicy;
+        private final List<Process> processes;
+        private final List<String> errorMessages = new ArrayList<>();
+        private boolean failedFast;
+
+        private StreamingLineHandler(
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+                ErrorPolicy errorPolicy,
+                List<Process> processes) {
+            super(stateChangeCallback, progressUpdateCallback, Optional.empty());
+            this.errorPolicy = errorPolicy;
+            this.processes = processes;
+        }
+
+        @Override
+        public void onMessage(CharSequence line) {
+            this.errorMessages.add(line.toString());
+            if (this.errorPolicy == ErrorPolicy.FAIL_FAST && !this.failedFast &&
+                    Message.from(line.toString()).getType() == Message.Type.ERROR) {
+                this.failedFast = true;
+                this.processes.forEach(Process::destroyForcibly);
+            }
+        }
+
+        @Override
+        public void onUntaggedLine(CharSequence line) {
+            this.errorMessages.add(line.toString());
+        }
+    }
+
+    // youtube-dl cannot change --limit-rate while running, so a new limit stops it, but only while it is downloading;
+    // stopping it while it post-processes would throw that work away
+    private static class RateRestart implements Runnable {
+        private Process process;
+        private State state = State.NONE;
+        private boolean requested;
+
+        @Override
+        public synchronized void run() {
+            if (this.process != null && this.state == State.DOWNLOADING && !this.requested) {
+                this.requested = true;
+                this.process.destroy();
+            }
+        }
+
+        private synchronized void started(Process process) {
+            this.process = process;
+        }
+
+        private synchronized void stateChanged(State state) {
+            this.state = state;
+        }
+
+        private synchronized boolean isRequested() {
+            return this.requested;
+        }
+    }
+
+    // Streams fetched side by side are reported as one download, once every stream has reported at least once
+    private static class CombinedProgress {
+        private final DownloadProgress[] latest;
+        private final DownloadProgressUpdateEvent progressUpdateCallback;
+
+        private CombinedProgress(int streams, DownloadProgressUpdateEvent progressUpdateCallback) {
+            this.latest = new DownloadProgress[streams];
+            this.progressUpdateCallback = progressUpdateCallback;
+        }
+
+        private DownloadProgressUpdateEvent forStream(int stream) {
+            return progress -> this.update(stream, progress);
+        }
+
+        private synchronized void update(int stream, DownloadProgress progress) {
+            this.latest[stream] = progress;
+            long totalBytes = 0;
+            double fetchedBytes = 0;
+            double percent = 0;
+            double bytesPerSecond = 0;
+            long etaSeconds = 0;
+            for (DownloadProgress each : this.latest) {
+                if (each == null) {
+                    return;
+                }
+                totalBytes = totalBytes < 0 || each.getTotalBytes() < 0 ? -1 : totalBytes + each.getTotalBytes();
+                fetchedBytes += each.getTotalBytes() * each.getPercent() / 100;
+                percent += each.getPercent() / this.latest.length;
+                bytesPerSecond += Math.max(0, each.getBytesPerSecond());
+                etaSeconds = etaSeconds < 0 || each.getEtaSeconds() < 0
+                        ? -1
+                        : Math.max(etaSeconds, each.getEtaSeconds());
+            }
+            // Without every size the streams are weighed equally
+            if (totalBytes > 0) {
+                percent = 100 * fetchedBytes / totalBytes;
+            }
+            this.progressUpdateCallback.callback(DownloadProgress.of(PROGRESS_TAG, percent, totalBytes,
+                    bytesPerSecond > 0 ? bytesPerSecond : -1, etaSeconds));
+        }
+    }
+
+    // Per-call state: built for one request, used by one thread and then dropped
+    private class Job {
+        private final URL targetUrl;
+        private final Optional<File> destinationDirectory;
+        private final Optional<BaseMetadataCache> metadataCache;
+        private final ErrorPolicy errorPolicy;
+        private final BaseExecutionBackend executionBackend;
+        private final boolean resumable;
+        private final Optional<BandwidthGovernor> bandwidthGovernor;
+        private final Optional<BaseMetricsListener> metricsListener;
+        private final Optional<FormatConstraints> formatConstraints;
+        private final Optional<SegmentedTranscoder> transcoder;
+        private final Optional<ProcessReactor> processReactor;
+        private final Optional<RangedFetcher> rangedFetcher;
+        private final boolean separateStreams;
+        private final Optional<VideoMetadata> resolved;
+        private final Optional<Supplier<CompletableFuture<VideoMetadata>>> metadata;
+        private Optional<Path> infoFile = Optional.empty();
+        private Optional<VideoMetadata> probed = Optional.empty();
+        private Optional<DestinationEvent> destinationCallback = Optional.empty();
+        // Kept so that the converted file is reported with the format it was converted from
+        private Optional<String> resolvedFormat = Optional.empty();
+        // Only the merged file is the job's destination, not the streams fetched for it
+        private boolean fetchingStreams;
+
+        private Job(DownloadRequest request, Optional<Supplier<CompletableFuture<VideoMetadata>>> metadata) {
+            this(request.getTargetUrl(), Optional.of(request.getDestinationDirectory()), request.getOptions(),
+                    request.getMetadata(), metadata);
+        }
+
+        private Job(URL targetUrl, DownloadOptions options) {
+            this(targetUrl, Optional.empty(), options, Optional.empty(), Optional.empty());
+        }
+
+        private Job(
+                URL targetUrl,
+                Optional<File> destinationDirectory,
+                DownloadOptions options,
+                Optional<VideoMetadata> resolved,
+                Optional<Supplier<CompletableFuture<VideoMetadata>>> metadata) {
+            this.targetUrl = targetUrl;
+            this.destinationDirectory = destinationDirectory;
+            this.metadataCache = options.getMetadataCache();
+            this.errorPolicy = options.getErrorPolicy();
+            this.executionBackend = options.getExecutionBackend();
+            this.resumable = options.isResumable();
+            this.bandwidthGovernor = options.getBandwidthGovernor();
+            this.metricsListener = options.getMetricsListener();
+            this.formatConstraints = options.getFormatConstraints();
+            this.transcoder = options.getTranscoder();
+            this.processReactor = options.getProcessReactor();
+            this.rangedFetcher = options.getRangedFetcher();
+            this.separateStreams = options.isSeparateStreams();
+            this.resolved = resolved;
+            this.metadata = metadata.isPresent() || !resolved.isPresent()
+                    ? metadata
+                    : Optional.of(() -> CompletableFuture.completedFuture(resolved.get()));
+        }
+
+        private Optional<VideoMetadata> cachedMetadata() {
+            Optional<String> videoId = VideoId.from(this.targetUrl);
+            if (this.metadataCache.isPresent() && videoId.isPresent()) {
+                return this.metadataCache.get().get(videoId.get());
+            }
+            return Optional.empty();
+        }
+
+        // Fetching and converting an audio job both select its format, which probes only once
+        private VideoMetadata probe() throws DownloadException {
+            if (this.metadata.isPresent()) {
+                return await(this.metadata.get().get());
+            }
+            if (this.probed.isPresent()) {
+                return this.probed.get();
+            }
+            Optional<VideoMetadata> cached = this.cachedMetadata();
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            VideoMetadata probed = VideoMetadata.parse(this.lastLineOfOutput(this.probeCommand()));
+            // Only what cachedMetadata() can look up again is cached
+            if (VideoId.from(this.targetUrl).isPresent()) {
+                this.metadataCache.ifPresent(cache -> cache.put(probed));
+            }
+            this.probed = Optional.of(probed);
+            return probed;
+        }
+
+        private List<String> probeCommand() {
+            return Arrays.asList(
+                    youTubeDlBinary,
+                    "-o", OUTPUT_FORMAT,
+                    "--dump-json",
+                    "--format", VIDEO_FORMAT,
+                    "--encoding", "UTF-8",
+                    "--no-part",
+                    "--no-playlist",
+                    this.targetUrl.toString()
+            );
+        }
+
+        private List<String> downloadCommand(boolean extractAudio) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    youTubeDlBinary,
+                    "-o", this.destinationDirectory.get() + File.separator + OUTPUT_FORMAT,
+                    "--format", VIDEO_FORMAT
+            ));
+            if (extractAudio) {
+                command.addAll(Arrays.asList(
+                        "--extract-audio",
+                        "--audio-format", AUDIO_FORMAT,
+                        "--audio-quality", "0",
+                        "--ffmpeg-location", ffmpegBinary
+                ));
+            }
+            if (this.infoFile.isPresent()) {
+                command.addAll(Arrays.asList("--load-info-json", this.infoFile.get().toString()));
+            }
+            command.addAll(Arrays.asList(
+                    this.resumable ? "--continue" : "--no-part",
+                    "--no-playlist",
+                    this.targetUrl.toString()
+            ));
+            return command;
+        }
+
+        private List<String> streamCommand() {
+            return Arrays.asList(
+                    youTubeDlBinary,
+                    "-o", "-",
+                    "--format", VIDEO_FORMAT,
+                    "--newline",
+                    "--no-part",
+                    "--no-playlist",
+                    this.targetUrl.toString()
+            );
+        }
+
+        private String lastLineOfOutput(List<String> command) throws DownloadException {
+            Optional<InvocationMetrics> metrics = this.metricsListener.map(InvocationMetrics::new);
+            boolean succeeded = false;
+            try {
+                Process process = start(this.executionBackend, command, metrics);
+                ErrorStreamDrainer errorStream = this.drainErrors(process);
+                Optional<List<String>> outputMessages = getOutputMessages(process);
+                Optional<List<String>> errorMessages = errorStream.awaitErrorMessages();
+                if (errorMessages.isPresent()) {
+                    metrics.ifPresent(invocation -> invocation.messagesReported(errorMessages.get()));
+                    throw DownloadException.fromMessages(errorMessages.get());
+                }
+                succeeded = true;
+                return outputMessages.get().get(0);
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                if (metrics.isPresent()) {
+                    metrics.get().completed(succeeded);
+                }
+            }
+        }
+
+        // youtube-dl still takes the URL as its last argument, but ignores it when given the info file
+        private DownloadResult download(
+                DownloadMode mode,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            if (!this.resolved.isPresent()) {
+                return this.downloadMedia(mode, stateChangeCallback, progressUpdateCallback);
+            }
+            this.infoFile = Optional.of(writeInfoFile(this.resolved.get()));
+            try {
+                return this.downloadMedia(mode, stateChangeCallback, progressUpdateCallback);
+            } finally {
+                this.deleteInfoFile();
+            }
+        }
+
+        private Conversion fetchForConversion(
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            this.infoFile = this.resolved.map(YouTubeDownloader::writeInfoFile);
+            DownloadResult fetched;
+            try {
+                fetched = this.fetchSource(DownloadMode.AUDIO, stateChangeCallback, progressUpdateCallback);
+            } finally {
+                this.deleteInfoFile();
+            }
+            return () -> this.transcode(fetched, stateChangeCallback, progressUpdateCallback);
+        }
+
+        // A plain youtube-dl fetch on a reactor completes from the reactor's futures. Anything that probes, waits on
+        // the bandwidth governor, fetches over HTTP, transcodes or merges still takes a supervisor thread for the call
+        private CompletableFuture<DownloadResult> downloadAsync(
+                DownloadMode mode,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+            CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+            if (!this.runsOnReactor(mode)) {
+                DOWNLOAD_SUPERVISOR.execute(() -> {
+                    try {
+                        future.complete(this.download(mode, stateChangeCallback, progressUpdateCallback));
+                    } catch (DownloadException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+                return future;
+            }
+            try {
+                this.infoFile = this.resolved.map(YouTubeDownloader::writeInfoFile);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            this.runAsync(this.processReactor.get(), this.downloadCommand(mode == DownloadMode.AUDIO),
+                    stateChangeCallback, progressUpdateCallback, process -> {
+                    }).whenComplete((result, e) -> {
+                        this.deleteInfoFile();
+                        if (e == null) {
+                            future.complete(result);
+                        } else {
+                            future.completeExceptionally(e);
+                        }
+                    });
+            return future;
+        }
+
+        private boolean runsOnReactor(DownloadMode mode) {
+            if (!this.processReactor.isPresent() || this.bandwidthGovernor.isPresent() || this.formatConstraints.isPresent()) {
+                return false;
+            }
+            return mode == DownloadMode.AUDIO
+                    ? !this.transcoder.isPresent()
+                    : !this.separateStreams && !this.rangedFetcher.isPresent();
+        }
+
+        private void resolvedDestination(String format, Path destination) {
+            this.resolvedFormat = Optional.of(format);
+            this.destinationCallback.ifPresent(callback -> callback.resolved(format, destination));
+        }
+
+        private Optional<Consumer<Path>> destinationListener(List<String> command) {
+            if (!this.destinationCallback.isPresent() || this.fetchingStreams) {
+                return Optional.empty();
+            }
+            String format = command.get(command.indexOf("--format") + 1);
+            return Optional.of(destination -> this.resolvedDestination(format, destination));
+        }
+
+        private void deleteInfoFile() {
+            try {
+                if (this.infoFile.isPresent()) {
+                    Files.deleteIfExists(this.infoFile.get());
+                }
+            } catch (IOException e) {
+                // A leftover info file in the temporary directory is harmless
+            }
+        }
+
+        private DownloadResult downloadMedia(
+                DownloadMode mode,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            if (mode == DownloadMode.VIDEO && this.separateStreams) {
+                return this.fetchSeparateStreams(stateChangeCallback, progressUpdateCallback);
+            }
+            if (mode == DownloadMode.AUDIO && !this.transcoder.isPresent()) {
+                return this.fetch(this.commandFor(mode, true), stateChangeCallback, progressUpdateCallback);
+            }
+            DownloadResult fetched = this.fetchSource(mode, stateChangeCallback, progressUpdateCallback);
+            return mode == DownloadMode.VIDEO ? fetched : this.transcode(fetched, stateChangeCallback, progressUpdateCallback);
+        }
+
+        // For audio only the source is fetched here, so its COMPLETE is held back until the audio has been encoded
+        private DownloadResult fetchSource(
+                DownloadMode mode,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            Optional<StateChangeEvent> untilFetched = mode == DownloadMode.VIDEO
+                    ? stateChangeCallback
+                    : stateChangeCallback.map(callback -> state -> {
+                        if (state != State.COMPLETE) {
+                            callback.callback(state);
+                        }
+                    });
+            return this.rangedFetcher.isPresent()
+                    ? this.fetchRanged(mode, this.rangedFetcher.get(), untilFetched, progressUpdateCallback)
+                    : this.fetch(this.commandFor(mode, false), untilFetched, progressUpdateCallback);
+        }
+
+        private DownloadResult fetch(
+                List<String> command,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            if (this.bandwidthGovernor.isPresent()) {
+                try (BandwidthLease lease = this.acquireBandwidth(this.bandwidthGovernor.get())) {
+                    return this.fetchWithin(lease, command, stateChangeCallback, progressUpdateCallback);
+                }
+            }
+            return this.run(command, stateChangeCallback, progressUpdateCallback);
+        }
+
+        // Part files are kept even when the job is not resumable, so that a run restarted with a re-weighted share
+        // carries on where the last one stopped, and does not report the state that one ended in again
+        private DownloadResult fetchWithin(
+                BandwidthLease lease,
+                List<String> command,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            List<String> continuing = new ArrayList<>(command);
+            continuing.replaceAll(argument -> argument.equals("--no-part") ? "--continue" : argument);
+            Optional<DownloadProgressUpdateEvent> observingCallback = Optional.of(progress -> {
+                lease.observe(progress);
+                progressUpdateCallback.ifPresent(callback -> callback.callback(progress));
+            });
+            AtomicReference<State> reported = new AtomicReference<>(State.NONE);
+            while (true) {
+                RateRestart restart = new RateRestart();
+                lease.onLimitChange(restart);
+                Optional<StateChangeEvent> stateChangeEvent = Optional.of(state -> {
+                    restart.stateChanged(state);
+                    if (!(state == State.COMPLETE && restart.isRequested()) && reported.getAndSet(state) != state) {
+                        stateChangeCallback.ifPresent(callback -> callback.callback(state));
+                    }
+                });
+                DownloadResult result;
+                try {
+                    result = this.run(withLimitRate(continuing, lease.getLimitRate()),
+                            stateChangeEvent, observingCallback, restart::started);
+                } catch (IllegalStateException e) {
+                    // Destroying the process closes its stdout, which the reader may see before the end of output
+                    if (!restart.isRequested()) {
+                        throw e;
+                    }
+                    continue;
+                }
+                if (!restart.isRequested()) {
+                    return result;
+                }
+            }
+        }
+
+        private DownloadResult transcode(
+                DownloadResult fetched,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            long start = System.nanoTime();
+            Path source = fetched.getFile().orElseThrow(() ->
+                    new DownloadException(Message.from("ERROR: Unable to find the downloaded file to transcode")));
+            // Without a transcoder this does what --extract-audio would have, remuxing when the codec allows it
+            Optional<String> remuxAudioExtension = !this.transcoder.isPresent() && this.formatConstraints.isPresent()
+                    ? this.selectFormat(DownloadMode.AUDIO).getRemuxAudioExtension()
+                    : Optional.empty();
+            Path target = source.resolveSibling(
+                    baseName(source.getFileName().toString()) + "." + remuxAudioExtension.orElse(AUDIO_FORMAT));
+            this.resolvedFormat.ifPresent(format -> this.resolvedDestination(format, target));
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.CONVERTING));
+            if (!target.equals(source)) {
+                if (this.transcoder.isPresent()) {
+                    this.transcoder.get().transcodeAudio(source, target, progressUpdateCallback, this.metricsListener);
+                } else {
+                    this.convertAudio(source, target, remuxAudioExtension.isPresent());
+                }
+                try {
+                    Files.delete(source);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.COMPLETE));
+            return new DownloadResult(this.targetUrl, fetched.getElapsed().plusNanos(System.nanoTime() - start), Optional.of(target));
+        }
+
+        private void convertAudio(Path source, Path target, boolean remux) throws DownloadException {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    ffmpegBinary, "-hide_banner", "-loglevel", "error", "-nostdin", "-y",
+                    "-i", source.toString(),
+                    "-vn"));
+            command.addAll(remux ? Arrays.asList("-c:a", "copy") : Arrays.asList("-q:a", "0"));
+            command.add(target.toString());
+            this.runFfmpeg(command);
+        }
+
+        private List<String> commandFor(DownloadMode mode, boolean extractAudio) throws DownloadException {
+            List<String> command = this.downloadCommand(extractAudio);
+            if (!this.formatConstraints.isPresent()) {
+                return command;
+            }
+            FormatSelection selection = this.selectFormat(mode);
+            List<String> selected = withOptionValue(command, "--format", selection.getFormat().getFormatId());
+            if (extractAudio && selection.getRemuxAudioFormat().isPresent()) {
+                selected = withOptionValue(selected, "--audio-format", selection.getRemuxAudioFormat().get());
+            }
+            return selected;
+        }
+
+        // Audio jobs take an audio-only stream and, when the codec allows it, keep it as-is rather than re-encoding
+        private FormatSelection selectFormat(DownloadMode mode) throws DownloadException {
+            FormatConstraints constraints = mode == DownloadMode.AUDIO
+                    ? this.formatConstraints.get().withAudioOnly(true)
+                    : this.formatConstraints.get();
+            return FormatSelector.select(this.probe(), constraints).orElseThrow(() ->
+                    new DownloadException(Message.from("ERROR: No format satisfies " + constraints)));
+        }
+
+        // youtube-dl only resolves the media URL; the bytes are fetched here, named as youtube-dl would have named them
+        private DownloadResult fetchRanged(
+                DownloadMode mode,
+                RangedFetcher fetcher,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            long start = System.nanoTime();
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.RESOLVING));
+            VideoMetadata metadata = this.probe();
+            VideoFormat format = this.formatConstraints.isPresent()
+                    ? this.selectFormat(mode).getFormat()
+                    : metadata.getRequestedFormat().orElseThrow(() ->
+                            new DownloadException(Message.from("ERROR: youtube-dl resolved no single format to fetch")));
+            if (!format.isDirectHttp()) {
+                // Segmented formats such as HLS or DASH are left to youtube-dl, which has already been seen resolving
+                Optional<StateChangeEvent> afterResolving = stateChangeCallback.map(callback -> state -> {
+                    if (state != State.RESOLVING) {
+                        callback.callback(state);
+                    }
+                });
+                return this.fetch(this.commandFor(mode, false), afterResolving, progressUpdateCallback);
+            }
+            URL source = sourceUrl(format);
+            Path target = this.destinationDirectory.get().toPath()
+                    .resolve(baseName(metadata.getFilename()) + "." + format.getExtension());
+
+            this.resolvedDestination(format.getFormatId(), target);
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.DOWNLOADING));
+            fetcher.fetch(source, format.getHttpHeaders(), target, progressUpdateCallback);
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.COMPLETE));
+            return new DownloadResult(this.targetUrl, Duration.ofNanos(System.nanoTime() - start), Optional.of(target));
+        }
+
+        // The transfers run side by side, so the download takes about as long as the larger stream rather than both
+        private DownloadResult fetchSeparateStreams(
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            long start = System.nanoTime();
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.RESOLVING));
+            VideoMetadata metadata = this.probe();
+            FormatConstraints constraints = this.formatConstraints.orElseGet(FormatConstraints::new);
+            VideoFormat video = selectStream(metadata, constraints.withVideoOnly(true));
+            VideoFormat audio = selectStream(metadata, constraints.withAudioOnly(true));
+
+            // Both transfers report their own states; each is passed on once, and COMPLETE only after the merge
+            Set<State> reported = ConcurrentHashMap.newKeySet();
+            reported.add(State.RESOLVING);
+            Optional<StateChangeEvent> firstOfEach = stateChangeCallback.map(callback -> state -> {
+                if (state != State.COMPLETE && reported.add(state)) {
+                    callback.callback(state);
+                }
+            });
+            Optional<CombinedProgress> progress =
+                    progressUpdateCallback.map(callback -> new CombinedProgress(2, callback));
+            Path videoPart = this.partFile(metadata, video);
+            Path audioPart = this.partFile(metadata, audio);
+            Path target = this.destinationDirectory.get().toPath()
+                    .resolve(baseName(metadata.getFilename()) + "." + FormatSelector.mergeFormat(video, audio));
+            this.resolvedDestination(video.getFormatId() + "+" + audio.getFormatId(), target);
+            this.fetchingStreams = true;
+            boolean merged = false;
+            try {
+                CompletableFuture<Path> videoStream = this.fetchStreamAsync(
+                        video, videoPart, firstOfEach, progress.map(combined -> combined.forStream(0)));
+                CompletableFuture<Path> audioStream = this.fetchStreamAsync(
+                        audio, audioPart, firstOfEach, progress.map(combined -> combined.forStream(1)));
+                // Neither failure is reported until both transfers have settled, so nothing is left running after the call
+                CompletableFuture.allOf(videoStream, audioStream).handle((ignored, e) -> null).join();
+                Path videoFile = await(videoStream);
+                Path audioFile = await(audioStream);
+
+                stateChangeCallback.ifPresent(callback -> callback.callback(State.MERGING));
+                this.merge(videoFile, audioFile, target);
+                merged = true;
+            } finally {
+                // A resumable download keeps its parts, so that trying again only fetches what is missing
+                if (!merged && !this.resumable) {
+                    deleteQuietly(Arrays.asList(videoPart, audioPart, target));
+                }
+            }
+            stateChangeCallback.ifPresent(callback -> callback.callback(State.COMPLETE));
+            return new DownloadResult(this.targetUrl, Duration.ofNanos(System.nanoTime() - start), Optional.of(target));
+        }
+
+        // Each stream is named as youtube-dl names the parts of a merged download, e.g. "title.f137.mp4"
+        private Path partFile(VideoMetadata metadata, VideoFormat format) {
+            return this.destinationDirectory.get().toPath().resolve(
+                    baseName(metadata.getFilename()) + ".f" + format.getFormatId() + "." + format.getExtension());
+        }
+
+        private VideoFormat selectStream(
+                VideoMetadata metadata,
+                FormatConstraints constraints) throws DownloadException {
+            return FormatSelector.select(metadata, constraints).map(FormatSelection::getFormat).orElseThrow(() ->
+                    new DownloadException(Message.from("ERROR: No format satisfies " + constraints)));
+        }
+
+        private CompletableFuture<Path> fetchStreamAsync(
+                VideoFormat format,
+                Path part,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) {
+            CompletableFuture<Path> future = new CompletableFuture<>();
+            PIPE_SUPERVISOR.execute(() -> {
+                try {
+                    future.complete(this.fetchStream(format, part, stateChangeCallback, progressUpdateCallback));
+                } catch (DownloadException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+
+        private Path fetchStream(
+                VideoFormat format,
+                Path part,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            if (this.rangedFetcher.isPresent() && format.isDirectHttp()) {
+                stateChangeCallback.ifPresent(callback -> callback.callback(State.DOWNLOADING));
+                this.rangedFetcher.get().fetch(sourceUrl(format), format.getHttpHeaders(), part, progressUpdateCallback);
+                return part;
+            }
+            // The part path is passed as an output template, in which a literal % has to be doubled
+            List<String> command = withOptionValue(
+                    withOptionValue(this.downloadCommand(false), "--format", format.getFormatId()),
+                    "-o", part.toString().replace("%", "%%"));
+            return this.fetch(command, stateChangeCallback, progressUpdateCallback).getFile().orElse(part);
+        }
+
+        // Stream copy only rewrites the container, so merging costs little more than reading both files once
+        private void merge(Path video, Path audio, Path target) throws DownloadException {
+            List<String> command = Arrays.asList(
+                    ffmpegBinary, "-hide_banner", "-loglevel", "error", "-nostdin", "-y",
+                    "-i", video.toString(),
+                    "-i", audio.toString(),
+                    "-map", "0:v:0",
+                    "-map", "1:a:0",
+                    "-c", "copy",
+                    target.toString());
+            this.runFfmpeg(command);
+            try {
+                Files.delete(video);
+                Files.delete(audio);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void runFfmpeg(List<String> command) throws DownloadException {
+            Process process;
+            try {
+                process = InvocationMetrics.startTimed(FFMPEG_BACKEND, command, this.metricsListener);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            try {
+                ErrorStreamDrainer errorStream = this.drainErrors(process);
+                getOutputMessages(process);
+                int exitCode = process.waitFor();
+                Optional<List<String>> errorMessages = errorStream.awaitErrorMessages();
+                if (errorMessages.isPresent()) {
+                    throw DownloadException.fromMessages(errorMessages.get());
+                }
+                if (exitCode != 0) {
+                    throw new DownloadException(Message.from("ERROR: ffmpeg exited with code " + exitCode));
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                this.metricsListener.ifPresent(BaseMetricsListener::processExited);
+            }
+        }
+
+        private ErrorStreamDrainer drainErrors(Process process) {
+            return this.processReactor.isPresent()
+                    ? ErrorStreamDrainer.register(process, this.errorPolicy, this.processReactor.get())
+                    : ErrorStreamDrainer.start(process, this.errorPolicy, PIPE_SUPERVISOR);
+        }
+
+        // With a reactor the lines are classified on its dispatch pool and this thread only waits for the end of output
+        private void readLines(
+                Process process,
+                InputStream output,
+                OutputLineClassifier classifier,
+                OutputLineHandler handler,
+                Optional<InvocationMetrics> metrics) throws IOException, InterruptedException {
+            if (!this.processReactor.isPresent()) {
+                classifyLines(new BufferedReader(new InputStreamReader(output)), classifier, handler, metrics);
+                return;
+            }
+            CompletableFuture<Void> read =
+                    this.processReactor.get().register(process, output, classifying(classifier, handler, metrics));
+            try {
+                read.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        private BandwidthLease acquireBandwidth(BandwidthGovernor governor) {
+            try {
+                return governor.acquire(this.targetUrl);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private DownloadResult run(
+                List<String> command,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            return this.run(command, stateChangeCallback, progressUpdateCallback, process -> {
+            });
+        }
+
+        private DownloadResult run(
+                List<String> command,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+                Consumer<Process> started) throws DownloadException {
+            if (this.processReactor.isPresent()) {
+                return await(this.runAsync(
+                        this.processReactor.get(), command, stateChangeCallback, progressUpdateCallback, started));
+            }
+            Optional<InvocationMetrics> metrics = this.metricsListener.map(InvocationMetrics::new);
+            Optional<StateChangeEvent> stateChangeEvent = metrics.isPresent()
+                    ? metrics.get().observeStates(stateChangeCallback)
+                    : stateChangeCallback;
+            Optional<DownloadProgressUpdateEvent> progressUpdateEvent = metrics.isPresent()
+                    ? metrics.get().observeProgress(progressUpdateCallback)
+                    : progressUpdateCallback;
+            boolean succeeded = false;
+            try {
+                long start = System.nanoTime();
+                Process process = start(this.executionBackend, command, metrics);
+                started.accept(process);
+                ErrorStreamDrainer errorStream = ErrorStreamDrainer.start(process, this.errorPolicy, PIPE_SUPERVISOR);
+
+                // stdout is drained even without callbacks, otherwise a chatty process blocks on a full pipe
+                OutputLineClassifier classifier = new OutputLineClassifier();
+                CallbackLineHandler handler = new CallbackLineHandler(
+                        stateChangeEvent, progressUpdateEvent, this.destinationListener(command));
+                try {
+                    classifyLines(new BufferedReader(new InputStreamReader(process.getInputStream())),
+                            classifier, handler, metrics);
+                } catch (IOException e) {
+                    // Killing the process on a fail-fast error can close stdout under the reader
+                    if (!errorStream.hasFailedFast()) {
+                        throw e;
+                    }
+                }
+                if (stateChangeEvent.isPresent() && !errorStream.hasFailedFast()) {
+                    stateChangeEvent.get().callback(State.COMPLETE);
+                }
+
+                Optional<List<String>> errorMessages = errorStream.awaitErrorMessages();
+                if (errorMessages.isPresent()) {
+                    metrics.ifPresent(invocation -> invocation.messagesReported(errorMessages.get()));
+                    throw DownloadException.fromMessages(errorMessages.get());
+                }
+                process.waitFor();
+                succeeded = true;
+                return new DownloadResult(this.targetUrl, Duration.ofNanos(System.nanoTime() - start), handler.destination);
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                if (metrics.isPresent()) {
+                    metrics.get().completed(succeeded);
+                }
+            }
+        }
+
+        // Completes from the reactor's futures, so no thread waits on the process while it runs
+        private CompletableFuture<DownloadResult> runAsync(
+                ProcessReactor reactor,
+                List<String> command,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+                Consumer<Process> started) {
+            Optional<InvocationMetrics> metrics = this.metricsListener.map(InvocationMetrics::new);
+            Optional<StateChangeEvent> stateChangeEvent = metrics.isPresent()
+                    ? metrics.get().observeStates(stateChangeCallback)
+                    : stateChangeCallback;
+            Optional<DownloadProgressUpdateEvent> progressUpdateEvent = metrics.isPresent()
+                    ? metrics.get().observeProgress(progressUpdateCallback)
+                    : progressUpdateCallback;
+            CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+            long start = System.nanoTime();
+            Process process;
+            try {
+                process = start(this.executionBackend, command, metrics);
+            } catch (IOException e) {
+                metrics.ifPresent(invocation -> invocation.completed(false));
+                result.completeExceptionally(new IllegalStateException(e));
+                return result;
+            }
+            started.accept(process);
+            ErrorStreamDrainer errorStream = ErrorStreamDrainer.register(process, this.errorPolicy, reactor);
+            CallbackLineHandler handler = new CallbackLineHandler(
+                    stateChangeEvent, progressUpdateEvent, this.destinationListener(command));
+            CompletableFuture<Void> read = reactor.register(
+                    process, process.getInputStream(), classifying(new OutputLineClassifier(), handler, metrics));
+
+            CompletableFuture.allOf(read, errorStream.drained()).whenComplete((ignored, e) -> {
+                boolean succeeded = false;
+                try {
+                    result.complete(this.finishRun(process, read, errorStream, handler, stateChangeEvent, metrics, start));
+                    succeeded = true;
+                } catch (DownloadException | RuntimeException failure) {
+                    result.completeExceptionally(failure);
+                } finally {
+                    if (metrics.isPresent()) {
+                        metrics.get().completed(succeeded);
+                    }
+                }
+            });
+            return result;
+        }
+
+        // Both pipes have been read to the end, so nothing here waits
+        private DownloadResult finishRun(
+                Process process,
+                CompletableFuture<Void> read,
+                ErrorStreamDrainer errorStream,
+                CallbackLineHandler handler,
+                Optional<StateChangeEvent> stateChangeEvent,
+                Optional<InvocationMetrics> metrics,
+                long start) throws DownloadException {
+            Throwable readFailure = read.handle((ignored, e) -> e).join();
+            // Killing the process on a fail-fast error can close stdout under the reader
+            if (readFailure != null && !(readFailure instanceof IOException && errorStream.hasFailedFast())) {
+                throw readFailure instanceof RuntimeException
+                        ? (RuntimeException) readFailure
+                        : new IllegalStateException(readFailure);
+            }
+            if (stateChangeEvent.isPresent() && !errorStream.hasFailedFast()) {
+                stateChangeEvent.get().callback(State.COMPLETE);
+            }
+            try {
+                Optional<List<String>> errorMessages = errorStream.awaitErrorMessages();
+                if (errorMessages.isPresent()) {
+                    metrics.ifPresent(invocation -> invocation.messagesReported(errorMessages.get()));
+                    throw DownloadException.fromMessages(errorMessages.get());
+                }
+                process.waitFor();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new DownloadResult(this.targetUrl, Duration.ofNanos(System.nanoTime() - start), handler.destination);
+        }
+
+        // With "-o -" the media is written to stdout, so youtube-dl reports state and progress on stderr instead
+        private DownloadResult stream(
+                Optional<List<String>> transcodeCommand,
+                WritableByteChannel target,
+                Optional<StateChangeEvent> stateChangeCallback,
+                Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+            Optional<InvocationMetrics> metrics = this.metricsListener.map(InvocationMetrics::new);
+            Optional<StateChangeEvent> stateChangeEvent = metrics.isPresent()
+                    ? metrics.get().observeStates(stateChangeCallback)
+                    : stateChangeCallback;
+            Optional<DownloadProgressUpdateEvent> progressUpdateEvent = metrics.isPresent()
+                    ? metrics.get().observeProgress(progressUpdateCallback)
+                    : progressUpdateCallback;
+            boolean succeeded = false;
+            List<Process> processes = new ArrayList<>();
+            try {
+                long start = System.nanoTime();
+                Process download = start(STREAMING_BACKEND, this.streamCommand(), metrics);
+                processes.add(download);
+
+                CompletableFuture<Long> written;
+                Optional<Process> transcode = Optional.empty();
+                Optional<ErrorStreamDrainer> transcodeErrors = Optional.empty();
+                if (transcodeCommand.isPresent()) {
+                    transcode = Optional.of(start(STREAMING_BACKEND, transcodeCommand.get(), metrics));
+                    processes.add(transcode.get());
+                    transcodeErrors = Optional.of(this.drainErrors(transcode.get()));
+                    pipe(download, transcode.get(), processes);
+                    written = pump(transcode.get().getInputStream(), target, processes);
+                } else {
+                    written = pump(download.getInputStream(), target, processes);
+                }
+
+                OutputLineClassifier classifier = new OutputLineClassifier();
+                StreamingLineHandler handler = new StreamingLineHandler(stateChangeEvent, progressUpdateEvent, this.errorPolicy, processes);
+                try {
+                    this.readLines(download, download.getErrorStream(), classifier, handler, metrics);
+                } catch (IOException e) {
+                    if (!handler.failedFast) {
+                        throw e;
+                    }
+                }
+                download.waitFor();
+                boolean failedFast = handler.failedFast || transcodeErrors.map(ErrorStreamDrainer::hasFailedFast).orElse(false);
+                if (transcodeCommand.isPresent() && stateChangeEvent.isPresent() && !failedFast) {
+                    stateChangeEvent.get().callback(State.CONVERTING);
+                }
+                awaitTransfer(written);
+                if (transcode.isPresent()) {
+                    transcode.get().waitFor();
+                }
+                if (stateChangeEvent.isPresent() && !failedFast) {
+                    stateChangeEvent.get().callback(State.COMPLETE);
+                }
+
+                List<String> errorMessages = new ArrayList<>(handler.errorMessages);
+                if (transcodeErrors.isPresent()) {
+                    transcodeErrors.get().awaitErrorMessages().ifPresent(errorMessages::addAll);
+                }
+                if (!errorMessages.isEmpty()) {
+                    metrics.ifPresent(invocation -> invocation.messagesReported(errorMessages));
+                    throw DownloadException.fromMessages(errorMessages);
+                }
+                succeeded = true;
+                return new DownloadResult(this.targetUrl, Duration.ofNanos(System.nanoTime() - start));
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                processes.forEach(Process::destroy);
+                if (metrics.isPresent()) {
+                    metrics.get().completed(succeeded);
+                }
+            }
+        }
+    }
+}
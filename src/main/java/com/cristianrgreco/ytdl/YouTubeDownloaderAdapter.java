@@ -1,184 +1,173 @@
 package com.cristianrgreco.ytdl;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
+// Binds one URL and destination to a YouTubeDownloader; only the probe result is remembered between calls
 public class YouTubeDownloaderAdapter implements BaseYouTubeDownloaderAdapter {
-    private static final String VIDEO_FORMAT = "mp4";
-    private static final String AUDIO_FORMAT = "mp3";
-    //private static final String OUTPUT_FORMAT = "%(title)s_%(id)s.%(ext)s";
-    private static final String OUTPUT_FORMAT = "%(title)s.%(ext)s";
+    private final YouTubeDownloader downloader;
+    private final URL targetUrl;
+    private final File destinationDirectory;
+    private final DownloadOptions options;
+    private final AtomicReference<CompletableFuture<VideoMetadata>> metadata = new AtomicReference<>();
 
-    private final ProcessBuilder getTitleProcess;
-    private final ProcessBuilder getFilenameProcess;
-    private final ProcessBuilder downloadVideoProcess;
-    private final ProcessBuilder downloadAudioProcess;
+    public YouTubeDownloaderAdapter(URL targetUrl, File destinationDirectory, BaseBinaryConfiguration binaryConfiguration) {
+        this(targetUrl, destinationDirectory, binaryConfiguration, new DownloadOptions());
+    }
+
+    public YouTubeDownloaderAdapter(
+            URL targetUrl,
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            BaseMetadataCache metadataCache) {
+        this(targetUrl, destinationDirectory, binaryConfiguration, new DownloadOptions().withMetadataCache(metadataCache));
+    }
 
-    private State currentState = State.NONE;
+    public YouTubeDownloaderAdapter(
+            URL targetUrl,
+            File destinationDirectory,
+            BaseBinaryConfiguration binaryConfiguration,
+            DownloadOptions options) {
+        this(new YouTubeDownloader(binaryConfiguration), targetUrl, destinationDirectory, options);
+    }
 
-    public YouTubeDownloaderAdapter(URL targetUrl, File destinationDirectory, BaseBinaryConfiguration binaryConfiguration) {
-        String commandBase = binaryConfiguration.getYouTubeDlBinary().getAbsolutePath();
-        this.getTitleProcess = new ProcessBuilder(Arrays.asList(
-                commandBase,
-                "--get-title",
-                "--encoding", "UTF-8",
-                "--no-part",
-                "--no-playlist",
-                targetUrl.toString()
-        ));
-        this.getFilenameProcess = new ProcessBuilder(Arrays.asList(
-                commandBase,
-                "-o", OUTPUT_FORMAT,
-                "--get-filename",
-                "--format", VIDEO_FORMAT,
-                "--no-part",
-                "--no-playlist",
-                targetUrl.toString()
-        ));
-        this.downloadVideoProcess = new ProcessBuilder(Arrays.asList(
-                commandBase,
-                "-o", destinationDirectory + File.separator + OUTPUT_FORMAT,
-                "--format", VIDEO_FORMAT,
-                "--no-part",
-                "--no-playlist",
-                targetUrl.toString()
-        ));
-        this.downloadAudioProcess = new ProcessBuilder(Arrays.asList(
-                commandBase,
-                "-o", destinationDirectory + File.separator + OUTPUT_FORMAT,
-                "--format", VIDEO_FORMAT,
-                "--extract-audio",
-                "--audio-format", AUDIO_FORMAT,
-                "--audio-quality","0",
-                "--ffmpeg-location", binaryConfiguration.getFfmpegBinary().getAbsolutePath(),
-                "--no-part",
-                "--no-playlist",
-                targetUrl.toString()
-        ));
+    public YouTubeDownloaderAdapter(
+            YouTubeDownloader downloader,
+            URL targetUrl,
+            File destinationDirectory,
+            DownloadOptions options) {
+        this.downloader = downloader;
+        this.targetUrl = targetUrl;
+        this.destinationDirectory = destinationDirectory;
+        this.options = options;
     }
 
     @Override
     public String getTitle() throws DownloadException {
-        return this.lastLineOfOutput(this.getTitleProcess);
+        return this.probe().getTitle();
     }
 
     @Override
     public String getFilename() throws DownloadException {
-        return this.lastLineOfOutput(this.getFilenameProcess);
+        return this.probe().getFilename();
     }
 
-    private String lastLineOfOutput(ProcessBuilder command) throws DownloadException {
-        try {
-            Process process = command.start();
-            Optional<List<String>> outputMessages = this.getOutputMessages(process);
-            Optional<List<String>> errorMessages = this.getErrorMessages(process);
-            if (errorMessages.isPresent()) {
-                throw this.createExceptionForErrorMessages(errorMessages.get());
-            }
-            return outputMessages.get().get(0);
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+    @Override
+    public VideoMetadata probe() throws DownloadException {
+        return YouTubeDownloader.await(this.probeAsync());
+    }
+
+    @Override
+    public CompletableFuture<String> getTitleAsync() {
+        return this.probeAsync().thenApply(VideoMetadata::getTitle);
+    }
+
+    @Override
+    public CompletableFuture<String> getFilenameAsync() {
+        return this.probeAsync().thenApply(VideoMetadata::getFilename);
+    }
+
+    @Override
+    public CompletableFuture<VideoMetadata> probeAsync() {
+        CompletableFuture<VideoMetadata> existing = this.metadata.get();
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<VideoMetadata> future = new CompletableFuture<>();
+        if (!this.metadata.compareAndSet(null, future)) {
+            return this.metadata.get();
         }
+        this.downloader.probeAsync(this.targetUrl, this.options).whenComplete((probed, e) -> {
+            if (e == null) {
+                future.complete(probed);
+            } else {
+                // A failed probe is not cached so that a later call can retry it
+                this.metadata.compareAndSet(future, null);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
     }
 
     @Override
-    public void downloadVideo(
+    public DownloadResult downloadVideo(
             Optional<StateChangeEvent> stateChangeCallback,
             Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
-        this.download(this.downloadVideoProcess, stateChangeCallback, progressUpdateCallback);
+        return this.downloader.download(
+                this.request(DownloadMode.VIDEO), this::probeAsync, stateChangeCallback, progressUpdateCallback);
     }
 
     @Override
-    public void downloadAudio(
+    public DownloadResult downloadAudio(
             Optional<StateChangeEvent> stateChangeCallback,
             Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
-        this.download(this.downloadAudioProcess, stateChangeCallback, progressUpdateCallback);
+        return this.downloader.download(
+                this.request(DownloadMode.AUDIO), this::probeAsync, stateChangeCallback, progressUpdateCallback);
     }
 
-    private void download(
-            ProcessBuilder command,
+    @Override
+    public DownloadResult streamVideo(
+            WritableByteChannel target,
             Optional<StateChangeEvent> stateChangeCallback,
             Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
-        try {
-            Process process = command.start();
-
-            if (stateChangeCallback.isPresent() || progressUpdateCallback.isPresent()) {
-                BufferedReader input = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                String line;
-                while ((line = input.readLine()) != null) {
-                    if (line.trim().isEmpty()) {
-                        continue;
-                    }
-                    if (stateChangeCallback.isPresent()) {
-                        if (State.isValidStateMessage(line)) {
-                            State newState = State.parse(line);
-                            if (this.currentState != newState) {
-                                this.currentState = newState;
-                                stateChangeCallback.get().callback(this.currentState);
-                            }
-                        }
-                    }
-                    if (progressUpdateCallback.isPresent()) {
-                        if (DownloadProgress.isValidProgressMessage(line)) {
-                            progressUpdateCallback.get().callback(DownloadProgress.parse(line));
-                        }
-                    }
-                }
-                if (stateChangeCallback.isPresent()) {
-                    this.currentState = State.COMPLETE;
-                    stateChangeCallback.get().callback(this.currentState);
-                }
-            }
+        return this.downloader.stream(this.request(DownloadMode.VIDEO), target, stateChangeCallback, progressUpdateCallback);
+    }
 
-            Optional<List<String>> errorMessages = this.getErrorMessages(process);
-            if (errorMessages.isPresent()) {
-                throw this.createExceptionForErrorMessages(errorMessages.get());
-            }
-            process.waitFor();
-        } catch (IOException | InterruptedException e) {
-            throw new IllegalStateException(e);
-        }
+    @Override
+    public DownloadResult streamVideo(
+            OutputStream target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        return this.streamVideo(Channels.newChannel(target), stateChangeCallback, progressUpdateCallback);
     }
 
-    private Optional<List<String>> getOutputMessages(Process process) {
-        return this.getMessages(process.getInputStream());
+    @Override
+    public DownloadResult streamAudio(
+            WritableByteChannel target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        return this.downloader.stream(this.request(DownloadMode.AUDIO), target, stateChangeCallback, progressUpdateCallback);
     }
 
-    private Optional<List<String>> getErrorMessages(Process process) {
-        return this.getMessages(process.getErrorStream());
+    @Override
+    public DownloadResult streamAudio(
+            OutputStream target,
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback) throws DownloadException {
+        return this.streamAudio(Channels.newChannel(target), stateChangeCallback, progressUpdateCallback);
     }
 
-    private Optional<List<String>> getMessages(InputStream is) {
-        List<String> messages = new ArrayList<>();
+    @Override
+    public CompletableFuture<DownloadResult> downloadVideoAsync(
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor) {
+        return this.downloader.downloadAsync(this.request(DownloadMode.VIDEO), this::probeAsync,
+                stateChangeCallback, progressUpdateCallback, callbackExecutor);
+    }
 
-        BufferedReader input = new BufferedReader(new InputStreamReader(is));
-        String line;
-        try {
-            while ((line = input.readLine()) != null) {
-                messages.add(line);
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+    @Override
+    public CompletableFuture<DownloadResult> downloadAudioAsync(
+            Optional<StateChangeEvent> stateChangeCallback,
+            Optional<DownloadProgressUpdateEvent> progressUpdateCallback,
+            Executor callbackExecutor) {
+        return this.downloader.downloadAsync(this.request(DownloadMode.AUDIO), this::probeAsync,
+                stateChangeCallback, progressUpdateCallback, callbackExecutor);
+    }
 
-        if (messages.size() > 0) {
-            return Optional.of(messages);
-        } else {
-            return Optional.empty();
-        }
+    private DownloadRequest request(DownloadMode mode) {
+        return new DownloadRequest(this.targetUrl, this.destinationDirectory, mode, this.options);
     }
 
     DownloadException createExceptionForErrorMessages(List<String> errorMessages) {
-        return errorMessages.stream()
-                .map(errorMessage -> new DownloadException(Message.from(errorMessage)))
-                .reduce((prev, current) -> new DownloadException(current.getErrorMessage(), prev)).get();
+        return DownloadException.fromMessages(errorMessages);
     }
 }
@@ -0,0 +1,251 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class YouTubeDownloaderBatchAdapter {
+    // Extractor lines such as "[youtube] oHg5SJYRHA0: Downloading webpage" mark the start of an item
+    private static final Pattern ITEM_START = Pattern.compile("^\\s*\\[[^\\]]+\\] ([A-Za-z0-9_-]+): ");
+    private static final String WARNING_PREFIX = "WARNING:";
+    private static final String ERROR_PREFIX = "ERROR:";
+
+    private final List<URL> targetUrls;
+    private final List<String> downloadVideoCommand;
+    private final List<String> downloadAudioCommand;
+
+    public YouTubeDownloaderBatchAdapter(List<URL> targetUrls, File destinationDirectory, BaseBinaryConfiguration binaryConfiguration) {
+        if (targetUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one URL is required");
+        }
+        this.targetUrls = new ArrayList<>(targetUrls);
+        String commandBase = binaryConfiguration.getYouTubeDlBinary().getAbsolutePath();
+        // URLs are written to stdin rather than passed as arguments, so the batch size is not bound by the command line
+        this.downloadVideoCommand = Arrays.asList(
+                commandBase,
+                "-o", destinationDirectory + File.separator + YouTubeDownloader.OUTPUT_FORMAT,
+                "--format", YouTubeDownloader.VIDEO_FORMAT,
+                "--no-part",
+                "--no-playlist",
+                "--ignore-errors",
+                "--batch-file", "-"
+        );
+        this.downloadAudioCommand = Arrays.asList(
+                commandBase,
+                "-o", destinationDirectory + File.separator + YouTubeDownloader.OUTPUT_FORMAT,
+                "--format", YouTubeDownloader.VIDEO_FORMAT,
+                "--extract-audio",
+                "--audio-format", YouTubeDownloader.AUDIO_FORMAT,
+                "--audio-quality", "0",
+                "--ffmpeg-location", binaryConfiguration.getFfmpegBinary().getAbsolutePath(),
+                "--no-part",
+                "--no-playlist",
+                "--ignore-errors",
+                "--batch-file", "-"
+        );
+    }
+
+    public List<BatchItemResult> downloadVideo(
+            Optional<BatchStateChangeEvent> stateChangeCallback,
+            Optional<BatchDownloadProgressUpdateEvent> progressUpdateCallback) {
+        return this.download(this.downloadVideoCommand, stateChangeCallback, progressUpdateCallback);
+    }
+
+    public List<BatchItemResult> downloadAudio(
+            Optional<BatchStateChangeEvent> stateChangeCallback,
+            Optional<BatchDownloadProgressUpdateEvent> progressUpdateCallback) {
+        return this.download(this.downloadAudioCommand, stateChangeCallback, progressUpdateCallback);
+    }
+
+    private List<BatchItemResult> download(
+            List<String> command,
+            Optional<BatchStateChangeEvent> stateChangeCallback,
+            Optional<BatchDownloadProgressUpdateEvent> progressUpdateCallback) {
+        List<BatchItem> items = this.targetUrls.stream().map(BatchItem::new).collect(Collectors.toList());
+        try {
+            // stderr is merged into stdout so that errors arrive in the same order as the item they belong to
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (Writer batchFile = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+                for (URL targetUrl : this.targetUrls) {
+                    batchFile.write(targetUrl + "\n");
+                }
+            }
+
+            OutputLineClassifier classifier = new OutputLineClassifier();
+            BatchLineHandler handler = new BatchLineHandler(items, stateChangeCallback, progressUpdateCallback);
+            BufferedReader input = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = input.readLine()) != null) {
+                classifier.classify(line, handler);
+            }
+            handler.complete(handler.currentItem);
+            process.waitFor();
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return items.stream().map(BatchItem::toResult).collect(Collectors.toList());
+    }
+
+    // youtube-dl works through the batch in order, so the search starts from the item currently being processed
+    private static BatchItem findItemById(String videoId, List<BatchItem> items, BatchItem currentItem) {
+        int start = currentItem == null ? 0 : items.indexOf(currentItem);
+        for (int i = 0; i < items.size(); i++) {
+            BatchItem item = items.get((start + i) % items.size());
+            if (item.videoId.isPresent() && item.videoId.get().equals(videoId)) {
+                return item;
+            }
+        }
+        return nextUnstartedItem(items, currentItem);
+    }
+
+    private static Optional<BatchItem> findItemMentionedIn(String message, List<BatchItem> items, BatchItem currentItem) {
+        if (currentItem != null && currentItem.isMentionedIn(message)) {
+            return Optional.of(currentItem);
+        }
+        return items.stream().filter(item -> item.isMentionedIn(message)).findFirst();
+    }
+
+    private static BatchItem nextUnstartedItem(List<BatchItem> items, BatchItem currentItem) {
+        int start = currentItem == null ? 0 : items.indexOf(currentItem) + 1;
+        for (int i = start; i < items.size(); i++) {
+            if (!items.get(i).started) {
+                return items.get(i);
+            }
+        }
+        return currentItem;
+    }
+
+    private static class BatchLineHandler implements OutputLineHandler {
+        private final List<BatchItem> items;
+        private final Optional<BatchStateChangeEvent> stateChangeCallback;
+        private final Optional<BatchDownloadProgressUpdateEvent> progressUpdateCallback;
+        private BatchItem currentItem;
+
+        private BatchLineHandler(
+                List<BatchItem> items,
+                Optional<BatchStateChangeEvent> stateChangeCallback,
+                Optional<BatchDownloadProgressUpdateEvent> progressUpdateCallback) {
+            this.items = items;
+            this.stateChangeCallback = stateChangeCallback;
+            this.progressUpdateCallback = progressUpdateCallback;
+        }
+
+        @Override
+        public void onMessage(CharSequence line) {
+            String message = line.toString().trim();
+            BatchItem item = findItemMentionedIn(message, this.items, this.currentItem).orElse(
+                    this.currentItem != null ? this.currentItem : nextUnstartedItem(this.items, null));
+            if (item != null) {
+                this.switchTo(item);
+                item.messages.add(message);
+            }
+        }
+
+        // Anything else, e.g. a Python traceback, comes from stderr and belongs to the item being processed
+        @Override
+        public void onUntaggedLine(CharSequence line) {
+            if (line.toString().trim().isEmpty()) {
+                return;
+            }
+            BatchItem item = this.currentItem != null ? this.currentItem : nextUnstartedItem(this.items, null);
+            if (item != null) {
+                this.switchTo(item);
+                item.messages.add(line.toString());
+            }
+        }
+
+        @Override
+        public void onTaggedLine(OutputTag tag, CharSequence line) {
+            if (tag == OutputTag.YOUTUBE || tag == OutputTag.OTHER) {
+                Matcher itemStart = ITEM_START.matcher(line);
+                if (itemStart.find()) {
+                    BatchItem item = findItemById(itemStart.group(1), this.items, this.currentItem);
+                    if (item != null) {
+                        this.switchTo(item);
+                    }
+                }
+            }
+            State newState = tag.getState();
+            if (this.currentItem != null && newState != State.NONE && this.currentItem.state != newState) {
+                this.currentItem.state = newState;
+                if (this.stateChangeCallback.isPresent()) {
+                    this.stateChangeCallback.get().callback(this.currentItem.targetUrl, newState);
+                }
+            }
+        }
+
+        @Override
+        public void onProgress(CharSequence line, MutableDownloadProgress progress) {
+            if (this.currentItem != null && this.progressUpdateCallback.isPresent()) {
+                this.progressUpdateCallback.get().callback(
+                        this.currentItem.targetUrl, DownloadProgress.from(line.toString(), progress));
+            }
+        }
+
+        private void switchTo(BatchItem item) {
+            item.started = true;
+            if (item != this.currentItem) {
+                this.complete(this.currentItem);
+                this.currentItem = item;
+            }
+        }
+
+        private void complete(BatchItem item) {
+            if (item != null && item.state != State.COMPLETE && item.state != State.NONE && !item.hasFailed()) {
+                item.state = State.COMPLETE;
+                if (this.stateChangeCallback.isPresent()) {
+                    this.stateChangeCallback.get().callback(item.targetUrl, State.COMPLETE);
+                }
+            }
+        }
+    }
+
+    private static class BatchItem {
+        private final URL targetUrl;
+        private final Optional<String> videoId;
+        private final List<String> messages = new ArrayList<>();
+        private State state = State.NONE;
+        private boolean started;
+
+        private BatchItem(URL targetUrl) {
+            this.targetUrl = targetUrl;
+            this.videoId = VideoId.from(targetUrl);
+        }
+
+        private boolean isMentionedIn(String message) {
+            return message.contains(this.targetUrl.toString()) ||
+                    (this.videoId.isPresent() && message.contains(this.videoId.get()));
+        }
+
+        private boolean hasFailed() {
+            return this.messages.stream().anyMatch(message -> !message.startsWith(WARNING_PREFIX));
+        }
+
+        private BatchItemResult toResult() {
+            List<Message> warnings = this.messages.stream()
+                    .filter(message -> message.startsWith(WARNING_PREFIX))
+                    .map(Message::from)
+                    .collect(Collectors.toList());
+            if (!this.started) {
+                return new BatchItemResult(this.targetUrl, Optional.of(new DownloadException(
+                        Message.from(ERROR_PREFIX + " No output was produced for " + this.targetUrl))), warnings);
+            }
+            Optional<DownloadException> failure = this.hasFailed()
+                    ? Optional.of(DownloadException.fromMessages(this.messages))
+                    : Optional.empty();
+            return new BatchItemResult(this.targetUrl, failure, warnings);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+#!/usr/bin/env python
+# Long-lived youtube-dl worker used by WorkerPoolExecutionBackend.
+#
+# Requests arrive on stdin, one per line:  {"id": 1, "args": ["--format", "mp4", "https://..."]}
+# Responses are written to stdout:          {"id": 1, "stream": "stdout", "line": "[download] ..."}
+#                                           {"id": 1, "stream": "stderr", "line": "WARNING: ..."}
+#                                           {"id": 1, "exit": 0}
+# The worker exits when stdin is closed.
+from __future__ import unicode_literals
+
+import io
+import json
+import re
+import sys
+import traceback
+
+import youtube_dl
+
+PROTOCOL = sys.stdout
+LINE_BREAK = re.compile(r'\r\n|\r|\n')
+
+
+def respond(response):
+    PROTOCOL.write(json.dumps(response) + '\n')
+    PROTOCOL.flush()
+
+
+class JobStream(io.TextIOBase):
+    encoding = 'utf-8'
+
+    def __init__(self, job_id, stream):
+        super(JobStream, self).__init__()
+        self.job_id = job_id
+        self.stream = stream
+        self.pending = ''
+
+    def write(self, text):
+        if isinstance(text, bytes):
+            text = text.decode('utf-8', 'replace')
+        lines = LINE_BREAK.split(self.pending + text)
+        self.pending = lines.pop()
+        for line in lines:
+            self.emit(line)
+        return len(text)
+
+    def flush(self):
+        pass
+
+    def isatty(self):
+        return False
+
+    def finish(self):
+        if self.pending:
+            self.emit(self.pending)
+            self.pending = ''
+
+    def emit(self, line):
+        if line.strip():
+            respond({'id': self.job_id, 'stream': self.stream, 'line': line})
+
+
+def run(job_id, args):
+    stdout = JobStream(job_id, 'stdout')
+    stderr = JobStream(job_id, 'stderr')
+    sys.stdout, sys.stderr = stdout, stderr
+    try:
+        youtube_dl.main(args)
+        code = 0
+    except SystemExit as e:
+        code = e.code if isinstance(e.code, int) else (0 if e.code is None else 1)
+        if not isinstance(e.code, (int, type(None))):
+            stderr.write('ERROR: %s\n' % e.code)
+    except Exception:
+        stderr.write('ERROR: %s\n' % traceback.format_exc().strip().splitlines()[-1])
+        code = 1
+    finally:
+        sys.stdout, sys.stderr = PROTOCOL, sys.__stderr__
+    stdout.finish()
+    stderr.finish()
+    respond({'id': job_id, 'exit': code})
+
+
+def main():
+    for line in iter(sys.stdin.readline, ''):
+        if not line.strip():
+            continue
+        request = json.loads(line)
+        run(request['id'], request['args'])
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,130 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class AsyncYouTubeDownloaderAdapterTest {
+    private static final String DOWNLOAD_SCRIPT =
+            "echo \"[youtube] oHg5SJYRHA0: Downloading webpage\"\n" +
+            "echo \"[download]  10.8% of 9.22MiB at  5.68MiB/s ETA 00:01\"\n" +
+            "sleep 0.5\n" +
+            "echo \"[ffmpeg] Destination: RickRoll'D_oHg5SJYRHA0.mp3\"\n";
+    private static final String PROBE_SCRIPT = StubBinaries.printing(
+            "{\"id\": \"oHg5SJYRHA0\", \"title\": \"RickRoll'D\", \"_filename\": \"RickRoll'D.mp4\"}\n");
+    private static final String ERROR_SCRIPT = "echo \"ERROR: 'test' is not a valid URL\" >&2\n";
+    private static final URL VIDEO_URL;
+
+    static {
+        try {
+            VIDEO_URL = new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0");
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File destinationDirectory;
+    private ExecutorService callbackExecutor;
+
+    @Before
+    public void setUp() {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.callbackExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "callback-thread"));
+    }
+
+    @After
+    public void tearDown() {
+        this.callbackExecutor.shutdown();
+    }
+
+    @Test
+    public void firesEventsInOrderOnCallbackExecutor() {
+        List<State> states = new CopyOnWriteArrayList<>();
+        List<String> callbackThreads = new CopyOnWriteArrayList<>();
+        YouTubeDownloaderAdapter target = new YouTubeDownloaderAdapter(
+                VIDEO_URL, this.destinationDirectory, StubBinaries.createConfiguration(DOWNLOAD_SCRIPT));
+
+        DownloadResult result = target.downloadAudioAsync(
+                Optional.of(state -> {
+                    states.add(state);
+                    callbackThreads.add(Thread.currentThread().getName());
+                }),
+                Optional.of(progress -> callbackThreads.add(Thread.currentThread().getName())),
+                this.callbackExecutor).join();
+
+        assertThat("Result is for the target URL", result.getTargetUrl(), is(VIDEO_URL));
+        assertThat("States are fired in order", states,
+                is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.CONVERTING, State.COMPLETE)));
+        assertThat("Callbacks run on the callback executor",
+                callbackThreads.stream().allMatch("callback-thread"::equals), is(true));
+    }
+
+    @Test
+    public void supervisesManyDownloadsConcurrently() {
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(DOWNLOAD_SCRIPT);
+        List<CompletableFuture<DownloadResult>> downloads = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            YouTubeDownloaderAdapter target = new YouTubeDownloaderAdapter(VIDEO_URL, this.destinationDirectory, binaryConfiguration);
+            downloads.add(target.downloadVideoAsync(Optional.empty(), Optional.empty(), this.callbackExecutor));
+        }
+        CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat("Downloads overlap instead of running one after another", elapsedMillis, lessThan(5000L));
+    }
+
+    @Test
+    public void retrievesTheTitleAsynchronously() {
+        YouTubeDownloaderAdapter target = new YouTubeDownloaderAdapter(
+                VIDEO_URL, this.destinationDirectory, StubBinaries.createConfiguration(PROBE_SCRIPT));
+
+        assertThat("Title is correct", target.getTitleAsync().join(), is("RickRoll'D"));
+    }
+
+    @Test
+    public void servesTitleAndFilenameFromASingleProbe() throws Exception {
+        File invocations = File.createTempFile("invocations", ".txt");
+        invocations.deleteOnExit();
+        YouTubeDownloaderAdapter target = new YouTubeDownloaderAdapter(VIDEO_URL, this.destinationDirectory,
+                StubBinaries.createConfiguration("echo probe >> '" + invocations.getAbsolutePath() + "'\n" + PROBE_SCRIPT));
+
+        assertThat("Title is correct", target.getTitle(), is("RickRoll'D"));
+        assertThat("Filename is correct", target.getFilename(), is("RickRoll'D.mp4"));
+        assertThat("YouTubeDl is run once", Files.readAllLines(invocations.toPath()).size(), is(1));
+    }
+
+    @Test
+    public void completesExceptionallyIfThereIsErrorOutput() {
+        YouTubeDownloaderAdapter target = new YouTubeDownloaderAdapter(
+                VIDEO_URL, this.destinationDirectory, StubBinaries.createConfiguration(ERROR_SCRIPT));
+
+        try {
+            target.downloadVideoAsync(Optional.empty(), Optional.empty(), this.callbackExecutor).join();
+            throw new AssertionError("Expected the download to fail");
+        } catch (CompletionException e) {
+            assertThat("Cause is a download exception", e.getCause(), instanceOf(DownloadException.class));
+            assertThat("Error message is correct", e.getCause().getMessage(), is("'test' is not a valid URL"));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class BandwidthGovernorTest {
+    private static final long BUDGET = 1_000_000;
+
+    @Test
+    public void reweightsRunningJobsWhenAnotherStarts() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100);
+        BandwidthLease first = governor.acquire(new URL("https://www.youtube.com/watch?v=a"));
+        AtomicInteger firstChanges = new AtomicInteger();
+        first.onLimitChange(firstChanges::incrementAndGet);
+        assertThat("A job running alone has the whole budget", first.getLimitRate(), is(BUDGET));
+
+        BandwidthLease second = governor.acquire(new URL("https://www.youtube.com/watch?v=b"));
+
+        assertThat(first.getLimitRate(), is(BUDGET / 2));
+        assertThat(second.getLimitRate(), is(BUDGET / 2));
+        assertThat("The running job is told to restart with its new share", firstChanges.get(), is(1));
+    }
+
+    @Test
+    public void startsJobsWithoutWaitingForOthersToFinish() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<BandwidthLease> leases = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String video = "https://www.youtube.com/watch?v=" + i;
+                leases.add(executor.submit(() -> governor.acquire(new URL(video))).get(1, TimeUnit.SECONDS));
+            }
+
+            long leased = 0;
+            for (BandwidthLease lease : leases) {
+                assertThat(lease.getLimitRate(), greaterThanOrEqualTo(BUDGET / 4));
+                leased += lease.getLimitRate();
+            }
+            assertThat(governor.getActiveJobs(), is(4));
+            assertThat("Shares within a quarter of their target are not worth a restart", leased,
+                    lessThanOrEqualTo(BUDGET + BUDGET / 4));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitsOnlyOnceEveryJobIsDownToTheMinimumRate() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(2 * BandwidthGovernor.MINIMUM_RATE, 100);
+        BandwidthLease first = governor.acquire(new URL("https://www.youtube.com/watch?v=a"));
+        governor.acquire(new URL("https://www.youtube.com/watch?v=b"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<BandwidthLease> third = executor.submit(() -> governor.acquire(new URL("https://www.youtube.com/watch?v=c")));
+
+            Thread.sleep(200);
+            assertThat("Two jobs already run at the minimum rate", third.isDone(), is(false));
+            first.close();
+            assertThat(third.get(1, TimeUnit.SECONDS).getLimitRate(), is(BandwidthGovernor.MINIMUM_RATE));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reweightsAroundJobsUsingLessThanTheirShare() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100);
+        BandwidthLease slow = governor.acquire(new URL("https://www.youtube.com/watch?v=a"));
+
+        slow.observe(DownloadProgress.parse("[download]  10.0% of 9.22MiB at 97.66KiB/s ETA 01:30"));
+        BandwidthLease second = governor.acquire(new URL("https://www.youtube.com/watch?v=b"));
+        BandwidthLease third = governor.acquire(new URL("https://www.youtube.com/watch?v=c"));
+
+        assertThat("The slow job is held to what it was seen using", slow.getLimitRate(), lessThan(BUDGET / 3));
+        assertThat("The rest is free for the others", second.getLimitRate(), is((BUDGET - slow.getLimitRate()) / 2));
+        assertThat(slow.getLimitRate() + second.getLimitRate() + third.getLimitRate(), lessThanOrEqualTo(BUDGET));
+    }
+
+    @Test
+    public void givesTheShareOfAFinishedJobBackToTheOthers() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100, 0);
+        BandwidthLease first = governor.acquire(new URL("https://www.youtube.com/watch?v=a"));
+        AtomicInteger firstChanges = new AtomicInteger();
+        governor.acquire(new URL("https://www.youtube.com/watch?v=b")).close();
+        first.onLimitChange(firstChanges::incrementAndGet);
+
+        BandwidthLease third = governor.acquire(new URL("https://www.youtube.com/watch?v=c"));
+        third.close();
+
+        assertThat(governor.getActiveJobs(), is(1));
+        assertThat(first.getLimitRate(), is(BUDGET));
+        assertThat("Shrunk for the third job and grown back once it finished", firstChanges.get(), is(2));
+    }
+
+    @Test
+    public void holdsBackGrowthUntilAJobHasKeptItsLimitForAWhile() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100, TimeUnit.MINUTES.toNanos(1));
+        BandwidthLease first = governor.acquire(new URL("https://www.youtube.com/watch?v=a"));
+
+        governor.acquire(new URL("https://www.youtube.com/watch?v=b")).close();
+
+        assertThat("Shrunk at once, not yet grown back", first.getLimitRate(), is(BUDGET / 2));
+    }
+
+    @Test
+    public void limitsStartsPerSecondForEachHost() throws Exception {
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 2);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            governor.acquire(new URL("https://www.youtube.com/watch?v=" + i)).close();
+        }
+        governor.acquire(new URL("https://vimeo.com/1")).close();
+        long firstHostMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long otherStart = System.nanoTime();
+        governor.acquire(new URL("https://vimeo.com/2")).close();
+        long otherHostMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - otherStart);
+
+        assertThat("Third start waited for a token", firstHostMillis, greaterThanOrEqualTo(400L));
+        assertThat("Other host had its own burst", otherHostMillis, lessThan(100L));
+    }
+
+    @Test
+    public void passesShareToYouTubeDl() throws Exception {
+        File arguments = File.createTempFile("ytdl-arguments", ".txt");
+        arguments.deleteOnExit();
+        BaseBinaryConfiguration configuration = StubBinaries.createConfiguration(
+                "echo \"$@\" > '" + arguments.getAbsolutePath() + "'\n" +
+                "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n");
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100);
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL("https://www.youtube.com/watch?v=lWA2pjMjpBs"),
+                StubBinaries.createTempDirectory(),
+                configuration,
+                new DownloadOptions().withBandwidthGovernor(governor));
+
+        adapter.downloadVideo(Optional.empty(), Optional.empty());
+
+        String commandLine = new String(Files.readAllBytes(arguments.toPath()), StandardCharsets.UTF_8);
+        assertThat(commandLine, containsString("--limit-rate " + BUDGET + " https://www.youtube.com/watch?v=lWA2pjMjpBs"));
+        assertThat("Part files are kept for restarts", commandLine, containsString("--continue"));
+        assertThat("Lease released after the download", governor.getActiveJobs(), is(0));
+    }
+
+    @Test
+    public void restartsYouTubeDlWithAReweightedShare() throws Exception {
+        File arguments = File.createTempFile("ytdl-arguments", ".txt");
+        arguments.deleteOnExit();
+        // The first run downloads until it is stopped; the restarted one finishes
+        BaseBinaryConfiguration configuration = StubBinaries.createConfiguration(
+                "echo \"$@\" >> '" + arguments.getAbsolutePath() + "'\n" +
+                "echo '[download] Destination: /tmp/RickRoll.mp4'\n" +
+                "case \"$*\" in *\"--limit-rate " + BUDGET + " \"*) " +
+                "echo '[download]  10.0% of 9.22MiB at 976.56KiB/s ETA 00:09'; exec sleep 10;; esac\n" +
+                "echo '[download] 100.0% of 9.22MiB at 488.28KiB/s ETA 00:00'\n");
+        BandwidthGovernor governor = new BandwidthGovernor(BUDGET, 100);
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL("https://www.youtube.com/watch?v=lWA2pjMjpBs"),
+                StubBinaries.createTempDirectory(),
+                configuration,
+                new DownloadOptions().withBandwidthGovernor(governor));
+        List<State> states = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<DownloadResult> download = executor.submit(() ->
+                    adapter.downloadVideo(Optional.of(states::add), Optional.empty()));
+            while (!states.contains(State.DOWNLOADING)) {
+                Thread.sleep(10);
+            }
+
+            BandwidthLease other = governor.acquire(new URL("https://vimeo.com/1"));
+            download.get(5, TimeUnit.SECONDS);
+            other.close();
+
+            List<String> runs = Files.readAllLines(arguments.toPath(), StandardCharsets.UTF_8);
+            assertThat(runs.size(), is(2));
+            assertThat(runs.get(1), containsString("--continue"));
+            assertThat(runs.get(1), containsString("--limit-rate " + BUDGET / 2 + " "));
+            assertThat("States are reported once across the restart", states,
+                    is(Arrays.asList(State.DOWNLOADING, State.COMPLETE)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class BinaryRegistryTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private ExecutorService executor;
+    private BinaryRegistry registry;
+    private File invocations;
+
+    @Before
+    public void setUp() throws IOException {
+        this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory("binary-registry-test"));
+        this.registry = new BinaryRegistry(this.executor);
+        this.invocations = File.createTempFile("invocations", ".log");
+        this.invocations.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void validatesEachBinaryOnce() throws IOException {
+        File youTubeDl = this.createBinary("echo 2019.01.17");
+        File ffmpeg = this.createBinary("echo 'ffmpeg version 4.1.3 Copyright (c) 2000-2019 the FFmpeg developers'");
+        File ffprobe = this.createBinary("echo 'ffprobe version 4.1.3 Copyright (c) 2007-2019 the FFmpeg developers'");
+
+        new BinaryConfiguration(youTubeDl, ffmpeg, ffprobe, this.registry);
+        new BinaryConfiguration(youTubeDl, ffmpeg, ffprobe, this.registry);
+        BinaryConfiguration.createAsync(youTubeDl, ffmpeg, ffprobe, this.registry).join();
+
+        assertThat("Each binary is run once", this.invocationCount(), is(3L));
+    }
+
+    @Test
+    public void recordsParsedVersions() throws IOException {
+        File youTubeDl = this.createBinary("echo 2019.01.17");
+        File ffmpeg = this.createBinary("echo 'ffmpeg version 4.1.3 Copyright (c) 2000-2019 the FFmpeg developers'");
+        File ffprobe = this.createBinary("echo 'ffprobe version 4.1.3-0ubuntu1 Copyright (c) 2007-2019 the FFmpeg developers'");
+
+        BinaryConfiguration configuration = new BinaryConfiguration(youTubeDl, ffmpeg, ffprobe, this.registry);
+
+        assertThat(configuration.getYouTubeDlVersion(), is(Optional.of("2019.01.17")));
+        assertThat(configuration.getFfmpegVersion(), is(Optional.of("4.1.3")));
+        assertThat(configuration.getFfprobeVersion(), is(Optional.of("4.1.3-0ubuntu1")));
+        assertThat(this.registry.lookup(ffmpeg).get().getVersion(), is(Optional.of("4.1.3")));
+    }
+
+    @Test
+    public void revalidatesModifiedBinary() throws IOException {
+        File binary = this.createBinary("echo 2019.01.17");
+        this.registry.validate(binary, "--version").join();
+
+        this.writeBinary(binary, "echo 2019.02.08.1");
+        BinaryValidation validation = this.registry.validate(binary, "--version").join();
+
+        assertThat("Modified binary is run again", this.invocationCount(), is(2L));
+        assertThat(validation.getVersion(), is(Optional.of("2019.02.08.1")));
+    }
+
+    @Test
+    public void doesNotRememberFailedValidation() throws IOException {
+        File binary = this.createBinary("exit 1");
+
+        assertThat(this.registry.validate(binary, "--version").join().isValid(), is(false));
+        assertThat(this.registry.validate(binary, "--version").join().isValid(), is(false));
+
+        assertThat("Failed binary is run again", this.invocationCount(), is(2L));
+        assertThat(this.registry.lookup(binary).isPresent(), is(false));
+    }
+
+    @Test
+    public void doesNotRememberValidationThatThrows() throws IOException {
+        File binary = this.createBinary("echo 2019.01.17");
+
+        try {
+            // A null flag makes the process fail to start with a NullPointerException rather than an IOException
+            this.registry.validate(binary, null).join();
+            fail("Expected the validation to complete exceptionally");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), instanceOf(NullPointerException.class));
+        }
+
+        assertThat(this.registry.lookup(binary).isPresent(), is(false));
+        assertThat(this.registry.validate(binary, "--version").join().isValid(), is(true));
+    }
+
+    @Test
+    public void throwsExceptionIfBinaryFails() throws IOException {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage(is("YouTubeDl, Ffmpeg and Ffprobe binaries not functioning as expected"));
+
+        new BinaryConfiguration(this.createBinary("exit 1"), this.createBinary("echo ok"), this.createBinary("echo ok"), this.registry);
+    }
+
+    private File createBinary(String body) throws IOException {
+        File binary = File.createTempFile("binary", ".sh");
+        binary.deleteOnExit();
+        this.writeBinary(binary, body);
+        if (!binary.setExecutable(true)) {
+            throw new IllegalStateException("Unable to make stub executable: " + binary);
+        }
+        return binary;
+    }
+
+    private void writeBinary(File binary, String body) throws IOException {
+        String script = "#!/bin/sh\necho run >> '" + this.invocations.getAbsolutePath() + "'\n" + body + "\n";
+        Files.write(binary.toPath(), script.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long invocationCount() throws IOException {
+        return Files.readAllLines(this.invocations.toPath()).size();
+    }
+}
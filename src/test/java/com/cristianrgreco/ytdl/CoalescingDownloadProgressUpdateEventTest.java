@@ -0,0 +1,127 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class CoalescingDownloadProgressUpdateEventTest {
+    private static final int UPDATE_COUNT = 1000;
+
+    private ScheduledExecutorService executor;
+    private List<DownloadProgress> delivered;
+    private List<String> deliveryThreads;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "delivery-thread"));
+        this.delivered = new CopyOnWriteArrayList<>();
+        this.deliveryThreads = new CopyOnWriteArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void slowConsumerDoesNotStallTheReader() throws InterruptedException {
+        CoalescingDownloadProgressUpdateEvent target = new CoalescingDownloadProgressUpdateEvent(
+                this.slowConsumer(), this.executor, 50, 200);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            target.callback(progress(i * 99.0 / UPDATE_COUNT));
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        this.awaitIdle(target);
+
+        assertThat("Reader is not held up by the consumer", elapsedMillis, lessThan(500L));
+        assertThat("Most updates are coalesced", target.getDeliveredCount(), lessThan(100L));
+        assertThat("Every update is either delivered or coalesced",
+                target.getDeliveredCount() + target.getCoalescedCount(), is((long) UPDATE_COUNT));
+    }
+
+    @Test
+    public void deliversTheLatestUpdateOnTheExecutor() throws InterruptedException {
+        CoalescingDownloadProgressUpdateEvent target = new CoalescingDownloadProgressUpdateEvent(
+                this.slowConsumer(), this.executor, 50, 200);
+
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            target.callback(progress(i * 99.0 / UPDATE_COUNT));
+        }
+        this.awaitIdle(target);
+
+        DownloadProgress last = this.delivered.get(this.delivered.size() - 1);
+        assertThat("Latest update is delivered", last.getPercent(), is(progress((UPDATE_COUNT - 1) * 99.0 / UPDATE_COUNT).getPercent()));
+        assertThat("Updates are delivered on the executor", this.deliveryThreads.stream().allMatch("delivery-thread"::equals), is(true));
+    }
+
+    @Test
+    public void deliversImmediatelyWhenPercentThresholdIsCrossed() throws InterruptedException {
+        CoalescingDownloadProgressUpdateEvent target = new CoalescingDownloadProgressUpdateEvent(
+                this.delivered::add, this.executor, TimeUnit.HOURS.toMillis(1), 10);
+
+        target.callback(progress(10));
+        this.awaitIdle(target);
+        target.callback(progress(15));
+        target.callback(progress(25));
+        this.awaitIdle(target);
+
+        assertThat("Only updates crossing the threshold are delivered before the interval", this.delivered.size(), is(2));
+        assertThat("Latest update is delivered", this.delivered.get(1).getPercent(), is(25.0));
+        assertThat("Intermediate update is coalesced", target.getCoalescedCount(), is(1L));
+    }
+
+    @Test
+    public void alwaysDeliversCompletion() throws InterruptedException {
+        CoalescingDownloadProgressUpdateEvent target = new CoalescingDownloadProgressUpdateEvent(
+                this.delivered::add, this.executor, TimeUnit.HOURS.toMillis(1), 200);
+
+        target.callback(progress(50));
+        this.awaitIdle(target);
+        target.callback(progress(100));
+        this.awaitIdle(target);
+
+        assertThat("Completion is delivered without waiting for the interval", this.delivered.get(this.delivered.size() - 1).getPercent(), is(100.0));
+    }
+
+    private DownloadProgressUpdateEvent slowConsumer() {
+        return progress -> {
+            this.deliveryThreads.add(Thread.currentThread().getName());
+            this.delivered.add(progress);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private void awaitIdle(CoalescingDownloadProgressUpdateEvent target) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        long previous = -1;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            long current = target.getDeliveredCount() + target.getCoalescedCount();
+            if (current == previous) {
+                return;
+            }
+            previous = current;
+        }
+    }
+
+    private static DownloadProgress progress(double percent) {
+        return DownloadProgress.parse(String.format(Locale.ROOT, "[download] %5.1f%% of 9.22MiB at  5.68MiB/s ETA 00:01", percent));
+    }
+}
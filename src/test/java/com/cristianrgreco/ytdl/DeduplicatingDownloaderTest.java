@@ -0,0 +1,158 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class DeduplicatingDownloaderTest {
+    private static final String[] SAME_VIDEO_URLS = {
+            "https://www.youtube.com/watch?v=lWA2pjMjpBs",
+            "https://youtu.be/lWA2pjMjpBs",
+            "https://www.youtube.com/embed/lWA2pjMjpBs",
+            "https://www.youtube.com/watch?v=lWA2pjMjpBs&t=42",
+            "https://m.youtube.com/watch?v=lWA2pjMjpBs"
+    };
+
+    private File destinationDirectory;
+    private Path videoFile;
+    private File invocations;
+    private DeduplicatingDownloader target;
+
+    @Before
+    public void setUp() throws IOException {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.videoFile = this.destinationDirectory.toPath().resolve("Stub title.mp4");
+        this.invocations = File.createTempFile("invocations", ".log");
+        this.invocations.deleteOnExit();
+        String script =
+                "echo run >> '" + this.invocations.getAbsolutePath() + "'\n" +
+                "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+                "echo '[download] Destination: " + this.videoFile + "'\n" +
+                "echo '[download]  50.0% of 9.22MiB at  5.68MiB/s ETA 00:01'\n" +
+                "sleep 0.5\n" +
+                "echo video > '" + this.videoFile + "'\n" +
+                "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n";
+        this.target = new DeduplicatingDownloader(this.destinationDirectory, StubBinaries.createConfiguration(script),
+                new DownloadOptions(), new ContentStore());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneProcess() throws Exception {
+        List<CompletableFuture<DownloadResult>> downloads = new ArrayList<>();
+        List<List<State>> states = new ArrayList<>();
+        for (String url : SAME_VIDEO_URLS) {
+            List<State> requestStates = new CopyOnWriteArrayList<>();
+            states.add(requestStates);
+            downloads.add(this.target.download(new URL(url), DownloadMode.VIDEO, Optional.of(requestStates::add), Optional.empty()));
+        }
+        CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat("One process is started", this.invocationCount(), is(1L));
+        assertThat(this.target.getRequestsJoined(), is((long) SAME_VIDEO_URLS.length - 1));
+        for (int i = 0; i < SAME_VIDEO_URLS.length; i++) {
+            DownloadResult result = downloads.get(i).get();
+            assertThat("Each request gets its own URL back", result.getTargetUrl(), is(new URL(SAME_VIDEO_URLS[i])));
+            assertThat("Each request gets the shared file", result.getFile(), is(Optional.of(this.videoFile)));
+            assertThat("Each request sees completion", states.get(i), hasItem(State.COMPLETE));
+        }
+    }
+
+    @Test
+    public void repeatRequestsAreServedFromTheStore() throws Exception {
+        this.target.download(new URL(SAME_VIDEO_URLS[0]), DownloadMode.VIDEO, Optional.empty(), Optional.empty()).get(10, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        DownloadResult repeat = this.target.download(new URL(SAME_VIDEO_URLS[1]), DownloadMode.VIDEO, Optional.empty(), Optional.empty())
+                .get(10, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat("No further process is started", this.invocationCount(), is(1L));
+        assertThat(this.target.getStoreHits(), is(1L));
+        assertThat(repeat.getFile(), is(Optional.of(this.videoFile)));
+        assertThat("Served without waiting for youtube-dl", elapsedMillis < 250, is(true));
+    }
+
+    @Test
+    public void downloadsAgainWhenStoredFileIsGone() throws Exception {
+        this.target.download(new URL(SAME_VIDEO_URLS[0]), DownloadMode.VIDEO, Optional.empty(), Optional.empty()).get(10, TimeUnit.SECONDS);
+        Files.delete(this.videoFile);
+
+        this.target.download(new URL(SAME_VIDEO_URLS[0]), DownloadMode.VIDEO, Optional.empty(), Optional.empty()).get(10, TimeUnit.SECONDS);
+
+        assertThat(this.invocationCount(), is(2L));
+    }
+
+    @Test
+    public void audioAndVideoAreSeparateJobs() throws Exception {
+        CompletableFuture<DownloadResult> video = this.target.download(new URL(SAME_VIDEO_URLS[0]), DownloadMode.VIDEO, Optional.empty(), Optional.empty());
+        CompletableFuture<DownloadResult> audio = this.target.download(new URL(SAME_VIDEO_URLS[0]), DownloadMode.AUDIO, Optional.empty(), Optional.empty());
+        CompletableFuture.allOf(video, audio).get(10, TimeUnit.SECONDS);
+
+        assertThat(this.invocationCount(), is(2L));
+    }
+
+    @Test
+    public void keysTellFormatSelectionsApart() throws Exception {
+        URL url = new URL(SAME_VIDEO_URLS[0]);
+        DownloadOptions constrained = new DownloadOptions().withFormatConstraints(new FormatConstraints().withMaxHeight(360));
+
+        assertThat(DownloadKey.of(url, DownloadMode.VIDEO, new DownloadOptions()), is(DownloadKey.of(url, DownloadMode.VIDEO)));
+        assertThat(DownloadKey.of(url, DownloadMode.VIDEO, constrained), not(DownloadKey.of(url, DownloadMode.VIDEO)));
+        assertThat(DownloadKey.of(url, DownloadMode.VIDEO, constrained),
+                not(DownloadKey.of(url, DownloadMode.VIDEO, new DownloadOptions()
+                        .withFormatConstraints(new FormatConstraints().withMaxHeight(720)))));
+        assertThat(DownloadKey.of(url, DownloadMode.VIDEO, new DownloadOptions().withSeparateStreams(true)),
+                not(DownloadKey.of(url, DownloadMode.VIDEO)));
+        assertThat(DownloadKey.of(url, DownloadMode.AUDIO, new DownloadOptions()
+                        .withTranscoder(new SegmentedTranscoder(StubBinaries.createConfiguration("")))),
+                not(DownloadKey.of(url, DownloadMode.AUDIO)));
+    }
+
+    @Test
+    public void slowSubscriberDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<DownloadResult> slow = this.target.download(new URL(SAME_VIDEO_URLS[0]), DownloadMode.VIDEO,
+                Optional.of(state -> awaitQuietly(release)), Optional.empty());
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        CompletableFuture<DownloadResult> joined = this.target.download(new URL(SAME_VIDEO_URLS[1]), DownloadMode.VIDEO,
+                Optional.empty(), Optional.empty());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+        CompletableFuture.allOf(slow, joined).get(10, TimeUnit.SECONDS);
+
+        assertThat("Attaching does not wait for the blocked callback", elapsedMillis < 500, is(true));
+        assertThat(this.target.getRequestsJoined(), is(1L));
+        assertThat(joined.get().getFile(), is(Optional.of(this.videoFile)));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long invocationCount() throws IOException {
+        return Files.readAllLines(this.invocations.toPath()).size();
+    }
+}
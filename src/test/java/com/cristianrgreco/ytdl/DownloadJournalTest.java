@@ -0,0 +1,256 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class DownloadJournalTest {
+    private static final String RESUMING_SCRIPT =
+            "case \"$*\" in *--no-part*) echo 'ERROR: partial files are disabled' >&2; exit 1;; esac\n" +
+            "case \"$*\" in *--continue*) ;; *) echo 'ERROR: not resuming' >&2; exit 1;; esac\n" +
+            "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+            "echo '[download] Resuming download at byte 4833935'\n" +
+            "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n";
+    private static final String DESTINATION_SCRIPT =
+            "while [ $# -gt 0 ]; do case \"$1\" in -o) out=\"$2\"; shift;; esac; shift; done\n" +
+            "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+            "echo \"[download] Destination: $(dirname \"$out\")/Dreams.mp4\"\n" +
+            "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n";
+    private static final String SOURCE_SCRIPT =
+            "while [ $# -gt 0 ]; do case \"$1\" in -o) out=\"$2\"; shift;; esac; shift; done\n" +
+            "echo \"[download] Destination: $(dirname \"$out\")/Dreams.mp4\"\n" +
+            "echo video > \"$(dirname \"$out\")/Dreams.mp4\"\n" +
+            "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n";
+    // Removing the source makes the conversion fail with an IllegalStateException rather than a DownloadException
+    private static final String SOURCE_REMOVING_FFMPEG_SCRIPT =
+            "for arg; do target=\"$arg\"; done\n" +
+            "while [ $# -gt 0 ]; do case \"$1\" in -i) rm \"$2\"; shift;; esac; shift; done\n" +
+            "echo audio > \"$target\"\n";
+    private static final String FAILING_SCRIPT = "echo 'ERROR: This video is unavailable.' >&2\nexit 1\n";
+
+    private Path journalFile;
+    private File destinationDirectory;
+    private URL firstUrl;
+    private URL secondUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.journalFile = this.destinationDirectory.toPath().resolve("downloads.journal");
+        this.firstUrl = new URL("https://www.youtube.com/watch?v=lWA2pjMjpBs");
+        this.secondUrl = new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0");
+    }
+
+    @Test
+    public void keepsUnfinishedJobsAcrossRestarts() throws IOException {
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            String first = journal.started(this.firstUrl, DownloadMode.AUDIO, this.destinationDirectory);
+            String second = journal.started(this.secondUrl, DownloadMode.VIDEO, this.destinationDirectory);
+            journal.progress(first, DownloadProgress.parse("[download]  10.0% of 9.22MiB at  5.68MiB/s ETA 00:01"));
+            journal.progress(first, DownloadProgress.parse("[download]  52.4% of 9.22MiB at  5.68MiB/s ETA 00:01"));
+            journal.completed(second, Optional.empty());
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            List<JournalEntry> unfinished = journal.getUnfinished();
+
+            assertThat(unfinished.size(), is(1));
+            assertThat(unfinished.get(0).getTargetUrl(), is(this.firstUrl));
+            assertThat(unfinished.get(0).getMode(), is(DownloadMode.AUDIO));
+            assertThat(unfinished.get(0).getDestinationDirectory(), is(this.destinationDirectory));
+            assertThat("Last progress is kept", unfinished.get(0).getLastProgress().get().getPercent(), is(52.4));
+        }
+    }
+
+    @Test
+    public void keepsWhatEachJobResolvedAcrossRestarts() throws IOException {
+        Path file = this.destinationDirectory.toPath().resolve("Dreams.mp4");
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            String jobId = journal.started(this.firstUrl, DownloadMode.VIDEO, this.destinationDirectory);
+            journal.resolved(jobId, "137+140", file);
+        }
+
+        DownloadJournal.open(this.journalFile).close();
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            JournalEntry entry = journal.getUnfinished().get(0);
+
+            assertThat(entry.getFormat(), is(Optional.of("137+140")));
+            assertThat(entry.getFile(), is(Optional.of(file)));
+        }
+        assertThat("The resolution is folded into the started record",
+                Files.readAllLines(this.journalFile, StandardCharsets.UTF_8).size(), is(1));
+    }
+
+    @Test
+    public void compactsFinishedJobsOnOpen() throws IOException {
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            for (int i = 0; i < 10; i++) {
+                journal.failed(journal.started(this.secondUrl, DownloadMode.VIDEO, this.destinationDirectory), "This video is unavailable.");
+            }
+            String unfinished = journal.started(this.firstUrl, DownloadMode.VIDEO, this.destinationDirectory);
+            for (int i = 1; i <= 50; i++) {
+                journal.progress(unfinished, DownloadProgress.parse("[download] " + i + ".0% of 9.22MiB at  5.68MiB/s ETA 00:01"));
+            }
+        }
+
+        DownloadJournal.open(this.journalFile).close();
+
+        assertThat("Only the unfinished job and its last progress remain",
+                Files.readAllLines(this.journalFile, StandardCharsets.UTF_8).size(), is(2));
+    }
+
+    @Test
+    public void ignoresTornRecord() throws IOException {
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            journal.started(this.firstUrl, DownloadMode.VIDEO, this.destinationDirectory);
+        }
+        Files.write(this.journalFile, "{\"type\":\"completed\",\"jo".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            assertThat(journal.getUnfinished().size(), is(1));
+        }
+    }
+
+    @Test
+    public void schedulerResumesUnfinishedJobs() throws Exception {
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            String jobId = journal.started(this.firstUrl, DownloadMode.VIDEO, this.destinationDirectory);
+            journal.progress(jobId, DownloadProgress.parse("[download]  52.4% of 9.22MiB at  5.68MiB/s ETA 00:01"));
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile);
+             DownloadScheduler scheduler = this.createScheduler(RESUMING_SCRIPT, journal)) {
+            List<CompletableFuture<DownloadResult>> recovered = scheduler.recover();
+            CompletableFuture.allOf(recovered.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+            assertThat(recovered.size(), is(1));
+            assertThat(recovered.get(0).get().getTargetUrl(), is(this.firstUrl));
+            assertThat(journal.getUnfinished().size(), is(0));
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            assertThat("Recovered job is recorded as complete", journal.getUnfinished().size(), is(0));
+        }
+    }
+
+    @Test
+    public void schedulerResumesTheFormatItHadResolved() throws Exception {
+        Path metadata = Paths.get(getClass().getResource("/metadata.json").toURI());
+        File arguments = new File(StubBinaries.createTempDirectory(), "youtube-dl-arguments.txt");
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(
+                "case \"$*\" in *--dump-json*) cat '" + metadata + "'; exit 0;; esac\n" +
+                "echo \"$@\" > '" + arguments + "'\n" +
+                SOURCE_SCRIPT,
+                "for arg; do target=\"$arg\"; done\n" +
+                "echo audio > \"$target\"\n");
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile)) {
+            String jobId = journal.started(this.firstUrl, DownloadMode.AUDIO, this.destinationDirectory);
+            // Unconstrained, the selector would now take the AAC stream "140" over this Opus one
+            journal.resolved(jobId, "249", this.destinationDirectory.toPath().resolve("Dreams.webm"));
+        }
+
+        DownloadOptions options = new DownloadOptions().withResumable(true)
+                .withFormatConstraints(new FormatConstraints());
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile);
+             DownloadScheduler scheduler = new DownloadScheduler(
+                     this.destinationDirectory, binaryConfiguration, 1, 1, options, journal)) {
+            scheduler.recover().get(0).get(10, TimeUnit.SECONDS);
+        }
+
+        String command = new String(Files.readAllBytes(arguments.toPath()), StandardCharsets.UTF_8);
+        assertThat("The journalled format is fetched again", command, containsString("--format 249 "));
+    }
+
+    @Test
+    public void schedulerRecordsFailedJobsAsFinished() throws Exception {
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile);
+             DownloadScheduler scheduler = this.createScheduler(FAILING_SCRIPT, journal)) {
+            CompletableFuture<DownloadResult> job = scheduler.submitVideo(this.firstUrl, Optional.empty(), Optional.empty());
+            try {
+                job.get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                // Expected: the stub reports an error
+            }
+
+            assertThat(job.isCompletedExceptionally(), is(true));
+            assertThat("Failed job is not retried on recovery", journal.getUnfinished().size(), is(0));
+        }
+    }
+
+    @Test
+    public void schedulerRecordsEveryKindOfFailureAsFinished() throws Exception {
+        BinaryConfiguration binaryConfiguration =
+                StubBinaries.createConfiguration(SOURCE_SCRIPT, SOURCE_REMOVING_FFMPEG_SCRIPT);
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile);
+             DownloadScheduler scheduler = this.createScheduler(binaryConfiguration, journal)) {
+            CompletableFuture<DownloadResult> job = scheduler.submitAudio(this.firstUrl, Optional.empty(), Optional.empty());
+            try {
+                job.get(10, TimeUnit.SECONDS);
+                fail("Expected the conversion to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+            }
+
+            assertThat("Failed job is not retried on recovery", journal.getUnfinished().size(), is(0));
+        }
+
+        String failed = Files.readAllLines(this.journalFile, StandardCharsets.UTF_8).stream()
+                .filter(record -> record.contains("\"type\":\"failed\""))
+                .findFirst().get();
+        assertThat(failed, containsString("IllegalStateException"));
+    }
+
+    @Test
+    public void schedulerCompletesJobsWhoseRecordCannotBeWritten() throws Exception {
+        DownloadJournal journal = DownloadJournal.open(this.journalFile);
+        try (DownloadScheduler scheduler = this.createScheduler(DESTINATION_SCRIPT, journal)) {
+            CompletableFuture<DownloadResult> job = scheduler.submitVideo(this.firstUrl, Optional.empty(), Optional.empty());
+            journal.close();
+
+            assertThat("The download itself succeeded", job.get(10, TimeUnit.SECONDS).getFile(),
+                    is(Optional.of(this.destinationDirectory.toPath().resolve("Dreams.mp4"))));
+        }
+    }
+
+    @Test
+    public void schedulerRecordsWhereEachJobIsDownloaded() throws Exception {
+        try (DownloadJournal journal = DownloadJournal.open(this.journalFile);
+             DownloadScheduler scheduler = this.createScheduler(DESTINATION_SCRIPT, journal)) {
+            scheduler.submitVideo(this.firstUrl, Optional.empty(), Optional.empty()).get(10, TimeUnit.SECONDS);
+        }
+
+        String resolved = Files.readAllLines(this.journalFile, StandardCharsets.UTF_8).get(1);
+        assertThat(resolved, containsString("\"type\":\"resolved\""));
+        assertThat(resolved, containsString("\"format\":\"mp4\""));
+        assertThat(resolved, containsString(
+                "\"file\":\"" + this.destinationDirectory.toPath().resolve("Dreams.mp4") + "\""));
+    }
+
+    private DownloadScheduler createScheduler(String script, DownloadJournal journal) {
+        return this.createScheduler(StubBinaries.createConfiguration(script), journal);
+    }
+
+    private DownloadScheduler createScheduler(BinaryConfiguration binaryConfiguration, DownloadJournal journal) {
+        return new DownloadScheduler(this.destinationDirectory, binaryConfiguration, 1, 1,
+                new DownloadOptions().withResumable(true), journal);
+    }
+}
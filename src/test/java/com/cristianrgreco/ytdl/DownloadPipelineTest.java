@@ -0,0 +1,140 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.fail;
+
+public class DownloadPipelineTest {
+    private static final int JOB_COUNT = 6;
+    // Like youtube-dl, the stub spends as long resolving as downloading unless it is handed the info file
+    private static final String DOWNLOAD_SCRIPT =
+            "case \"$*\" in *--load-info-json*) ;; *)\n" +
+            "  echo \"[youtube] oHg5SJYRHA0: Downloading webpage\"; sleep 0.3;;\n" +
+            "esac\n" +
+            "echo \"[download] Destination: /tmp/RickRoll'D.mp4\"\n" +
+            "echo \"[download]  50.0% of 9.22MiB at  5.68MiB/s ETA 00:01\"\n" +
+            "sleep 0.3\n" +
+            "echo \"[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00\"\n";
+
+    private File destinationDirectory;
+    private File arguments;
+
+    @Before
+    public void setUp() throws Exception {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.arguments = File.createTempFile("ytdl-arguments", ".txt");
+        this.arguments.deleteOnExit();
+    }
+
+    @Test
+    public void resolvesAheadSoDownloadsStartStraightAway() throws Exception {
+        BinaryConfiguration binaryConfiguration = this.createConfiguration(Instant.now().plusSeconds(6 * 3600));
+
+        long scheduledMillis;
+        try (DownloadScheduler scheduler = new DownloadScheduler(this.destinationDirectory, binaryConfiguration, 1, 1)) {
+            scheduledMillis = timeAll(scheduler.submitAllVideo(createUrls()));
+        }
+        Files.write(this.arguments.toPath(), new byte[0]);
+        long pipelinedMillis;
+        try (DownloadPipeline pipeline = new DownloadPipeline(this.destinationDirectory, binaryConfiguration, 1, 2)) {
+            pipelinedMillis = timeAll(pipeline.submitAllVideo(createUrls()));
+
+            assertThat("Resolving overlaps the previous download", pipelinedMillis * 4, lessThan(scheduledMillis * 3));
+            for (String download : Files.readAllLines(this.arguments.toPath(), StandardCharsets.UTF_8)) {
+                assertThat("Every download is handed its metadata", download, containsString("--load-info-json"));
+            }
+            PipelineStage resolveStage = pipeline.getResolveStage();
+            PipelineStage downloadStage = pipeline.getDownloadStage();
+            assertThat(resolveStage.getCompleted(), is((long) JOB_COUNT));
+            assertThat(downloadStage.getCompleted(), is((long) JOB_COUNT));
+            assertThat(resolveStage.getQueueDepth(), is(0));
+            assertThat(downloadStage.getQueueDepth(), is(0));
+            assertThat(downloadStage.getServiceTime().getCount(), is((long) JOB_COUNT));
+            assertThat("Downloads never wait for a resolution to start",
+                    downloadStage.getServiceTime().getMax(), lessThan((double) TimeUnit.MILLISECONDS.toNanos(550)));
+            assertThat(pipeline.getExpiredResolutions(), is(0L));
+        }
+    }
+
+    @Test
+    public void resolvesAgainWhenStreamUrlsHaveExpired() throws Exception {
+        BinaryConfiguration binaryConfiguration = this.createConfiguration(Instant.now().minusSeconds(60));
+        List<State> states = new CopyOnWriteArrayList<>();
+
+        try (DownloadPipeline pipeline = new DownloadPipeline(this.destinationDirectory, binaryConfiguration, 1, 2)) {
+            pipeline.submitVideo(createUrls().get(0), Optional.of(states::add), Optional.empty())
+                    .get(10, TimeUnit.SECONDS);
+
+            assertThat(pipeline.getExpiredResolutions(), is(1L));
+        }
+        String download = new String(Files.readAllBytes(this.arguments.toPath()), StandardCharsets.UTF_8);
+        assertThat(download, not(containsString("--load-info-json")));
+        assertThat("Resolving again is not reported twice", states,
+                is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+    }
+
+    @Test
+    public void failsJobsThatCannotBeResolvedWithoutDownloading() throws Exception {
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(
+                "echo \"ERROR: This video is unavailable.\" >&2\n");
+
+        try (DownloadPipeline pipeline = new DownloadPipeline(this.destinationDirectory, binaryConfiguration, 1, 2)) {
+            CompletableFuture<DownloadResult> job =
+                    pipeline.submitVideo(createUrls().get(0), Optional.empty(), Optional.empty());
+            try {
+                job.join();
+                fail("Expected the job to fail");
+            } catch (CompletionException e) {
+                assertThat(e.getCause(), instanceOf(DownloadException.class));
+            }
+            assertThat(pipeline.getResolveStage().getFailed(), is(1L));
+            assertThat(pipeline.getDownloadStage().getServiceTime().getCount(), is(0L));
+        }
+    }
+
+    private BinaryConfiguration createConfiguration(Instant urlExpiry) {
+        String metadata = "{\"id\": \"oHg5SJYRHA0\", \"title\": \"RickRoll'D\", \"_filename\": \"RickRoll'D.mp4\", " +
+                "\"format_id\": \"18\", \"formats\": [{\"format_id\": \"18\", \"ext\": \"mp4\", \"vcodec\": \"avc1\", " +
+                "\"acodec\": \"mp4a\", \"url\": \"https://r1.googlevideo.com/videoplayback?expire=" +
+                urlExpiry.getEpochSecond() + "&itag=18\"}]}\n";
+        return StubBinaries.createConfiguration(
+                "case \"$*\" in *--dump-json*) sleep 0.3; " + StubBinaries.printing(metadata).trim() + "; exit 0;; esac\n" +
+                "echo \"$*\" >> '" + this.arguments.getAbsolutePath() + "'\n" +
+                DOWNLOAD_SCRIPT);
+    }
+
+    private static long timeAll(List<CompletableFuture<DownloadResult>> jobs) {
+        long start = System.nanoTime();
+        CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static List<URL> createUrls() throws Exception {
+        List<URL> urls = new ArrayList<>();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            urls.add(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0&index=" + i));
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DownloadProgressScannerTest {
+    private static final String PROGRESS_MESSAGE = "[download]  10.8% of 9.22MiB at  5.68MiB/s ETA 00:01";
+    private static final String PROGRESS_MESSAGE_UNKNOWN = "[download]  21.7% of 9.22MiB at Unknown speed ETA Unknown ETA";
+    private static final String PROGRESS_MESSAGE_APPROXIMATE = "[download]  55.0% of ~1.50GiB at 750.00KiB/s ETA 01:02:03 (frag 11/20)";
+    private static final String PROGRESS_MESSAGE_DECIMAL_UNITS = "[download] 100.0% of 2.00MB at 1.00kB/s ETA 00:00";
+    private static final String DESTINATION_MESSAGE = "[download] Destination: RickRoll'D_oHg5SJYRHA0.mp4";
+    private static final String FINISHED_MESSAGE = "[download] 100% of 9.22MiB in 00:01";
+
+    private MutableDownloadProgress progress;
+
+    @Before
+    public void setUp() {
+        this.progress = new MutableDownloadProgress();
+    }
+
+    @Test
+    public void scansNumericFields() {
+        assertThat("Message is scanned", DownloadProgressScanner.scan(PROGRESS_MESSAGE, this.progress), is(true));
+
+        assertThat("Percent is correct", this.progress.getPercent(), is(10.8));
+        assertThat("Total bytes are correct", this.progress.getTotalBytes(), is(Math.round(9.22 * 1024 * 1024)));
+        assertThat("Bytes per second are correct", this.progress.getBytesPerSecond(), is((double) Math.round(5.68 * 1024 * 1024)));
+        assertThat("ETA seconds are correct", this.progress.getEtaSeconds(), is(1L));
+    }
+
+    @Test
+    public void scansUnknownSpeedAndEta() {
+        assertThat("Message is scanned", DownloadProgressScanner.scan(PROGRESS_MESSAGE_UNKNOWN, this.progress), is(true));
+
+        assertThat("Bytes per second are unknown", this.progress.getBytesPerSecond(), is((double) MutableDownloadProgress.UNKNOWN));
+        assertThat("ETA seconds are unknown", this.progress.getEtaSeconds(), is(MutableDownloadProgress.UNKNOWN));
+    }
+
+    @Test
+    public void scansApproximateSizeAndLongEta() {
+        assertThat("Message is scanned", DownloadProgressScanner.scan(PROGRESS_MESSAGE_APPROXIMATE, this.progress), is(true));
+
+        assertThat("Total bytes are correct", this.progress.getTotalBytes(), is(Math.round(1.5 * 1024 * 1024 * 1024)));
+        assertThat("Bytes per second are correct", this.progress.getBytesPerSecond(), is(750.0 * 1024));
+        assertThat("ETA seconds are correct", this.progress.getEtaSeconds(), is(3723L));
+    }
+
+    @Test
+    public void scansDecimalUnits() {
+        assertThat("Message is scanned", DownloadProgressScanner.scan(PROGRESS_MESSAGE_DECIMAL_UNITS, this.progress), is(true));
+
+        assertThat("Total bytes are correct", this.progress.getTotalBytes(), is(2000000L));
+        assertThat("Bytes per second are correct", this.progress.getBytesPerSecond(), is(1000.0));
+    }
+
+    @Test
+    public void rejectsNonProgressMessages() {
+        assertThat("Destination message is rejected", DownloadProgressScanner.scan(DESTINATION_MESSAGE, this.progress), is(false));
+        assertThat("Finished message is rejected", DownloadProgressScanner.scan(FINISHED_MESSAGE, this.progress), is(false));
+    }
+
+    @Test
+    public void reusesTheSameRecord() {
+        DownloadProgressScanner.scan(PROGRESS_MESSAGE, this.progress);
+        DownloadProgressScanner.scan(PROGRESS_MESSAGE_DECIMAL_UNITS, this.progress);
+
+        assertThat("Record holds the latest message", this.progress.getPercent(), is(100.0));
+    }
+}
@@ -75,4 +75,30 @@ public class DownloadProgressTest {
     public void invalidatesIncorrectProgressMessage() {
         assertThat("Progress message is incorrect", DownloadProgress.isValidProgressMessage(INVALID_PROGRESS_MESSAGE), is(false));
     }
+
+    @Test
+    public void formatsSyntheticProgressLikeYouTubeDl() {
+        DownloadProgress downloadProgress = DownloadProgress.of("ffmpeg", 42.0, 3_375_921, 1024 * 1024, 3725);
+
+        assertThat("Percentage complete is correct", downloadProgress.getPercentageComplete(), is(BigDecimal.valueOf(42.0)));
+        assertThat("File size is correct", downloadProgress.getFileSize(), is("3.22MiB"));
+        assertThat("Download speed is correct", downloadProgress.getDownloadSpeed(), is("1.00MiB/s"));
+        assertThat("ETA is correct", downloadProgress.getEta(), is("01:02:05"));
+    }
+
+    @Test
+    public void formatsSyntheticProgressWithUnknownSpeed() {
+        DownloadProgress downloadProgress = DownloadProgress.of("ffmpeg", 0, 512, -1, -1);
+
+        assertThat("Speed is unknown", downloadProgress.getBytesPerSecond(), is((double) MutableDownloadProgress.UNKNOWN));
+        assertThat("ETA is unknown", downloadProgress.getEtaSeconds(), is(MutableDownloadProgress.UNKNOWN));
+    }
+
+    @Test
+    public void formatsSyntheticProgressWithUnknownSize() {
+        DownloadProgress downloadProgress = DownloadProgress.of("download", 50.0, -1, 1024, 1);
+
+        assertThat("File size is unknown", downloadProgress.getFileSize(), is("Unknown"));
+        assertThat(downloadProgress.getTotalBytes(), is(MutableDownloadProgress.UNKNOWN));
+    }
 }
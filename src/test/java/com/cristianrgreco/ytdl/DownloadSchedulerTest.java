@@ -0,0 +1,156 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class DownloadSchedulerTest {
+    private static final String DOWNLOAD_SCRIPT =
+            "echo \"[youtube] oHg5SJYRHA0: Downloading webpage\"\n" +
+            "echo \"[download]  50.0% of 9.22MiB at  5.68MiB/s ETA 00:01\"\n" +
+            "sleep 0.3\n" +
+            "echo \"[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00\"\n";
+    private static final int JOB_COUNT = 8;
+
+    private File destinationDirectory;
+
+    @Before
+    public void setUp() {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+    }
+
+    @Test
+    public void completesEveryJob() throws Exception {
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(DOWNLOAD_SCRIPT);
+
+        try (DownloadScheduler scheduler = new DownloadScheduler(this.destinationDirectory, binaryConfiguration, 2, 1)) {
+            List<CompletableFuture<DownloadResult>> jobs = scheduler.submitAllVideo(createUrls(JOB_COUNT));
+            CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+
+            assertThat("Every job is complete", jobs.stream().allMatch(job -> job.isDone() && !job.isCompletedExceptionally()), is(true));
+        }
+    }
+
+    @Test
+    public void throughputScalesWithDownloadPoolSize() throws Exception {
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(DOWNLOAD_SCRIPT);
+
+        long serialMillis = this.timeVideoDownloads(binaryConfiguration, 1);
+        long parallelMillis = this.timeVideoDownloads(binaryConfiguration, 4);
+
+        assertThat("Four download slots are at least twice as fast as one", parallelMillis * 2, lessThan(serialMillis));
+    }
+
+    @Test
+    public void neverExceedsConversionPoolSize() throws Exception {
+        // Every ffmpeg process leaves a token while it runs and records how many tokens it saw on starting
+        File running = StubBinaries.createTempDirectory();
+        File counts = File.createTempFile("ytdl-conversions", ".txt");
+        counts.deleteOnExit();
+        String ffmpegScript =
+                "for arg; do target=\"$arg\"; done\n" +
+                "touch '" + running + "'/$$\n" +
+                "ls '" + running + "' | wc -l >> '" + counts + "'\n" +
+                "sleep 0.3\n" +
+                "echo audio > \"$target\"\n" +
+                "rm '" + running + "'/$$\n";
+        String youTubeDlScript =
+                "for arg; do url=\"$arg\"; done\n" +
+                "source='" + this.destinationDirectory + "'/\"${url##*=}.mp4\"\n" +
+                "echo \"[download] Destination: $source\"\n" +
+                "echo video > \"$source\"\n" +
+                DOWNLOAD_SCRIPT;
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(youTubeDlScript, ffmpegScript);
+
+        List<CompletableFuture<DownloadResult>> jobs;
+        try (DownloadScheduler scheduler = new DownloadScheduler(this.destinationDirectory, binaryConfiguration, 4, 2)) {
+            jobs = scheduler.submitAllAudio(createUrls(JOB_COUNT));
+            CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+        }
+
+        List<String> seen = Files.readAllLines(counts.toPath(), StandardCharsets.UTF_8);
+        assertThat("Every job was converted", seen.size(), is(JOB_COUNT));
+        for (String concurrent : seen) {
+            assertThat("Conversions never exceed the conversion pool", Integer.parseInt(concurrent.trim()), lessThanOrEqualTo(2));
+        }
+        for (CompletableFuture<DownloadResult> job : jobs) {
+            Path file = job.join().getFile().get();
+            assertThat(file.getFileName().toString().endsWith(".mp3"), is(true));
+            assertThat("The converted audio replaces the source", Files.exists(file), is(true));
+        }
+        assertThat(this.destinationDirectory.list().length, is(JOB_COUNT));
+    }
+
+    @Test
+    public void remuxesVorbisIntoOggWithoutATranscoder() throws Exception {
+        File metadata = File.createTempFile("ytdl-metadata", ".json");
+        metadata.deleteOnExit();
+        String json = new String(Files.readAllBytes(Paths.get(getClass().getResource("/metadata.json").toURI())),
+                StandardCharsets.UTF_8).replace("\"acodec\": \"opus\"", "\"acodec\": \"vorbis\"");
+        Files.write(metadata.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        File arguments = new File(StubBinaries.createTempDirectory(), "ffmpeg-arguments.txt");
+        String youTubeDlScript =
+                "case \"$*\" in *--dump-json*) cat '" + metadata + "'; exit 0;; esac\n" +
+                "source='" + this.destinationDirectory + "'/\"RickRoll'D.webm\"\n" +
+                "echo \"[download] Destination: $source\"\n" +
+                "echo audio > \"$source\"\n" +
+                DOWNLOAD_SCRIPT;
+        String ffmpegScript =
+                "echo \"$@\" > '" + arguments + "'\n" +
+                "for arg; do target=\"$arg\"; done\n" +
+                "echo audio > \"$target\"\n";
+        BinaryConfiguration binaryConfiguration = StubBinaries.createConfiguration(youTubeDlScript, ffmpegScript);
+        DownloadOptions options = new DownloadOptions()
+                .withFormatConstraints(new FormatConstraints().withPreferredCodecs("vorbis"));
+
+        Path file;
+        try (DownloadScheduler scheduler = new DownloadScheduler(this.destinationDirectory, binaryConfiguration, 1, 1, options)) {
+            file = scheduler.submitAudio(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                    Optional.empty(), Optional.empty()).join().getFile().get();
+        }
+
+        assertThat("youtube-dl would have written the stream to an ogg file",
+                file, is(this.destinationDirectory.toPath().resolve("RickRoll'D.ogg")));
+        assertThat(Files.exists(file), is(true));
+        String command = new String(Files.readAllBytes(arguments.toPath()), StandardCharsets.UTF_8);
+        assertThat("The stream is copied rather than re-encoded", command, containsString("-c:a copy"));
+    }
+
+    private long timeVideoDownloads(BinaryConfiguration binaryConfiguration, int maxConcurrentDownloads) {
+        try (DownloadScheduler scheduler = new DownloadScheduler(this.destinationDirectory, binaryConfiguration, maxConcurrentDownloads, 1)) {
+            long start = System.nanoTime();
+            List<CompletableFuture<DownloadResult>> jobs = scheduler.submitAllVideo(createUrls(JOB_COUNT));
+            CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0])).join();
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+
+    private static List<URL> createUrls(int count) {
+        List<URL> urls = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                urls.add(new URL("https://www.youtube.com/watch?v=video" + i));
+            }
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,101 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ErrorPolicyTest {
+    private static final String TARGET_URL = "https://www.youtube.com/watch?v=lWA2pjMjpBs";
+
+    // Roughly 150 KB of warnings, well past the 64 KB a pipe buffers before the writer blocks
+    private static final String NOISY_STDERR_SCRIPT =
+            "i=0\n" +
+            "while [ $i -lt 2000 ]; do\n" +
+            "  echo \"WARNING: unable to extract optional field number $i from the webpage, continuing anyway\" >&2\n" +
+            "  i=$((i+1))\n" +
+            "done\n" +
+            "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+            "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n";
+
+    private static final String FAILING_SCRIPT =
+            "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+            "echo 'ERROR: This video is unavailable.' >&2\n" +
+            "exec sleep 30\n";
+
+    @Test
+    public void drainsStderrWhileReadingStdout() throws Exception {
+        List<State> states = new CopyOnWriteArrayList<>();
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL(TARGET_URL), StubBinaries.createTempDirectory(), StubBinaries.createConfiguration(NOISY_STDERR_SCRIPT));
+
+        DownloadException exception = this.downloadWithin(10, adapter, states);
+
+        assertThat("Process ran to completion", states, hasItem(State.COMPLETE));
+        assertThat("Only warnings were reported", exception.hasErrorOccurred(), is(false));
+    }
+
+    @Test
+    public void drainsStderrWithoutCallbacks() throws Exception {
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL(TARGET_URL), StubBinaries.createTempDirectory(), StubBinaries.createConfiguration(NOISY_STDERR_SCRIPT));
+
+        CompletableFuture<DownloadException> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                adapter.downloadVideo(Optional.empty(), Optional.empty());
+                return null;
+            } catch (DownloadException e) {
+                return e;
+            }
+        });
+
+        assertThat(future.get(10, TimeUnit.SECONDS), instanceOf(DownloadException.class));
+    }
+
+    @Test
+    public void failFastKillsTheProcessOnTheFirstError() throws Exception {
+        List<State> states = new CopyOnWriteArrayList<>();
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL(TARGET_URL),
+                StubBinaries.createTempDirectory(),
+                StubBinaries.createConfiguration(FAILING_SCRIPT),
+                new DownloadOptions().withErrorPolicy(ErrorPolicy.FAIL_FAST));
+
+        long start = System.nanoTime();
+        DownloadException exception = this.downloadWithin(10, adapter, states);
+        long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+
+        assertThat("Did not wait for the process to exit", elapsedSeconds, lessThan(10L));
+        assertThat(exception.hasErrorOccurred(), is(true));
+        assertThat(exception.getMessage(), containsString("This video is unavailable."));
+        assertThat("A killed download is not reported as complete", states.contains(State.COMPLETE), is(false));
+    }
+
+    private DownloadException downloadWithin(long timeoutSeconds, YouTubeDownloaderAdapter adapter, List<State> states)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<DownloadException> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                adapter.downloadVideo(Optional.of(states::add), Optional.empty());
+                return null;
+            } catch (DownloadException e) {
+                return e;
+            }
+        });
+        DownloadException exception = future.get(timeoutSeconds, TimeUnit.SECONDS);
+        assertThat(exception, instanceOf(DownloadException.class));
+        return exception;
+    }
+}
@@ -0,0 +1,96 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FileHandOffTest {
+    private byte[] content;
+    private Path sourceDirectory;
+    private Path targetDirectory;
+
+    @Before
+    public void setUp() {
+        this.content = new byte[256 * 1024];
+        new Random(7).nextBytes(this.content);
+        this.sourceDirectory = StubBinaries.createTempDirectory().toPath();
+        this.targetDirectory = StubBinaries.createTempDirectory().toPath();
+    }
+
+    @Test
+    public void movesFileIntoDirectory() throws IOException {
+        Path source = this.createSource("Song title.mp3");
+
+        Path moved = FileHandOff.moveToDirectory(source, this.targetDirectory);
+
+        assertThat(moved, is(this.targetDirectory.resolve("Song title.mp3")));
+        assertThat("Source is gone", Files.exists(source), is(false));
+        assertThat("Content is unchanged", Arrays.equals(Files.readAllBytes(moved), this.content), is(true));
+    }
+
+    @Test
+    public void copiesThenRenamesWhenRenameIsNotPossible() throws IOException {
+        Path source = this.createSource("Song title.mp3");
+        Path target = this.targetDirectory.resolve("Renamed.mp3");
+
+        FileHandOff.copyThenRename(source, target);
+
+        assertThat("Source is gone", Files.exists(source), is(false));
+        assertThat("Content is unchanged", Arrays.equals(Files.readAllBytes(target), this.content), is(true));
+        assertThat("No partial file is left behind", this.targetDirectory.toFile().list().length, is(1));
+    }
+
+    @Test
+    public void transfersFileToChannel() throws IOException {
+        Path source = this.createSource("Song title.mp3");
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        long transferred = FileHandOff.transferTo(source, Channels.newChannel(target));
+
+        assertThat(transferred, is((long) this.content.length));
+        assertThat(Arrays.equals(target.toByteArray(), this.content), is(true));
+        assertThat("Source is kept", Files.exists(source), is(true));
+    }
+
+    @Test
+    public void handsOffDownloadedFileWithoutProbing() throws Exception {
+        File directory = this.sourceDirectory.toFile();
+        Path video = this.sourceDirectory.resolve("Song title.mp4");
+        Path audio = this.sourceDirectory.resolve("Song title.mp3");
+        Files.write(audio, this.content);
+        String script =
+                "case \"$*\" in *--dump-json*) echo 'ERROR: should not probe' >&2; exit 1;; esac\n" +
+                "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+                "echo '[download] Destination: " + video + "'\n" +
+                "echo '[download] 100.0% of 256.00KiB at  5.68MiB/s ETA 00:00'\n" +
+                "echo '[ffmpeg] Destination: " + audio + "'\n" +
+                "echo 'Deleting original file " + video + " (pass -k to keep)'\n";
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL("https://www.youtube.com/watch?v=lWA2pjMjpBs"), directory, StubBinaries.createConfiguration(script));
+
+        DownloadResult result = adapter.downloadAudio(Optional.empty(), Optional.empty());
+        Path moved = FileHandOff.moveToDirectory(result.getFile().get(), this.targetDirectory);
+
+        assertThat("Result names the converted file", result.getFile(), is(Optional.of(audio)));
+        assertThat(Arrays.equals(Files.readAllBytes(moved), this.content), is(true));
+    }
+
+    private Path createSource(String name) throws IOException {
+        Path source = this.sourceDirectory.resolve(name);
+        Files.write(source, this.content);
+        return source;
+    }
+}
@@ -0,0 +1,137 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class FormatSelectorTest {
+    private static final Path METADATA_PATH;
+    private static final VideoMetadata METADATA;
+
+    static {
+        try {
+            METADATA_PATH = Paths.get(FormatSelectorTest.class.getResource("/metadata.json").toURI());
+            METADATA = VideoMetadata.parse(new String(Files.readAllBytes(METADATA_PATH), StandardCharsets.UTF_8));
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void picksHighestBitrateAudioOnlyStream() {
+        FormatSelection selection = FormatSelector.select(METADATA, new FormatConstraints().withAudioOnly(true)).get();
+
+        assertThat(selection.getFormat().getFormatId(), is("140"));
+        assertThat(selection.getExpectedBytes(), is(Optional.of(3375921L)));
+        assertThat("Compared with the muxed mp4", selection.getBytesSaved(), is(Optional.of(9668118L - 3375921L)));
+        assertThat("AAC is remuxed into m4a", selection.getRemuxAudioFormat(), is(Optional.of("m4a")));
+    }
+
+    @Test
+    public void honoursCodecPreference() {
+        FormatConstraints constraints = new FormatConstraints().withAudioOnly(true).withPreferredCodecs("opus");
+
+        FormatSelection selection = FormatSelector.select(METADATA, constraints).get();
+
+        assertThat(selection.getFormat().getFormatId(), is("249"));
+        assertThat(selection.getRemuxAudioFormat(), is(Optional.of("opus")));
+    }
+
+    @Test
+    public void remuxesVorbisIntoOgg() throws IOException {
+        String json = new String(Files.readAllBytes(METADATA_PATH), StandardCharsets.UTF_8)
+                .replace("\"acodec\": \"opus\"", "\"acodec\": \"vorbis\"");
+        FormatConstraints constraints = new FormatConstraints().withAudioOnly(true).withPreferredCodecs("vorbis");
+
+        FormatSelection selection = FormatSelector.select(VideoMetadata.parse(json), constraints).get();
+
+        assertThat("youtube-dl takes the codec as the audio format", selection.getRemuxAudioFormat(), is(Optional.of("vorbis")));
+        assertThat("but writes the stream into an ogg file", selection.getRemuxAudioExtension(), is(Optional.of("ogg")));
+    }
+
+    @Test
+    public void honoursByteBudget() {
+        FormatConstraints constraints = new FormatConstraints().withAudioOnly(true).withMaxBytes(2_000_000);
+
+        assertThat(FormatSelector.select(METADATA, constraints).get().getFormat().getFormatId(), is("249"));
+        assertThat(FormatSelector.select(METADATA, constraints.withMaxBytes(1000)).isPresent(), is(false));
+    }
+
+    @Test
+    public void keepsToPinnedFormatIds() {
+        FormatConstraints constraints = new FormatConstraints().withAudioOnly(true).withFormatIds("249");
+
+        assertThat(FormatSelector.select(METADATA, constraints).get().getFormat().getFormatId(), is("249"));
+        assertThat(FormatSelector.select(METADATA, constraints.withFormatIds("18")).isPresent(), is(false));
+    }
+
+    @Test
+    public void honoursMaxHeightForMuxedStreams() {
+        assertThat(FormatSelector.select(METADATA, new FormatConstraints().withMaxHeight(360)).get().getFormat().getFormatId(), is("18"));
+        assertThat(FormatSelector.select(METADATA, new FormatConstraints().withMaxHeight(240)).isPresent(), is(false));
+    }
+
+    @Test
+    public void picksHighestVideoOnlyStream() {
+        VideoFormat video = FormatSelector.select(METADATA, new FormatConstraints().withVideoOnly(true)).get().getFormat();
+        VideoFormat audio = FormatSelector.select(METADATA, new FormatConstraints().withAudioOnly(true)).get().getFormat();
+
+        assertThat(video.getFormatId(), is("135"));
+        assertThat("H.264 and AAC stay in mp4", FormatSelector.mergeFormat(video, audio), is("mp4"));
+    }
+
+    @Test
+    public void mergesMismatchedContainersIntoMatroska() {
+        FormatConstraints constraints = new FormatConstraints().withPreferredCodecs("opus");
+        VideoFormat video = FormatSelector.select(METADATA, constraints.withVideoOnly(true)).get().getFormat();
+        VideoFormat audio = FormatSelector.select(METADATA, constraints.withAudioOnly(true)).get().getFormat();
+
+        assertThat(audio.getFormatId(), is("249"));
+        assertThat(FormatSelector.mergeFormat(video, audio), is("mkv"));
+    }
+
+    @Test
+    public void estimatesBytesFromBitrateWhenSizeIsUnknown() {
+        Map<String, Object> format = new HashMap<>();
+        format.put("format_id", "22");
+        format.put("tbr", 800.0);
+
+        Optional<Long> expectedBytes = FormatSelector.expectedBytes(VideoFormat.from(format), Optional.of(Duration.ofSeconds(10)));
+
+        assertThat(expectedBytes, is(Optional.of(1_000_000L)));
+    }
+
+    @Test
+    public void downloadsSelectedAudioStreamWithoutReencoding() throws Exception {
+        File arguments = File.createTempFile("ytdl-arguments", ".txt");
+        arguments.deleteOnExit();
+        BaseBinaryConfiguration configuration = StubBinaries.createConfiguration(
+                "case \"$*\" in *--dump-json*) cat '" + METADATA_PATH + "'; exit 0;; esac\n" +
+                "echo \"$@\" > '" + arguments.getAbsolutePath() + "'\n");
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                StubBinaries.createTempDirectory(),
+                configuration,
+                new DownloadOptions().withFormatConstraints(new FormatConstraints()));
+
+        adapter.downloadAudio(Optional.empty(), Optional.empty());
+
+        String commandLine = new String(Files.readAllBytes(arguments.toPath()), StandardCharsets.UTF_8);
+        assertThat(commandLine, containsString("--format 140 --extract-audio --audio-format m4a"));
+    }
+}
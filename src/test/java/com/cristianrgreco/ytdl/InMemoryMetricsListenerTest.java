@@ -0,0 +1,112 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class InMemoryMetricsListenerTest {
+    private static final String TARGET_URL = "https://www.youtube.com/watch?v=lWA2pjMjpBs";
+
+    private static final String DOWNLOAD_SCRIPT =
+            "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+            "sleep 0.1\n" +
+            "echo '[download]  50.0% of 1.00MiB at 512.00KiB/s ETA 00:01'\n" +
+            "echo '[download] 100.0% of 1.00MiB at  1.00MiB/s ETA 00:00'\n";
+
+    private static final String FAILING_SCRIPT =
+            "echo '[youtube] lWA2pjMjpBs: Downloading webpage'\n" +
+            "echo 'WARNING: unable to extract uploader nickname' >&2\n" +
+            "echo 'ERROR: This video is unavailable.' >&2\n";
+
+    @Test
+    public void recordsPhasesProgressAndProcesses() throws Exception {
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+        YouTubeDownloaderAdapter adapter = this.createAdapter(DOWNLOAD_SCRIPT, metrics);
+
+        adapter.downloadVideo(Optional.empty(), Optional.empty());
+
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        assertThat(snapshot.getTimers().get(InMemoryMetricsListener.PROCESS_SPAWN).getCount(), is(1L));
+        assertThat(snapshot.getTimers().get(InMemoryMetricsListener.PHASE_PREFIX + "resolving").getMin(), greaterThan(50e6));
+        assertThat(snapshot.getTimers().get(InMemoryMetricsListener.PHASE_PREFIX + "downloading").getCount(), is(1L));
+        assertThat(snapshot.getTimers().get(InMemoryMetricsListener.PHASE_PREFIX + "complete"), is(nullValue()));
+        assertThat(snapshot.getSummaries().get(InMemoryMetricsListener.DOWNLOAD_SPEED).getCount(), is(2L));
+        assertThat(snapshot.getSummaries().get(InMemoryMetricsListener.DOWNLOAD_SPEED).getMax(), closeTo(1024 * 1024, 1));
+        assertThat(snapshot.getSummaries().get(InMemoryMetricsListener.DOWNLOAD_SIZE).getTotal(), closeTo(1024 * 1024, 1));
+        assertThat(snapshot.getCounters().get(InMemoryMetricsListener.OUTPUT_LINES), is(3L));
+        assertThat(snapshot.getCounters().get(InMemoryMetricsListener.INVOCATIONS_SUCCEEDED), is(1L));
+        assertThat(snapshot.getGauges().get(InMemoryMetricsListener.PROCESSES_LIVE), is(0L));
+    }
+
+    @Test
+    public void countsMessagesByTypeOnFailure() throws Exception {
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+        YouTubeDownloaderAdapter adapter = this.createAdapter(FAILING_SCRIPT, metrics);
+
+        try {
+            adapter.downloadVideo(Optional.empty(), Optional.empty());
+        } catch (DownloadException e) {
+            // Expected
+        }
+
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        assertThat(snapshot.getCounters().get(InMemoryMetricsListener.MESSAGES_PREFIX + "warning"), is(1L));
+        assertThat(snapshot.getCounters().get(InMemoryMetricsListener.MESSAGES_PREFIX + "error"), is(1L));
+        assertThat(snapshot.getCounters().get(InMemoryMetricsListener.INVOCATIONS_FAILED), is(1L));
+        assertThat(snapshot.getGauges().get(InMemoryMetricsListener.PROCESSES_LIVE), is(0L));
+    }
+
+    @Test
+    public void readsPercentilesFromBuckets() {
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+        for (int millis = 1; millis <= 100; millis++) {
+            metrics.phaseCompleted(State.DOWNLOADING, millis * 1_000_000L);
+        }
+
+        MetricSummary downloading = metrics.getSnapshot().getTimers().get(InMemoryMetricsListener.PHASE_PREFIX + "downloading");
+        assertThat(downloading.getPercentile(50), greaterThanOrEqualTo(50e6));
+        assertThat("Within a bucket of the exact value", downloading.getPercentile(50), lessThanOrEqualTo(50e6 * 1.125));
+        assertThat(downloading.getPercentile(99), greaterThanOrEqualTo(99e6));
+        assertThat("The largest value is never overstated", downloading.getPercentile(100), is(100e6));
+        assertThat(downloading.getBuckets().values().stream().mapToLong(Long::longValue).sum(), is(100L));
+    }
+
+    @Test
+    public void exportsSnapshot() throws Exception {
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+        this.createAdapter(DOWNLOAD_SCRIPT, metrics).downloadAudio(Optional.empty(), Optional.empty());
+
+        AtomicReference<MetricsSnapshot> exported = new AtomicReference<>();
+        metrics.exportTo(exported::set);
+
+        assertThat(exported.get(), is(notNullValue()));
+        assertThat(exported.get().getTimers().get(InMemoryMetricsListener.INVOCATION).getCount(), is(1L));
+    }
+
+    @Test
+    public void defaultListenerIgnoresEverything() throws Exception {
+        BaseMetricsListener listener = new BaseMetricsListener() {
+        };
+
+        this.createAdapter(DOWNLOAD_SCRIPT, listener).downloadVideo(Optional.empty(), Optional.empty());
+    }
+
+    private YouTubeDownloaderAdapter createAdapter(String script, BaseMetricsListener listener) throws Exception {
+        return new YouTubeDownloaderAdapter(
+                new URL(TARGET_URL),
+                StubBinaries.createTempDirectory(),
+                StubBinaries.createConfiguration(script),
+                new DownloadOptions().withMetricsListener(listener));
+    }
+}
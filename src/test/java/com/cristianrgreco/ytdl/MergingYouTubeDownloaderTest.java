@@ -0,0 +1,147 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+public class MergingYouTubeDownloaderTest {
+    // Every stream takes a second, so fetching them one after the other would take at least two
+    private static final String STREAM_SCRIPT =
+            "while [ $# -gt 0 ]; do\n" +
+            "  case \"$1\" in -o) out=\"$2\"; shift;; --format) format=\"$2\"; shift;; esac; shift\n" +
+            "done\n" +
+            "if [ \"$format\" = \"$FAILING_FORMAT\" ]; then\n" +
+            "  echo \"ERROR: requested format not available\" >&2; exit 1\n" +
+            "fi\n" +
+            "echo \"[youtube] oHg5SJYRHA0: Downloading webpage\"\n" +
+            "echo \"[download] Destination: $out\"\n" +
+            "echo \"[download]   0.0% of 1.00MiB at  1.00MiB/s ETA 00:01\"\n" +
+            "sleep 1\n" +
+            "echo \"[download] 100.0% of 1.00MiB at  1.00MiB/s ETA 00:00\"\n" +
+            "printf '%s' \"$format\" > \"$out\"\n";
+
+    private File destinationDirectory;
+    private File mergeArguments;
+    private String metadataPath;
+
+    @Before
+    public void setUp() throws Exception {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.mergeArguments = new File(this.destinationDirectory, "ffmpeg-arguments.txt");
+        this.metadataPath = metadataPath();
+    }
+
+    @Test
+    public void fetchesVideoAndAudioSideBySideAndMerges() throws Exception {
+        YouTubeDownloader downloader = this.createDownloader("none");
+        List<State> states = new CopyOnWriteArrayList<>();
+        List<DownloadProgress> progress = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        DownloadResult result = downloader.download(
+                this.request(), Optional.of(states::add), Optional.of(progress::add));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat("Streams are fetched at the same time", elapsedMillis, lessThan(1900L));
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.MERGING, State.COMPLETE)));
+        assertThat(result.getFile().get(), is(this.destinationDirectory.toPath().resolve("RickRoll'D.mp4")));
+        assertThat(result.getFile().get().toFile().isFile(), is(true));
+
+        String merge = new String(Files.readAllBytes(this.mergeArguments.toPath()), StandardCharsets.UTF_8);
+        assertThat("Video and audio are merged without re-encoding", merge,
+                containsString("-map 0:v:0 -map 1:a:0 -c copy"));
+        assertThat(merge, containsString("RickRoll'D.f135.mp4 -i "));
+        assertThat(merge, containsString("RickRoll'D.f140.m4a"));
+        assertThat("Parts are removed once merged",
+                new File(this.destinationDirectory, "RickRoll'D.f135.mp4").exists(), is(false));
+
+        DownloadProgress last = progress.get(progress.size() - 1);
+        assertThat("Progress covers both streams", last.getTotalBytes(), is(2 * 1024L * 1024));
+        assertThat(last.getPercent(), closeTo(100.0, 0.01));
+    }
+
+    @Test
+    public void reportsAFailedStreamWithoutMerging() throws Exception {
+        YouTubeDownloader downloader = this.createDownloader("140");
+
+        try {
+            downloader.download(this.request(), Optional.empty(), Optional.empty());
+            fail("Expected a DownloadException");
+        } catch (DownloadException e) {
+            assertThat(e.getMessage(), containsString("requested format not available"));
+        }
+        assertThat("ffmpeg never ran", this.mergeArguments.exists(), is(false));
+        assertThat("The part that was fetched is removed",
+                new File(this.destinationDirectory, "RickRoll'D.f135.mp4").exists(), is(false));
+    }
+
+    @Test
+    public void keepsFetchedPartsOfAResumableDownload() throws Exception {
+        YouTubeDownloader downloader = this.createDownloader("140");
+        DownloadRequest request = new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                this.destinationDirectory, DownloadMode.VIDEO,
+                new DownloadOptions().withSeparateStreams(true).withResumable(true));
+
+        try {
+            downloader.download(request, Optional.empty(), Optional.empty());
+            fail("Expected a DownloadException");
+        } catch (DownloadException e) {
+            assertThat("The part that was fetched is kept for the next attempt",
+                    new File(this.destinationDirectory, "RickRoll'D.f135.mp4").isFile(), is(true));
+        }
+    }
+
+    @Test
+    public void reportsTheMergeToTheMetricsListener() throws Exception {
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+        DownloadRequest request = new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                this.destinationDirectory, DownloadMode.VIDEO,
+                new DownloadOptions().withSeparateStreams(true).withMetricsListener(metrics));
+
+        this.createDownloader("none").download(request, Optional.empty(), Optional.empty());
+
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        assertThat("The probe, both streams and the ffmpeg merge are timed",
+                snapshot.getTimers().get(InMemoryMetricsListener.PROCESS_SPAWN).getCount(), is(4L));
+        assertThat(snapshot.getGauges().get(InMemoryMetricsListener.PROCESSES_LIVE), is(0L));
+    }
+
+    private YouTubeDownloader createDownloader(String failingFormat) {
+        return new YouTubeDownloader(StubBinaries.createConfiguration(
+                "case \"$*\" in *--dump-json*) cat '" + this.metadataPath + "'; exit 0;; esac\n" +
+                "FAILING_FORMAT=" + failingFormat + "\n" +
+                STREAM_SCRIPT,
+                "echo \"$@\" > '" + this.mergeArguments.getAbsolutePath() + "'\n" +
+                "for arg; do target=\"$arg\"; done\n" +
+                "echo merged > \"$target\"\n"));
+    }
+
+    private DownloadRequest request() throws Exception {
+        return new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"), this.destinationDirectory,
+                DownloadMode.VIDEO, new DownloadOptions().withSeparateStreams(true));
+    }
+
+    private static String metadataPath() throws URISyntaxException {
+        Path path = Paths.get(MergingYouTubeDownloaderTest.class.getResource("/metadata.json").toURI());
+        return path.toString();
+    }
+}
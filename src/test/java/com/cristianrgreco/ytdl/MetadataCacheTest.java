@@ -0,0 +1,151 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MetadataCacheTest {
+    private static final Duration TIME_TO_LIVE = Duration.ofMinutes(10);
+
+    private MutableClock clock;
+
+    @Before
+    public void setUp() {
+        this.clock = new MutableClock();
+    }
+
+    @Test
+    public void returnsCachedMetadata() {
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.empty(), this.clock);
+        cache.put(metadata("oHg5SJYRHA0"));
+
+        assertThat("Metadata is cached", cache.get("oHg5SJYRHA0").map(VideoMetadata::getTitle), is(Optional.of("Title oHg5SJYRHA0")));
+        assertThat("Hit is counted", cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void countsMisses() {
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.empty(), this.clock);
+
+        assertThat("Metadata is not cached", cache.get("oHg5SJYRHA0"), is(Optional.empty()));
+        assertThat("Miss is counted", cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntry() {
+        MetadataCache cache = new MetadataCache(2, TIME_TO_LIVE, Optional.empty(), this.clock);
+        cache.put(metadata("first"));
+        cache.put(metadata("second"));
+        cache.get("first");
+        cache.put(metadata("third"));
+
+        assertThat("Recently used entry is kept", cache.get("first").isPresent(), is(true));
+        assertThat("Least recently used entry is evicted", cache.get("second").isPresent(), is(false));
+        assertThat("Eviction is counted", cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void expiresEntriesAfterTimeToLive() {
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.empty(), this.clock);
+        cache.put(metadata("oHg5SJYRHA0"));
+        this.clock.advance(TIME_TO_LIVE);
+
+        assertThat("Expired entry is not returned", cache.get("oHg5SJYRHA0"), is(Optional.empty()));
+        assertThat("Expiry is counted as an eviction", cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void diskTierSurvivesNewCacheInstance() {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        new MetadataCache(10, TIME_TO_LIVE, Optional.of(directory), this.clock).put(metadata("oHg5SJYRHA0"));
+
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.of(directory), this.clock);
+
+        assertThat("Metadata is read from disk", cache.get("oHg5SJYRHA0").map(VideoMetadata::getTitle), is(Optional.of("Title oHg5SJYRHA0")));
+        assertThat("Disk hit is counted", cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void diskTierHonoursTimeToLive() {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        new MetadataCache(10, TIME_TO_LIVE, Optional.of(directory), this.clock).put(metadata("oHg5SJYRHA0"));
+        this.clock.advance(TIME_TO_LIVE.plusSeconds(1));
+
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.of(directory), this.clock);
+
+        assertThat("Expired disk entry is not returned", cache.get("oHg5SJYRHA0"), is(Optional.empty()));
+    }
+
+    @Test
+    public void keepsEntryInMemoryWhenDiskWriteFails() throws Exception {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.of(directory), this.clock);
+        Files.delete(directory);
+        Files.write(directory, new byte[0]);
+
+        cache.put(metadata("oHg5SJYRHA0"));
+
+        assertThat("Metadata is still cached", cache.get("oHg5SJYRHA0").isPresent(), is(true));
+    }
+
+    @Test
+    public void neverWritesOutsideTheDiskDirectory() {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE, Optional.of(directory), this.clock);
+
+        cache.put(metadata("../escaped"));
+
+        assertThat(Files.exists(directory.resolveSibling("escaped.json")), is(false));
+        assertThat("Metadata is still cached", cache.get("../escaped").isPresent(), is(true));
+    }
+
+    @Test
+    public void adapterSkipsYouTubeDlOnCacheHitForAnyUrlForm() throws Exception {
+        MetadataCache cache = new MetadataCache(10, TIME_TO_LIVE);
+        cache.put(metadata("oHg5SJYRHA0"));
+        BinaryConfiguration failingBinary = StubBinaries.createConfiguration("echo \"ERROR: should not run\" >&2\n");
+        YouTubeDownloaderAdapter target = new YouTubeDownloaderAdapter(
+                new URL("https://youtu.be/oHg5SJYRHA0"), StubBinaries.createTempDirectory(), failingBinary, cache);
+
+        assertThat("Title is served from the cache", target.getTitle(), is("Title oHg5SJYRHA0"));
+    }
+
+    private static VideoMetadata metadata(String id) {
+        return VideoMetadata.parse("{\"id\": \"" + id + "\", \"title\": \"Title " + id + "\", \"_filename\": \"" + id + ".mp4\"}");
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2016-01-01T00:00:00Z");
+
+        private void advance(Duration duration) {
+            this.now = this.now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class OutputDestinationTest {
+    @Test
+    public void parsesDownloadDestination() {
+        assertThat(OutputDestination.parse(OutputTag.DOWNLOAD, "[download] Destination: /music/Song title.mp4"),
+                is(Optional.of(Paths.get("/music/Song title.mp4"))));
+    }
+
+    @Test
+    public void parsesConversionDestination() {
+        assertThat(OutputDestination.parse(OutputTag.FFMPEG, "[ffmpeg] Destination: /music/Song title.mp3"),
+                is(Optional.of(Paths.get("/music/Song title.mp3"))));
+    }
+
+    @Test
+    public void parsesMergedFile() {
+        assertThat(OutputDestination.parse(OutputTag.FFMPEG, "[ffmpeg] Merging formats into \"/video/Clip.mp4\""),
+                is(Optional.of(Paths.get("/video/Clip.mp4"))));
+    }
+
+    @Test
+    public void parsesAlreadyDownloadedFile() {
+        assertThat(OutputDestination.parse(OutputTag.DOWNLOAD, "[download] /video/Clip.mp4 has already been downloaded"),
+                is(Optional.of(Paths.get("/video/Clip.mp4"))));
+        assertThat(OutputDestination.parse(OutputTag.DOWNLOAD, "[download] /video/Clip.mp4 has already been downloaded and merged"),
+                is(Optional.of(Paths.get("/video/Clip.mp4"))));
+    }
+
+    @Test
+    public void ignoresOtherLines() {
+        assertThat(OutputDestination.parse(OutputTag.DOWNLOAD, "[download]  50.0% of 9.22MiB at  5.68MiB/s ETA 00:01"),
+                is(Optional.empty()));
+        assertThat(OutputDestination.parse(OutputTag.FFMPEG, "[ffmpeg] Merging formats into \""), is(Optional.empty()));
+        assertThat(OutputDestination.parse(OutputTag.YOUTUBE, "[youtube] Destination: not a download"), is(Optional.empty()));
+    }
+}
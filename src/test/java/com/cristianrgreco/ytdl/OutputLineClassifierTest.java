@@ -0,0 +1,160 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class OutputLineClassifierTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputLineClassifierTest.class);
+    private static final List<String> RECORDED_LOG;
+    private static final int LOG_REPETITIONS = 500;
+
+    static {
+        try {
+            RECORDED_LOG = Files.readAllLines(Paths.get(
+                    OutputLineClassifierTest.class.getResource("/corpora/download-stdout.log").toURI()), StandardCharsets.UTF_8);
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private OutputLineClassifier classifier;
+    private RecordingHandler handler;
+
+    @Before
+    public void setUp() {
+        this.classifier = new OutputLineClassifier();
+        this.handler = new RecordingHandler();
+    }
+
+    @Test
+    public void classifiesResolvingTags() {
+        this.classifier.classify("[youtube] oHg5SJYRHA0: Downloading webpage", this.handler);
+        this.classifier.classify("[info] Writing video description metadata as JSON to: RickRoll'D.info.json", this.handler);
+
+        assertThat("Tags are correct", this.handler.tags, is(list(OutputTag.YOUTUBE, OutputTag.INFO)));
+        assertThat("Both map to resolving", this.handler.states(), is(list(State.RESOLVING, State.RESOLVING)));
+    }
+
+    @Test
+    public void classifiesDownloadingTagsAndProgress() {
+        this.classifier.classify("[download] Destination: RickRoll'D.mp4", this.handler);
+        this.classifier.classify("[download]  10.8% of 9.22MiB at  5.68MiB/s ETA 00:01", this.handler);
+        this.classifier.classify("[hlsnative] Total fragments: 30", this.handler);
+
+        assertThat("Tags are correct", this.handler.tags, is(list(OutputTag.DOWNLOAD, OutputTag.DOWNLOAD, OutputTag.HLS_NATIVE)));
+        assertThat("All map to downloading", this.handler.states(), is(list(State.DOWNLOADING, State.DOWNLOADING, State.DOWNLOADING)));
+        assertThat("Only the progress line is reported as progress", this.handler.progressCount, is(1));
+    }
+
+    @Test
+    public void classifiesPostProcessingTags() {
+        this.classifier.classify("[ffmpeg] Destination: RickRoll'D.mp3", this.handler);
+        this.classifier.classify("[ExtractAudio] Destination: RickRoll'D.m4a", this.handler);
+        this.classifier.classify("[Merger] Merging formats into \"RickRoll'D.mp4\"", this.handler);
+
+        assertThat("Tags are correct", this.handler.tags, is(list(OutputTag.FFMPEG, OutputTag.EXTRACT_AUDIO, OutputTag.MERGER)));
+        assertThat("Merging has its own state", this.handler.states(), is(list(State.CONVERTING, State.CONVERTING, State.MERGING)));
+    }
+
+    @Test
+    public void classifiesUnknownTagsWithoutState() {
+        this.classifier.classify("[generic] video: Requesting header", this.handler);
+
+        assertThat("Tag is other", this.handler.tags, is(list(OutputTag.OTHER)));
+        assertThat("No state is implied", this.handler.states(), is(list(State.NONE)));
+    }
+
+    @Test
+    public void classifiesMessagesAndUntaggedLines() {
+        this.classifier.classify("WARNING: Unable to remove downloaded original file", this.handler);
+        this.classifier.classify("ERROR: 'test' is not a valid URL", this.handler);
+        this.classifier.classify("Deleting original file RickRoll'D.mp4 (pass -k to keep)", this.handler);
+        this.classifier.classify("   ", this.handler);
+
+        assertThat("Messages are reported", this.handler.messageCount, is(2));
+        assertThat("Untagged line is reported", this.handler.untaggedCount, is(1));
+        assertThat("No tags are reported", this.handler.tags.isEmpty(), is(true));
+    }
+
+    @Test
+    public void classifiesLargeRecordedLog() {
+        long start = System.nanoTime();
+        for (int i = 0; i < LOG_REPETITIONS; i++) {
+            for (String line : RECORDED_LOG) {
+                this.classifier.classify(line, this.handler);
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long lines = (long) LOG_REPETITIONS * RECORDED_LOG.size();
+        LOGGER.info("Classified {} lines in {} ms ({} lines/s)",
+                lines, elapsedNanos / 1_000_000, lines * 1_000_000_000L / Math.max(1, elapsedNanos));
+
+        RecordingHandler singlePass = new RecordingHandler();
+        for (String line : RECORDED_LOG) {
+            this.classifier.classify(line, singlePass);
+        }
+        assertThat("Every tagged line is classified on every pass",
+                this.handler.tags.size(), is(singlePass.tags.size() * LOG_REPETITIONS));
+        assertThat("Every progress line is classified on every pass",
+                this.handler.progressCount, is(singlePass.progressCount * LOG_REPETITIONS));
+        assertThat("Classification keeps up with hundreds of concurrent downloads", elapsedNanos / 1_000_000, lessThan(10_000L));
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values) {
+        List<T> list = new ArrayList<>();
+        for (T value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static class RecordingHandler implements OutputLineHandler {
+        private final List<OutputTag> tags = new ArrayList<>();
+        private int progressCount;
+        private int messageCount;
+        private int untaggedCount;
+
+        @Override
+        public void onTaggedLine(OutputTag tag, CharSequence line) {
+            this.tags.add(tag);
+        }
+
+        @Override
+        public void onProgress(CharSequence line, MutableDownloadProgress progress) {
+            this.progressCount++;
+        }
+
+        @Override
+        public void onMessage(CharSequence line) {
+            this.messageCount++;
+        }
+
+        @Override
+        public void onUntaggedLine(CharSequence line) {
+            this.untaggedCount++;
+        }
+
+        private List<State> states() {
+            List<State> states = new ArrayList<>();
+            for (OutputTag tag : this.tags) {
+                states.add(tag.getState());
+            }
+            return states;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+public class ProcessReactorTest {
+    private static final int CHILDREN = 50;
+    // 16 KiB reads cut the accented character in half
+    private static final String LONG_LINE_START = new String(new char[16383]).replace('\0', 'x');
+    private static final String LONG_LINE_END = new String(new char[20000]).replace('\0', 'x');
+    private static final String ERROR_SCRIPT = "echo \"ERROR: 'test' is not a valid URL\" >&2\n";
+    private static final String DOWNLOAD_SCRIPT =
+            "echo \"[youtube] oHg5SJYRHA0: Downloading webpage\"\n" +
+            "printf '[download]  10.0%% of 9.22MiB at  5.68MiB/s ETA 00:01\\r'\n" +
+            "printf '[download] 100.0%% of 9.22MiB at  5.68MiB/s ETA 00:00\\n'\n" +
+            "echo \"[download] Destination: /tmp/RickRoll'D.mp4\"\n";
+
+    private ProcessReactor reactor;
+
+    @Before
+    public void setUp() {
+        this.reactor = new ProcessReactor(2);
+    }
+
+    @After
+    public void tearDown() {
+        this.reactor.close();
+    }
+
+    @Test
+    public void readsEveryChildOnTheEventLoops() throws Exception {
+        List<List<String>> received = new ArrayList<>();
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (int i = 0; i < CHILDREN; i++) {
+            Process process = new ProcessBuilder("sh", "-c",
+                    "echo first " + i + "; sleep 0.2; printf 'second\\r\\nthird\\rlast'").start();
+            List<String> lines = new CopyOnWriteArrayList<>();
+            received.add(lines);
+            reads.add(this.reactor.register(process, process.getInputStream(), line -> lines.add(line.toString())));
+        }
+
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < CHILDREN; i++) {
+            assertThat("Lines split like BufferedReader.readLine()", received.get(i),
+                    is(Arrays.asList("first " + i, "second", "third", "last")));
+        }
+        assertThat("Finished children are deregistered", this.reactor.getRegistered(), is(0));
+    }
+
+    @Test
+    public void decodesLinesLongerThanTheReadBuffer() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c",
+                "printf '" + LONG_LINE_START + "\\303\\251" + LONG_LINE_END + "\\n'; " +
+                "printf 'Rick Astley \\342\\200\\223 V\\303\\255deo Oficial\\n'").start();
+        List<String> lines = new CopyOnWriteArrayList<>();
+
+        this.reactor.register(process, process.getInputStream(), line -> lines.add(line.toString())).get(10, TimeUnit.SECONDS);
+
+        assertThat(lines, is(Arrays.asList(
+                LONG_LINE_START + "\u00E9" + LONG_LINE_END, "Rick Astley \u2013 V\u00EDdeo Oficial")));
+    }
+
+    @Test
+    public void blockedConsumerOnlyHoldsUpItsOwnProcess() throws Exception {
+        ProcessReactor singleLoop = new ProcessReactor(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Process blocked = new ProcessBuilder("sh", "-c", "echo first; echo second").start();
+            CompletableFuture<Void> blockedRead = singleLoop.register(blocked, blocked.getInputStream(), line -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Process other = new ProcessBuilder("sh", "-c", "sleep 0.1; echo other").start();
+            List<String> lines = new CopyOnWriteArrayList<>();
+
+            singleLoop.register(other, other.getInputStream(), line -> lines.add(line.toString())).get(5, TimeUnit.SECONDS);
+
+            assertThat(lines, is(Arrays.asList("other")));
+            assertThat("The blocked consumer has not finished", blockedRead.isDone(), is(false));
+            release.countDown();
+            blockedRead.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            singleLoop.close();
+        }
+    }
+
+    @Test
+    public void passesEveryLineThroughOneReusedView() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "echo first; echo second; echo third").start();
+        List<CharSequence> views = new CopyOnWriteArrayList<>();
+        List<String> lines = new CopyOnWriteArrayList<>();
+
+        this.reactor.register(process, process.getInputStream(), line -> {
+            views.add(line);
+            lines.add(line.toString());
+        }).get(5, TimeUnit.SECONDS);
+
+        assertThat(lines, is(Arrays.asList("first", "second", "third")));
+        for (CharSequence view : views) {
+            assertThat("No String is made per line", view, sameInstance(views.get(0)));
+        }
+    }
+
+    @Test
+    public void slowConsumersShareABoundedDispatchPool() throws Exception {
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (int i = 0; i < CHILDREN; i++) {
+            Process process = new ProcessBuilder("sh", "-c", "echo slow " + i).start();
+            reads.add(this.reactor.register(process, process.getInputStream(), line -> sleep(50)));
+        }
+
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+        assertThat(ProcessReactor.getLargestDispatchPoolSize(), lessThanOrEqualTo(ProcessReactor.getDispatchThreads()));
+    }
+
+    @Test
+    public void endsOutputWhenTheProcessHasGoneEvenIfAGrandchildHoldsThePipe() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "echo parent; sleep 10 &").start();
+        List<String> lines = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        this.reactor.register(process, process.getInputStream(), line -> lines.add(line.toString())).get(5, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(lines, is(Arrays.asList("parent")));
+        assertThat("The grandchild's sleep is not waited for", elapsedMillis, lessThan(5000L));
+    }
+
+    @Test
+    public void destroysTheProcessWhenItsConsumerFails() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "while true; do echo line; done").start();
+
+        CompletableFuture<Void> read = this.reactor.register(process, process.getInputStream(), line -> {
+            throw new IllegalStateException("consumer failed");
+        });
+
+        try {
+            read.get(5, TimeUnit.SECONDS);
+            fail("Expected the read to fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("consumer failed"));
+        }
+        assertThat("The process was destroyed", process.waitFor(5, TimeUnit.SECONDS), is(true));
+        assertThat(this.reactor.getRegistered(), is(0));
+    }
+
+    @Test
+    public void keepsServingOtherProcessesAfterAConsumerError() throws Exception {
+        ProcessReactor singleLoop = new ProcessReactor(1);
+        try {
+            Process failing = new ProcessBuilder("sh", "-c", "echo first").start();
+            CompletableFuture<Void> failed = singleLoop.register(failing, failing.getInputStream(), line -> {
+                throw new AssertionError("consumer error");
+            });
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+                fail("Expected the read to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(AssertionError.class));
+            }
+
+            Process other = new ProcessBuilder("sh", "-c", "echo other").start();
+            List<String> lines = new CopyOnWriteArrayList<>();
+            singleLoop.register(other, other.getInputStream(), line -> lines.add(line.toString())).get(5, TimeUnit.SECONDS);
+
+            assertThat(lines, is(Arrays.asList("other")));
+        } finally {
+            singleLoop.close();
+        }
+    }
+
+    @Test
+    public void downloadsThroughTheReactor() throws Exception {
+        YouTubeDownloaderAdapter adapter = this.createAdapter(DOWNLOAD_SCRIPT);
+        List<State> states = new CopyOnWriteArrayList<>();
+        List<String> progress = new CopyOnWriteArrayList<>();
+
+        DownloadResult result = adapter.downloadVideo(
+                Optional.of(states::add), Optional.of(update -> progress.add(update.getEta())));
+
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+        assertThat(progress, is(Arrays.asList("00:01", "00:00")));
+        assertThat(result.getFile().get().toString(), is("/tmp/RickRoll'D.mp4"));
+    }
+
+    @Test
+    public void asyncDownloadsHoldNoThreadWhileTheyRun() throws Exception {
+        YouTubeDownloader downloader = new YouTubeDownloader(StubBinaries.createConfiguration("sleep 1\n" + DOWNLOAD_SCRIPT));
+        DownloadRequest request = new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                StubBinaries.createTempDirectory(), DownloadMode.VIDEO, new DownloadOptions().withProcessReactor(this.reactor));
+        List<CompletableFuture<DownloadResult>> downloads = new ArrayList<>();
+
+        for (int i = 0; i < CHILDREN; i++) {
+            downloads.add(downloader.downloadAsync(request, Optional.empty(), Optional.empty(), Runnable::run));
+        }
+
+        assertThat("No thread is inside a running download", threadsInsideDownloads(), is(0L));
+        for (CompletableFuture<DownloadResult> download : downloads) {
+            assertThat(download.get(10, TimeUnit.SECONDS).getFile().get().toString(), is("/tmp/RickRoll'D.mp4"));
+        }
+    }
+
+    @Test
+    public void collectsErrorsThroughTheReactor() throws Exception {
+        YouTubeDownloaderAdapter adapter = this.createAdapter(ERROR_SCRIPT);
+
+        try {
+            adapter.downloadVideo(Optional.empty(), Optional.empty());
+            fail("Expected a DownloadException");
+        } catch (DownloadException e) {
+            assertThat(e.getMessage(), containsString("is not a valid URL"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsRegistrationsOnceClosed() throws Exception {
+        Process process = new ProcessBuilder("true").start();
+        this.reactor.close();
+
+        this.reactor.register(process, process.getInputStream(), line -> {
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long threadsInsideDownloads() {
+        String job = YouTubeDownloader.class.getName() + "$Job";
+        return Thread.getAllStackTraces().values().stream()
+                .filter(stack -> Arrays.stream(stack).anyMatch(frame -> frame.getClassName().equals(job)))
+                .count();
+    }
+
+    private YouTubeDownloaderAdapter createAdapter(String script) throws Exception {
+        return new YouTubeDownloaderAdapter(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                StubBinaries.createTempDirectory(), StubBinaries.createConfiguration(script),
+                new DownloadOptions().withProcessReactor(this.reactor));
+    }
+}
@@ -0,0 +1,208 @@
+package com.cristianrgreco.ytdl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class RangedFetcherTest {
+    private static final int CONTENT_BYTES = 1024 * 1024 + 123;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] content = new byte[CONTENT_BYTES];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger truncations = new AtomicInteger();
+    private final List<String> userAgents = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private boolean supportsRanges = true;
+    private boolean failingRanges;
+    private Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(this.content);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/media", this::serve);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.target = StubBinaries.createTempDirectory().toPath().resolve("media.mp4");
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void fetchesEveryRangeIntoPlace() throws Exception {
+        RangedFetcher fetcher = new RangedFetcher(4, CHUNK_BYTES, 3);
+        List<DownloadProgress> progress = new CopyOnWriteArrayList<>();
+
+        fetcher.fetch(this.mediaUrl(), this.target, Optional.of(progress::add));
+
+        int chunks = (CONTENT_BYTES + CHUNK_BYTES - 1) / CHUNK_BYTES;
+        assertThat("The file matches what was served",
+                Arrays.equals(Files.readAllBytes(this.target), this.content), is(true));
+        assertThat("One request per chunk besides the length probe", this.ranges.size(), is(chunks + 1));
+        assertThat(fetcher.getChunksFetched(), is((long) chunks));
+        assertThat("Progress is reported per chunk", progress.size(), is(chunks));
+        assertThat(progress.get(progress.size() - 1).getPercent(), closeTo(100.0, 0.01));
+        assertThat("Sizes are reported as youtube-dl formats them",
+                progress.get(0).getTotalBytes(), is(1024L * 1024));
+    }
+
+    @Test
+    public void retriesChunksFromTheLastByteWritten() throws Exception {
+        this.truncations.set(2);
+        RangedFetcher fetcher = new RangedFetcher(2, CHUNK_BYTES, 3);
+
+        fetcher.fetch(this.mediaUrl(), this.target, Optional.empty());
+
+        assertThat(Arrays.equals(Files.readAllBytes(this.target), this.content), is(true));
+        assertThat(fetcher.getChunksRetried(), is(2L));
+        assertThat("A cut chunk is resumed half way through", this.ranges,
+                hasItem("bytes=" + (CHUNK_BYTES / 2) + "-" + (CHUNK_BYTES - 1)));
+    }
+
+    @Test
+    public void failsOnceAttemptsAreExhausted() throws Exception {
+        this.failingRanges = true;
+        RangedFetcher fetcher = new RangedFetcher(2, CHUNK_BYTES, 2);
+
+        try {
+            fetcher.fetch(this.mediaUrl(), this.target, Optional.empty());
+            fail("Expected a DownloadException");
+        } catch (DownloadException e) {
+            assertThat(e.getMessage(), containsString("Unable to fetch"));
+        }
+        assertThat(fetcher.getChunksRetried(), greaterThan(0L));
+    }
+
+    @Test
+    public void fetchesOverOneConnectionWhenRangesAreIgnored() throws Exception {
+        this.supportsRanges = false;
+        RangedFetcher fetcher = new RangedFetcher(4, CHUNK_BYTES, 3);
+
+        fetcher.fetch(this.mediaUrl(), this.target, Optional.empty());
+
+        assertThat(Arrays.equals(Files.readAllBytes(this.target), this.content), is(true));
+        assertThat(fetcher.getChunksFetched(), is(1L));
+    }
+
+    @Test
+    public void downloadsVideoFromTheResolvedUrl() throws Exception {
+        File destinationDirectory = StubBinaries.createTempDirectory();
+        String probe = StubBinaries.printing("{\"id\": \"oHg5SJYRHA0\", \"title\": \"RickRoll'D\", " +
+                "\"_filename\": \"RickRoll'D.mp4\", \"format_id\": \"18\", \"formats\": [{\"format_id\": \"18\", " +
+                "\"ext\": \"mp4\", \"vcodec\": \"avc1\", \"acodec\": \"mp4a\", \"url\": \"" + this.mediaUrl() + "\"}]}\n");
+        YouTubeDownloader downloader = new YouTubeDownloader(StubBinaries.createConfiguration(probe));
+        DownloadRequest request = new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                destinationDirectory, DownloadMode.VIDEO,
+                new DownloadOptions().withRangedFetcher(new RangedFetcher(4, CHUNK_BYTES, 3)));
+        List<State> states = new CopyOnWriteArrayList<>();
+
+        DownloadResult result = downloader.download(request, Optional.of(states::add), Optional.empty());
+
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+        assertThat(result.getFile().get(), is(destinationDirectory.toPath().resolve("RickRoll'D.mp4")));
+        assertThat(Arrays.equals(Files.readAllBytes(result.getFile().get()), this.content), is(true));
+    }
+
+    @Test
+    public void sendsTheResolvedHeadersWithEveryRequest() throws Exception {
+        RangedFetcher fetcher = new RangedFetcher(4, CHUNK_BYTES, 3);
+
+        fetcher.fetch(this.mediaUrl(), Collections.singletonMap("User-Agent", "Mozilla/5.0"), this.target, Optional.empty());
+
+        assertThat(Arrays.equals(Files.readAllBytes(this.target), this.content), is(true));
+        assertThat("One request per chunk besides the length probe",
+                this.userAgents.size(), is((CONTENT_BYTES + CHUNK_BYTES - 1) / CHUNK_BYTES + 1));
+        assertThat(new HashSet<>(this.userAgents), is(Collections.singleton("Mozilla/5.0")));
+    }
+
+    @Test
+    public void leavesSegmentedFormatsToYouTubeDl() throws Exception {
+        File destinationDirectory = StubBinaries.createTempDirectory();
+        String probe = StubBinaries.printing("{\"id\": \"oHg5SJYRHA0\", \"title\": \"RickRoll'D\", " +
+                "\"_filename\": \"RickRoll'D.mp4\", \"format_id\": \"18\", \"formats\": [{\"format_id\": \"18\", " +
+                "\"ext\": \"mp4\", \"vcodec\": \"avc1\", \"acodec\": \"mp4a\", \"protocol\": \"m3u8_native\", " +
+                "\"url\": \"" + this.mediaUrl() + "\"}]}\n");
+        YouTubeDownloader downloader = new YouTubeDownloader(StubBinaries.createConfiguration(
+                "case \"$*\" in *--dump-json*) " + probe.trim() + "; exit 0;; esac\n" +
+                "echo \"[download] Destination: " + destinationDirectory + "/RickRoll'D.mp4\"\n" +
+                "echo \"[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00\"\n"));
+        DownloadRequest request = new DownloadRequest(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                destinationDirectory, DownloadMode.VIDEO,
+                new DownloadOptions().withRangedFetcher(new RangedFetcher(4, CHUNK_BYTES, 3)));
+        List<State> states = new CopyOnWriteArrayList<>();
+
+        DownloadResult result = downloader.download(request, Optional.of(states::add), Optional.empty());
+
+        assertThat("The manifest URL is never fetched directly", this.userAgents.size(), is(0));
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+        assertThat(result.getFile().get(), is(destinationDirectory.toPath().resolve("RickRoll'D.mp4")));
+    }
+
+    private URL mediaUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + "/media");
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        this.userAgents.add(String.valueOf(exchange.getRequestHeaders().getFirst("User-Agent")));
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = RANGE.matcher(range != null ? range : "");
+        try (OutputStream body = exchange.getResponseBody()) {
+            if (!this.supportsRanges || !matcher.matches()) {
+                exchange.sendResponseHeaders(200, this.content.length);
+                body.write(this.content);
+                return;
+            }
+            this.ranges.add(range);
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(Integer.parseInt(matcher.group(2)), this.content.length - 1);
+            if (this.failingRanges && start > 0) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            int length = end - start + 1;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + this.content.length);
+            exchange.sendResponseHeaders(206, length);
+            // A truncated response promises the rest of the first chunk but stops half way, like a dropped connection
+            if (end == CHUNK_BYTES - 1 && length > 1 && this.truncations.getAndDecrement() > 0) {
+                body.write(this.content, start, length / 2);
+                body.flush();
+                throw new IOException("Truncated");
+            }
+            body.write(this.content, start, length);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class SegmentedTranscoderTest {
+    // A minute of 44.1kHz input with a keyframe every seven seconds
+    private static final String FFPROBE_SCRIPT =
+            "case \"$*\" in\n" +
+            "  *format=duration*) echo 'sample_rate=44100'; echo 'duration=60.000000';;\n" +
+            "  *packet=pts_time*) t=0; while [ $t -lt 60 ]; do\n" +
+            "    echo \"$t.000000,K_\"; echo \"$t.500000,__\"; t=$((t+7))\n" +
+            "  done;;\n" +
+            "esac\n";
+    // An encode of the whole minute: 576 samples of encoder delay, then the input, then 720 samples of padding
+    private static final int FRAMES = 2298;
+    private static final int FRAME_LENGTH = 417;
+    private static final int DELAY = 576;
+    private static final int PADDING = 720;
+    // What an encode that stops early pads its last frame with; only the last segment's padding belongs in the output
+    private static final int SEGMENT_PADDING = 1000;
+    private static final int INFO_OFFSET = 36;
+    private static final int LAME_OFFSET = INFO_OFFSET + 8 + 4 + 4 + 100 + 4;
+    // Samples in the generated tone: 20 seconds at 44.1kHz
+    private static final int TONE_SAMPLES = 20 * 44100;
+
+    @Test
+    public void encodesKeyframeAlignedSegmentsInParallel() throws Exception {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        SegmentedTranscoder transcoder = new SegmentedTranscoder(
+                createConfiguration(directory, ""), 4, Duration.ofSeconds(10));
+        Path source = Files.write(directory.resolve("video.mp4"), new byte[4096]);
+        Path target = directory.resolve("video.mp3");
+        List<DownloadProgress> progress = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        transcoder.transcodeAudio(source, target, Optional.of(progress::add));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(SegmentedTranscoder.frameStarts(Arrays.asList(0.0, 14.0, 28.0, 42.0), 44100, 1152),
+                is(Arrays.asList(0L, 536L, 1072L, 1608L)));
+        assertThat("Segments were encoded at the same time", elapsedMillis, lessThan(3000L));
+        assertThat("Progress ends complete", progress.get(progress.size() - 1).getPercent(), is(100.0));
+        assertThat("Segments were cleaned up", listFiles(directory),
+                is(new TreeSet<>(Arrays.asList("frames.bin", "info.bin", "info-end.bin", "video.mp3", "video.mp4"))));
+    }
+
+    @Test
+    public void splicesEveryFrameOnceAndDescribesTheWholeFile() throws Exception {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        SegmentedTranscoder transcoder = new SegmentedTranscoder(
+                createConfiguration(directory, ""), 4, Duration.ofSeconds(10));
+        Path source = Files.write(directory.resolve("video.mp4"), new byte[4096]);
+        Path target = directory.resolve("video.mp3");
+
+        transcoder.transcodeAudio(source, target, Optional.empty());
+
+        byte[] output = Files.readAllBytes(target);
+        assertThat("Every frame of the whole encode, in order, with nothing from the overlaps", frameNumbers(output),
+                is(allFrameNumbers()));
+        ByteBuffer info = ByteBuffer.wrap(output);
+        assertThat(info.getInt(INFO_OFFSET + 8), is(FRAMES));
+        assertThat(info.getInt(INFO_OFFSET + 12), is(output.length));
+        assertThat("Padding is the last segment's", (info.getInt(LAME_OFFSET + 20) & 0xFFF), is(PADDING));
+        assertThat("Delay is kept", (info.getInt(LAME_OFFSET + 20) >>> 12) & 0xFFF, is(DELAY));
+        assertThat(info.getInt(LAME_OFFSET + 28), is(output.length));
+        assertThat("Music CRC", info.getShort(LAME_OFFSET + 32) & 0xFFFF,
+                is(crc16(output, FRAME_LENGTH, output.length - FRAME_LENGTH)));
+        assertThat("Tag CRC", info.getShort(LAME_OFFSET + 34) & 0xFFFF, is(crc16(output, 0, 190)));
+    }
+
+    @Test
+    public void encodesShortInputInOnePass() throws Exception {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        SegmentedTranscoder transcoder = new SegmentedTranscoder(
+                createConfiguration(directory, ""), 4, Duration.ofMinutes(10));
+        Path source = Files.write(directory.resolve("video.mp4"), new byte[4096]);
+        Path target = directory.resolve("video.mp3");
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+
+        transcoder.transcodeAudio(source, target, Optional.empty(), Optional.of(metrics));
+
+        assertThat(frameNumbers(Files.readAllBytes(target)), is(allFrameNumbers()));
+        assertThat("One probe and one encode, without looking for keyframes",
+                metrics.getSnapshot().getTimers().get(InMemoryMetricsListener.PROCESS_SPAWN).getCount(), is(2L));
+    }
+
+    @Test
+    public void failsWhenAnySegmentFails() throws Exception {
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        SegmentedTranscoder transcoder = new SegmentedTranscoder(
+                createConfiguration(directory, "FAIL_SEGMENT=1\n"), 4, Duration.ofSeconds(10));
+        Path source = Files.write(directory.resolve("video.mp4"), new byte[4096]);
+
+        try {
+            transcoder.transcodeAudio(source, directory.resolve("video.mp3"), Optional.empty());
+            throw new AssertionError("Expected the transcode to fail");
+        } catch (DownloadException e) {
+            assertThat(e.getErrorMessage().getMessage(), is("Error while encoding stream"));
+        }
+        assertThat("Segments were cleaned up", listFiles(directory),
+                is(new TreeSet<>(Arrays.asList("frames.bin", "info.bin", "info-end.bin", "video.mp4"))));
+    }
+
+    @Test
+    public void transcodesAudioDownloadsWhenConfigured() throws Exception {
+        File directory = StubBinaries.createTempDirectory();
+        String youTubeDlScript =
+                "echo '[youtube] oHg5SJYRHA0: Downloading webpage'\n" +
+                "echo '[download] Destination: " + directory + "/video.mp4'\n" +
+                "echo 'video' > '" + directory + "/video.mp4'\n" +
+                "echo '[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00'\n";
+        Path stubs = StubBinaries.createTempDirectory().toPath();
+        BaseBinaryConfiguration configuration = StubBinaries.createConfiguration(
+                youTubeDlScript, ffmpegScript(stubs, ""), FFPROBE_SCRIPT);
+        InMemoryMetricsListener metrics = new InMemoryMetricsListener();
+        YouTubeDownloaderAdapter adapter = new YouTubeDownloaderAdapter(
+                new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0"),
+                directory,
+                configuration,
+                new DownloadOptions()
+                        .withTranscoder(new SegmentedTranscoder(configuration, 2, Duration.ofSeconds(20)))
+                        .withMetricsListener(metrics));
+        List<State> states = new CopyOnWriteArrayList<>();
+
+        DownloadResult result = adapter.downloadAudio(Optional.of(states::add), Optional.empty());
+
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.CONVERTING, State.COMPLETE)));
+        assertThat(result.getFile(), is(Optional.of(directory.toPath().resolve("video.mp3"))));
+        assertThat("Source was removed", Files.exists(directory.toPath().resolve("video.mp4")), is(false));
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        assertThat("youtube-dl, both probes and the two segment encodes are timed",
+                snapshot.getTimers().get(InMemoryMetricsListener.PROCESS_SPAWN).getCount(), is(5L));
+        assertThat(snapshot.getGauges().get(InMemoryMetricsListener.PROCESSES_LIVE), is(0L));
+    }
+
+    // Runs only where a real ffmpeg with libmp3lame is on the PATH
+    @Test
+    public void realSegmentsDecodeGaplesslyToTheSource() throws Exception {
+        Optional<File> ffmpeg = onPath("ffmpeg");
+        Optional<File> ffprobe = onPath("ffprobe");
+        Assume.assumeTrue(ffmpeg.isPresent() && ffprobe.isPresent());
+        Path directory = StubBinaries.createTempDirectory().toPath();
+        short[] tone = tone();
+        Path source = writeWav(directory.resolve("tone.wav"), tone);
+        BinaryConfiguration configuration = new BinaryConfiguration(
+                StubBinaries.createScript("youtube-dl", "exit 0\n"), ffmpeg.get(), ffprobe.get());
+        Path segmented = directory.resolve("segmented.mp3");
+        Path whole = directory.resolve("whole.mp3");
+
+        new SegmentedTranscoder(configuration, 4, Duration.ofSeconds(5))
+                .transcodeAudio(source, segmented, Optional.empty());
+        new SegmentedTranscoder(configuration, 1, Duration.ofSeconds(5))
+                .transcodeAudio(source, whole, Optional.empty());
+
+        short[] decoded = decode(ffmpeg.get(), segmented);
+        assertThat("Decodes to exactly as many samples as the source", decoded.length, is(tone.length));
+        double wholeError = worstFrameError(tone, decode(ffmpeg.get(), whole));
+        assertThat("No frame, including those either side of a cut, is worse than twice the worst of one encode",
+                worstFrameError(tone, decoded), lessThan(Math.max(2 * wholeError, 0.01)));
+    }
+
+    private static BaseBinaryConfiguration createConfiguration(Path directory, String ffmpegPrefix) throws IOException {
+        return StubBinaries.createConfiguration("exit 0\n", ffmpegScript(directory, ffmpegPrefix), FFPROBE_SCRIPT);
+    }
+
+    // Like LAME, every encode starts with an Info frame and frame n holds the same audio whichever slice it came from.
+    // The frames of the whole encode are numbered and each encode copies out the ones its slice covers
+    private static String ffmpegScript(Path directory, String prefix) throws IOException {
+        Path frames = directory.resolve("frames.bin");
+        Path info = Files.write(directory.resolve("info.bin"), infoFrame(SEGMENT_PADDING));
+        Path infoAtEnd = Files.write(directory.resolve("info-end.bin"), infoFrame(PADDING));
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            audio.write(audioFrame(i));
+        }
+        Files.write(frames, audio.toByteArray());
+        return prefix +
+                "for last; do :; done\n" +
+                "start=0; length=''; previous=''\n" +
+                "for argument; do\n" +
+                "  case \"$previous\" in -ss) start=$argument;; -t) length=$argument;; esac\n" +
+                "  previous=$argument\n" +
+                "done\n" +
+                "case \"$start\" in 27.*) if [ -n \"$FAIL_SEGMENT\" ]; then\n" +
+                "  echo 'Error while encoding stream' >&2; exit 1\n" +
+                "fi;; esac\n" +
+                "sleep 1\n" +
+                "echo 'out_time_us=1000000'\n" +
+                "echo 'progress=continue'\n" +
+                "first=$(awk -v s=$start 'BEGIN { printf \"%d\", s * 44100 / 1152 + 0.5 }')\n" +
+                "if [ -n \"$length\" ]; then\n" +
+                "  count=$(awk -v l=$length 'BEGIN { c = l * 44100 / 1152; printf \"%d\", c + 0.999999 }')\n" +
+                "  { cat '" + info + "'; dd if='" + frames + "' bs=" + FRAME_LENGTH +
+                " skip=$first count=$count 2>/dev/null; } > \"$last\"\n" +
+                "else\n" +
+                "  { cat '" + infoAtEnd + "'; dd if='" + frames + "' bs=" + FRAME_LENGTH +
+                " skip=$first 2>/dev/null; } > \"$last\"\n" +
+                "fi\n" +
+                "echo 'progress=end'\n";
+    }
+
+    // MPEG-1 layer III, 128kbps, 44.1kHz, stereo: 417 bytes a frame
+    private static byte[] frameHeader() {
+        byte[] frame = new byte[FRAME_LENGTH];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        return frame;
+    }
+
+    private static byte[] audioFrame(int number) {
+        byte[] frame = frameHeader();
+        ByteBuffer.wrap(frame).putInt(4, number);
+        return frame;
+    }
+
+    private static byte[] infoFrame(int padding) {
+        byte[] frame = frameHeader();
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.position(INFO_OFFSET);
+        buffer.put("Info".getBytes(StandardCharsets.ISO_8859_1)).putInt(0xF).putInt(0).putInt(0);
+        buffer.position(LAME_OFFSET);
+        buffer.put("LAME3.100".getBytes(StandardCharsets.ISO_8859_1));
+        buffer.putInt(LAME_OFFSET + 20, (buffer.getInt(LAME_OFFSET + 20) & 0xFF000000) | (DELAY << 12) | padding);
+        return frame;
+    }
+
+    private static List<Integer> frameNumbers(byte[] mp3) {
+        List<Integer> numbers = new ArrayList<>();
+        for (int offset = FRAME_LENGTH; offset < mp3.length; offset += FRAME_LENGTH) {
+            numbers.add(ByteBuffer.wrap(mp3).getInt(offset + 4));
+        }
+        return numbers;
+    }
+
+    private static List<Integer> allFrameNumbers() {
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i++) {
+            numbers.add(i);
+        }
+        return numbers;
+    }
+
+    private static int crc16(byte[] bytes, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= bytes[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            }
+        }
+        return crc;
+    }
+
+    // A 440Hz tone that swells and fades, so that a misplaced frame does not match its neighbours
+    private static short[] tone() {
+        short[] samples = new short[TONE_SAMPLES];
+        for (int i = 0; i < samples.length; i++) {
+            double envelope = 0.3 + 0.2 * Math.sin(2 * Math.PI * i / 44100.0 / 3);
+            samples[i] = (short) (Short.MAX_VALUE * envelope * Math.sin(2 * Math.PI * 440 * i / 44100.0));
+        }
+        return samples;
+    }
+
+    private static Path writeWav(Path file, short[] samples) throws IOException {
+        ByteBuffer wav = ByteBuffer.allocate(44 + 2 * samples.length).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + 2 * samples.length)
+                .put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+                .putShort((short) 1).putShort((short) 1).putInt(44100).putInt(2 * 44100)
+                .putShort((short) 2).putShort((short) 16)
+                .put("data".getBytes(StandardCharsets.US_ASCII)).putInt(2 * samples.length);
+        for (short sample : samples) {
+            wav.putShort(sample);
+        }
+        return Files.write(file, wav.array());
+    }
+
+    private static short[] decode(File ffmpeg, Path mp3) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(ffmpeg.getAbsolutePath(), "-hide_banner", "-loglevel", "error",
+                "-i", mp3.toString(), "-f", "s16le", "-ac", "1", "-").redirectErrorStream(true).start();
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        try (InputStream output = process.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = output.read(buffer)) > 0) {
+                pcm.write(buffer, 0, read);
+            }
+        }
+        assertThat(process.waitFor(), is(0));
+        short[] samples = new short[pcm.size() / 2];
+        ByteBuffer.wrap(pcm.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    // The RMS of the difference from the source over the worst frame, relative to the RMS of the whole source
+    private static double worstFrameError(short[] source, short[] decoded) {
+        double signal = 0;
+        for (short sample : source) {
+            signal += (double) sample * sample;
+        }
+        double signalRms = Math.sqrt(signal / source.length);
+        double worst = 0;
+        int length = Math.min(source.length, decoded.length);
+        for (int start = 0; start + 1152 <= length; start += 1152) {
+            double error = 0;
+            for (int i = start; i < start + 1152; i++) {
+                double difference = source[i] - decoded[i];
+                error += difference * difference;
+            }
+            worst = Math.max(worst, Math.sqrt(error / 1152) / signalRms);
+        }
+        return worst;
+    }
+
+    private static Optional<File> onPath(String name) {
+        for (String directory : System.getenv().getOrDefault("PATH", "").split(File.pathSeparator)) {
+            File binary = new File(directory, name);
+            if (binary.canExecute()) {
+                return Optional.of(binary);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Set<String> listFiles(Path directory) {
+        return new TreeSet<>(Arrays.asList(directory.toFile().list()));
+    }
+}
@@ -10,6 +10,7 @@ import static org.hamcrest.Matchers.is;
 public class StateTest {
     private static final String RESOLVING_MESSAGE = "[youtube] oHg5SJYRHA0: Downloading webpage";
     private static final String DOWNLOADING_MESSAGE = "[download]   0.0% of 9.22MiB at Unknown speed ETA Unknown ETA";
+    private static final String MERGING_MESSAGE = "[Merger] Merging formats into \"RickRoll'D.mp4\"";
     private static final String CONVERTING_MESSAGE = "[ffmpeg] Destination: RickRoll'D_oHg5SJYRHA0.mp3";
 
     private static final String PROGRESS_MESSAGE = "[download]   0.0% of 9.22MiB at Unknown speed ETA Unknown ETA";
@@ -29,6 +30,11 @@ public class StateTest {
         assertThat("State is downloading", State.parse(DOWNLOADING_MESSAGE), is(State.DOWNLOADING));
     }
 
+    @Test
+    public void parsesMergingState() {
+        assertThat("State is merging", State.parse(MERGING_MESSAGE), is(State.MERGING));
+    }
+
     @Test
     public void parsesConvertingState() {
         assertThat("State is converting", State.parse(CONVERTING_MESSAGE), is(State.CONVERTING));
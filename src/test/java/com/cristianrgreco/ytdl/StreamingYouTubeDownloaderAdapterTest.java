@@ -0,0 +1,116 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class StreamingYouTubeDownloaderAdapterTest {
+    private static final String TARGET_URL = "https://www.youtube.com/watch?v=lWA2pjMjpBs";
+    private static final String REQUIRE_STDOUT_OUTPUT =
+            "case \"$*\" in *\"-o -\"*) ;; *) echo 'ERROR: expected to stream to stdout' >&2; exit 1;; esac\n";
+
+    private byte[] media;
+    private File mediaFile;
+    private File destinationDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.media = new byte[300 * 1024];
+        new Random(42).nextBytes(this.media);
+        this.mediaFile = File.createTempFile("media", ".mp4");
+        this.mediaFile.deleteOnExit();
+        Files.write(this.mediaFile.toPath(), this.media);
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+    }
+
+    @Test
+    public void streamsVideoToChannel() throws Exception {
+        List<State> states = new CopyOnWriteArrayList<>();
+        List<DownloadProgress> progress = new CopyOnWriteArrayList<>();
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        this.createAdapter(this.streamingScript(), "exit 0\n")
+                .streamVideo(Channels.newChannel(target), Optional.of(states::add), Optional.of(progress::add));
+
+        assertThat("Media is written to the target unchanged", Arrays.equals(target.toByteArray(), this.media), is(true));
+        assertThat("State is read from stderr", states,
+                is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+        assertThat("Progress is read from stderr", progress.size(), is(1));
+        assertThat("Nothing is written to disk", this.destinationDirectory.list().length, is(0));
+    }
+
+    @Test
+    public void streamsAudioThroughFfmpeg() throws Exception {
+        List<State> states = new CopyOnWriteArrayList<>();
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        String ffmpegScript =
+                "case \"$*\" in *\"-i pipe:0\"*pipe:1) ;; *) echo \"unexpected arguments: $*\" >&2; exit 1;; esac\n" +
+                "printf 'ID3'\n" +
+                "exec cat\n";
+
+        this.createAdapter(this.streamingScript(), ffmpegScript)
+                .streamAudio(target, Optional.of(states::add), Optional.empty());
+
+        byte[] written = target.toByteArray();
+        assertThat("Transcoder output is written to the target", new String(written, 0, 3, "US-ASCII"), is("ID3"));
+        assertThat("Media passes through the transcoder", Arrays.equals(Arrays.copyOfRange(written, 3, written.length), this.media), is(true));
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.CONVERTING, State.COMPLETE)));
+    }
+
+    @Test
+    public void throwsExceptionForErrorsOnStderr() throws Exception {
+        String script = REQUIRE_STDOUT_OUTPUT + "echo 'ERROR: This video is unavailable.' >&2\nexit 1\n";
+
+        DownloadException exception = this.streamExpectingFailure(this.createAdapter(script, "exit 0\n"), false);
+
+        assertThat(exception.getMessage(), is("This video is unavailable."));
+    }
+
+    @Test
+    public void throwsExceptionWhenTranscoderFails() throws Exception {
+        String ffmpegScript = "cat > /dev/null\necho 'pipe:0: Invalid data found when processing input' >&2\nexit 1\n";
+
+        DownloadException exception = this.streamExpectingFailure(this.createAdapter(this.streamingScript(), ffmpegScript), true);
+
+        assertThat(exception.getMessage(), is("pipe:0: Invalid data found when processing input"));
+    }
+
+    private DownloadException streamExpectingFailure(YouTubeDownloaderAdapter adapter, boolean audio) throws Exception {
+        try {
+            if (audio) {
+                adapter.streamAudio(new ByteArrayOutputStream(), Optional.empty(), Optional.empty());
+            } else {
+                adapter.streamVideo(new ByteArrayOutputStream(), Optional.empty(), Optional.empty());
+            }
+        } catch (DownloadException e) {
+            return e;
+        }
+        throw new AssertionError("Expected streaming to fail");
+    }
+
+    private String streamingScript() {
+        return REQUIRE_STDOUT_OUTPUT +
+                "echo '[youtube] lWA2pjMjpBs: Downloading webpage' >&2\n" +
+                "cat '" + this.mediaFile.getAbsolutePath() + "'\n" +
+                "echo '[download] 100.0% of 300.00KiB at  5.68MiB/s ETA 00:00' >&2\n";
+    }
+
+    private YouTubeDownloaderAdapter createAdapter(String youTubeDlScript, String ffmpegScript) throws Exception {
+        return new YouTubeDownloaderAdapter(new URL(TARGET_URL), this.destinationDirectory,
+                StubBinaries.createConfiguration(youTubeDlScript, ffmpegScript));
+    }
+}
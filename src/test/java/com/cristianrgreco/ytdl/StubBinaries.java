@@ -0,0 +1,61 @@
+package com.cristianrgreco.ytdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+class StubBinaries {
+    private static final String VERSION_CHECK =
+            "case \"$1\" in --version|-version) echo \"stub version 1.0\"; exit 0;; esac\n";
+
+    static BinaryConfiguration createConfiguration(String youTubeDlScript) {
+        return createConfiguration(youTubeDlScript, "exit 0\n");
+    }
+
+    static BinaryConfiguration createConfiguration(String youTubeDlScript, String ffmpegScript) {
+        return createConfiguration(youTubeDlScript, ffmpegScript, "exit 0\n");
+    }
+
+    static BinaryConfiguration createConfiguration(String youTubeDlScript, String ffmpegScript, String ffprobeScript) {
+        return new BinaryConfiguration(
+                createScript("youtube-dl", youTubeDlScript),
+                createScript("ffmpeg", ffmpegScript),
+                createScript("ffprobe", ffprobeScript));
+    }
+
+    static File createScript(String name, String script) {
+        try {
+            File file = File.createTempFile(name, ".sh");
+            file.deleteOnExit();
+            Files.write(file.toPath(), ("#!/bin/sh\n" + VERSION_CHECK + script).getBytes(StandardCharsets.UTF_8));
+            if (!file.setExecutable(true)) {
+                throw new IllegalStateException("Unable to make stub executable: " + file);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String printing(String output) {
+        try {
+            File file = File.createTempFile("output", ".txt");
+            file.deleteOnExit();
+            Files.write(file.toPath(), output.getBytes(StandardCharsets.UTF_8));
+            return "cat '" + file.getAbsolutePath() + "'\n";
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static File createTempDirectory() {
+        try {
+            File directory = Files.createTempDirectory("ytdl").toFile();
+            directory.deleteOnExit();
+            return directory;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class VideoIdTest {
+    @Test
+    public void parsesIdFromWatchUrl() throws MalformedURLException {
+        assertThat("Id is correct", VideoId.from(new URL("https://www.youtube.com/watch?v=oHg5SJYRHA0")), is(Optional.of("oHg5SJYRHA0")));
+    }
+
+    @Test
+    public void parsesIdFromWatchUrlWithOtherParameters() throws MalformedURLException {
+        assertThat("Id is correct", VideoId.from(new URL("https://www.youtube.com/watch?gl=GB&hl=en-GB&v=oHg5SJYRHA0")), is(Optional.of("oHg5SJYRHA0")));
+    }
+
+    @Test
+    public void parsesIdFromPlaylistUrl() throws MalformedURLException {
+        assertThat("Id is correct", VideoId.from(new URL("https://www.youtube.com/watch?v=YANRGTqELow&list=RDYANRGTqELow")), is(Optional.of("YANRGTqELow")));
+    }
+
+    @Test
+    public void parsesIdFromShortUrl() throws MalformedURLException {
+        assertThat("Id is correct", VideoId.from(new URL("https://youtu.be/oHg5SJYRHA0?t=10")), is(Optional.of("oHg5SJYRHA0")));
+    }
+
+    @Test
+    public void parsesIdFromEmbedUrl() throws MalformedURLException {
+        assertThat("Id is correct", VideoId.from(new URL("https://www.youtube.com/embed/oHg5SJYRHA0")), is(Optional.of("oHg5SJYRHA0")));
+    }
+
+    @Test
+    public void doesNotParseIdFromOtherSites() throws MalformedURLException {
+        assertThat("Id is absent", VideoId.from(new URL("https://example.com/watch?v=oHg5SJYRHA0")), is(Optional.empty()));
+        assertThat("Id is absent", VideoId.from(new URL("https://vimeo.com/embed/76979871")), is(Optional.empty()));
+    }
+
+    @Test
+    public void rejectsIdsThatCannotNameAFile() {
+        assertThat("Id is valid", VideoId.isValid("oHg5SJYRHA0"), is(true));
+        assertThat("Id is invalid", VideoId.isValid("../oHg5SJYRHA0"), is(false));
+    }
+
+    @Test
+    public void doesNotParseIdFromUnrelatedUrl() throws MalformedURLException {
+        assertThat("Id is absent", VideoId.from(new URL("https://www.youtube.com/playlist?list=RDYANRGTqELow")), is(Optional.empty()));
+    }
+}
@@ -0,0 +1,77 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class VideoMetadataTest {
+    private static final String METADATA_JSON;
+
+    static {
+        try {
+            METADATA_JSON = new String(Files.readAllBytes(Paths.get(
+                    VideoMetadataTest.class.getResource("/metadata.json").toURI())), StandardCharsets.UTF_8);
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void parsesTopLevelFields() {
+        VideoMetadata metadata = VideoMetadata.parse(METADATA_JSON);
+
+        assertThat("Id is correct", metadata.getId(), is("oHg5SJYRHA0"));
+        assertThat("Title is correct", metadata.getTitle(), is("RickRoll'D"));
+        assertThat("Filename is correct", metadata.getFilename(), is("RickRoll'D.mp4"));
+        assertThat("Duration is correct", metadata.getDuration(), is(Optional.of(Duration.ofSeconds(212))));
+        assertThat("File size is correct", metadata.getFileSize(), is(Optional.of(9668118L)));
+    }
+
+    @Test
+    public void parsesFormats() {
+        VideoMetadata metadata = VideoMetadata.parse(METADATA_JSON);
+
+        assertThat("All formats are parsed", metadata.getFormats().size(), is(5));
+        VideoFormat audioOnly = metadata.getFormats().get(1);
+        assertThat("Format id is correct", audioOnly.getFormatId(), is("140"));
+        assertThat("Audio only format has no video", audioOnly.hasVideo(), is(false));
+        assertThat("Audio only format has audio", audioOnly.hasAudio(), is(true));
+        VideoFormat videoOnly = metadata.getFormats().get(3);
+        assertThat("Height is correct", videoOnly.getHeight(), is(Optional.of(480)));
+        assertThat("Approximate file size is used when exact size is missing", videoOnly.getFileSize(), is(Optional.of(25003120L)));
+        assertThat("Headers are parsed", audioOnly.getHttpHeaders().get("User-Agent"), is("Mozilla/5.0"));
+        assertThat("Plain HTTPS is fetched directly", audioOnly.isDirectHttp(), is(true));
+        assertThat("Protocol is parsed", videoOnly.getProtocol(), is(Optional.of("http_dash_segments")));
+        assertThat("A DASH manifest is not the media itself", videoOnly.isDirectHttp(), is(false));
+        assertThat("The URL scheme stands in for a missing protocol", metadata.getFormats().get(0).isDirectHttp(), is(true));
+    }
+
+    @Test
+    public void throwsExceptionIfAttemptToParseInvalidJson() {
+        this.expectedException.expect(IllegalArgumentException.class);
+
+        VideoMetadata.parse("{\"id\": \"oHg5SJYRHA0\",");
+    }
+
+    @Test
+    public void throwsExceptionIfTitleIsMissing() {
+        this.expectedException.expect(IllegalArgumentException.class);
+        this.expectedException.expectMessage(is("Unable to parse: metadata has no title"));
+
+        VideoMetadata.parse("{\"id\": \"oHg5SJYRHA0\", \"_filename\": \"RickRoll'D.mp4\"}");
+    }
+}
@@ -0,0 +1,160 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class WorkerPoolExecutionBackendTest {
+    private static final String VIDEO_URL = "https://www.youtube.com/watch?v=lWA2pjMjpBs";
+    private static final String FAILING_URL = "https://www.youtube.com/watch?v=failingvid";
+    private static final String CRASHING_URL = "https://www.youtube.com/watch?v=crashingvid";
+
+    private static final String WORKER_SCRIPT =
+            "while IFS= read -r request; do\n" +
+            "  id=$(echo \"$request\" | sed 's/^{\"id\":\\([0-9]*\\).*/\\1/')\n" +
+            "  case \"$request\" in\n" +
+            "    *crashingvid*) exit 3;;\n" +
+            "    *failingvid*)\n" +
+            "      echo '{\"id\":'$id',\"stream\":\"stderr\",\"line\":\"ERROR: This video is unavailable.\"}'\n" +
+            "      echo '{\"id\":'$id',\"exit\":1}'\n" +
+            "      continue;;\n" +
+            "    *dump-json*)\n" +
+            "      echo '{\"id\":'$id',\"stream\":\"stdout\",\"line\":\"{\\\"id\\\":\\\"lWA2pjMjpBs\\\",\\\"title\\\":\\\"Stub title\\\",\\\"_filename\\\":\\\"Stub title.mp4\\\"}\"}'\n" +
+            "      echo '{\"id\":'$id',\"exit\":0}'\n" +
+            "      continue;;\n" +
+            "  esac\n" +
+            "  echo '{\"id\":'$id',\"stream\":\"stdout\",\"line\":\"[youtube] lWA2pjMjpBs: Downloading webpage\"}'\n" +
+            "  echo '{\"id\":'$id',\"stream\":\"stdout\",\"line\":\"[download] 100.0% of 9.22MiB at  5.68MiB/s ETA 00:00\"}'\n" +
+            "  echo '{\"id\":'$id',\"exit\":0}'\n" +
+            "done\n";
+
+    private BinaryConfiguration binaryConfiguration;
+    private File destinationDirectory;
+    private File workerScript;
+    private List<WorkerPoolExecutionBackend> backends = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        this.binaryConfiguration = StubBinaries.createConfiguration("exit 0\n");
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.workerScript = StubBinaries.createScript("ytdl-worker", WORKER_SCRIPT);
+    }
+
+    @After
+    public void tearDown() {
+        this.backends.forEach(WorkerPoolExecutionBackend::close);
+    }
+
+    @Test
+    public void streamsStateAndProgressFromWorker() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(1, 10);
+        List<State> states = new CopyOnWriteArrayList<>();
+        List<DownloadProgress> progress = new CopyOnWriteArrayList<>();
+
+        this.createAdapter(VIDEO_URL, backend).downloadVideo(Optional.of(states::add), Optional.of(progress::add));
+
+        assertThat(states, is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+        assertThat(progress.size(), is(1));
+        assertThat(progress.get(0).getPercent(), is(100.0));
+    }
+
+    @Test
+    public void probesThroughWorker() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(1, 10);
+
+        assertThat(this.createAdapter(VIDEO_URL, backend).getTitle(), is("Stub title"));
+    }
+
+    @Test
+    public void reusesWarmWorker() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(1, 10);
+
+        for (int i = 0; i < 5; i++) {
+            this.createAdapter(VIDEO_URL, backend).downloadVideo(Optional.empty(), Optional.empty());
+        }
+
+        assertThat("Worker is started once", backend.getWorkersStarted(), is(1L));
+    }
+
+    @Test
+    public void recyclesWorkerAfterMaxJobs() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(1, 2);
+
+        for (int i = 0; i < 5; i++) {
+            this.createAdapter(VIDEO_URL, backend).downloadVideo(Optional.empty(), Optional.empty());
+        }
+
+        assertThat("A new worker is started every two jobs", backend.getWorkersStarted(), is(3L));
+    }
+
+    @Test
+    public void reportsErrorsFromWorkerAndKeepsIt() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(1, 10);
+
+        DownloadException exception = this.downloadExpectingFailure(FAILING_URL, backend);
+        this.createAdapter(VIDEO_URL, backend).downloadVideo(Optional.empty(), Optional.empty());
+
+        assertThat(exception.getMessage(), is("This video is unavailable."));
+        assertThat("Worker survives a failed job", backend.getWorkersStarted(), is(1L));
+    }
+
+    @Test
+    public void replacesCrashedWorker() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(1, 10);
+
+        DownloadException exception = this.downloadExpectingFailure(CRASHING_URL, backend);
+        this.createAdapter(VIDEO_URL, backend).downloadVideo(Optional.empty(), Optional.empty());
+
+        assertThat(exception.getMessage(), containsString("worker exited unexpectedly"));
+        assertThat("Crashed worker is replaced", backend.getWorkersStarted(), is(2L));
+    }
+
+    @Test
+    public void sharesBoundedPoolBetweenConcurrentJobs() throws Exception {
+        WorkerPoolExecutionBackend backend = this.createBackend(2, 100);
+        List<CompletableFuture<DownloadResult>> downloads = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            downloads.add(this.createAdapter(VIDEO_URL, backend).downloadVideoAsync(Optional.empty(), Optional.empty(), Runnable::run));
+        }
+        CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(backend.getWorkersStarted(), lessThanOrEqualTo(2L));
+    }
+
+    private DownloadException downloadExpectingFailure(String url, WorkerPoolExecutionBackend backend) throws Exception {
+        try {
+            this.createAdapter(url, backend).downloadVideo(Optional.empty(), Optional.empty());
+        } catch (DownloadException e) {
+            return e;
+        }
+        throw new AssertionError("Expected download of " + url + " to fail");
+    }
+
+    private WorkerPoolExecutionBackend createBackend(int maxWorkers, int maxJobsPerWorker) {
+        WorkerPoolExecutionBackend backend = new WorkerPoolExecutionBackend(
+                Arrays.asList("/bin/sh", this.workerScript.getAbsolutePath()), maxWorkers, maxJobsPerWorker);
+        this.backends.add(backend);
+        return backend;
+    }
+
+    private YouTubeDownloaderAdapter createAdapter(String url, WorkerPoolExecutionBackend backend) throws Exception {
+        return new YouTubeDownloaderAdapter(new URL(url), this.destinationDirectory, this.binaryConfiguration,
+                new DownloadOptions().withExecutionBackend(backend));
+    }
+}
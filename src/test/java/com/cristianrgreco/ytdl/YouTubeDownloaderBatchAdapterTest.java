@@ -0,0 +1,167 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class YouTubeDownloaderBatchAdapterTest {
+    // Simulates interpreter startup, then handles every URL from the arguments or from --batch-file -
+    private static final String BATCH_SCRIPT =
+            "sleep 0.2\n" +
+            "urls=\"\"\n" +
+            "batch=0\n" +
+            "for arg in \"$@\"; do case \"$arg\" in http*) urls=\"$urls $arg\";; --batch-file) batch=1;; esac; done\n" +
+            "if [ $batch = 1 ]; then urls=$(cat); fi\n" +
+            "for url in $urls; do\n" +
+            "  id=${url##*v=}\n" +
+            "  case $id in\n" +
+            "    missing*) echo \"ERROR: Incomplete YouTube ID $id. URL $url looks truncated.\" >&2; continue;;\n" +
+            "  esac\n" +
+            "  echo \"[youtube] $id: Downloading webpage\"\n" +
+            "  case $id in\n" +
+            "    unavailable*) echo \"ERROR: This video is unavailable.\" >&2; continue;;\n" +
+            "    crashed*) printf 'Traceback (most recent call last):\\n  File \"youtube_dl/YoutubeDL.py\"\\n" +
+            "KeyError: formats\\n' >&2; continue;;\n" +
+            "    warned*) echo \"WARNING: Requested formats are incompatible for merge\" >&2;;\n" +
+            "  esac\n" +
+            "  echo \"[download] Destination: $id.mp4\"\n" +
+            "  echo \"[download]  50.0% of 1.00MiB at  1.00MiB/s ETA 00:01\"\n" +
+            "  echo \"[download] 100.0% of 1.00MiB at  1.00MiB/s ETA 00:00\"\n" +
+            "done\n";
+    private static final int BENCHMARK_URL_COUNT = 10;
+
+    private File destinationDirectory;
+    private BinaryConfiguration binaryConfiguration;
+
+    @Before
+    public void setUp() {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.binaryConfiguration = StubBinaries.createConfiguration(BATCH_SCRIPT);
+    }
+
+    @Test
+    public void firesStateEventsPerItem() {
+        List<URL> urls = createUrls("first", "second");
+        Map<URL, List<State>> states = new ConcurrentHashMap<>();
+        YouTubeDownloaderBatchAdapter target = new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration);
+
+        target.downloadVideo(
+                Optional.of((url, state) -> states.computeIfAbsent(url, key -> new CopyOnWriteArrayList<>()).add(state)),
+                Optional.empty());
+
+        List<State> expected = Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE);
+        assertThat("First item states are correct", states.get(urls.get(0)), is(expected));
+        assertThat("Second item states are correct", states.get(urls.get(1)), is(expected));
+    }
+
+    @Test
+    public void firesProgressEventsPerItem() {
+        List<URL> urls = createUrls("first", "second");
+        Map<URL, Integer> progressCounts = new ConcurrentHashMap<>();
+        YouTubeDownloaderBatchAdapter target = new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration);
+
+        target.downloadVideo(Optional.empty(), Optional.of((url, progress) -> progressCounts.merge(url, 1, Integer::sum)));
+
+        assertThat("First item progress is reported", progressCounts.get(urls.get(0)), is(2));
+        assertThat("Second item progress is reported", progressCounts.get(urls.get(1)), is(2));
+    }
+
+    @Test
+    public void attributesErrorsToTheItemTheyMention() {
+        List<URL> urls = createUrls("first", "missingid", "third");
+        YouTubeDownloaderBatchAdapter target = new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration);
+
+        List<BatchItemResult> results = target.downloadVideo(Optional.empty(), Optional.empty());
+
+        assertThat("First item succeeds", results.get(0).isSuccessful(), is(true));
+        assertThat("Second item fails", results.get(1).isSuccessful(), is(false));
+        assertThat("Second item has its own error", results.get(1).getFailure().get().getMessage(),
+                is("Incomplete YouTube ID missingid. URL https://www.youtube.com/watch?v=missingid looks truncated."));
+        assertThat("Third item succeeds", results.get(2).isSuccessful(), is(true));
+    }
+
+    @Test
+    public void attributesAnonymousErrorsToTheCurrentItem() {
+        List<URL> urls = createUrls("first", "unavailable", "third");
+        YouTubeDownloaderBatchAdapter target = new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration);
+
+        List<BatchItemResult> results = target.downloadVideo(Optional.empty(), Optional.empty());
+
+        assertThat("First item succeeds", results.get(0).isSuccessful(), is(true));
+        assertThat("Second item fails", results.get(1).getFailure().get().getMessage(), is("This video is unavailable."));
+        assertThat("Third item succeeds", results.get(2).isSuccessful(), is(true));
+    }
+
+    @Test
+    public void attributesTracebacksToTheCurrentItem() {
+        List<URL> urls = createUrls("first", "crashed", "third");
+        YouTubeDownloaderBatchAdapter target = new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration);
+
+        List<BatchItemResult> results = target.downloadVideo(Optional.empty(), Optional.empty());
+
+        assertThat("First item succeeds", results.get(0).isSuccessful(), is(true));
+        assertThat("Second item fails", results.get(1).getFailure().get().getMessage(), is("KeyError: formats"));
+        assertThat("Third item succeeds", results.get(2).isSuccessful(), is(true));
+    }
+
+    @Test
+    public void keepsWarningsWithoutFailingTheItem() {
+        List<URL> urls = createUrls("warned", "second");
+        YouTubeDownloaderBatchAdapter target = new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration);
+
+        List<BatchItemResult> results = target.downloadVideo(Optional.empty(), Optional.empty());
+
+        assertThat("Warned item succeeds", results.get(0).isSuccessful(), is(true));
+        assertThat("Warning is kept", results.get(0).getWarnings().get(0).getMessage(), is("Requested formats are incompatible for merge"));
+        assertThat("Second item has no warnings", results.get(1).getWarnings().isEmpty(), is(true));
+    }
+
+    @Test
+    public void batchedSpawningIsFasterThanSpawningPerUrl() throws DownloadException {
+        List<URL> urls = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_URL_COUNT; i++) {
+            urls.addAll(createUrls("video" + i));
+        }
+
+        long perUrlStart = System.nanoTime();
+        for (URL url : urls) {
+            new YouTubeDownloaderAdapter(url, this.destinationDirectory, this.binaryConfiguration)
+                    .downloadVideo(Optional.empty(), Optional.empty());
+        }
+        long perUrlMillis = (System.nanoTime() - perUrlStart) / 1_000_000;
+
+        long batchedStart = System.nanoTime();
+        new YouTubeDownloaderBatchAdapter(urls, this.destinationDirectory, this.binaryConfiguration)
+                .downloadVideo(Optional.empty(), Optional.empty());
+        long batchedMillis = (System.nanoTime() - batchedStart) / 1_000_000;
+
+        assertThat("One process for the batch is at least three times faster than one per URL",
+                batchedMillis * 3, lessThan(perUrlMillis));
+    }
+
+    private static List<URL> createUrls(String... ids) {
+        List<URL> urls = new ArrayList<>();
+        try {
+            for (String id : ids) {
+                urls.add(new URL("https://www.youtube.com/watch?v=" + id));
+            }
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,99 @@
+package com.cristianrgreco.ytdl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class YouTubeDownloaderTest {
+    // Names the file after the video id and reports a size of <n> KiB for clip<n>, so every event can be traced to its call
+    private static final String DOWNLOAD_SCRIPT =
+            "for arg; do url=\"$arg\"; done\n" +
+            "id=\"${url##*v=}\"\n" +
+            "while [ $# -gt 0 ]; do case \"$1\" in -o) out=\"$2\"; shift;; esac; shift; done\n" +
+            "dir=\"$(dirname \"$out\")\"\n" +
+            "echo \"[youtube] $id: Downloading webpage\"\n" +
+            "echo \"[download] Destination: $dir/$id.mp4\"\n" +
+            "echo \"[download]  50.0% of ${id#clip}.00KiB at  1.00MiB/s ETA 00:01\"\n" +
+            "echo \"[download] 100.0% of ${id#clip}.00KiB at  1.00MiB/s ETA 00:00\"\n" +
+            "printf '%s' \"$id\" > \"$dir/$id.mp4\"\n";
+    private static final int REQUESTS = 200;
+    private static final int THREADS = 16;
+
+    private File destinationDirectory;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() {
+        this.destinationDirectory = StubBinaries.createTempDirectory();
+        this.callers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        this.callers.shutdownNow();
+    }
+
+    @Test
+    public void oneClientServesConcurrentRequestsWithoutSharingState() throws Exception {
+        YouTubeDownloader downloader = new YouTubeDownloader(StubBinaries.createConfiguration(DOWNLOAD_SCRIPT));
+
+        List<Future<CallRecord>> calls = new ArrayList<>();
+        for (int i = 1; i <= REQUESTS; i++) {
+            int clip = i;
+            calls.add(this.callers.submit(() -> this.download(downloader, clip)));
+        }
+
+        for (int i = 1; i <= REQUESTS; i++) {
+            CallRecord call = calls.get(i - 1).get();
+            assertThat("Each call sees its own state transitions", call.states,
+                    is(Arrays.asList(State.RESOLVING, State.DOWNLOADING, State.COMPLETE)));
+            assertThat("Each call sees its own progress", call.progressBytes,
+                    is(Arrays.asList(i * 1024L, i * 1024L)));
+            assertThat("Each call reports its own file", call.file.getFileName().toString(), is("clip" + i + ".mp4"));
+            assertThat("Each call downloaded its own file", call.file.toFile().isFile(), is(true));
+        }
+    }
+
+    @Test
+    public void repeatedRequestStartsFromAFreshState() throws Exception {
+        YouTubeDownloader downloader = new YouTubeDownloader(StubBinaries.createConfiguration(DOWNLOAD_SCRIPT));
+
+        CallRecord first = this.download(downloader, 1);
+        CallRecord second = this.download(downloader, 1);
+
+        assertThat(first.states.size(), is(3));
+        assertThat("States of an earlier call do not suppress those of a later one", second.states, is(first.states));
+    }
+
+    private CallRecord download(YouTubeDownloader downloader, int clip) throws Exception {
+        DownloadRequest request = new DownloadRequest(
+                new URL("https://www.youtube.com/watch?v=clip" + clip), this.destinationDirectory, DownloadMode.VIDEO);
+        CallRecord call = new CallRecord();
+        DownloadResult result = downloader.download(request,
+                Optional.of(call.states::add),
+                Optional.of(progress -> call.progressBytes.add(progress.getTotalBytes())));
+        call.file = result.getFile().get();
+        return call;
+    }
+
+    private static class CallRecord {
+        private final List<State> states = new CopyOnWriteArrayList<>();
+        private final List<Long> progressBytes = new CopyOnWriteArrayList<>();
+        private Path file;
+    }
+}